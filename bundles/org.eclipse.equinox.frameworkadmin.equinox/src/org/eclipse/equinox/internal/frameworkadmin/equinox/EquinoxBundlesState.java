@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2012 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -16,6 +16,7 @@ import java.net.URISyntaxException;
 import java.util.*;
 import org.eclipse.equinox.frameworkadmin.BundleInfo;
 import org.eclipse.equinox.internal.frameworkadmin.equinox.utils.FileUtils;
+import org.eclipse.equinox.internal.frameworkadmin.equinox.utils.ManifestCache;
 import org.eclipse.equinox.internal.frameworkadmin.utils.SimpleBundlesState;
 import org.eclipse.equinox.internal.frameworkadmin.utils.Utils;
 import org.eclipse.equinox.internal.provisional.frameworkadmin.*;
@@ -32,9 +33,22 @@ public class EquinoxBundlesState implements BundlesState {
 	// this internally to be x86_64.
 	private static final String INTERNAL_AMD64 = "amd64"; //$NON-NLS-1$
 	private static final String INTERNAL_ARCH_I386 = "i386"; //$NON-NLS-1$
+	private static final String MANIFEST_CACHE_FILE = "manifests.cache"; //$NON-NLS-1$
 	@SuppressWarnings("deprecation")
 	public static final String[] PROPS = {"osgi.os", "osgi.ws", "osgi.nl", "osgi.arch", Constants.FRAMEWORK_SYSTEMPACKAGES, "osgi.resolverMode", Constants.FRAMEWORK_EXECUTIONENVIRONMENT, "osgi.resolveOptional", "osgi.genericAliases"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
 
+	private static ManifestCache manifestCache;
+
+	/*
+	 * Returns the manifest cache shared by all the bundles states, which is saved in the
+	 * data area of this bundle.
+	 */
+	private static synchronized ManifestCache getManifestCache(BundleContext context) {
+		if (manifestCache == null)
+			manifestCache = new ManifestCache(context == null ? null : context.getDataFile(MANIFEST_CACHE_FILE));
+		return manifestCache;
+	}
+
 	static boolean checkFullySupported() {
 		//TODO - This was previously doing a bogus check by attempting to instantiate a particular class - it's not clear what this is trying to do
 		return true;
@@ -146,11 +160,13 @@ public class EquinoxBundlesState implements BundlesState {
 		if (bundleInfo == null || bundleInfo.getLocation() == null)
 			return null;
 		URI bundleLocation = bundleInfo.getLocation();
+		// only read the manifests of the bundles that may be the framework
+		if (bundleLocation.getPath() == null || bundleLocation.getPath().indexOf(EquinoxConstants.FW_SYMBOLIC_NAME) <= 0)
+			return null;
 		try {
 			String[] clauses = Utils.getClausesManifestMainAttributes(bundleLocation, Constants.BUNDLE_SYMBOLICNAME);
-			if (bundleLocation.getPath().indexOf(EquinoxConstants.FW_SYMBOLIC_NAME) > 0)
-				if (EquinoxConstants.PERSISTENT_DIR_NAME.equals(Utils.getPathFromClause(clauses[0])))
-					return new File(bundleLocation);
+			if (EquinoxConstants.PERSISTENT_DIR_NAME.equals(Utils.getPathFromClause(clauses[0])))
+				return new File(bundleLocation);
 		} catch (RuntimeException e) {
 			e.printStackTrace();
 		}
@@ -369,6 +385,7 @@ public class EquinoxBundlesState implements BundlesState {
 				Log.log(LogService.LOG_ERROR, this, "composeExpectedState()", "BundleInfo:" + bInfos[j], e); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 		}
+		getManifestCache(context).save();
 		return true;
 	}
 
@@ -552,7 +569,7 @@ public class EquinoxBundlesState implements BundlesState {
 		if (getBundleByLocation(realLocation) != null)
 			return;
 
-		Dictionary<String, String> manifest = Utils.getOSGiManifest(realLocation);
+		Dictionary<String, String> manifest = getManifestCache(context).getManifest(realLocation);
 		if (manifest == null)
 			return;
 
@@ -685,7 +702,7 @@ public class EquinoxBundlesState implements BundlesState {
 
 		if (id != DEFAULT_TIMESTAMP) {
 			try {
-				Dictionary<String, String> manifest = Utils.getOSGiManifest(bInfo.getLocation());
+				Dictionary<String, String> manifest = getManifestCache(context).getManifest(bInfo.getLocation());
 				if (manifest == null) {
 					Log.log(LogService.LOG_WARNING, this, "uninstallBundle(BundleInfo)", NLS.bind(Messages.exception_bundleManifest, bInfo.getLocation())); //$NON-NLS-1$
 					return;
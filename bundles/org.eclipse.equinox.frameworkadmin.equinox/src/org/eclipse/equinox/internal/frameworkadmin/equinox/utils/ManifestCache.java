@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.frameworkadmin.equinox.utils;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import java.util.jar.JarFile;
+import org.eclipse.core.runtime.URIUtil;
+import org.eclipse.equinox.internal.frameworkadmin.utils.Utils;
+
+/**
+ * A cache of the OSGi manifests of the bundles on the local file system. A manifest is
+ * read again only when the last modified time or the length of its bundle changed, so
+ * that a bundles state composed for a configuration only reads the manifests of the
+ * bundles added or changed since it was last composed. The cache can be saved to a file
+ * to be reused in later sessions.
+ */
+public class ManifestCache {
+	private static final int MAGIC = 0x5032424D; // "P2BM"
+	private static final int FORMAT_VERSION = 1;
+	private static final int MAX_STRING_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * The headers of one manifest and the time stamp they were read at.
+	 */
+	private static final class Entry {
+		final long lastModified;
+		final long length;
+		final Map<String, String> headers;
+		boolean used;
+
+		Entry(long lastModified, long length, Map<String, String> headers) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.headers = headers;
+		}
+	}
+
+	private final File file;
+	private Map<String, Entry> entries;
+	private boolean dirty;
+
+	/**
+	 * Creates a cache that is saved to the given file, or only kept in memory if the file
+	 * is <code>null</code>.
+	 */
+	public ManifestCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the OSGi manifest of the bundle at the given location, like
+	 * {@link Utils#getOSGiManifest(URI)}. The returned dictionary may be modified.
+	 */
+	public synchronized Dictionary<String, String> getManifest(URI location) {
+		File stampFile = getStampFile(location);
+		long lastModified = stampFile == null ? 0 : stampFile.lastModified();
+		if (lastModified == 0)
+			return Utils.getOSGiManifest(location);
+		long length = stampFile.length();
+		String key = location.toString();
+		Entry entry = getEntries().get(key);
+		if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+			entry.used = true;
+			return new Hashtable<String, String>(entry.headers);
+		}
+		Dictionary<String, String> manifest = Utils.getOSGiManifest(location);
+		if (manifest == null) {
+			if (entries.remove(key) != null)
+				dirty = true;
+			return null;
+		}
+		Map<String, String> headers = new HashMap<String, String>(manifest.size());
+		for (Enumeration<String> keys = manifest.keys(); keys.hasMoreElements();) {
+			String header = keys.nextElement();
+			headers.put(header, manifest.get(header));
+		}
+		entry = new Entry(lastModified, length, headers);
+		entry.used = true;
+		entries.put(key, entry);
+		dirty = true;
+		return manifest;
+	}
+
+	/*
+	 * Returns the file whose time stamp tells whether the manifest of the given bundle changed,
+	 * or null if the manifest is not cached.
+	 */
+	private static File getStampFile(URI location) {
+		if (location == null || !"file".equals(location.getScheme())) //$NON-NLS-1$
+			return null;
+		File bundle = URIUtil.toFile(location);
+		if (bundle == null || !bundle.isDirectory())
+			return bundle;
+		// bundles without a manifest file are converted from their plugin.xml each time
+		File manifest = new File(bundle, JarFile.MANIFEST_NAME);
+		return manifest.isFile() ? manifest : null;
+	}
+
+	private Map<String, Entry> getEntries() {
+		if (entries == null) {
+			entries = new HashMap<String, Entry>();
+			load();
+		}
+		return entries;
+	}
+
+	private void load() {
+		if (file == null || !file.isFile())
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+					return;
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String location = readString(in);
+					long lastModified = in.readLong();
+					long length = in.readLong();
+					int headerCount = in.readInt();
+					Map<String, String> headers = new HashMap<String, String>(headerCount);
+					for (int j = 0; j < headerCount; j++)
+						headers.put(readString(in), readString(in));
+					entries.put(location, new Entry(lastModified, length, headers));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// the manifests are read again
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Saves the cache to its file if it changed. Manifests that were not used since the
+	 * cache was loaded are dropped when their bundle no longer exists.
+	 */
+	public synchronized void save() {
+		if (file == null || !dirty)
+			return;
+		for (Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<String, Entry> entry = iter.next();
+			if (!entry.getValue().used) {
+				File stampFile = getStampFile(URI.create(entry.getKey()));
+				if (stampFile == null || !stampFile.exists())
+					iter.remove();
+			}
+		}
+		File tempFile = null;
+		try {
+			file.getParentFile().mkdirs();
+			tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile()); //$NON-NLS-1$
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					writeString(out, entry.getKey());
+					out.writeLong(entry.getValue().lastModified);
+					out.writeLong(entry.getValue().length);
+					Map<String, String> headers = entry.getValue().headers;
+					out.writeInt(headers.size());
+					for (Map.Entry<String, String> header : headers.entrySet()) {
+						writeString(out, header.getKey());
+						writeString(out, header.getValue());
+					}
+				}
+			} finally {
+				out.close();
+			}
+			file.delete();
+			if (!tempFile.renameTo(file))
+				throw new IOException("Could not rename " + tempFile); //$NON-NLS-1$
+			dirty = false;
+		} catch (IOException e) {
+			// the cache is written again when it next changes
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+
+	/*
+	 * Headers such as Export-Package can be longer than writeUTF allows.
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8"); //$NON-NLS-1$
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > MAX_STRING_LENGTH)
+			throw new IOException("Corrupt manifest cache"); //$NON-NLS-1$
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8"); //$NON-NLS-1$
+	}
+}
@@ -27,6 +27,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(FrameworkExtensionTest.class);
 		suite.addTestSuite(LauncherConfigLocationTest.class);
 		suite.addTestSuite(LauncherDataTest.class);
+		suite.addTestSuite(ManifestCacheTest.class);
 		suite.addTestSuite(ManipulatorTests.class);
 		suite.addTestSuite(NoConfigurationValueInEclipseIni.class);
 		suite.addTestSuite(NoRenamingLauncherIni.class);
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.frameworkadmin.tests;
+
+import java.io.*;
+import java.util.Dictionary;
+import java.util.jar.*;
+import org.eclipse.equinox.internal.frameworkadmin.equinox.utils.ManifestCache;
+
+public class ManifestCacheTest extends AbstractFwkAdminTest {
+
+	private File folder;
+	private File cacheFile;
+
+	public ManifestCacheTest(String name) {
+		super(name);
+	}
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = getTestFolder("manifestCache");
+		cacheFile = new File(folder, "manifests.cache");
+	}
+
+	private void writeJarBundle(File jar, String symbolicName, String version) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Bundle-ManifestVersion", "2");
+		manifest.getMainAttributes().putValue("Bundle-SymbolicName", symbolicName);
+		manifest.getMainAttributes().putValue("Bundle-Version", version);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+		out.close();
+	}
+
+	public void testCachedAcrossSessions() throws IOException {
+		File jar = new File(folder, "a_1.0.0.jar");
+		writeJarBundle(jar, "a", "1.0.0");
+		ManifestCache cache = new ManifestCache(cacheFile);
+		Dictionary<String, String> manifest = cache.getManifest(jar.toURI());
+		assertEquals("a", manifest.get("Bundle-SymbolicName"));
+		cache.save();
+		assertTrue(cacheFile.isFile());
+
+		// same length and time stamp, so the cached headers are returned without reading the jar
+		long lastModified = jar.lastModified();
+		writeJarBundle(jar, "b", "1.0.0");
+		jar.setLastModified(lastModified);
+		manifest = new ManifestCache(cacheFile).getManifest(jar.toURI());
+		assertEquals("a", manifest.get("Bundle-SymbolicName"));
+		assertEquals("1.0.0", manifest.get("Bundle-Version"));
+	}
+
+	public void testChangedBundle() throws IOException {
+		File jar = new File(folder, "a_1.0.0.jar");
+		writeJarBundle(jar, "a", "1.0.0");
+		ManifestCache cache = new ManifestCache(cacheFile);
+		assertEquals("1.0.0", cache.getManifest(jar.toURI()).get("Bundle-Version"));
+		cache.save();
+
+		writeJarBundle(jar, "a", "1.0.0.qualifier");
+		jar.setLastModified(jar.lastModified() + 10000);
+		assertEquals("1.0.0.qualifier", new ManifestCache(cacheFile).getManifest(jar.toURI()).get("Bundle-Version"));
+	}
+
+	public void testDirectoryBundle() throws IOException {
+		File bundle = new File(folder, "c_1.0.0");
+		File manifestFile = new File(bundle, JarFile.MANIFEST_NAME);
+		manifestFile.getParentFile().mkdirs();
+		Writer writer = new FileWriter(manifestFile);
+		writer.write("Manifest-Version: 1.0\nBundle-ManifestVersion: 2\nBundle-SymbolicName: c\nBundle-Version: 1.0.0\n");
+		writer.close();
+		ManifestCache cache = new ManifestCache(cacheFile);
+		assertEquals("c", cache.getManifest(bundle.toURI()).get("Bundle-SymbolicName"));
+		cache.save();
+		assertEquals("c", new ManifestCache(cacheFile).getManifest(bundle.toURI()).get("Bundle-SymbolicName"));
+	}
+
+	public void testReturnedManifestIsCopy() throws IOException {
+		File jar = new File(folder, "a_1.0.0.jar");
+		writeJarBundle(jar, "a", "1.0.0");
+		ManifestCache cache = new ManifestCache(null);
+		cache.getManifest(jar.toURI()).put("Bundle-Version", "2.0.0");
+		assertEquals("1.0.0", cache.getManifest(jar.toURI()).get("Bundle-Version"));
+		cache.getManifest(jar.toURI()).remove("Bundle-Version");
+		assertEquals("1.0.0", cache.getManifest(jar.toURI()).get("Bundle-Version"));
+	}
+
+	public void testCorruptCache() throws IOException {
+		File jar = new File(folder, "a_1.0.0.jar");
+		writeJarBundle(jar, "a", "1.0.0");
+		OutputStream out = new FileOutputStream(cacheFile);
+		out.write(new byte[] {0x50, 0x32, 0x42, 0x4D, 0, 0, 0, 1, 0, 0, 0, 5, 0x7f});
+		out.close();
+		assertEquals("a", new ManifestCache(cacheFile).getManifest(jar.toURI()).get("Bundle-SymbolicName"));
+	}
+
+	public void testMissingBundle() {
+		File jar = new File(folder, "missing_1.0.0.jar");
+		assertNull(new ManifestCache(cacheFile).getManifest(jar.toURI()));
+	}
+}
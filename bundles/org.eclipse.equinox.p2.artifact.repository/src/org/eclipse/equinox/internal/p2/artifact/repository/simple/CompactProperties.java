@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.util.*;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+
+/**
+ * An ordered map of the properties of an artifact descriptor. The keys are kept in a
+ * layout that is shared by all maps holding the same keys in the same order, so each
+ * map only stores its values. Sizes are stored as primitive values.
+ */
+class CompactProperties extends AbstractMap<String, String> {
+	private static final String[] NUMERIC_KEYS = {IArtifactDescriptor.DOWNLOAD_SIZE, IArtifactDescriptor.ARTIFACT_SIZE};
+	// the maximum number of layouts that are shared
+	private static final int MAX_SHARED_LAYOUTS = 4096;
+	// marks a value that is stored in the numbers array
+	private static final String NUMBER = new String();
+	private static final String[] NO_VALUES = new String[0];
+	private static final long[] NO_NUMBERS = new long[0];
+	private static final Layout EMPTY = new Layout(new String[0], new int[0], 0);
+	private static int sharedLayouts;
+
+	/**
+	 * The keys of a map, in order. For each key that holds a size, the index of
+	 * the size in the numbers array of the map.
+	 */
+	private static final class Layout {
+		final String[] keys;
+		final int[] numberSlots;
+		final int numberCount;
+		private Map<String, Layout> transitions;
+
+		Layout(String[] keys, int[] numberSlots, int numberCount) {
+			this.keys = keys;
+			this.numberSlots = numberSlots;
+			this.numberCount = numberCount;
+		}
+
+		int indexOf(Object key) {
+			for (int i = 0; i < keys.length; i++)
+				if (keys[i] == key)
+					return i;
+			for (int i = 0; i < keys.length; i++)
+				if (keys[i].equals(key))
+					return i;
+			return -1;
+		}
+
+		/**
+		 * Returns the layout holding the keys of this layout followed by the given key.
+		 */
+		Layout with(String key) {
+			synchronized (EMPTY) {
+				Layout next = transitions == null ? null : transitions.get(key);
+				if (next != null)
+					return next;
+				String[] nextKeys = new String[keys.length + 1];
+				System.arraycopy(keys, 0, nextKeys, 0, keys.length);
+				nextKeys[keys.length] = key;
+				int[] nextSlots = new int[keys.length + 1];
+				System.arraycopy(numberSlots, 0, nextSlots, 0, keys.length);
+				int nextCount = numberCount;
+				nextSlots[keys.length] = isNumeric(key) ? nextCount++ : -1;
+				next = new Layout(nextKeys, nextSlots, nextCount);
+				if (sharedLayouts < MAX_SHARED_LAYOUTS) {
+					if (transitions == null)
+						transitions = new HashMap<String, Layout>(4);
+					transitions.put(key, next);
+					sharedLayouts++;
+				}
+				return next;
+			}
+		}
+
+		private static boolean isNumeric(String key) {
+			for (int i = 0; i < NUMERIC_KEYS.length; i++)
+				if (NUMERIC_KEYS[i].equals(key))
+					return true;
+			return false;
+		}
+	}
+
+	private Layout layout = EMPTY;
+	private String[] values = NO_VALUES;
+	private long[] numbers = NO_NUMBERS;
+
+	public CompactProperties() {
+		super();
+	}
+
+	public CompactProperties(Map<String, String> properties) {
+		super();
+		putAll(properties);
+	}
+
+	public int size() {
+		return layout.keys.length;
+	}
+
+	public boolean containsKey(Object key) {
+		return layout.indexOf(key) >= 0;
+	}
+
+	public String get(Object key) {
+		int index = layout.indexOf(key);
+		return index < 0 ? null : valueAt(index);
+	}
+
+	public String put(String key, String value) {
+		if (key == null)
+			throw new NullPointerException();
+		int index = layout.indexOf(key);
+		if (index >= 0) {
+			String oldValue = valueAt(index);
+			setValue(index, value);
+			return oldValue;
+		}
+		layout = layout.with(key);
+		index = layout.keys.length - 1;
+		String[] newValues = new String[layout.keys.length];
+		System.arraycopy(values, 0, newValues, 0, values.length);
+		values = newValues;
+		if (layout.numberCount != numbers.length) {
+			long[] newNumbers = new long[layout.numberCount];
+			System.arraycopy(numbers, 0, newNumbers, 0, numbers.length);
+			numbers = newNumbers;
+		}
+		setValue(index, value);
+		return null;
+	}
+
+	public String remove(Object key) {
+		int index = layout.indexOf(key);
+		if (index < 0)
+			return null;
+		String oldValue = valueAt(index);
+		removeAt(index);
+		return oldValue;
+	}
+
+	public void clear() {
+		layout = EMPTY;
+		values = NO_VALUES;
+		numbers = NO_NUMBERS;
+	}
+
+	public Set<Map.Entry<String, String>> entrySet() {
+		return new AbstractSet<Map.Entry<String, String>>() {
+			public Iterator<Map.Entry<String, String>> iterator() {
+				return new Iterator<Map.Entry<String, String>>() {
+					private int next = 0;
+					private int last = -1;
+
+					public boolean hasNext() {
+						return next < layout.keys.length;
+					}
+
+					public Map.Entry<String, String> next() {
+						if (next >= layout.keys.length)
+							throw new NoSuchElementException();
+						last = next++;
+						return new Entry(layout.keys[last], valueAt(last));
+					}
+
+					public void remove() {
+						if (last < 0)
+							throw new IllegalStateException();
+						removeAt(last);
+						next = last;
+						last = -1;
+					}
+				};
+			}
+
+			public int size() {
+				return layout.keys.length;
+			}
+		};
+	}
+
+	String valueAt(int index) {
+		String value = values[index];
+		return value == NUMBER ? Long.toString(numbers[layout.numberSlots[index]]) : value;
+	}
+
+	private void setValue(int index, String value) {
+		int slot = layout.numberSlots[index];
+		if (slot >= 0 && isNumber(value)) {
+			numbers[slot] = Long.parseLong(value);
+			values[index] = NUMBER;
+		} else {
+			values[index] = value;
+		}
+	}
+
+	private void removeAt(int index) {
+		String[] keys = layout.keys;
+		String[] remaining = new String[keys.length - 1];
+		int count = 0;
+		for (int i = 0; i < keys.length; i++)
+			if (i != index)
+				remaining[count++] = valueAt(i);
+		clear();
+		count = 0;
+		for (int i = 0; i < keys.length; i++)
+			if (i != index)
+				put(keys[i], remaining[count++]);
+	}
+
+	/**
+	 * Returns whether the value is the canonical form of a non-negative long.
+	 */
+	private static boolean isNumber(String value) {
+		if (value == null)
+			return false;
+		int length = value.length();
+		if (length == 0 || length > 18 || (length > 1 && value.charAt(0) == '0'))
+			return false;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9')
+				return false;
+		}
+		return true;
+	}
+
+	private final class Entry implements Map.Entry<String, String> {
+		private final String key;
+		private String value;
+
+		Entry(String key, String value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public String setValue(String newValue) {
+			String oldValue = value;
+			put(key, newValue);
+			value = newValue;
+			return oldValue;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Map.Entry<?, ?>))
+				return false;
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+			return key.equals(other.getKey()) && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+		}
+
+		public int hashCode() {
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		public String toString() {
+			return key + '=' + value;
+		}
+	}
+}
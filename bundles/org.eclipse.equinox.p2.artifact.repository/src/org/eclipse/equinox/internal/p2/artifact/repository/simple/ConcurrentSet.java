@@ -0,0 +1,51 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set backed by a {@link ConcurrentHashMap}. Lookups do not lock and iterators
+ * never throw {@link java.util.ConcurrentModificationException}.
+ */
+class ConcurrentSet<E> extends AbstractSet<E> {
+	private final ConcurrentHashMap<E, Boolean> map = new ConcurrentHashMap<E, Boolean>();
+
+	public boolean add(E e) {
+		return map.put(e, Boolean.TRUE) == null;
+	}
+
+	public void clear() {
+		map.clear();
+	}
+
+	public boolean contains(Object o) {
+		return map.containsKey(o);
+	}
+
+	public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	public Iterator<E> iterator() {
+		return map.keySet().iterator();
+	}
+
+	public boolean remove(Object o) {
+		return map.remove(o) != null;
+	}
+
+	public int size() {
+		return map.size();
+	}
+}
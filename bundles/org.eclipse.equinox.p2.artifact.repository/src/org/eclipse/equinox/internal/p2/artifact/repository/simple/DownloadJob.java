@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 Genuitec, LLC and others. All rights reserved. This
+ * Copyright (c) 2008, 2013 Genuitec, LLC and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -12,6 +12,7 @@ package org.eclipse.equinox.internal.p2.artifact.repository.simple;
 import java.util.LinkedList;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
 
 public class DownloadJob extends Job {
@@ -21,6 +22,8 @@ public class DownloadJob extends Job {
 	private SimpleArtifactRepository repository;
 	private IProgressMonitor masterMonitor;
 	private MultiStatus overallStatus;
+	private ProvisioningMetrics metrics;
+	private ProvisioningMetrics.Operation operation;
 
 	DownloadJob(String name) {
 		super(name);
@@ -32,6 +35,9 @@ public class DownloadJob extends Job {
 		this.requestsPending = requestsPending;
 		this.masterMonitor = masterMonitor;
 		this.overallStatus = overallStatus;
+		// the downloads are part of the operation which requested them
+		this.metrics = ProvisioningMetrics.getMetrics(repository.getProvisioningAgent());
+		this.operation = metrics.getCurrentOperation();
 	}
 
 	/* (non-Javadoc)
@@ -45,6 +51,15 @@ public class DownloadJob extends Job {
 	 * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
 	 */
 	protected IStatus run(IProgressMonitor jobMonitor) {
+		ProvisioningMetrics.Operation previous = metrics.setCurrentOperation(operation);
+		try {
+			return doRun(jobMonitor);
+		} finally {
+			metrics.setCurrentOperation(previous);
+		}
+	}
+
+	private IStatus doRun(IProgressMonitor jobMonitor) {
 		jobMonitor.beginTask("Downloading software", IProgressMonitor.UNKNOWN);
 		do {
 			// get the request we are going to process
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,24 +13,144 @@ package org.eclipse.equinox.internal.p2.artifact.repository.simple;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Dictionary;
-import java.util.Hashtable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.core.runtime.URIUtil;
 import org.osgi.framework.*;
 
+/**
+ * Maps artifacts to locations using a list of mapping rules. The rules are compiled
+ * when the mapper is initialized: filters that only test the classifier and format
+ * are matched without going through the LDAP filter, the candidate rules for each
+ * classifier are looked up in a table, and output templates are split into literal
+ * and variable segments. Resolved locations are remembered.
+ */
 public class Mapper {
 	private Filter[] filters;
 	private String[] outputStrings;
 
+	// compiled rules
+	private Rule[] rules;
+	private Map<String, Rule[]> rulesByClassifier;
+	private Rule[] anyClassifierRules;
+
+	// the last repository location used, with the locations resolved against it
+	private volatile RepositoryLocation lastLocation;
+	private static final int MAX_RESOLVED = 100000;
+
 	private static final String REPOURL = "repoUrl"; //$NON-NLS-1$
 	private static final String CLASSIFIER = "classifier"; //$NON-NLS-1$
 	private static final String FORMAT = "format"; //$NON-NLS-1$
 	private static final String ID = "id"; //$NON-NLS-1$
 	private static final String VERSION = "version"; //$NON-NLS-1$
 
+	// variable codes used in compiled templates
+	private static final int VAR_REPOURL = 0;
+	private static final int VAR_CLASSIFIER = 1;
+	private static final int VAR_ID = 2;
+	private static final int VAR_VERSION = 3;
+	private static final int VAR_FORMAT = 4;
+
+	private static final class Rule {
+		final Filter filter;
+		final boolean simple; // true if the filter only tests classifier and format for equality
+		final String classifier; // the classifier required by a simple rule, or null
+		final String format; // the format required by a simple rule, or null
+		final String pattern;
+		final String[] literals; // literals[i] is followed by variable variables[i]
+		final int[] variables;
+
+		Rule(Filter filter, String pattern) {
+			this.filter = filter;
+			this.pattern = pattern;
+			String[] required = parseSimpleFilter(filter.toString());
+			this.simple = required != null;
+			this.classifier = simple ? required[0] : null;
+			this.format = simple ? required[1] : null;
+
+			List<String> literalList = new ArrayList<String>();
+			List<Integer> variableList = new ArrayList<Integer>();
+			int index = 0;
+			while (true) {
+				int beginning = pattern.indexOf("${", index); //$NON-NLS-1$
+				int end = beginning == -1 ? -1 : pattern.indexOf('}', beginning);
+				if (end == -1) {
+					if (beginning != -1) {
+						// an unterminated variable leaves the whole pattern unchanged
+						literalList.clear();
+						variableList.clear();
+						index = 0;
+					}
+					literalList.add(pattern.substring(index));
+					variableList.add(new Integer(-1));
+					break;
+				}
+				literalList.add(pattern.substring(index, beginning));
+				variableList.add(new Integer(getVariable(pattern.substring(beginning + 2, end))));
+				index = end + 1;
+			}
+			this.literals = literalList.toArray(new String[literalList.size()]);
+			this.variables = new int[variableList.size()];
+			for (int i = 0; i < variables.length; i++)
+				variables[i] = variableList.get(i).intValue();
+		}
+
+		boolean matches(String artifactClassifier, String artifactFormat) {
+			if (classifier != null && !classifier.equals(artifactClassifier))
+				return false;
+			return format == null || format.equals(artifactFormat);
+		}
+	}
+
+	private static final class RepositoryLocation {
+		final URI location;
+		final String unencoded;
+		final Map<MappingKey, URI> resolved = new ConcurrentHashMap<MappingKey, URI>();
+
+		RepositoryLocation(URI location) {
+			this.location = location;
+			this.unencoded = URIUtil.toUnencodedString(location);
+		}
+	}
+
+	private static final class MappingKey {
+		final String classifier;
+		final String id;
+		final String version;
+		final String format;
+		private final int hash;
+
+		MappingKey(String classifier, String id, String version, String format) {
+			this.classifier = classifier;
+			this.id = id;
+			this.version = version;
+			this.format = format;
+			int h = classifier == null ? 0 : classifier.hashCode();
+			h = 31 * h + (id == null ? 0 : id.hashCode());
+			h = 31 * h + (version == null ? 0 : version.hashCode());
+			this.hash = 31 * h + (format == null ? 0 : format.hashCode());
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof MappingKey))
+				return false;
+			MappingKey other = (MappingKey) obj;
+			return hash == other.hash && equal(classifier, other.classifier) && equal(id, other.id) && equal(version, other.version) && equal(format, other.format);
+		}
+
+		private static boolean equal(String s1, String s2) {
+			return s1 == null ? s2 == null : s1.equals(s2);
+		}
+	}
+
 	public Mapper() {
 		filters = new Filter[0];
 		outputStrings = new String[0];
+		compile();
 	}
 
 	/**
@@ -49,10 +169,133 @@ public class Mapper {
 				e.printStackTrace();
 			}
 		}
+		compile();
+	}
+
+	private void compile() {
+		List<Rule> compiled = new ArrayList<Rule>(filters.length);
+		for (int i = 0; i < filters.length; i++)
+			if (filters[i] != null)
+				compiled.add(new Rule(filters[i], outputStrings[i]));
+		rules = compiled.toArray(new Rule[compiled.size()]);
+
+		// the candidate rules for a classifier are the rules requiring that classifier or any classifier, in order
+		Set<String> classifiers = new HashSet<String>();
+		List<Rule> anyClassifier = new ArrayList<Rule>();
+		for (int i = 0; i < rules.length; i++) {
+			if (rules[i].classifier != null)
+				classifiers.add(rules[i].classifier);
+			else
+				anyClassifier.add(rules[i]);
+		}
+		anyClassifierRules = anyClassifier.toArray(new Rule[anyClassifier.size()]);
+		rulesByClassifier = new HashMap<String, Rule[]>();
+		for (String classifier : classifiers) {
+			List<Rule> candidates = new ArrayList<Rule>();
+			for (int i = 0; i < rules.length; i++)
+				if (rules[i].classifier == null || rules[i].classifier.equals(classifier))
+					candidates.add(rules[i]);
+			rulesByClassifier.put(classifier, candidates.toArray(new Rule[candidates.size()]));
+		}
+		lastLocation = null;
+	}
+
+	/*
+	 * Returns the classifier and format an equality-only filter requires (either may be null),
+	 * or null if the filter tests anything else.
+	 */
+	static String[] parseSimpleFilter(String filter) {
+		String[] result = new String[2];
+		String terms;
+		if (filter.startsWith("(&") && filter.endsWith(")")) //$NON-NLS-1$ //$NON-NLS-2$
+			terms = filter.substring(2, filter.length() - 1);
+		else
+			terms = filter;
+		int index = 0;
+		while (index < terms.length()) {
+			if (terms.charAt(index) != '(')
+				return null;
+			int end = terms.indexOf(')', index);
+			if (end == -1)
+				return null;
+			String term = terms.substring(index + 1, end);
+			int equals = term.indexOf('=');
+			if (equals <= 0 || term.indexOf('*') != -1 || term.indexOf('\\') != -1 || term.indexOf('(') != -1)
+				return null;
+			String name = term.substring(0, equals);
+			String value = term.substring(equals + 1);
+			int slot;
+			if (name.equalsIgnoreCase(CLASSIFIER))
+				slot = 0;
+			else if (name.equalsIgnoreCase(FORMAT))
+				slot = 1;
+			else
+				return null;
+			if (result[slot] != null)
+				return null;
+			result[slot] = value;
+			index = end + 1;
+		}
+		return result;
+	}
+
+	private static int getVariable(String name) {
+		if (name.equalsIgnoreCase(CLASSIFIER))
+			return VAR_CLASSIFIER;
+		if (name.equalsIgnoreCase(ID))
+			return VAR_ID;
+		if (name.equalsIgnoreCase(VERSION))
+			return VAR_VERSION;
+		if (name.equalsIgnoreCase(REPOURL))
+			return VAR_REPOURL;
+		if (name.equalsIgnoreCase(FORMAT))
+			return VAR_FORMAT;
+		return -2; // unknown variables are replaced by the empty string
 	}
 
 	public URI map(URI repositoryLocation, String classifier, String id, String version, String format) {
-		String locationString = URIUtil.toUnencodedString(repositoryLocation);
+		RepositoryLocation location = lastLocation;
+		if (location == null || !equal(location.location, repositoryLocation)) {
+			location = new RepositoryLocation(repositoryLocation);
+			lastLocation = location;
+		}
+		MappingKey key = new MappingKey(classifier, id, version, format);
+		URI result = location.resolved.get(key);
+		if (result != null)
+			return result;
+
+		Rule[] candidates = classifier == null ? null : rulesByClassifier.get(classifier);
+		if (candidates == null)
+			candidates = classifier == null ? rules : anyClassifierRules;
+		Dictionary<String, Object> values = null;
+		for (int i = 0; i < candidates.length; i++) {
+			Rule rule = candidates[i];
+			boolean matches;
+			if (rule.simple) {
+				matches = rule.matches(classifier, format);
+			} else {
+				if (values == null)
+					values = createValues(location.unencoded, repositoryLocation, classifier, id, version, format);
+				matches = rule.filter.match(values);
+			}
+			if (matches) {
+				result = doReplacement(rule, location.unencoded, classifier, id, version, format);
+				if (result != null) {
+					if (location.resolved.size() >= MAX_RESOLVED)
+						location.resolved.clear();
+					location.resolved.put(key, result);
+				}
+				return result;
+			}
+		}
+		return null;
+	}
+
+	private static boolean equal(URI uri1, URI uri2) {
+		return uri1 == uri2 || (uri1 != null && uri1.equals(uri2));
+	}
+
+	private static Dictionary<String, Object> createValues(String locationString, URI repositoryLocation, String classifier, String id, String version, String format) {
 		Dictionary<String, Object> values = new Hashtable<String, Object>(5);
 		if (repositoryLocation != null)
 			values.put(REPOURL, locationString);
@@ -68,50 +311,39 @@ public class Mapper {
 
 		if (format != null)
 			values.put(FORMAT, format);
-
-		for (int i = 0; i < filters.length; i++) {
-			if (filters[i].match(values))
-				return doReplacement(outputStrings[i], locationString, classifier, id, version, format);
-		}
-		return null;
+		return values;
 	}
 
-	private URI doReplacement(String pattern, String repoLocation, String classifier, String id, String version, String format) {
+	private URI doReplacement(Rule rule, String repoLocation, String classifier, String id, String version, String format) {
 		try {
 			// currently our mapping rules assume the repo URL is not "/" terminated. 
 			// This may be the case for repoURLs in the root of a URL space e.g. root of a jar file or file:/c:/
 			if (repoLocation.endsWith("/")) //$NON-NLS-1$
 				repoLocation = repoLocation.substring(0, repoLocation.length() - 1);
 
-			StringBuffer output = new StringBuffer(pattern);
-			int index = 0;
-			while (index < output.length()) {
-				int beginning = output.indexOf("${", index); //$NON-NLS-1$
-				if (beginning == -1)
-					return URIUtil.fromString(output.toString());
-
-				int end = output.indexOf("}", beginning); //$NON-NLS-1$
-				if (end == -1)
-					return URIUtil.fromString(pattern);
-
-				String varName = output.substring(beginning + 2, end);
+			StringBuffer output = new StringBuffer(rule.pattern.length() + 64);
+			for (int i = 0; i < rule.literals.length; i++) {
+				output.append(rule.literals[i]);
 				String varValue = null;
-				if (varName.equalsIgnoreCase(CLASSIFIER)) {
-					varValue = classifier;
-				} else if (varName.equalsIgnoreCase(ID)) {
-					varValue = id;
-				} else if (varName.equalsIgnoreCase(VERSION)) {
-					varValue = version;
-				} else if (varName.equalsIgnoreCase(REPOURL)) {
-					varValue = repoLocation;
-				} else if (varName.equalsIgnoreCase(FORMAT)) {
-					varValue = format;
+				switch (rule.variables[i]) {
+					case VAR_CLASSIFIER :
+						varValue = classifier;
+						break;
+					case VAR_ID :
+						varValue = id;
+						break;
+					case VAR_VERSION :
+						varValue = version;
+						break;
+					case VAR_REPOURL :
+						varValue = repoLocation;
+						break;
+					case VAR_FORMAT :
+						varValue = format;
+						break;
 				}
-				if (varValue == null)
-					varValue = ""; //$NON-NLS-1$
-
-				output.replace(beginning, end + 1, varValue);
-				index = beginning + varValue.length();
+				if (varValue != null)
+					output.append(varValue);
 			}
 			return URIUtil.fromString(output.toString());
 		} catch (URISyntaxException e) {
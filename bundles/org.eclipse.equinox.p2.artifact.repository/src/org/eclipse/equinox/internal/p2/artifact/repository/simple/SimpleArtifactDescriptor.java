@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -19,14 +19,16 @@ import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
 public class SimpleArtifactDescriptor extends ArtifactDescriptor {
 	public static final String ARTIFACT_REFERENCE = "artifact.reference"; //$NON-NLS-1$
 
-	protected Map<String, String> repositoryProperties = new OrderedProperties();
+	protected Map<String, String> repositoryProperties = new CompactProperties();
 
 	public SimpleArtifactDescriptor(IArtifactKey key) {
 		super(key);
+		properties = new CompactProperties();
 	}
 
 	public SimpleArtifactDescriptor(IArtifactDescriptor base) {
 		super(base);
+		properties = new CompactProperties(properties);
 	}
 
 	public String getRepositoryProperty(String propertyKey) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2012 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -19,6 +19,7 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import org.eclipse.core.runtime.*;
@@ -27,6 +28,8 @@ import org.eclipse.equinox.internal.p2.artifact.processors.md5.MD5Verifier;
 import org.eclipse.equinox.internal.p2.artifact.repository.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.Messages;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
 import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
@@ -84,14 +87,14 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	/**
 	 * Does this instance of the repository currently hold a lock
 	 */
-	private boolean holdsLock = false;
+	private volatile boolean holdsLock = false;
 	/**
 	 * Does this instance of the repository can be locked.
 	 * It will be initialized when initializing the location for repository
 	 */
-	private Boolean canLock = null;
+	private volatile Boolean canLock = null;
 
-	private long cacheTimestamp = 0l;
+	private volatile long cacheTimestamp = 0l;
 
 	public class ArtifactOutputStream extends OutputStream implements IStateful {
 		private boolean closed;
@@ -234,15 +237,28 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 
 	static final private Integer REPOSITORY_VERSION = new Integer(1);
 	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
-	protected Set<SimpleArtifactDescriptor> artifactDescriptors = new HashSet<SimpleArtifactDescriptor>();
-	/**
-	 * Map<IArtifactKey,List<IArtifactDescriptor>> containing the index of artifacts in the repository.
+	/*
+	 * The descriptors of the repository, the artifact map indexing them by key, and the key
+	 * index built from the map. A reload publishes a new instance, so that lookups always see
+	 * the collections of one load together.
+	 */
+	private static final class Contents {
+		final Set<SimpleArtifactDescriptor> descriptors = new ConcurrentSet<SimpleArtifactDescriptor>();
+		/**
+		 * Map<IArtifactKey,List<IArtifactDescriptor>> containing the index of artifacts in the repository.
+		 */
+		final Map<IArtifactKey, List<IArtifactDescriptor>> map = new ConcurrentHashMap<IArtifactKey, List<IArtifactDescriptor>>();
+		volatile KeyIndex keyIndex;
+	}
+
+	/*
+	 * Descriptor lookups do not synchronize on the repository. The descriptor set and the
+	 * artifact map are concurrent collections, and the descriptor lists in the map are never
+	 * modified once they have been published. Only mutations, reloads and saves are synchronized.
 	 */
-	private Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap = new HashMap<IArtifactKey, List<IArtifactDescriptor>>();
-	private transient BlobStore blobStore;
-	transient private Mapper mapper = new Mapper();
-	private KeyIndex keyIndex;
-	private boolean snapshotNeeded = false;
+	private volatile Contents contents = new Contents();
+	private transient volatile BlobStore blobStore;
+	transient private volatile Mapper mapper = new Mapper();
 
 	static final private String PUBLISH_PACK_FILES_AS_SIBLINGS = "publishPackFilesAsSiblings"; //$NON-NLS-1$
 
@@ -283,49 +299,38 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 */
 	SimpleArtifactRepository(IProvisioningAgent agent, String name, String type, String version, String description, String provider, Set<SimpleArtifactDescriptor> artifacts, String[][] mappingRules, Map<String, String> properties) {
 		super(agent, name, type, version, null, description, provider, properties);
-		this.artifactDescriptors.addAll(artifacts);
+		this.contents.descriptors.addAll(artifacts);
 		this.mappingRules = mappingRules;
-		for (SimpleArtifactDescriptor desc : artifactDescriptors)
+		for (SimpleArtifactDescriptor desc : contents.descriptors)
 			mapDescriptor(desc);
 	}
 
 	private synchronized void mapDescriptor(IArtifactDescriptor descriptor) {
+		Contents current = contents;
 		IArtifactKey key = descriptor.getArtifactKey();
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-		}
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
-		if (descriptors == null) {
-			descriptors = new ArrayList<IArtifactDescriptor>();
-			artifactMap.put(key, descriptors);
-		}
-		descriptors.add(descriptor);
-		keyIndex = null;
+		List<IArtifactDescriptor> descriptors = current.map.get(key);
+		List<IArtifactDescriptor> updated = new ArrayList<IArtifactDescriptor>(descriptors == null ? 1 : descriptors.size() + 1);
+		if (descriptors != null)
+			updated.addAll(descriptors);
+		updated.add(descriptor);
+		current.map.put(key, updated);
+		current.keyIndex = null;
 	}
 
 	private synchronized void unmapDescriptor(IArtifactDescriptor descriptor) {
+		Contents current = contents;
 		IArtifactKey key = descriptor.getArtifactKey();
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
+		List<IArtifactDescriptor> descriptors = current.map.get(key);
 		if (descriptors == null)
 			return;
 
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-			descriptors = artifactMap.get(key);
-		}
-		descriptors.remove(descriptor);
-		if (descriptors.isEmpty())
-			artifactMap.remove(key);
-		keyIndex = null;
-	}
-
-	private void cloneAritfactMap() {
-		HashMap<IArtifactKey, List<IArtifactDescriptor>> clone = new HashMap<IArtifactKey, List<IArtifactDescriptor>>(artifactMap.size());
-		for (Entry<IArtifactKey, List<IArtifactDescriptor>> entry : artifactMap.entrySet())
-			clone.put(entry.getKey(), new ArrayList<IArtifactDescriptor>(entry.getValue()));
-		artifactMap = clone;
+		List<IArtifactDescriptor> updated = new ArrayList<IArtifactDescriptor>(descriptors);
+		updated.remove(descriptor);
+		if (updated.isEmpty())
+			current.map.remove(key);
+		else
+			current.map.put(key, updated);
+		current.keyIndex = null;
 	}
 
 	public SimpleArtifactRepository(IProvisioningAgent agent, String repositoryName, URI location, Map<String, String> properties) {
@@ -370,11 +375,11 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 					return;
 			}
 
-			if (artifactDescriptors.contains(toAdd))
+			if (contents.descriptors.contains(toAdd))
 				return;
 
 			SimpleArtifactDescriptor internalDescriptor = createInternalDescriptor(toAdd);
-			artifactDescriptors.add(internalDescriptor);
+			contents.descriptors.add(internalDescriptor);
 			mapDescriptor(internalDescriptor);
 			save();
 		} finally {
@@ -418,10 +423,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			}
 
 			for (int i = 0; i < descriptors.length; i++) {
-				if (artifactDescriptors.contains(descriptors[i]))
+				if (contents.descriptors.contains(descriptors[i]))
 					continue;
 				SimpleArtifactDescriptor internalDescriptor = createInternalDescriptor(descriptors[i]);
-				artifactDescriptors.add(internalDescriptor);
+				contents.descriptors.add(internalDescriptor);
 				mapDescriptor(internalDescriptor);
 			}
 			save();
@@ -481,22 +486,18 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return buffer.toString();
 	}
 
-	public synchronized boolean contains(IArtifactDescriptor descriptor) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+	public boolean contains(IArtifactDescriptor descriptor) {
+		loadIfChanged();
 		SimpleArtifactDescriptor simpleDescriptor = createInternalDescriptor(descriptor);
-		return artifactDescriptors.contains(simpleDescriptor);
+		return contents.descriptors.contains(simpleDescriptor);
 	}
 
-	public synchronized boolean contains(IArtifactKey key) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
-		return artifactMap.containsKey(key);
+	public boolean contains(IArtifactKey key) {
+		loadIfChanged();
+		return contents.map.containsKey(key);
 	}
 
-	public synchronized URI createLocation(ArtifactDescriptor descriptor) {
+	public URI createLocation(ArtifactDescriptor descriptor) {
 		if (flatButPackedEnabled(descriptor)) {
 			return getLocationForPackedButFlatArtifacts(descriptor);
 		}
@@ -541,7 +542,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 					return false;
 			}
 		}
-		boolean result = artifactDescriptors.remove(descriptor);
+		boolean result = contents.descriptors.remove(descriptor);
 		if (result)
 			unmapDescriptor(descriptor);
 
@@ -662,10 +663,20 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	private IStatus downloadArtifact(IArtifactDescriptor descriptor, URI mirrorLocation, OutputStream destination, IProgressMonitor monitor) {
 		//Bug 340352: transport has performance overhead of 100ms and more, bypass it for local copies
 		IStatus result = Status.OK_STATUS;
+		ProvisioningMetrics metrics = ProvisioningMetrics.getMetrics(getProvisioningAgent());
+		long start = metrics.start();
 		if (mirrorLocation.getScheme().equals(SimpleArtifactRepositoryFactory.PROTOCOL_FILE))
 			result = copyFileToStream(new File(mirrorLocation), destination, monitor);
 		else
 			result = getTransport().download(mirrorLocation, destination, monitor);
+		if (start != 0) {
+			// report by repository, whichever mirror was used
+			metrics.time("download.time:" + getLocation(), start); //$NON-NLS-1$
+			if (!result.isOK())
+				metrics.count("download.failures:" + getLocation(), 1); //$NON-NLS-1$
+			else if (result instanceof DownloadStatus && ((DownloadStatus) result).getFileSize() >= 0)
+				metrics.count("download.bytes:" + getLocation(), ((DownloadStatus) result).getFileSize()); //$NON-NLS-1$
+		}
 		if (mirrors != null)
 			mirrors.reportResult(mirrorLocation.toString(), result);
 		if (result.isOK() || result.getSeverity() == IStatus.CANCEL)
@@ -710,9 +721,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public IStatus getArtifact(IArtifactDescriptor descriptor, OutputStream destination, IProgressMonitor monitor) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+		loadIfChanged();
 		if (monitor.isCanceled())
 			return Status.CANCEL_STATUS;
 		ProcessingStepHandler handler = new ProcessingStepHandler();
@@ -725,20 +734,16 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public IStatus getRawArtifact(IArtifactDescriptor descriptor, OutputStream destination, IProgressMonitor monitor) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+		loadIfChanged();
 		if (monitor.isCanceled())
 			return Status.CANCEL_STATUS;
 		return downloadArtifact(descriptor, destination, monitor);
 	}
 
-	public synchronized IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+	public IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
+		loadIfChanged();
 
-		List<IArtifactDescriptor> result = artifactMap.get(key);
+		List<IArtifactDescriptor> result = contents.map.get(key);
 		if (result == null)
 			return new IArtifactDescriptor[0];
 
@@ -760,9 +765,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public IStatus getArtifacts(IArtifactRequest[] requests, IProgressMonitor monitor) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+		loadIfChanged();
 		if (monitor.isCanceled())
 			return Status.CANCEL_STATUS;
 
@@ -812,11 +815,9 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			return overallStatus;
 	}
 
-	public synchronized IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
-		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
+	public IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
+		loadIfChanged();
+		List<IArtifactDescriptor> descriptors = contents.map.get(key);
 		if (descriptors == null)
 			return null;
 
@@ -828,11 +829,9 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return null;
 	}
 
-	public synchronized Set<SimpleArtifactDescriptor> getDescriptors() {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
-		return artifactDescriptors;
+	public Set<SimpleArtifactDescriptor> getDescriptors() {
+		loadIfChanged();
+		return contents.descriptors;
 	}
 
 	/**
@@ -853,7 +852,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return mapper.map(getLocation(), key.getClassifier(), key.getId(), key.getVersion().toString(), descriptor.getProperty(IArtifactDescriptor.FORMAT));
 	}
 
-	public synchronized URI getLocation(IArtifactDescriptor descriptor) {
+	public URI getLocation(IArtifactDescriptor descriptor) {
 		// if the artifact has a uuid then use it
 		String uuid = descriptor.getProperty(ARTIFACT_UUID);
 		if (uuid != null)
@@ -919,9 +918,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	public OutputStream getOutputStream(IArtifactDescriptor descriptor) throws ProvisionException {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+		loadIfChanged();
 
 		assertModifiable();
 
@@ -994,10 +991,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_WRITE, msg, e));
 	}
 
-	public synchronized String[][] getRules() {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+	public String[][] getRules() {
+		loadIfChanged();
 		return mappingRules;
 	}
 
@@ -1015,7 +1010,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		String suffix = getBlobStoreName(BLOBSTORE);
 		blobStore = new BlobStore(getBlobStoreLocation(repoLocation, suffix), 128);
 		initializeMapper();
-		for (SimpleArtifactDescriptor desc : artifactDescriptors)
+		for (SimpleArtifactDescriptor desc : contents.descriptors)
 			desc.setRepository(this);
 		if (updateTimestamp)
 			updateTimestamp();
@@ -1032,8 +1027,9 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	private synchronized void initializeMapper() {
-		mapper = new Mapper();
-		mapper.initialize(Activator.getContext(), mappingRules);
+		Mapper newMapper = new Mapper();
+		newMapper.initialize(Activator.getContext(), mappingRules);
+		mapper = newMapper;
 	}
 
 	private boolean isFolderBased(IArtifactDescriptor descriptor) {
@@ -1079,7 +1075,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 					return;
 			}
 
-			IArtifactDescriptor[] toRemove = artifactDescriptors.toArray(new IArtifactDescriptor[artifactDescriptors.size()]);
+			IArtifactDescriptor[] toRemove = contents.descriptors.toArray(new IArtifactDescriptor[0]);
 			boolean changed = false;
 			for (int i = 0; i < toRemove.length; i++)
 				changed |= doRemoveArtifact(toRemove[i]);
@@ -1223,11 +1219,13 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	private void save(boolean compress) {
 		assertModifiable();
 		OutputStream os = null;
+		File contentFile = null;
 		try {
 			try {
 				URI actualLocation = getActualLocation(getLocation(), false);
 				File artifactsFile = URIUtil.toFile(actualLocation);
 				File jarFile = URIUtil.toFile(getActualLocation(getLocation(), true));
+				contentFile = compress ? jarFile : artifactsFile;
 				if (!compress) {
 					if (jarFile.exists()) {
 						jarFile.delete();
@@ -1258,11 +1256,31 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 					os.close();
 				updateTimestamp();
 			}
+			if (contentFile != null)
+				saveIndex(contentFile);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Writes the binary index of this repository next to the given saved file, or
+	 * deletes the index if indexes are not enabled.
+	 */
+	private void saveIndex(File contentFile) {
+		SimpleArtifactRepositoryIndex index = new SimpleArtifactRepositoryIndex(getProvisioningAgent());
+		if (!SimpleArtifactRepositoryIndex.isEnabled()) {
+			index.delete(contentFile);
+			return;
+		}
+		try {
+			index.write(this, contentFile);
+		} catch (IOException e) {
+			index.delete(contentFile);
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Unable to write the index of artifact repository " + getLocation(), e)); //$NON-NLS-1$
+		}
+	}
+
 	private String doSetProperty(String key, String newValue, IProgressMonitor monitor, boolean save) {
 		String oldValue = super.setProperty(key, newValue, new NullProgressMonitor());
 		if (oldValue == newValue || (oldValue != null && oldValue.equals(newValue)))
@@ -1308,11 +1326,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	public IQueryable<IArtifactDescriptor> descriptorQueryable() {
 		return new IQueryable<IArtifactDescriptor>() {
 			public IQueryResult<IArtifactDescriptor> query(IQuery<IArtifactDescriptor> query, IProgressMonitor monitor) {
-				synchronized (SimpleArtifactRepository.this) {
-					snapshotNeeded = true;
-					Collection<List<IArtifactDescriptor>> descs = SimpleArtifactRepository.this.artifactMap.values();
-					return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
-				}
+				Collection<List<IArtifactDescriptor>> descs = SimpleArtifactRepository.this.contents.map.values();
+				return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
 			}
 		};
 	}
@@ -1321,12 +1336,9 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return IndexProvider.query(this, query, monitor);
 	}
 
-	public synchronized Iterator<IArtifactKey> everything() {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
-		snapshotNeeded = true;
-		return artifactMap.keySet().iterator();
+	public Iterator<IArtifactKey> everything() {
+		loadIfChanged();
+		return contents.map.keySet().iterator();
 	}
 
 	public IStatus executeBatch(IRunnableWithProgress runnable, IProgressMonitor monitor) {
@@ -1367,15 +1379,16 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return result;
 	}
 
-	public synchronized IIndex<IArtifactKey> getIndex(String memberName) {
-		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
-			load(new NullProgressMonitor());
-		}
+	public IIndex<IArtifactKey> getIndex(String memberName) {
+		loadIfChanged();
 		if (ArtifactKey.MEMBER_ID.equals(memberName)) {
-			snapshotNeeded = true;
-			if (keyIndex == null)
-				keyIndex = new KeyIndex(artifactMap.keySet());
-			return keyIndex;
+			Contents current = contents;
+			KeyIndex index = current.keyIndex;
+			if (index == null) {
+				index = new KeyIndex(current.map.keySet());
+				current.keyIndex = index;
+			}
+			return index;
 		}
 		return null;
 	}
@@ -1508,6 +1521,27 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			monitor.done();
 	}
 
+	/**
+	 * Reloads the repository if it is file based, not locked by this instance, and the file
+	 * on disk has changed. The file is checked without synchronizing on the repository so
+	 * that lookups do not wait for each other; an actual reload is synchronized.
+	 */
+	private void loadIfChanged() {
+		if (holdsLock() || !URIUtil.isFileURI(getLocation()))
+			return;
+		try {
+			File localFile = new SimpleArtifactRepositoryFactory().getLocalFile(getLocation(), new NullProgressMonitor());
+			if (localFile.lastModified() <= cacheTimestamp)
+				return;
+		} catch (Exception e) {
+			// Don't worry if we can't load
+			return;
+		}
+		synchronized (this) {
+			load(new NullProgressMonitor());
+		}
+	}
+
 	private void updateTimestamp() {
 		if (!isModifiable())
 			return;
@@ -1535,12 +1569,12 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		IArtifactRepository repositoryOnDisk = null;
 		try {
 			SubMonitor subMonitor = SubMonitor.convert(monitor, 4);
+			long lastModified;
 			try {
 				File localFile = repositoryFactory.getLocalFile(getLocation(), subMonitor.newChild(1));
-				long lastModified = localFile.lastModified();
+				lastModified = localFile.lastModified();
 				if (lastModified <= cacheTimestamp)
 					return;
-				cacheTimestamp = lastModified;
 			} catch (Exception e) {
 				// Dont'r worry if we can't load
 				return;
@@ -1571,8 +1605,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				}
 
 				//
-				this.artifactDescriptors = ((SimpleArtifactRepository) repositoryOnDisk).artifactDescriptors;
-				this.artifactMap = ((SimpleArtifactRepository) repositoryOnDisk).artifactMap;
+				this.contents = ((SimpleArtifactRepository) repositoryOnDisk).contents;
+				// only now, so that loadIfChanged does not skip a reload which has not completed,
+				// and a file which failed to load is loaded again
+				cacheTimestamp = lastModified;
 			}
 		} finally {
 			monitor.done();
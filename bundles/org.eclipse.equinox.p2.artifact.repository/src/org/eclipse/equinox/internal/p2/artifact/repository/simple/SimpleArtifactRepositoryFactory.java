@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -86,38 +86,19 @@ public class SimpleArtifactRepositoryFactory extends ArtifactRepositoryFactory {
 		SubMonitor sub = SubMonitor.convert(monitor, 400);
 		try {
 			File localFile = getLocalFile(location, sub.newChild(300));
-			InputStream inStream = new BufferedInputStream(new FileInputStream(localFile));
-			JarInputStream jarStream = null;
-			try {
-				//if reading from a jar, obtain a stream on the entry with the actual contents
-				if (localFile.getAbsolutePath().endsWith(JAR_EXTENSION)) {
-					jarStream = new JarInputStream(inStream);
-					JarEntry jarEntry = jarStream.getNextJarEntry();
-					String entryName = SimpleArtifactRepository.CONTENT_FILENAME + XML_EXTENSION;
-					while (jarEntry != null && (!entryName.equals(jarEntry.getName()))) {
-						jarEntry = jarStream.getNextJarEntry();
-					}
-					//if there is a jar but the entry is missing or invalid, treat this as an invalid repository
-					if (jarEntry == null)
-						throw new IOException(NLS.bind(Messages.io_invalidLocation, location));
-				}
-				//parse the repository descriptor file
-				sub.setWorkRemaining(100);
-				InputStream descriptorStream = jarStream != null ? jarStream : inStream;
-				SimpleArtifactRepositoryIO io = new SimpleArtifactRepositoryIO(getAgent());
-				SimpleArtifactRepository result = (SimpleArtifactRepository) io.read(location, descriptorStream, sub.newChild(100), acquireLock);
-				result.initializeAfterLoad(location);
-				if (result != null && (flags & IRepositoryManager.REPOSITORY_HINT_MODIFIABLE) > 0 && !result.isModifiable())
-					return null;
-				if (Tracing.DEBUG_METADATA_PARSING) {
-					time += System.currentTimeMillis();
-					Tracing.debug(debugMsg + "time (ms): " + time); //$NON-NLS-1$ 
-				}
-				return result;
-			} finally {
-				safeClose(jarStream);
-				safeClose(inStream);
+			SimpleArtifactRepository result = null;
+			if (URIUtil.isFileURI(location))
+				result = readIndex(location, localFile, sub.newChild(0), acquireLock);
+			if (result == null)
+				result = readRepositoryFile(location, localFile, sub.newChild(100), acquireLock);
+			result.initializeAfterLoad(location);
+			if ((flags & IRepositoryManager.REPOSITORY_HINT_MODIFIABLE) > 0 && !result.isModifiable())
+				return null;
+			if (Tracing.DEBUG_METADATA_PARSING) {
+				time += System.currentTimeMillis();
+				Tracing.debug(debugMsg + "time (ms): " + time); //$NON-NLS-1$ 
 			}
+			return result;
 		} catch (FileNotFoundException e) {
 			String msg = NLS.bind(Messages.io_failedRead, location);
 			throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_NOT_FOUND, msg, e));
@@ -130,6 +111,50 @@ public class SimpleArtifactRepositoryFactory extends ArtifactRepositoryFactory {
 		}
 	}
 
+	/**
+	 * Reads the binary index of the repository saved in the given local file, returning
+	 * <code>null</code> if there is no up to date index.
+	 */
+	private SimpleArtifactRepository readIndex(URI location, File localFile, IProgressMonitor monitor, boolean acquireLock) {
+		// only lock the repository when there is an index to read
+		if (!SimpleArtifactRepositoryIndex.getIndexFile(localFile).isFile())
+			return null;
+		try {
+			return new SimpleArtifactRepositoryIO(getAgent()).readIndex(location, localFile, monitor, acquireLock);
+		} catch (IOException e) {
+			// fall back to the repository file
+			if (Tracing.DEBUG_METADATA_PARSING)
+				Tracing.debug("Unable to read artifact repository index " + localFile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			return null;
+		}
+	}
+
+	private SimpleArtifactRepository readRepositoryFile(URI location, File localFile, IProgressMonitor monitor, boolean acquireLock) throws IOException, ProvisionException {
+		InputStream inStream = new BufferedInputStream(new FileInputStream(localFile));
+		JarInputStream jarStream = null;
+		try {
+			//if reading from a jar, obtain a stream on the entry with the actual contents
+			if (localFile.getAbsolutePath().endsWith(JAR_EXTENSION)) {
+				jarStream = new JarInputStream(inStream);
+				JarEntry jarEntry = jarStream.getNextJarEntry();
+				String entryName = SimpleArtifactRepository.CONTENT_FILENAME + XML_EXTENSION;
+				while (jarEntry != null && (!entryName.equals(jarEntry.getName()))) {
+					jarEntry = jarStream.getNextJarEntry();
+				}
+				//if there is a jar but the entry is missing or invalid, treat this as an invalid repository
+				if (jarEntry == null)
+					throw new IOException(NLS.bind(Messages.io_invalidLocation, location));
+			}
+			//parse the repository descriptor file
+			InputStream descriptorStream = jarStream != null ? jarStream : inStream;
+			SimpleArtifactRepositoryIO io = new SimpleArtifactRepositoryIO(getAgent());
+			return (SimpleArtifactRepository) io.read(location, descriptorStream, monitor, acquireLock);
+		} finally {
+			safeClose(jarStream);
+			safeClose(inStream);
+		}
+	}
+
 	public IArtifactRepository create(URI location, String name, String type, Map<String, String> properties) {
 		return new SimpleArtifactRepository(getAgent(), name, location, properties);
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -129,6 +129,27 @@ public class SimpleArtifactRepositoryIO {
 		}
 	}
 
+	/**
+	 * Reads the binary index of the repository saved in the given local file, holding the
+	 * repository lock as {@link #read(URI, InputStream, IProgressMonitor, boolean)} does, so that
+	 * the index and the file it was written from are not read in the middle of a save.
+	 * Returns <code>null</code> if there is no up to date index.
+	 */
+	SimpleArtifactRepository readIndex(URI location, File contentFile, IProgressMonitor monitor, boolean acquireLock) throws IOException {
+		boolean lock = false;
+		try {
+			if (canLock(location) && acquireLock) {
+				lock = lock(location, true, monitor);
+				if (!lock)
+					throw new OperationCanceledException();
+			}
+			return new SimpleArtifactRepositoryIndex(agent).read(contentFile);
+		} finally {
+			if (lock)
+				unlock(location);
+		}
+	}
+
 	private synchronized boolean canLock(URI repositoryLocation) {
 		if (!URIUtil.isFileURI(repositoryLocation))
 			return false;
@@ -295,11 +316,26 @@ public class SimpleArtifactRepositoryIO {
 	private class Parser extends XMLParser implements XMLConstants {
 
 		private SimpleArtifactRepository theRepository = null;
+		// the strings read so far, shared by the descriptors of the repository
+		private final Map<String, String> strings = new HashMap<String, String>();
+		// reused for all the artifacts of the repository
+		private ArtifactHandler artifactHandler;
 
 		public Parser(BundleContext context, String bundleId) {
 			super(context, bundleId);
 		}
 
+		String share(String value) {
+			if (value == null)
+				return null;
+			String shared = strings.get(value);
+			if (shared == null) {
+				strings.put(value, value);
+				shared = value;
+			}
+			return shared;
+		}
+
 		public synchronized void parse(InputStream stream) throws IOException {
 			this.status = null;
 			try {
@@ -472,7 +508,9 @@ public class SimpleArtifactRepositoryIO {
 
 			public void startElement(String name, Attributes attributes) {
 				if (name.equals(ARTIFACT_ELEMENT)) {
-					new ArtifactHandler(this, attributes, artifacts);
+					if (artifactHandler == null)
+						artifactHandler = new ArtifactHandler();
+					artifactHandler.reuse(this, attributes, artifacts);
 				} else {
 					invalidElement(name, attributes);
 				}
@@ -482,6 +520,7 @@ public class SimpleArtifactRepositoryIO {
 		protected class ArtifactHandler extends AbstractHandler {
 
 			private final String[] required = new String[] {ARTIFACT_CLASSIFIER_ATTRIBUTE, ID_ATTRIBUTE, VERSION_ATTRIBUTE};
+			private final String[] values = new String[required.length];
 
 			private Set<SimpleArtifactDescriptor> artifacts;
 			SimpleArtifactDescriptor currentArtifact = null;
@@ -492,11 +531,28 @@ public class SimpleArtifactRepositoryIO {
 
 			public ArtifactHandler(AbstractHandler parentHandler, Attributes attributes, Set<SimpleArtifactDescriptor> artifacts) {
 				super(parentHandler, ARTIFACT_ELEMENT);
-				this.artifacts = artifacts;
-				String[] values = parseRequiredAttributes(attributes, required);
+				initialize(attributes, artifacts);
+			}
+
+			// Constructor for a handler reused for all artifacts
+			ArtifactHandler() {
+				this.elementHandled = ARTIFACT_ELEMENT;
+			}
+
+			void reuse(AbstractHandler parentHandler, Attributes attributes, Set<SimpleArtifactDescriptor> descriptors) {
+				reuse(parentHandler);
+				propertiesHandler = null;
+				repositoryPropertiesHandler = null;
+				processingStepsHandler = null;
+				initialize(attributes, descriptors);
+			}
+
+			private void initialize(Attributes attributes, Set<SimpleArtifactDescriptor> descriptors) {
+				this.artifacts = descriptors;
+				parseAttributes(attributes, required, noAttributes, values);
 				Version version = checkVersion(ARTIFACT_ELEMENT, VERSION_ATTRIBUTE, values[2]);
 				// TODO: resolve access restriction on ArtifactKey construction
-				currentArtifact = new SimpleArtifactDescriptor(new ArtifactKey(values[0], values[1], version));
+				currentArtifact = new SimpleArtifactDescriptor(new ArtifactKey(share(values[0]), values[1], version));
 			}
 
 			public void startElement(String name, Attributes attributes) {
@@ -525,11 +581,14 @@ public class SimpleArtifactRepositoryIO {
 
 			protected void finished() {
 				if (isValidXML() && currentArtifact != null) {
-					Map<String, String> properties = (propertiesHandler == null ? new OrderedProperties(0) : propertiesHandler.getProperties());
-					currentArtifact.addProperties(properties);
-
-					properties = (repositoryPropertiesHandler == null ? new OrderedProperties(0) : repositoryPropertiesHandler.getProperties());
-					currentArtifact.addRepositoryProperties(properties);
+					if (propertiesHandler != null) {
+						for (Map.Entry<String, String> property : propertiesHandler.getProperties().entrySet())
+							currentArtifact.setProperty(property.getKey(), share(property.getValue()));
+					}
+					if (repositoryPropertiesHandler != null) {
+						for (Map.Entry<String, String> property : repositoryPropertiesHandler.getProperties().entrySet())
+							currentArtifact.setRepositoryProperty(property.getKey(), share(property.getValue()));
+					}
 
 					IProcessingStepDescriptor[] processingSteps = (processingStepsHandler == null ? new ProcessingStepDescriptor[0] //
 							: processingStepsHandler.getProcessingSteps());
@@ -570,7 +629,7 @@ public class SimpleArtifactRepositoryIO {
 			public ProcessingStepHandler(AbstractHandler parentHandler, Attributes attributes, List<IProcessingStepDescriptor> processingSteps) {
 				super(parentHandler, PROCESSING_STEP_ELEMENT);
 				String[] attributeValues = parseAttributes(attributes, required, optional);
-				processingSteps.add(new ProcessingStepDescriptor(attributeValues[0], attributeValues[2], checkBoolean(PROCESSING_STEP_ELEMENT, STEP_REQUIRED_ATTRIBUTE, attributeValues[1]).booleanValue()));
+				processingSteps.add(new ProcessingStepDescriptor(share(attributeValues[0]), share(attributeValues[2]), checkBoolean(PROCESSING_STEP_ELEMENT, STEP_REQUIRED_ATTRIBUTE, attributeValues[1]).booleanValue()));
 			}
 
 			public void startElement(String name, Attributes attributes) {
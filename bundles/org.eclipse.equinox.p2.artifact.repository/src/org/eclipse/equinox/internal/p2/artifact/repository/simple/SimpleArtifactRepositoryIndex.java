@@ -0,0 +1,281 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.Activator;
+import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IProcessingStepDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.spi.ProcessingStepDescriptor;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Reads and writes a binary index of a simple artifact repository. The index is
+ * stored next to the artifacts.xml or artifacts.jar file it was written from, and is
+ * only read while that file is unchanged. Each string is stored once, so the descriptors
+ * read from an index share their classifiers, property keys and common values.
+ * <p>
+ * The index is written when the <code>eclipse.p2.artifactRepository.index</code>
+ * property is set to <code>true</code>.
+ * </p>
+ */
+public class SimpleArtifactRepositoryIndex {
+	public static final String INDEX_FILENAME = SimpleArtifactRepository.CONTENT_FILENAME + ".index"; //$NON-NLS-1$
+	private static final String PROP_INDEX = "eclipse.p2.artifactRepository.index"; //$NON-NLS-1$
+	private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+	private static final int MAGIC = 0x50324149; // "P2AI"
+	private static final int FORMAT_VERSION = 1;
+	private static final IProcessingStepDescriptor[] NO_STEPS = new ProcessingStepDescriptor[0];
+
+	private final IProvisioningAgent agent;
+
+	/**
+	 * Returns whether indexes should be written when repositories are saved.
+	 */
+	public static boolean isEnabled() {
+		BundleContext context = Activator.getContext();
+		return context != null && Boolean.valueOf(context.getProperty(PROP_INDEX)).booleanValue();
+	}
+
+	/**
+	 * Returns the index file for the given artifacts.xml or artifacts.jar file.
+	 */
+	public static File getIndexFile(File contentFile) {
+		return new File(contentFile.getParentFile(), INDEX_FILENAME);
+	}
+
+	public SimpleArtifactRepositoryIndex(IProvisioningAgent agent) {
+		this.agent = agent;
+	}
+
+	/**
+	 * Writes the index of the given repository, which has just been saved to the given file.
+	 */
+	public void write(SimpleArtifactRepository repository, File contentFile) throws IOException {
+		StringTable strings = new StringTable();
+		ByteArrayOutputStream body = new ByteArrayOutputStream(64 * 1024);
+		DataOutputStream out = new DataOutputStream(body);
+		strings.write(out, repository.getName());
+		strings.write(out, repository.getType());
+		strings.write(out, repository.getVersion());
+		strings.write(out, repository.getDescription());
+		strings.write(out, repository.getProvider());
+		writeProperties(out, strings, repository.getProperties());
+		String[][] rules = repository.getRules();
+		writeInt(out, rules.length);
+		for (int i = 0; i < rules.length; i++) {
+			strings.write(out, rules[i][0]);
+			strings.write(out, rules[i][1]);
+		}
+		Set<SimpleArtifactDescriptor> descriptors = repository.getDescriptors();
+		writeInt(out, descriptors.size());
+		for (SimpleArtifactDescriptor descriptor : descriptors) {
+			IArtifactKey key = descriptor.getArtifactKey();
+			strings.write(out, key.getClassifier());
+			strings.write(out, key.getId());
+			strings.write(out, key.getVersion().toString());
+			IProcessingStepDescriptor[] steps = descriptor.getProcessingSteps();
+			writeInt(out, steps.length);
+			for (int i = 0; i < steps.length; i++) {
+				strings.write(out, steps[i].getProcessorId());
+				strings.write(out, steps[i].getData());
+				out.writeBoolean(steps[i].isRequired());
+			}
+			writeProperties(out, strings, descriptor.getProperties());
+			writeProperties(out, strings, descriptor.getRepositoryProperties());
+		}
+		out.flush();
+
+		// write to a temporary file first so that readers never see a partial index
+		File indexFile = getIndexFile(contentFile);
+		File tempFile = new File(indexFile.getParentFile(), INDEX_FILENAME + ".tmp"); //$NON-NLS-1$
+		DataOutputStream file = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try {
+			file.writeInt(MAGIC);
+			file.writeInt(FORMAT_VERSION);
+			file.writeLong(contentFile.lastModified());
+			file.writeLong(contentFile.length());
+			strings.writeTable(file);
+			body.writeTo(file);
+		} finally {
+			file.close();
+		}
+		indexFile.delete();
+		if (!tempFile.renameTo(indexFile)) {
+			tempFile.delete();
+			throw new IOException("Could not rename " + tempFile); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Reads the index of the repository saved in the given file. Returns <code>null</code>
+	 * if there is no index or if the file has changed since the index was written.
+	 */
+	public SimpleArtifactRepository read(File contentFile) throws IOException {
+		File indexFile = getIndexFile(contentFile);
+		if (!indexFile.isFile())
+			return null;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+				return null;
+			if (in.readLong() != contentFile.lastModified() || in.readLong() != contentFile.length())
+				return null;
+			String[] strings = readTable(in);
+			String name = readString(in, strings);
+			String type = readString(in, strings);
+			String version = readString(in, strings);
+			String description = readString(in, strings);
+			String provider = readString(in, strings);
+			Map<String, String> properties = readProperties(in, strings, new OrderedProperties());
+			String[][] rules = new String[readInt(in)][];
+			for (int i = 0; i < rules.length; i++)
+				rules[i] = new String[] {readString(in, strings), readString(in, strings)};
+
+			Version[] versions = new Version[strings.length];
+			Map<IProcessingStepDescriptor, IProcessingStepDescriptor> sharedSteps = new HashMap<IProcessingStepDescriptor, IProcessingStepDescriptor>();
+			int count = readInt(in);
+			Set<SimpleArtifactDescriptor> descriptors = new LinkedHashSet<SimpleArtifactDescriptor>(count);
+			for (int i = 0; i < count; i++) {
+				String classifier = readString(in, strings);
+				String id = readString(in, strings);
+				int versionIndex = readInt(in) - 1;
+				if (versions[versionIndex] == null)
+					versions[versionIndex] = Version.create(strings[versionIndex]);
+				SimpleArtifactDescriptor descriptor = new SimpleArtifactDescriptor(new ArtifactKey(classifier, id, versions[versionIndex]));
+				int stepCount = readInt(in);
+				IProcessingStepDescriptor[] steps = stepCount == 0 ? NO_STEPS : new IProcessingStepDescriptor[stepCount];
+				for (int j = 0; j < stepCount; j++) {
+					IProcessingStepDescriptor step = new ProcessingStepDescriptor(readString(in, strings), readString(in, strings), in.readBoolean());
+					IProcessingStepDescriptor shared = sharedSteps.get(step);
+					if (shared == null)
+						sharedSteps.put(step, shared = step);
+					steps[j] = shared;
+				}
+				descriptor.setProcessingSteps(steps);
+				int propertyCount = readInt(in);
+				for (int j = 0; j < propertyCount; j++)
+					descriptor.setProperty(readString(in, strings), readString(in, strings));
+				readProperties(in, strings, descriptor.repositoryProperties);
+				descriptors.add(descriptor);
+			}
+			return new SimpleArtifactRepository(agent, name, type, version, description, provider, descriptors, rules, properties);
+		} catch (EOFException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// a corrupt index
+			return null;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Deletes the index of the repository saved in the given file.
+	 */
+	public void delete(File contentFile) {
+		File indexFile = getIndexFile(contentFile);
+		if (indexFile.exists())
+			indexFile.delete();
+	}
+
+	private static void writeProperties(DataOutputStream out, StringTable strings, Map<String, String> properties) throws IOException {
+		writeInt(out, properties.size());
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			strings.write(out, entry.getKey());
+			strings.write(out, entry.getValue());
+		}
+	}
+
+	private static Map<String, String> readProperties(DataInputStream in, String[] strings, Map<String, String> properties) throws IOException {
+		int count = readInt(in);
+		for (int i = 0; i < count; i++)
+			properties.put(readString(in, strings), readString(in, strings));
+		return properties;
+	}
+
+	private static String[] readTable(DataInputStream in) throws IOException {
+		String[] strings = new String[readInt(in)];
+		byte[] buffer = new byte[256];
+		for (int i = 0; i < strings.length; i++) {
+			int length = readInt(in);
+			if (length > buffer.length)
+				buffer = new byte[Math.max(length, buffer.length * 2)];
+			in.readFully(buffer, 0, length);
+			strings[i] = new String(buffer, 0, length, ENCODING);
+		}
+		return strings;
+	}
+
+	private static String readString(DataInputStream in, String[] strings) throws IOException {
+		int index = readInt(in);
+		return index == 0 ? null : strings[index - 1];
+	}
+
+	/**
+	 * Writes a non-negative int using 7 bits per byte.
+	 */
+	static void writeInt(DataOutputStream out, int value) throws IOException {
+		int v = value;
+		while ((v & ~0x7F) != 0) {
+			out.writeByte((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.writeByte(v);
+	}
+
+	static int readInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed index"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Assigns an index to each distinct string written.
+	 */
+	private static class StringTable {
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+		private final List<String> strings = new ArrayList<String>();
+
+		void write(DataOutputStream out, String value) throws IOException {
+			if (value == null) {
+				writeInt(out, 0);
+				return;
+			}
+			Integer index = indexes.get(value);
+			if (index == null) {
+				strings.add(value);
+				index = new Integer(strings.size());
+				indexes.put(value, index);
+			}
+			writeInt(out, index.intValue());
+		}
+
+		void writeTable(DataOutputStream out) throws IOException {
+			writeInt(out, strings.size());
+			for (String value : strings) {
+				byte[] bytes = value.getBytes(ENCODING);
+				writeInt(out, bytes.length);
+				out.write(bytes);
+			}
+		}
+	}
+}
@@ -13,16 +13,33 @@ package org.eclipse.equinox.internal.p2.core;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.spi.IAgentServiceFactory;
+import org.osgi.framework.BundleContext;
 
 /**
  * Factory for creating {@link IProvisioningEventBus} instances.
  */
 public class EventBusComponent implements IAgentServiceFactory {
+	/**
+	 * Framework property holding the maximum number of coalescible events per second
+	 * and key delivered to asynchronous listeners.
+	 */
+	private static final String PROP_MAX_EVENT_RATE = "eclipse.p2.eventbus.maxCoalescibleEventRate"; //$NON-NLS-1$
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.p2.core.spi.IAgentServiceFactory#createService(org.eclipse.equinox.p2.core.IProvisioningAgent)
 	 */
 	public Object createService(IProvisioningAgent agent) {
-		return new ProvisioningEventBus();
+		ProvisioningEventBus bus = new ProvisioningEventBus();
+		BundleContext context = Activator.context;
+		String rate = context == null ? null : context.getProperty(PROP_MAX_EVENT_RATE);
+		if (rate != null) {
+			try {
+				bus.setMaxCoalescibleEventRate(Integer.parseInt(rate));
+			} catch (NumberFormatException e) {
+				// ignore and keep the default
+			}
+		}
+		return bus;
 	}
 
 }
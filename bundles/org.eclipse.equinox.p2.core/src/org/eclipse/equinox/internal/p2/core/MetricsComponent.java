@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.core;
+
+import java.io.File;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.core.spi.IAgentServiceFactory;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Factory for creating {@link ProvisioningMetrics} instances.
+ */
+public class MetricsComponent implements IAgentServiceFactory {
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.equinox.p2.core.spi.IAgentServiceFactory#createService(org.eclipse.equinox.p2.core.IProvisioningAgent)
+	 */
+	public Object createService(IProvisioningAgent agent) {
+		BundleContext context = Activator.context;
+		if (context == null)
+			return new ProvisioningMetrics(false, null);
+		String reportDir = context.getProperty(ProvisioningMetrics.PROP_REPORT_DIR);
+		boolean enabled = reportDir != null || Boolean.valueOf(context.getProperty(ProvisioningMetrics.PROP_ENABLED)).booleanValue();
+		return new ProvisioningMetrics(enabled, reportDir == null ? null : new File(reportDir));
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,7 +10,9 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.core;
 
-import java.util.EventObject;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
@@ -20,22 +22,122 @@ import org.eclipse.osgi.framework.eventmgr.*;
 
 /**
  * Default implementation of the {@link IProvisioningEventBus} service.
+ * <p>
+ * Synchronous listeners are notified of one event at a time from an array snapshot,
+ * and asynchronous listeners through a listener queue which is only rebuilt when the
+ * listeners change. {@link CoalescibleEvent}s waiting for asynchronous delivery are
+ * replaced by newer events with the same key, and their delivery rate can be capped
+ * with {@link #setMaxCoalescibleEventRate(int)}.
  */
 public class ProvisioningEventBus implements EventDispatcher<ProvisioningListener, ProvisioningListener, EventObject>, IProvisioningEventBus, IAgentService {
+	private static final int SYNCHRONOUS = 0;
+	private static final int ASYNCHRONOUS = 1;
+	private static final ProvisioningListener[] NO_LISTENERS = new ProvisioningListener[0];
+
 	private final CopyOnWriteIdentityMap<ProvisioningListener, ProvisioningListener> syncListeners = new CopyOnWriteIdentityMap<ProvisioningListener, ProvisioningListener>();
 	private final CopyOnWriteIdentityMap<ProvisioningListener, ProvisioningListener> asyncListeners = new CopyOnWriteIdentityMap<ProvisioningListener, ProvisioningListener>();
+	/* snapshots of the listeners, replaced whenever a listener is added or removed */
+	private volatile ProvisioningListener[] syncSnapshot = NO_LISTENERS;
+	private volatile ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject> asyncQueue;
+	private volatile int asyncListenerCount = 0;
 	private EventManager eventManager = new EventManager("Provisioning Event Dispatcher"); //$NON-NLS-1$
 
 	private Object dispatchEventLock = new Object();
-	/* @GuardedBy("dispatchEventLock") */
-	private boolean closed = false;
-	/* @GuardedBy("dispatchEventLock") */
-	private int dispatchingEvents = 0;
+	private volatile boolean closed = false;
+	private final AtomicInteger dispatchingEvents = new AtomicInteger();
+
+	/* @GuardedBy("pendingEvents") */
+	private final Map<Object, CoalescedEvent> pendingEvents = new HashMap<Object, CoalescedEvent>();
+	/* @GuardedBy("pendingEvents") time at which the last event was queued, per coalescing key */
+	private final Map<Object, long[]> lastQueued = new WeakHashMap<Object, long[]>();
+	/* @GuardedBy("pendingEvents") latest events held back by the maximum rate, queued when the interval ends */
+	private final Map<Object, CoalescedEvent> delayedEvents = new HashMap<Object, CoalescedEvent>();
+	/* @GuardedBy("pendingEvents") */
+	private Timer delayTimer;
+	private volatile long minCoalescingInterval = 0;
+
+	private final AtomicLong publishedEvents = new AtomicLong();
+	private final AtomicLong coalescedEvents = new AtomicLong();
+	private final AtomicLong queueDepth = new AtomicLong();
+	private final AtomicLong listenerTime = new AtomicLong();
+
+	/*
+	 * Placeholder queued for asynchronous delivery of a coalescible event. The event
+	 * it carries is replaced by newer ones until the first listener is notified.
+	 */
+	private class CoalescedEvent extends EventObject {
+		private static final long serialVersionUID = 1L;
+		private final Object key;
+		private EventObject event;
+		private boolean resolved = false;
+
+		CoalescedEvent(Object key, EventObject event) {
+			super(event.getSource());
+			this.key = key;
+			this.event = event;
+		}
+
+		/* @GuardedBy("pendingEvents") */
+		void replace(EventObject newer) {
+			event = newer;
+		}
+
+		EventObject resolve() {
+			synchronized (pendingEvents) {
+				if (!resolved) {
+					resolved = true;
+					pendingEvents.remove(key);
+				}
+				return event;
+			}
+		}
+	}
 
 	public ProvisioningEventBus() {
 		super();
 	}
 
+	/**
+	 * Caps the rate at which asynchronous listeners are notified of {@link CoalescibleEvent}s
+	 * with the same key. Events published faster than that are held back, and the latest
+	 * of them is delivered when the interval ends. A value of zero or less removes the cap.
+	 * 
+	 * @param eventsPerSecond the maximum number of events per second and key
+	 */
+	public void setMaxCoalescibleEventRate(int eventsPerSecond) {
+		minCoalescingInterval = eventsPerSecond <= 0 ? 0 : 1000L / eventsPerSecond;
+	}
+
+	/**
+	 * Returns the number of events published on this bus.
+	 */
+	public long getPublishedEventCount() {
+		return publishedEvents.get();
+	}
+
+	/**
+	 * Returns the number of events which were not delivered to asynchronous listeners
+	 * because a newer {@link CoalescibleEvent} superseded them.
+	 */
+	public long getCoalescedEventCount() {
+		return coalescedEvents.get();
+	}
+
+	/**
+	 * Returns the number of asynchronous notifications which are queued but have
+	 * not been delivered yet.
+	 */
+	public long getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	/**
+	 * Returns the total time in nanoseconds spent in listeners.
+	 */
+	public long getListenerTime() {
+		return listenerTime.get();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus#addListener(org.eclipse.equinox.internal.provisional.p2.core.eventbus.ProvisioningListener)
 	 */
@@ -43,10 +145,13 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 		if (toAdd instanceof SynchronousProvisioningListener) {
 			synchronized (syncListeners) {
 				syncListeners.put(toAdd, toAdd);
+				syncSnapshot = syncListeners.keySet().toArray(NO_LISTENERS);
 			}
 		} else {
 			synchronized (asyncListeners) {
 				asyncListeners.put(toAdd, toAdd);
+				asyncListenerCount = asyncListeners.size();
+				asyncQueue = null;
 			}
 		}
 	}
@@ -58,61 +163,169 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 		if (toRemove instanceof SynchronousProvisioningListener) {
 			synchronized (syncListeners) {
 				syncListeners.remove(toRemove);
+				syncSnapshot = syncListeners.keySet().toArray(NO_LISTENERS);
 			}
 		} else {
 			synchronized (asyncListeners) {
 				asyncListeners.remove(toRemove);
+				asyncListenerCount = asyncListeners.size();
+				asyncQueue = null;
 			}
 		}
 	}
 
+	/*
+	 * Return the queue used to notify the asynchronous listeners, building it if the
+	 * listeners have changed since it was last used.
+	 */
+	private ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject> getAsyncQueue() {
+		ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject> queue = asyncQueue;
+		if (queue != null)
+			return queue;
+		synchronized (asyncListeners) {
+			if (asyncQueue == null) {
+				queue = new ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject>(eventManager);
+				queue.queueListeners(asyncListeners.entrySet(), this);
+				asyncQueue = queue;
+			}
+			return asyncQueue;
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus#publishEvent(java.util.EventObject)
 	 */
 	public void publishEvent(EventObject event) {
+		if (closed)
+			return;
+		publishedEvents.incrementAndGet();
+
+		/* synchronous listeners are notified of one event at a time */
+		synchronized (syncListeners) {
+			ProvisioningListener[] listeners = syncSnapshot;
+			for (int i = 0; i < listeners.length; i++)
+				dispatchEvent(listeners[i], listeners[i], SYNCHRONOUS, event);
+		}
+
+		if (asyncListenerCount == 0)
+			return;
+		EventObject toQueue = event;
+		if (event instanceof CoalescibleEvent) {
+			toQueue = coalesce(((CoalescibleEvent) event).getCoalescingKey(), event);
+			if (toQueue == null)
+				return;
+		}
+		queueAsynchronous(toQueue);
+	}
+
+	private void queueAsynchronous(EventObject event) {
+		int count = asyncListenerCount;
+		if (count == 0) {
+			// nobody will resolve it, free its key
+			if (event instanceof CoalescedEvent)
+				((CoalescedEvent) event).resolve();
+			return;
+		}
+		ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject> queue = getAsyncQueue();
 		synchronized (dispatchEventLock) {
 			if (closed)
 				return;
+			queueDepth.addAndGet(count);
+			queue.dispatchEventAsynchronous(ASYNCHRONOUS, event);
 		}
-		/* queue to hold set of listeners */
-		ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject> listeners = new ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject>(eventManager);
+	}
 
-		/* synchronize while building the listener list */
-		synchronized (syncListeners) {
-			/* add set of BundleContexts w/ listeners to queue */
-			listeners.queueListeners(syncListeners.entrySet(), this);
-			/* synchronously dispatch to populate listeners queue */
-			listeners.dispatchEventSynchronous(0, event);
+	/*
+	 * Return the event to queue for the given coalescible event, or null if it
+	 * was merged into an event which is already waiting or has to be held back to
+	 * honor the maximum rate.
+	 */
+	private EventObject coalesce(Object key, EventObject event) {
+		synchronized (pendingEvents) {
+			CoalescedEvent pending = pendingEvents.get(key);
+			if (pending == null)
+				pending = delayedEvents.get(key);
+			if (pending != null) {
+				pending.replace(event);
+				coalescedEvents.incrementAndGet();
+				return null;
+			}
+			long interval = minCoalescingInterval;
+			if (interval > 0) {
+				long now = System.currentTimeMillis();
+				long[] last = lastQueued.get(key);
+				if (last == null) {
+					last = new long[1];
+					lastQueued.put(key, last);
+				} else if (now - last[0] < interval) {
+					pending = new CoalescedEvent(key, event);
+					delayedEvents.put(key, pending);
+					scheduleDelayed(pending, interval - (now - last[0]));
+					return null;
+				}
+				last[0] = now;
+			}
+			pending = new CoalescedEvent(key, event);
+			pendingEvents.put(key, pending);
+			return pending;
 		}
+	}
 
-		listeners = new ListenerQueue<ProvisioningListener, ProvisioningListener, EventObject>(eventManager);
-		synchronized (asyncListeners) {
-			listeners.queueListeners(asyncListeners.entrySet(), this);
-			synchronized (dispatchEventLock) {
-				if (!closed)
-					listeners.dispatchEventAsynchronous(0, event);
+	/* @GuardedBy("pendingEvents") */
+	private void scheduleDelayed(final CoalescedEvent delayed, long delay) {
+		if (closed)
+			return;
+		if (delayTimer == null)
+			delayTimer = new Timer("Provisioning Event Bus Timer", true); //$NON-NLS-1$
+		delayTimer.schedule(new TimerTask() {
+			public void run() {
+				queueDelayed(delayed);
 			}
+		}, delay);
+	}
+
+	/*
+	 * Queue an event held back by the maximum rate, with the latest state published for its key.
+	 */
+	void queueDelayed(CoalescedEvent delayed) {
+		synchronized (pendingEvents) {
+			if (delayedEvents.get(delayed.key) != delayed)
+				return;
+			delayedEvents.remove(delayed.key);
+			long[] last = lastQueued.get(delayed.key);
+			if (last != null)
+				last[0] = System.currentTimeMillis();
+			pendingEvents.put(delayed.key, delayed);
 		}
+		queueAsynchronous(delayed);
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus#dispatchEvent(java.lang.Object, java.lang.Object, int, java.lang.Object)
 	 */
 	public void dispatchEvent(ProvisioningListener eventListener, ProvisioningListener listenerObject, int eventAction, EventObject eventObject) {
-		synchronized (dispatchEventLock) {
+		if (eventAction == ASYNCHRONOUS)
+			queueDepth.decrementAndGet();
+		// count first so that close() either waits for us or we see that it was closed
+		dispatchingEvents.incrementAndGet();
+		try {
 			if (closed)
 				return;
-			dispatchingEvents++;
-		}
-		try {
-			eventListener.notify(eventObject);
+			if (eventObject instanceof CoalescedEvent)
+				eventObject = ((CoalescedEvent) eventObject).resolve();
+			long start = System.nanoTime();
+			try {
+				eventListener.notify(eventObject);
+			} finally {
+				listenerTime.addAndGet(System.nanoTime() - start);
+			}
 		} catch (Exception e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, "Exception during event notification", e)); //$NON-NLS-1$
 		} finally {
-			synchronized (dispatchEventLock) {
-				dispatchingEvents--;
-				if (dispatchingEvents == 0)
+			if (dispatchingEvents.decrementAndGet() == 0 && closed) {
+				synchronized (dispatchEventLock) {
 					dispatchEventLock.notifyAll();
+				}
 			}
 		}
 	}
@@ -125,7 +338,7 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 		synchronized (dispatchEventLock) {
 			eventManager.close();
 			closed = true;
-			while (dispatchingEvents != 0) {
+			while (dispatchingEvents.get() != 0) {
 				try {
 					dispatchEventLock.wait(30000); // we're going to cap waiting time at 30s
 					break;
@@ -135,6 +348,12 @@ public class ProvisioningEventBus implements EventDispatcher<ProvisioningListene
 				}
 			}
 		}
+		synchronized (pendingEvents) {
+			if (delayTimer != null)
+				delayTimer.cancel();
+			delayTimer = null;
+			delayedEvents.clear();
+		}
 		if (interrupted)
 			Thread.currentThread().interrupt();
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -71,7 +71,7 @@ public class OrderedProperties extends Dictionary<String, String> implements Map
 	}
 
 	public void putAll(OrderedProperties properties) {
-		putAll(properties);
+		putAll((Map<String, String>) properties);
 	}
 
 	/**
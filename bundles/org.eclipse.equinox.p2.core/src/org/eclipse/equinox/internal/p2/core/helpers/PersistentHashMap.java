@@ -0,0 +1,425 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.core.helpers;
+
+import java.util.*;
+
+/**
+ * A hash map whose {@link #clone()} takes constant time. The entries are stored in a
+ * hash array mapped trie whose nodes are shared between a map and its clones. A node
+ * is changed in place only by the map that created it; other maps copy the path to the
+ * entry they change, so a change costs O(log n) after a clone and O(1) otherwise.
+ * <p>
+ * Keys must not be <code>null</code>. Like {@link HashMap}, the map is not synchronized,
+ * and its iterators do not detect concurrent modifications.
+ * </p>
+ */
+public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Cloneable {
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	private static final Object NOT_FOUND = new Object();
+
+	/**
+	 * A node of the trie. Its array holds a key and a value for each set bit of
+	 * the bitmap, or a <code>null</code> key and a child node. Below the last level
+	 * all hash bits are used, the bitmap is unused and the array holds the colliding
+	 * keys and values.
+	 */
+	private static final class Node {
+		final Object owner;
+		int bitmap;
+		Object[] array;
+
+		Node(Object owner, int bitmap, Object[] array) {
+			this.owner = owner;
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+	}
+
+	private static final class MapEntry<K, V> implements Map.Entry<K, V> {
+		private final K key;
+		private final V value;
+
+		MapEntry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+
+		public K getKey() {
+			return key;
+		}
+
+		public V getValue() {
+			return value;
+		}
+
+		public V setValue(V v) {
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry<?, ?>))
+				return false;
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+			return key.equals(other.getKey()) && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+		}
+
+		public int hashCode() {
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		public String toString() {
+			return key + "=" + value; //$NON-NLS-1$
+		}
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		// the trie is at most 8 levels deep, including the collision level
+		private final Object[][] arrays = new Object[8][];
+		private final int[] positions = new int[8];
+		private int depth = -1;
+		private MapEntry<K, V> next;
+		private MapEntry<K, V> last;
+
+		EntryIterator() {
+			if (root != null) {
+				depth = 0;
+				arrays[0] = root.array;
+			}
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			next = null;
+			while (depth >= 0) {
+				Object[] array = arrays[depth];
+				int position = positions[depth];
+				if (position >= array.length) {
+					depth--;
+					continue;
+				}
+				positions[depth] = position + 2;
+				if (array[position] == null) {
+					depth++;
+					arrays[depth] = ((Node) array[position + 1]).array;
+					positions[depth] = 0;
+					continue;
+				}
+				next = new MapEntry<K, V>((K) array[position], (V) array[position + 1]);
+				return;
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Map.Entry<K, V> next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			last = next;
+			advance();
+			return last;
+		}
+
+		public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			// leave the nodes being iterated unchanged
+			owner = new Object();
+			PersistentHashMap.this.remove(last.getKey());
+			last = null;
+		}
+	}
+
+	private Node root;
+	private int size;
+	// the nodes created by this map, which it may change in place
+	private Object owner = new Object();
+
+	// results of the last put or remove
+	private Object previousValue;
+	private boolean sizeChanged;
+
+	private transient Set<Map.Entry<K, V>> entrySet;
+
+	public PersistentHashMap() {
+		super();
+	}
+
+	public PersistentHashMap(Map<? extends K, ? extends V> map) {
+		super();
+		putAll(map);
+	}
+
+	private PersistentHashMap(PersistentHashMap<K, V> source) {
+		super();
+		root = source.root;
+		size = source.size;
+		// neither map may change the shared nodes anymore
+		source.owner = new Object();
+	}
+
+	/**
+	 * Returns a copy of this map in constant time.
+	 */
+	public PersistentHashMap<K, V> clone() {
+		return new PersistentHashMap<K, V>(this);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		root = null;
+		size = 0;
+	}
+
+	public boolean containsKey(Object key) {
+		return lookup(key) != NOT_FOUND;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		Object value = lookup(key);
+		return value == NOT_FOUND ? null : (V) value;
+	}
+
+	/*
+	 * Returns the value of the key, or NOT_FOUND if the map does not contain it.
+	 */
+	private Object lookup(Object key) {
+		if (key == null)
+			return NOT_FOUND;
+		int hash = key.hashCode();
+		Node node = root;
+		int shift = 0;
+		while (node != null) {
+			if (shift >= 32) {
+				int index = indexOf(node.array, key);
+				return index >= 0 ? node.array[index + 1] : NOT_FOUND;
+			}
+			int bit = bit(hash, shift);
+			if ((node.bitmap & bit) == 0)
+				return NOT_FOUND;
+			int index = index(node.bitmap, bit);
+			Object candidate = node.array[index];
+			if (candidate != null)
+				return key.equals(candidate) ? node.array[index + 1] : NOT_FOUND;
+			node = (Node) node.array[index + 1];
+			shift += BITS;
+		}
+		return NOT_FOUND;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(K key, V value) {
+		if (key == null)
+			throw new NullPointerException();
+		previousValue = null;
+		sizeChanged = false;
+		root = put(root == null ? new Node(owner, 0, new Object[0]) : root, 0, key.hashCode(), key, value);
+		if (sizeChanged)
+			size++;
+		V result = (V) previousValue;
+		previousValue = null;
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		if (key == null || root == null)
+			return null;
+		previousValue = null;
+		sizeChanged = false;
+		root = remove(root, 0, key.hashCode(), key);
+		if (sizeChanged)
+			size--;
+		V result = (V) previousValue;
+		previousValue = null;
+		return result;
+	}
+
+	public Set<Map.Entry<K, V>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Map.Entry<K, V>>() {
+				public Iterator<Map.Entry<K, V>> iterator() {
+					return new EntryIterator();
+				}
+
+				public int size() {
+					return size;
+				}
+
+				public boolean contains(Object o) {
+					if (!(o instanceof Map.Entry<?, ?>))
+						return false;
+					Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+					Object value = lookup(entry.getKey());
+					if (value == NOT_FOUND)
+						return false;
+					return value == null ? entry.getValue() == null : value.equals(entry.getValue());
+				}
+
+				public void clear() {
+					PersistentHashMap.this.clear();
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	private Node put(Node node, int shift, int hash, Object key, Object value) {
+		if (shift >= 32) {
+			int index = indexOf(node.array, key);
+			if (index >= 0)
+				return replace(node, index, value);
+			sizeChanged = true;
+			return insert(node, 0, node.array.length, key, value);
+		}
+		int bit = bit(hash, shift);
+		int index = index(node.bitmap, bit);
+		if ((node.bitmap & bit) == 0) {
+			sizeChanged = true;
+			return insert(node, bit, index, key, value);
+		}
+		Object candidate = node.array[index];
+		Object candidateValue = node.array[index + 1];
+		if (candidate == null) {
+			Node child = put((Node) candidateValue, shift + BITS, hash, key, value);
+			return child == candidateValue ? node : replace(node, index, child);
+		}
+		if (key.equals(candidate))
+			return replace(node, index, value);
+		sizeChanged = true;
+		Node editable = editable(node);
+		editable.array[index] = null;
+		editable.array[index + 1] = createNode(shift + BITS, candidate, candidateValue, hash, key, value);
+		return editable;
+	}
+
+	private Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+		if (shift >= 32)
+			return new Node(owner, 0, new Object[] {key1, value1, key2, value2});
+		int hash1 = key1.hashCode();
+		int position1 = (hash1 >>> shift) & MASK;
+		int position2 = (hash2 >>> shift) & MASK;
+		if (position1 == position2)
+			return new Node(owner, 1 << position1, new Object[] {null, createNode(shift + BITS, key1, value1, hash2, key2, value2)});
+		int bitmap = (1 << position1) | (1 << position2);
+		if (position1 < position2)
+			return new Node(owner, bitmap, new Object[] {key1, value1, key2, value2});
+		return new Node(owner, bitmap, new Object[] {key2, value2, key1, value1});
+	}
+
+	private Node remove(Node node, int shift, int hash, Object key) {
+		int index;
+		int bit = 0;
+		if (shift >= 32) {
+			index = indexOf(node.array, key);
+			if (index < 0)
+				return node;
+		} else {
+			bit = bit(hash, shift);
+			if ((node.bitmap & bit) == 0)
+				return node;
+			index = index(node.bitmap, bit);
+			Object candidate = node.array[index];
+			if (candidate == null) {
+				Node child = (Node) node.array[index + 1];
+				Node newChild = remove(child, shift + BITS, hash, key);
+				if (newChild == child)
+					return node;
+				if (newChild != null) {
+					if (newChild.array.length == 2 && newChild.array[0] != null) {
+						// pull a single remaining entry up into this node
+						Node editable = editable(node);
+						editable.array[index] = newChild.array[0];
+						editable.array[index + 1] = newChild.array[1];
+						return editable;
+					}
+					return replace(node, index, newChild);
+				}
+				// the child is empty, remove it below
+			} else if (!key.equals(candidate)) {
+				return node;
+			}
+		}
+		if (node.array[index] != null) {
+			previousValue = node.array[index + 1];
+			sizeChanged = true;
+		}
+		if (node.array.length == 2)
+			return null;
+		Object[] array = new Object[node.array.length - 2];
+		System.arraycopy(node.array, 0, array, 0, index);
+		System.arraycopy(node.array, index + 2, array, index, array.length - index);
+		if (node.owner == owner) {
+			node.bitmap &= ~bit;
+			node.array = array;
+			return node;
+		}
+		return new Node(owner, node.bitmap & ~bit, array);
+	}
+
+	private Node replace(Node node, int index, Object value) {
+		if (node.array[index] != null)
+			previousValue = node.array[index + 1];
+		if (node.array[index + 1] == value)
+			return node;
+		Node editable = editable(node);
+		editable.array[index + 1] = value;
+		return editable;
+	}
+
+	private Node insert(Node node, int bit, int index, Object key, Object value) {
+		Object[] array = new Object[node.array.length + 2];
+		System.arraycopy(node.array, 0, array, 0, index);
+		array[index] = key;
+		array[index + 1] = value;
+		System.arraycopy(node.array, index, array, index + 2, node.array.length - index);
+		if (node.owner == owner) {
+			node.bitmap |= bit;
+			node.array = array;
+			return node;
+		}
+		return new Node(owner, node.bitmap | bit, array);
+	}
+
+	private Node editable(Node node) {
+		if (node.owner == owner)
+			return node;
+		return new Node(owner, node.bitmap, node.array.clone());
+	}
+
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	private static int index(int bitmap, int bit) {
+		return 2 * Integer.bitCount(bitmap & (bit - 1));
+	}
+
+	private static int indexOf(Object[] array, Object key) {
+		for (int i = 0; i < array.length; i += 2) {
+			if (key.equals(array[i]))
+				return i;
+		}
+		return -1;
+	}
+}
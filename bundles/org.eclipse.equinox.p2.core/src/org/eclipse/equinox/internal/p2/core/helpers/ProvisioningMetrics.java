@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.core.helpers;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.core.Activator;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+
+/**
+ * Collects timings and counters of a provisioning agent, such as the time spent in each
+ * planner stage or engine phase, or the number of bytes downloaded from a repository.
+ * Metrics are accumulated for the lifetime of the agent and for each running operation.
+ * A sample is added to the operation of the thread recording it, and to the operations
+ * that operation was started in, so concurrent operations do not see each other's samples.
+ * Work that an operation hands to other threads is attributed to it with
+ * {@link #setCurrentOperation(Operation)}.
+ * <p>
+ * Recording does nothing unless the metrics are enabled, either with the
+ * <code>eclipse.p2.metrics</code> property or with {@link #setEnabled(boolean)}.
+ * When the <code>eclipse.p2.metrics.reportDir</code> property is set, a JSON report
+ * of each operation is written to that directory when the operation ends.
+ * </p>
+ */
+public class ProvisioningMetrics {
+	/**
+	 * Service name constant for the metrics service.
+	 */
+	public static final String SERVICE_NAME = ProvisioningMetrics.class.getName();
+	public static final String PROP_ENABLED = "eclipse.p2.metrics"; //$NON-NLS-1$
+	public static final String PROP_REPORT_DIR = "eclipse.p2.metrics.reportDir"; //$NON-NLS-1$
+
+	private static final ProvisioningMetrics DISABLED = new ProvisioningMetrics(false, null);
+
+	/**
+	 * A series of samples of one timing or counter.
+	 */
+	public static final class Metric {
+		private final boolean timing;
+		private long count;
+		private long total;
+		private long min = Long.MAX_VALUE;
+		private long max = Long.MIN_VALUE;
+
+		Metric(boolean timing) {
+			this.timing = timing;
+		}
+
+		synchronized void add(long value) {
+			count++;
+			total += value;
+			if (value < min)
+				min = value;
+			if (value > max)
+				max = value;
+		}
+
+		/**
+		 * Returns whether the samples are durations in nanoseconds.
+		 */
+		public boolean isTiming() {
+			return timing;
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized long getTotal() {
+			return total;
+		}
+
+		public synchronized long getMin() {
+			return count == 0 ? 0 : min;
+		}
+
+		public synchronized long getMax() {
+			return count == 0 ? 0 : max;
+		}
+
+		synchronized void appendJSON(StringBuffer buffer) {
+			buffer.append("{\"type\":\"").append(timing ? "time" : "count"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			buffer.append("\",\"count\":").append(count); //$NON-NLS-1$
+			if (timing) {
+				// report milliseconds, which are easier to read than nanoseconds
+				buffer.append(",\"totalMs\":").append(toMillis(total)); //$NON-NLS-1$
+				buffer.append(",\"minMs\":").append(toMillis(getMin())); //$NON-NLS-1$
+				buffer.append(",\"maxMs\":").append(toMillis(getMax())); //$NON-NLS-1$
+			} else {
+				buffer.append(",\"total\":").append(total); //$NON-NLS-1$
+				buffer.append(",\"min\":").append(getMin()); //$NON-NLS-1$
+				buffer.append(",\"max\":").append(getMax()); //$NON-NLS-1$
+			}
+			buffer.append('}');
+		}
+
+		private static double toMillis(long nanos) {
+			return Math.round(nanos / 1000.0) / 1000.0;
+		}
+	}
+
+	/**
+	 * The metrics recorded while an operation, such as computing a plan, is running.
+	 */
+	public static final class Operation {
+		final String name;
+		final long startTime = System.currentTimeMillis();
+		final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+		// the operation of the thread when this one started, which also gets its samples
+		final Operation parent;
+
+		Operation(String name, Operation parent) {
+			this.name = name;
+			this.parent = parent;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public Map<String, Metric> getMetrics() {
+			return Collections.unmodifiableMap(metrics);
+		}
+
+		/**
+		 * Returns the metrics of this operation as a JSON object.
+		 */
+		public String toJSON() {
+			StringBuffer buffer = new StringBuffer(1024);
+			buffer.append("{\"operation\":"); //$NON-NLS-1$
+			appendString(buffer, name);
+			buffer.append(",\"start\":").append(startTime); //$NON-NLS-1$
+			buffer.append(",\"metrics\":"); //$NON-NLS-1$
+			appendMetrics(buffer, metrics);
+			buffer.append('}');
+			return buffer.toString();
+		}
+	}
+
+	private volatile boolean enabled;
+	private final File reportDirectory;
+	private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+	private final ThreadLocal<Operation> currentOperation = new ThreadLocal<Operation>();
+
+	/**
+	 * Returns the metrics of the given agent. If the agent has no metrics service, the returned
+	 * metrics are disabled. Callers should keep the result rather than look it up for every sample.
+	 */
+	public static ProvisioningMetrics getMetrics(IProvisioningAgent agent) {
+		Object service = agent == null ? null : agent.getService(SERVICE_NAME);
+		return service instanceof ProvisioningMetrics ? (ProvisioningMetrics) service : DISABLED;
+	}
+
+	public ProvisioningMetrics(boolean enabled, File reportDirectory) {
+		this.enabled = enabled;
+		this.reportDirectory = reportDirectory;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setEnabled(boolean enabled) {
+		// the shared disabled instance must stay disabled
+		if (this != DISABLED)
+			this.enabled = enabled;
+	}
+
+	/**
+	 * Returns the start time of a sample to pass to {@link #time(String, long)}, or 0 if the
+	 * metrics are disabled.
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the time elapsed since the given start time, as returned by {@link #start()}.
+	 */
+	public void time(String name, long start) {
+		if (enabled && start != 0)
+			record(name, System.nanoTime() - start, true);
+	}
+
+	/**
+	 * Records a sample of the given counter.
+	 */
+	public void count(String name, long value) {
+		if (enabled)
+			record(name, value, false);
+	}
+
+	private void record(String name, long value, boolean timing) {
+		getMetric(metrics, name, timing).add(value);
+		for (Operation operation = currentOperation.get(); operation != null; operation = operation.parent)
+			getMetric(operation.metrics, name, timing).add(value);
+	}
+
+	private static Metric getMetric(ConcurrentMap<String, Metric> map, String name, boolean timing) {
+		Metric metric = map.get(name);
+		if (metric == null) {
+			metric = new Metric(timing);
+			Metric existing = map.putIfAbsent(name, metric);
+			if (existing != null)
+				metric = existing;
+		}
+		return metric;
+	}
+
+	/**
+	 * Starts recording the metrics of an operation on the current thread. Returns
+	 * <code>null</code> if the metrics are disabled.
+	 */
+	public Operation startOperation(String name) {
+		if (!enabled)
+			return null;
+		Operation operation = new Operation(name, currentOperation.get());
+		currentOperation.set(operation);
+		return operation;
+	}
+
+	/**
+	 * Stops recording the metrics of the given operation, and writes its report if a
+	 * report directory is set. Must be called on the thread which started the operation.
+	 * Does nothing if the operation is <code>null</code>.
+	 */
+	public void endOperation(Operation operation) {
+		if (operation == null)
+			return;
+		if (currentOperation.get() == operation)
+			setCurrentOperation(operation.parent);
+		if (reportDirectory != null)
+			writeReport(operation);
+	}
+
+	/**
+	 * Returns the operation recording the samples of the current thread, or <code>null</code>.
+	 */
+	public Operation getCurrentOperation() {
+		return currentOperation.get();
+	}
+
+	/**
+	 * Makes the given operation record the samples of the current thread, and returns the
+	 * operation which recorded them until now. Threads working for an operation started on
+	 * another thread set it while they work and restore the returned operation afterwards.
+	 */
+	public Operation setCurrentOperation(Operation operation) {
+		Operation previous = currentOperation.get();
+		if (operation == null)
+			currentOperation.remove();
+		else
+			currentOperation.set(operation);
+		return previous;
+	}
+
+	/**
+	 * Returns the metrics recorded since the agent was created or the metrics were reset.
+	 */
+	public Map<String, Metric> getMetrics() {
+		return Collections.unmodifiableMap(metrics);
+	}
+
+	public void reset() {
+		metrics.clear();
+	}
+
+	/**
+	 * Returns the metrics recorded since the agent was created or the metrics were reset,
+	 * as a JSON object.
+	 */
+	public String toJSON() {
+		StringBuffer buffer = new StringBuffer(1024);
+		appendMetrics(buffer, metrics);
+		return buffer.toString();
+	}
+
+	private void writeReport(Operation operation) {
+		reportDirectory.mkdirs();
+		File report = new File(reportDirectory, operation.name + '-' + operation.startTime + '-' + Integer.toHexString(System.identityHashCode(operation)) + ".json"); //$NON-NLS-1$
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(report), "UTF-8"); //$NON-NLS-1$
+			try {
+				writer.write(operation.toJSON());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Unable to write the metrics report " + report, e)); //$NON-NLS-1$
+		}
+	}
+
+	static void appendMetrics(StringBuffer buffer, Map<String, Metric> metrics) {
+		// sort the names so that reports are easy to compare
+		List<String> names = new ArrayList<String>(metrics.keySet());
+		Collections.sort(names);
+		buffer.append('{');
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0)
+				buffer.append(',');
+			appendString(buffer, names.get(i));
+			buffer.append(':');
+			metrics.get(names.get(i)).appendJSON(buffer);
+		}
+		buffer.append('}');
+	}
+
+	static void appendString(StringBuffer buffer, String value) {
+		buffer.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"' :
+				case '\\' :
+					buffer.append('\\').append(c);
+					break;
+				case '\n' :
+					buffer.append("\\n"); //$NON-NLS-1$
+					break;
+				case '\r' :
+					buffer.append("\\r"); //$NON-NLS-1$
+					break;
+				case '\t' :
+					buffer.append("\\t"); //$NON-NLS-1$
+					break;
+				default :
+					if (c < 0x20) {
+						String hex = Integer.toHexString(c);
+						buffer.append("\\u"); //$NON-NLS-1$
+						for (int j = hex.length(); j < 4; j++)
+							buffer.append('0');
+						buffer.append(hex);
+					} else {
+						buffer.append(c);
+					}
+			}
+		}
+		buffer.append('"');
+	}
+}
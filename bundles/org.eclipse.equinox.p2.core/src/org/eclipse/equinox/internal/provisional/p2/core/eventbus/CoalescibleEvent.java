@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.provisional.p2.core.eventbus;
+
+/**
+ * An event which only reports the current state of something, such as the progress
+ * of a download, so that a newer event makes older ones with the same key obsolete.
+ * When such events are published faster than asynchronous listeners consume them,
+ * the event bus only delivers the most recent one. Synchronous listeners always
+ * receive every event.
+ */
+public interface CoalescibleEvent {
+	/**
+	 * Returns the key identifying the events which supersede each other.
+	 */
+	public Object getCoalescingKey();
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -43,6 +43,70 @@ public class OperationGenerator {
 		generateConfigurationChanges(to_, intersection);
 	}
 
+	/**
+	 * Returns the given units sorted by id and version, the first of equal units coming first.
+	 */
+	public static Iterator<IInstallableUnit> sort(Collection<IInstallableUnit> ius) {
+		IInstallableUnit[] sorted = ius.toArray(new IInstallableUnit[ius.size()]);
+		Arrays.sort(sorted);
+		return Arrays.asList(sorted).iterator();
+	}
+
+	/**
+	 * Generates the operations of {@link #generateOperation(Collection, Collection)} from the
+	 * units sorted by id and version, in one pass over both states. Only the units that are not
+	 * in both states, and the units to reconfigure, are kept, so the memory used grows with the
+	 * size of the change rather than with the size of the states. The configuration operations
+	 * are generated in the order of the units.
+	 * 
+	 * @param from the units of the current state, sorted by id and version
+	 * @param to the units of the target state, sorted by id and version
+	 */
+	public void generateSortedOperation(Iterator<IInstallableUnit> from, Iterator<IInstallableUnit> to) {
+		List<IInstallableUnit> fromOnly = new ArrayList<IInstallableUnit>();
+		List<IInstallableUnit> toOnly = new ArrayList<IInstallableUnit>();
+		//The units to reconfigure, as pairs of the unit from each state
+		List<IInstallableUnit> reconfigured = new ArrayList<IInstallableUnit>();
+		IInstallableUnit fromIU = next(from, null);
+		IInstallableUnit toIU = next(to, null);
+		while (fromIU != null && toIU != null) {
+			int comparison = toIU.compareTo(fromIU);
+			if (comparison < 0) {
+				toOnly.add(toIU);
+				toIU = next(to, toIU);
+			} else if (comparison == 0) {
+				if (isReconfigured(fromIU, toIU)) {
+					reconfigured.add(fromIU);
+					reconfigured.add(toIU);
+				}
+				fromIU = next(from, fromIU);
+				toIU = next(to, toIU);
+			} else {
+				fromOnly.add(fromIU);
+				fromIU = next(from, fromIU);
+			}
+		}
+		for (; fromIU != null; fromIU = next(from, fromIU))
+			fromOnly.add(fromIU);
+		for (; toIU != null; toIU = next(to, toIU))
+			toOnly.add(toIU);
+
+		generateUpdates(fromOnly, toOnly);
+		generateInstallUninstall(fromOnly, toOnly);
+		for (int i = 0; i < reconfigured.size(); i += 2)
+			plan.updateInstallableUnit(reconfigured.get(i), reconfigured.get(i + 1));
+	}
+
+	//Returns the next unit not equal to the previous one, or null at the end.
+	private static IInstallableUnit next(Iterator<IInstallableUnit> sorted, IInstallableUnit previous) {
+		while (sorted.hasNext()) {
+			IInstallableUnit iu = sorted.next();
+			if (previous == null || iu.compareTo(previous) != 0)
+				return iu;
+		}
+		return null;
+	}
+
 	//This generates operations that are causing the IUs to be reconfigured.
 	private void generateConfigurationChanges(Collection<IInstallableUnit> to_, Collection<IInstallableUnit> intersection) {
 		if (intersection.size() == 0)
@@ -59,14 +123,17 @@ public class OperationGenerator {
 	}
 
 	private void generateConfigurationOperation(IInstallableUnit fromIU, IInstallableUnit toIU) {
+		if (isReconfigured(fromIU, toIU))
+			plan.updateInstallableUnit(fromIU, toIU);
+	}
+
+	private boolean isReconfigured(IInstallableUnit fromIU, IInstallableUnit toIU) {
 		Collection<IInstallableUnitFragment> fromFragments = fromIU.getFragments();
 		Collection<IInstallableUnitFragment> toFragments = toIU.getFragments();
 		if (fromFragments == toFragments)
-			return;
+			return false;
 		//Check to see if the two arrays are equals independently of the order of the fragments
-		if (fromFragments.size() == toFragments.size() && fromFragments.containsAll(toFragments))
-			return;
-		plan.updateInstallableUnit(fromIU, toIU);
+		return fromFragments.size() != toFragments.size() || !fromFragments.containsAll(toFragments);
 	}
 
 	private void generateInstallUninstall(List<IInstallableUnit> from, List<IInstallableUnit> to) {
@@ -15,10 +15,12 @@
  ******************************************************************************/
 package org.eclipse.equinox.internal.p2.director;
 
+import java.math.BigInteger;
 import java.util.*;
 import java.util.Map.Entry;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.director.Explanation.NotInstallableRoot;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
@@ -62,6 +64,7 @@ public class Projector {
 	private IInstallableUnit selectionContext;
 
 	DependencyHelper<Object, Explanation> dependencyHelper;
+	private IPBSolver solver;
 	private Collection<IInstallableUnit> solution;
 	private Collection<Object> assumptions;
 
@@ -80,6 +83,9 @@ public class Projector {
 	private Map<AbstractVariable, List<Object>> nonGreedyProvider = new HashMap<AbstractVariable, List<Object>>(); //Keeps track of all the "object" that provide an IU that is non greedly requested  
 
 	private boolean emptyBecauseFiltered;
+	//The applicable units matching each requirement, which many units of a slice share
+	private Map<IMatchExpression<IInstallableUnit>, IInstallableUnit[]> applicableMatchesCache = new HashMap<IMatchExpression<IInstallableUnit>, IInstallableUnit[]>();
+	private Set<IMatchExpression<IInstallableUnit>> filteredMatchExpressions = new HashSet<IMatchExpression<IInstallableUnit>>();
 	private boolean userDefinedFunction;
 
 	static class AbstractVariable {
@@ -170,7 +176,8 @@ public class Projector {
 
 	@SuppressWarnings("unchecked")
 	public void encode(IInstallableUnit entryPointIU, IInstallableUnit[] alreadyExistingRoots, IQueryable<IInstallableUnit> installedIUs, Collection<IInstallableUnit> newRoots, IProgressMonitor monitor) {
-		alreadyInstalledIUs = Arrays.asList(alreadyExistingRoots);
+		//looked up for every requirement, kept in order for the user defined optimization function
+		alreadyInstalledIUs = new LinkedHashSet<IInstallableUnit>(Arrays.asList(alreadyExistingRoots));
 		lastState = installedIUs;
 		this.entryPoint = entryPointIU;
 		try {
@@ -192,6 +199,7 @@ public class Projector {
 					solver = SolverFactory.newEclipseP2();
 				}
 			}
+			this.solver = solver;
 			int timeout = DEFAULT_SOLVER_TIMEOUT;
 			String timeoutString = null;
 			try {
@@ -220,7 +228,8 @@ public class Projector {
 				if (userDefinedFunction)
 					dependencyHelper = new SteppedTimeoutLexicoHelper<Object, Explanation>(solver);
 				else
-					dependencyHelper = new DependencyHelper<Object, Explanation>(solver);
+					// the objective function is given without duplicates, see createObjectiveFunction
+					dependencyHelper = new DependencyHelper<Object, Explanation>(solver, true, false);
 			}
 			List<IInstallableUnit> iusToOrder = new ArrayList<IInstallableUnit>(queryResult.toSet());
 			Collections.sort(iusToOrder);
@@ -301,9 +310,50 @@ public class Projector {
 			}
 			Tracing.debug("objective function: " + b); //$NON-NLS-1$
 		}
+		dependencyHelper.setObjectiveFunction(mergeWeights(weightedObjects));
+	}
+
+	/**
+	 * Sums the weights of the same variable, dropping the variables whose weights cancel out,
+	 * as the canonical objective functions of sat4j do but without scanning the terms already
+	 * added for each new term. The order of the terms is the order sat4j would give them.
+	 */
+	static WeightedObject<Object>[] mergeWeights(List<WeightedObject<? extends Object>> weightedObjects) {
+		Map<Object, Integer> positions = new HashMap<Object, Integer>(weightedObjects.size());
+		List<Object> things = new ArrayList<Object>(weightedObjects.size());
+		List<BigInteger> weights = new ArrayList<BigInteger>(weightedObjects.size());
+		for (WeightedObject<? extends Object> weightedObject : weightedObjects) {
+			Object thing = weightedObject.thing;
+			Integer position = positions.get(thing);
+			if (position == null) {
+				positions.put(thing, things.size());
+				things.add(thing);
+				weights.add(weightedObject.getWeight());
+				continue;
+			}
+			int i = position.intValue();
+			BigInteger weight = weights.get(i).add(weightedObject.getWeight());
+			if (weight.signum() != 0) {
+				weights.set(i, weight);
+				continue;
+			}
+			//like sat4j, move the last term in place of the removed one
+			positions.remove(thing);
+			int last = things.size() - 1;
+			if (i != last) {
+				Object moved = things.get(last);
+				things.set(i, moved);
+				weights.set(i, weights.get(last));
+				positions.put(moved, i);
+			}
+			things.remove(last);
+			weights.remove(last);
+		}
 		@SuppressWarnings("unchecked")
-		WeightedObject<Object>[] array = (WeightedObject<Object>[]) weightedObjects.toArray(new WeightedObject<?>[weightedObjects.size()]);
-		dependencyHelper.setObjectiveFunction(array);
+		WeightedObject<Object>[] merged = new WeightedObject[things.size()];
+		for (int i = 0; i < merged.length; i++)
+			merged[i] = WeightedObject.newWO(things.get(i), weights.get(i));
+		return merged;
 	}
 
 	private void createMustHave(IInstallableUnit iu, IInstallableUnit[] alreadyExistingRoots) throws ContradictionException {
@@ -824,16 +874,25 @@ public class Projector {
 	 * @return a list of mandatory requirements if any, an empty list if req.isOptional().
 	 */
 	private List<IInstallableUnit> getApplicableMatches(IRequirement req) {
-		List<IInstallableUnit> target = new ArrayList<IInstallableUnit>();
-		IQueryResult<IInstallableUnit> matches = picker.query(QueryUtil.createMatchQuery(req.getMatches()), null);
-		for (Iterator<IInstallableUnit> iterator = matches.iterator(); iterator.hasNext();) {
-			IInstallableUnit match = iterator.next();
-			if (isApplicable(match)) {
-				target.add(match);
+		IMatchExpression<IInstallableUnit> matchExpression = req.getMatches();
+		IInstallableUnit[] applicableMatches = applicableMatchesCache.get(matchExpression);
+		if (applicableMatches == null) {
+			List<IInstallableUnit> target = new ArrayList<IInstallableUnit>();
+			IQueryResult<IInstallableUnit> matches = picker.query(QueryUtil.createMatchQuery(matchExpression), null);
+			for (Iterator<IInstallableUnit> iterator = matches.iterator(); iterator.hasNext();) {
+				IInstallableUnit match = iterator.next();
+				if (isApplicable(match)) {
+					target.add(match);
+				}
 			}
+			applicableMatches = target.toArray(new IInstallableUnit[target.size()]);
+			applicableMatchesCache.put(matchExpression, applicableMatches);
+			if (!matches.isEmpty() && target.isEmpty())
+				filteredMatchExpressions.add(matchExpression);
 		}
-		emptyBecauseFiltered = !matches.isEmpty() && target.isEmpty();
-		return target;
+		emptyBecauseFiltered = applicableMatches.length == 0 && filteredMatchExpressions.contains(matchExpression);
+		//callers add to the list
+		return new ArrayList<IInstallableUnit>(Arrays.asList(applicableMatches));
 	}
 
 	//Return a new array of requirements representing the application of the patch
@@ -1014,6 +1073,19 @@ public class Projector {
 		return result;
 	}
 
+	/**
+	 * Records the size of the encoded problem and the number of conflicts met by the solver.
+	 */
+	void recordMetrics(ProvisioningMetrics metrics) {
+		if (!metrics.isEnabled() || solver == null)
+			return;
+		metrics.count("projector.variables", solver.nVars()); //$NON-NLS-1$
+		metrics.count("projector.constraints", solver.nConstraints()); //$NON-NLS-1$
+		Number conflicts = solver.getStat().get("conflicts"); //$NON-NLS-1$
+		if (conflicts != null)
+			metrics.count("projector.conflicts", conflicts.longValue()); //$NON-NLS-1$
+	}
+
 	private void backToIU() {
 		solution = new ArrayList<IInstallableUnit>();
 		IVec<Object> sat4jSolution = dependencyHelper.getSolution();
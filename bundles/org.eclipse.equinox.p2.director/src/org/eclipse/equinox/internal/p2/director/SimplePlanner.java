@@ -17,6 +17,7 @@ import java.net.URI;
 import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.director.Explanation.MissingIU;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
@@ -49,6 +50,7 @@ public class SimplePlanner implements IPlanner {
 	private final IProvisioningAgent agent;
 	private final IProfileRegistry profileRegistry;
 	private final IEngine engine;
+	private final ProvisioningMetrics metrics;
 
 	private IProvisioningPlan generateProvisioningPlan(Collection<IInstallableUnit> fromState, Collection<IInstallableUnit> toState, ProfileChangeRequest changeRequest, IProvisioningPlan installerPlan, ProvisioningContext context) {
 		IProvisioningPlan plan = engine.createPlan(changeRequest.getProfile(), context);
@@ -209,7 +211,7 @@ public class SimplePlanner implements IPlanner {
 	}
 
 	private void planIUOperations(IProvisioningPlan plan, Collection<IInstallableUnit> fromState, Collection<IInstallableUnit> toState) {
-		new OperationGenerator(plan).generateOperation(fromState, toState);
+		new OperationGenerator(plan).generateSortedOperation(OperationGenerator.sort(fromState), OperationGenerator.sort(toState));
 	}
 
 	public IProvisioningPlan getDiffPlan(IProfile currentProfile, IProfile targetProfile, IProgressMonitor monitor) {
@@ -289,6 +291,7 @@ public class SimplePlanner implements IPlanner {
 		this.agent = agent;
 		this.engine = (IEngine) agent.getService(IEngine.SERVICE_NAME);
 		this.profileRegistry = (IProfileRegistry) agent.getService(IProfileRegistry.SERVICE_NAME);
+		this.metrics = ProvisioningMetrics.getMetrics(agent);
 		Assert.isNotNull(engine);
 		Assert.isNotNull(profileRegistry);
 	}
@@ -325,10 +328,15 @@ public class SimplePlanner implements IPlanner {
 					extraIUs.add(itor.next());
 			}
 
+			long start = metrics.start();
 			IInstallableUnit[] availableIUs = gatherAvailableInstallableUnits(extraIUs.toArray(new IInstallableUnit[extraIUs.size()]), context, sub.newChild(ExpandWork / 4));
+			metrics.time("planner.gather", start); //$NON-NLS-1$
+			metrics.count("planner.availableIUs", availableIUs.length); //$NON-NLS-1$
 
+			start = metrics.start();
 			Slicer slicer = new Slicer(new QueryableArray(availableIUs), newSelectionContext, satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
 			IQueryable<IInstallableUnit> slice = slicer.slice(new IInstallableUnit[] {(IInstallableUnit) updatedPlan[0]}, sub.newChild(ExpandWork / 4));
+			metrics.time("planner.slice", start); //$NON-NLS-1$
 			if (slice == null) {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
 				plan.setStatus(slicer.getStatus());
@@ -339,8 +347,13 @@ public class SimplePlanner implements IPlanner {
 			slice = new CompoundQueryable<IInstallableUnit>(queryables);
 			Projector projector = new Projector(slice, newSelectionContext, slicer.getNonGreedyIUs(), satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
 			projector.setUserDefined(profileChangeRequest.getPropertiesToAdd().containsKey("_internal_user_defined_"));
+			start = metrics.start();
 			projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile, profileChangeRequest.getAdditions(), sub.newChild(ExpandWork / 4));
+			metrics.time("planner.encode", start); //$NON-NLS-1$
+			start = metrics.start();
 			IStatus s = projector.invokeSolver(sub.newChild(ExpandWork / 4));
+			metrics.time("planner.solve", start); //$NON-NLS-1$
+			projector.recordMetrics(metrics);
 			if (s.getSeverity() == IStatus.CANCEL) {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
 				plan.setStatus(s);
@@ -355,7 +368,9 @@ public class SimplePlanner implements IPlanner {
 				}
 
 				//Extract the explanation
+				start = metrics.start();
 				Set<Explanation> explanation = projector.getExplanation(sub.newChild(ExpandWork / 4));
+				metrics.time("planner.explanation", start); //$NON-NLS-1$
 				IStatus explanationStatus = convertExplanationToStatus(explanation);
 
 				Map<IInstallableUnit, RequestStatus>[] changes = buildDetailedErrors(profileChangeRequest);
@@ -382,6 +397,8 @@ public class SimplePlanner implements IPlanner {
 		ProfileChangeRequest pcr = (ProfileChangeRequest) request;
 		SubMonitor sub = SubMonitor.convert(monitor, ExpandWork);
 		sub.setTaskName(Messages.Director_Task_Resolving_Dependencies);
+		ProvisioningMetrics.Operation operation = metrics.startOperation("plan"); //$NON-NLS-1$
+		long start = metrics.start();
 		try {
 			//Get the solution for the initial request
 			Object resolutionResult = getSolutionFor(pcr, context, sub.newChild(ExpandWork / 2));
@@ -394,7 +411,9 @@ public class SimplePlanner implements IPlanner {
 			fullState.addAll(newState);
 			newState = AttachmentHelper.attachFragments(newState.iterator(), ((Projector) resolutionResult).getFragmentAssociation());
 
+			long generateStart = metrics.start();
 			IProvisioningPlan temporaryPlan = generatePlan((Projector) resolutionResult, newState, pcr, context);
+			metrics.time("planner.generatePlan", generateStart); //$NON-NLS-1$
 
 			//Create a plan for installing necessary pieces to complete the installation (e.g touchpoint actions)
 			return createInstallerPlan(pcr.getProfile(), pcr, fullState, newState, temporaryPlan, context, sub.newChild(ExpandWork / 2));
@@ -403,6 +422,8 @@ public class SimplePlanner implements IPlanner {
 			plan.setStatus(Status.CANCEL_STATUS);
 			return plan;
 		} finally {
+			metrics.time("planner.total", start); //$NON-NLS-1$
+			metrics.endOperation(operation);
 			sub.done();
 		}
 	}
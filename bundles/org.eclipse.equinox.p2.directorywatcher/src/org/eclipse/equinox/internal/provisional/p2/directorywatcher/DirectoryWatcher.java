@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 aQute and others.
+ *  Copyright (c) 2007, 2013 aQute and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -167,8 +167,13 @@ public class DirectoryWatcher {
 	private void stopPoll() {
 		notifyRemovals();
 		removals = scannedFiles;
-		for (DirectoryChangeListener listener : listeners)
-			listener.stopPoll();
+		for (DirectoryChangeListener listener : listeners) {
+			try {
+				listener.stopPoll();
+			} catch (Exception e) {
+				log(NLS.bind(Messages.error_processing, listener), e);
+			}
+		}
 		processPendingDeletions();
 	}
 
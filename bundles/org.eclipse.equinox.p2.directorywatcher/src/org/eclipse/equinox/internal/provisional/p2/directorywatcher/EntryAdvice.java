@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 Code 9 and others. All rights reserved. This
+ * Copyright (c) 2008, 2013 Code 9 and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -27,10 +27,19 @@ import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
  * Entry advice captures the name, location, modified time, shape etc of something
  * discovered by the repository listener.  It is a simplified structure intended to represent
  * only one entry at a time and that entry is the the only entry being published.  
+ * When several bundles are published together, each bundle is added as an entry keyed
+ * by its id and version instead.
  */
 public class EntryAdvice implements IPropertyAdvice {
 	private Map<String, String> metadataProps = new HashMap<String, String>();
 	private Map<String, String> artifactProps = new HashMap<String, String>();
+	// the properties of the bundles being published in a batch, keyed by id and version
+	private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private static class Entry {
+		final Map<String, String> metadataProps = new HashMap<String, String>();
+		final Map<String, String> artifactProps = new HashMap<String, String>();
+	}
 
 	public boolean isApplicable(String configSpec, boolean includeDefault, String id, Version version) {
 		return true;
@@ -41,6 +50,20 @@ public class EntryAdvice implements IPropertyAdvice {
 	}
 
 	void setProperties(File location, long timestamp, URI reference, String linkFile) {
+		setProperties(metadataProps, artifactProps, location, timestamp, reference, linkFile);
+	}
+
+	void addEntry(String id, String version, File location, long timestamp, URI reference) {
+		Entry entry = new Entry();
+		setProperties(entry.metadataProps, entry.artifactProps, location, timestamp, reference, null);
+		entries.put(getKey(id, version), entry);
+	}
+
+	void clearEntries() {
+		entries.clear();
+	}
+
+	private static void setProperties(Map<String, String> metadataProps, Map<String, String> artifactProps, File location, long timestamp, URI reference, String linkFile) {
 		if (reference == null)
 			artifactProps.remove(RepositoryListener.ARTIFACT_REFERENCE);
 		else
@@ -56,11 +79,21 @@ public class EntryAdvice implements IPropertyAdvice {
 			metadataProps.put(Site.PROP_LINK_FILE, linkFile);
 	}
 
+	private static String getKey(String id, String version) {
+		return id + '_' + version;
+	}
+
 	public Map<String, String> getArtifactProperties(IInstallableUnit iu, IArtifactDescriptor descriptor) {
-		return artifactProps;
+		if (entries.isEmpty())
+			return artifactProps;
+		Entry entry = entries.get(getKey(iu.getId(), iu.getVersion().toString()));
+		return entry == null ? null : entry.artifactProps;
 	}
 
 	public Map<String, String> getInstallableUnitProperties(InstallableUnitDescription iu) {
-		return metadataProps;
+		if (entries.isEmpty())
+			return metadataProps;
+		Entry entry = entries.get(getKey(iu.getId(), iu.getVersion().toString()));
+		return entry == null ? null : entry.metadataProps;
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008 IBM Corporation and others.
+ *  Copyright (c) 2008, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -19,6 +19,7 @@ public class Messages extends NLS {
 	public static String error_processing;
 	public static String failed_create_artifact_repo;
 	public static String failed_create_metadata_repo;
+	public static String failed_publish_bundle;
 	public static String filename_missing;
 	public static String metadata_repo_manager_not_registered;
 	public static String null_folder;
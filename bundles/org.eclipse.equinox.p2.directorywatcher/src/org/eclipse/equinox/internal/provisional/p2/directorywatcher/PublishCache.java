@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.provisional.p2.directorywatcher;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactDescriptor;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.io.IUDeserializer;
+import org.eclipse.equinox.p2.metadata.io.IUSerializer;
+import org.eclipse.equinox.p2.repository.artifact.*;
+import org.eclipse.equinox.p2.repository.artifact.spi.ProcessingStepDescriptor;
+import org.osgi.framework.BundleContext;
+
+/**
+ * A persistent cache of the installable units and artifact descriptors published by
+ * repository listeners. Entries are keyed by the path, size and last modified time of
+ * the published file, so unchanged files are not opened again, even across restarts.
+ * The cache is loaded on first use and only written when it has changed. It keeps the
+ * most recently used {@link #MAX_ENTRIES} entries, and its entries are only held in memory
+ * between a load and {@link #release()}.
+ */
+class PublishCache {
+	private static final String CACHE_FILE = "publish.cache"; //$NON-NLS-1$
+	private static final int MAGIC = 0x50324443; // "P2DC"
+	private static final int FORMAT_VERSION = 1;
+	static final int MAX_ENTRIES = 10000;
+	private static PublishCache instance;
+
+	private static class Entry {
+		long size;
+		long lastModified;
+		byte[] installableUnits;
+		byte[] descriptors;
+	}
+
+	private final File file;
+	private Map<String, Entry> entries;
+	private boolean dirty;
+
+	/**
+	 * Returns the cache shared by all listeners, or <code>null</code> if there is no place to store it.
+	 */
+	static synchronized PublishCache getDefault() {
+		if (instance == null) {
+			BundleContext context = Activator.getContext();
+			File file = context == null ? null : context.getDataFile(CACHE_FILE);
+			if (file == null)
+				return null;
+			instance = new PublishCache(file);
+		}
+		return instance;
+	}
+
+	PublishCache(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the installable units published for the given file, or <code>null</code> if
+	 * the file is not in the cache or has changed since.
+	 */
+	synchronized Collection<IInstallableUnit> getInstallableUnits(File location, long lastModified) {
+		Entry entry = getEntry(location, lastModified);
+		if (entry == null)
+			return null;
+		try {
+			return new IUDeserializer().read(new ByteArrayInputStream(entry.installableUnits));
+		} catch (IOException e) {
+			entries.remove(location.getAbsolutePath());
+			dirty = true;
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the artifact descriptors published for the given file, or <code>null</code>
+	 * if the file is not in the cache or has changed since.
+	 */
+	synchronized IArtifactDescriptor[] getArtifactDescriptors(File location, long lastModified, IArtifactRepository repository) {
+		Entry entry = getEntry(location, lastModified);
+		if (entry == null)
+			return null;
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.descriptors));
+			IArtifactDescriptor[] result = new IArtifactDescriptor[in.readInt()];
+			for (int i = 0; i < result.length; i++)
+				result[i] = readDescriptor(in, repository);
+			return result;
+		} catch (IOException e) {
+			entries.remove(location.getAbsolutePath());
+			dirty = true;
+			return null;
+		}
+	}
+
+	synchronized void put(File location, long size, long lastModified, Collection<IInstallableUnit> installableUnits, Collection<SimpleArtifactDescriptor> descriptors) {
+		load();
+		Entry entry = new Entry();
+		entry.size = size;
+		entry.lastModified = lastModified;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			new IUSerializer(bytes).write(installableUnits);
+			entry.installableUnits = bytes.toByteArray();
+			bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(descriptors.size());
+			for (SimpleArtifactDescriptor descriptor : descriptors)
+				writeDescriptor(out, descriptor);
+			out.flush();
+			entry.descriptors = bytes.toByteArray();
+		} catch (IOException e) {
+			return;
+		}
+		entries.put(location.getAbsolutePath(), entry);
+		dirty = true;
+	}
+
+	synchronized void remove(File location) {
+		if (entries == null && !file.exists())
+			return;
+		load();
+		if (entries.remove(location.getAbsolutePath()) != null)
+			dirty = true;
+	}
+
+	/**
+	 * Drops the entries held in memory if they have been saved. They are loaded again when needed.
+	 */
+	synchronized void release() {
+		if (!dirty)
+			entries = null;
+	}
+
+	/**
+	 * Writes the cache if it has changed.
+	 */
+	synchronized void save() {
+		if (!dirty)
+			return;
+		File tempFile = new File(file.getParentFile(), CACHE_FILE + ".tmp"); //$NON-NLS-1$
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+					Entry entry = mapEntry.getValue();
+					out.writeUTF(mapEntry.getKey());
+					out.writeLong(entry.size);
+					out.writeLong(entry.lastModified);
+					out.writeInt(entry.installableUnits.length);
+					out.write(entry.installableUnits);
+					out.writeInt(entry.descriptors.length);
+					out.write(entry.descriptors);
+				}
+			} finally {
+				out.close();
+			}
+			file.delete();
+			if (!tempFile.renameTo(file))
+				throw new IOException("Could not rename " + tempFile); //$NON-NLS-1$
+			dirty = false;
+		} catch (IOException e) {
+			tempFile.delete();
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, "Unable to save the publish cache " + file, e)); //$NON-NLS-1$
+		}
+	}
+
+	private Entry getEntry(File location, long lastModified) {
+		load();
+		Entry entry = entries.get(location.getAbsolutePath());
+		if (entry == null || entry.lastModified != lastModified || entry.size != location.length())
+			return null;
+		return entry;
+	}
+
+	private void load() {
+		if (entries != null)
+			return;
+		entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, PublishCache.Entry> eldest) {
+				return size() > MAX_ENTRIES;
+			}
+		};
+		if (!file.exists())
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+					return;
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String path = in.readUTF();
+					Entry entry = new Entry();
+					entry.size = in.readLong();
+					entry.lastModified = in.readLong();
+					entry.installableUnits = new byte[in.readInt()];
+					in.readFully(entry.installableUnits);
+					entry.descriptors = new byte[in.readInt()];
+					in.readFully(entry.descriptors);
+					entries.put(path, entry);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// start over with an empty cache
+			entries.clear();
+			dirty = true;
+		}
+	}
+
+	private static void writeDescriptor(DataOutputStream out, SimpleArtifactDescriptor descriptor) throws IOException {
+		out.writeUTF(descriptor.getArtifactKey().getClassifier());
+		out.writeUTF(descriptor.getArtifactKey().getId());
+		out.writeUTF(descriptor.getArtifactKey().getVersion().toString());
+		IProcessingStepDescriptor[] steps = descriptor.getProcessingSteps();
+		out.writeInt(steps.length);
+		for (int i = 0; i < steps.length; i++) {
+			out.writeUTF(steps[i].getProcessorId());
+			writeOptional(out, steps[i].getData());
+			out.writeBoolean(steps[i].isRequired());
+		}
+		writeProperties(out, descriptor.getProperties());
+		writeProperties(out, descriptor.getRepositoryProperties());
+	}
+
+	private static SimpleArtifactDescriptor readDescriptor(DataInputStream in, IArtifactRepository repository) throws IOException {
+		SimpleArtifactDescriptor descriptor = new SimpleArtifactDescriptor(repository.createArtifactKey(in.readUTF(), in.readUTF(), Version.create(in.readUTF())));
+		IProcessingStepDescriptor[] steps = new IProcessingStepDescriptor[in.readInt()];
+		for (int i = 0; i < steps.length; i++)
+			steps[i] = new ProcessingStepDescriptor(in.readUTF(), readOptional(in), in.readBoolean());
+		descriptor.setProcessingSteps(steps);
+		int count = in.readInt();
+		for (int i = 0; i < count; i++)
+			descriptor.setProperty(in.readUTF(), in.readUTF());
+		count = in.readInt();
+		for (int i = 0; i < count; i++)
+			descriptor.setRepositoryProperty(in.readUTF(), in.readUTF());
+		return descriptor;
+	}
+
+	private static void writeProperties(DataOutputStream out, Map<String, String> properties) throws IOException {
+		out.writeInt(properties.size());
+		for (Map.Entry<String, String> property : properties.entrySet()) {
+			out.writeUTF(property.getKey());
+			out.writeUTF(property.getValue());
+		}
+	}
+
+	private static void writeOptional(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readOptional(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -20,8 +20,11 @@ import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.update.Site;
 import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.publisher.*;
+import org.eclipse.equinox.p2.publisher.actions.IAdditionalInstallableUnitAdvice;
 import org.eclipse.equinox.p2.publisher.eclipse.BundlesAction;
 import org.eclipse.equinox.p2.publisher.eclipse.FeaturesAction;
 import org.eclipse.equinox.p2.query.*;
@@ -47,6 +50,24 @@ public class RepositoryListener extends DirectoryChangeListener {
 	private PublisherInfo info;
 	private IPublisherResult iusToAdd;
 	private IPublisherResult iusToChange;
+	// the bundles found during a poll, published together when the poll stops
+	private final List<PendingBundle> bundlesToAdd = new ArrayList<PendingBundle>();
+	private final List<PendingBundle> bundlesToChange = new ArrayList<PendingBundle>();
+	private final PublishCache cache = PublishCache.getDefault();
+
+	private static class PendingBundle {
+		final File file;
+		final long lastModified;
+		final long size;
+		final BundleDescription description;
+
+		PendingBundle(File file, long lastModified, long size, BundleDescription description) {
+			this.file = file;
+			this.lastModified = lastModified;
+			this.size = size;
+			this.description = description;
+		}
+	}
 
 	/**
 	 * Create a repository listener that watches the specified folder and generates repositories
@@ -138,17 +159,175 @@ public class RepositoryListener extends DirectoryChangeListener {
 	}
 
 	private boolean processBundle(File file, boolean isDirectory, boolean isAddition) {
+		IPublisherResult result = isAddition ? iusToAdd : iusToChange;
+		long lastModified = file.lastModified();
+		if (restoreBundle(file, lastModified, result))
+			return true;
+
 		BundleDescription bundleDescription = BundlesAction.createBundleDescriptionIgnoringExceptions(file);
 		if (bundleDescription == null)
 			return false;
 
-		advice.setProperties(file, file.lastModified(), file.toURI());
-		return publish(new BundlesAction(new BundleDescription[] {bundleDescription}), isAddition);
+		// the bundle is published with the others found in this poll, see stopPoll
+		PendingBundle bundle = new PendingBundle(file, lastModified, file.length(), bundleDescription);
+		if (isAddition)
+			bundlesToAdd.add(bundle);
+		else
+			bundlesToChange.add(bundle);
+		return true;
 		// TODO see bug 222370
 		// we only want to return the bundle IU so must exclude all fragment IUs
 		// not sure if this is still relevant but we should investigate.
 	}
 
+	/**
+	 * Adds the units and artifacts cached for the given bundle to the result and the artifact
+	 * repository. Returns <code>false</code> if the bundle is not in the cache.
+	 */
+	private boolean restoreBundle(File file, long lastModified, IPublisherResult result) {
+		if (cache == null)
+			return false;
+		Collection<IInstallableUnit> ius = cache.getInstallableUnits(file, lastModified);
+		if (ius == null || ius.isEmpty())
+			return false;
+		if (artifactRepository != null) {
+			IArtifactDescriptor[] descriptors = cache.getArtifactDescriptors(file, lastModified, artifactRepository);
+			if (descriptors == null)
+				return false;
+			for (int i = 0; i < descriptors.length; i++)
+				if (!artifactRepository.contains(descriptors[i]))
+					artifactRepository.addDescriptor(descriptors[i]);
+		}
+		for (IInstallableUnit iu : ius)
+			result.addIU(iu, IPublisherResult.ROOT);
+		return true;
+	}
+
+	/**
+	 * Publishes the given bundles with as few runs of the bundles action as possible. Bundles
+	 * sharing an id and version are published in separate runs so that each gets its own entry advice.
+	 */
+	private void publishBundles(List<PendingBundle> bundles, IPublisherResult result) {
+		if (bundles.isEmpty())
+			return;
+		// hosts are published before fragments so that fragments can find them in the result
+		List<PendingBundle> sorted = new ArrayList<PendingBundle>(bundles.size());
+		for (PendingBundle bundle : bundles)
+			if (bundle.description.getHost() == null)
+				sorted.add(bundle);
+		for (PendingBundle bundle : bundles)
+			if (bundle.description.getHost() != null)
+				sorted.add(bundle);
+
+		while (!sorted.isEmpty()) {
+			List<PendingBundle> batch = new ArrayList<PendingBundle>(sorted.size());
+			List<PendingBundle> duplicates = new ArrayList<PendingBundle>();
+			Set<String> keys = new HashSet<String>();
+			for (PendingBundle bundle : sorted) {
+				if (keys.add(bundle.description.getSymbolicName() + '_' + bundle.description.getVersion()))
+					batch.add(bundle);
+				else
+					duplicates.add(bundle);
+			}
+			if (!publishBatch(batch, result) && batch.size() > 1) {
+				// a bad bundle failed the batch, publish the bundles it did not get to one at a time
+				for (PendingBundle bundle : batch)
+					if (!isPublished(bundle, result))
+						publishBatch(Collections.singletonList(bundle), result);
+			}
+			for (PendingBundle bundle : batch)
+				if (isPublished(bundle, result))
+					cacheBundle(bundle, result);
+			sorted = duplicates;
+		}
+	}
+
+	/**
+	 * Publishes the given bundles with one run of the bundles action. Returns <code>false</code>
+	 * if the run failed. The failure of a single bundle is logged and its artifacts are removed.
+	 */
+	private boolean publishBatch(List<PendingBundle> batch, IPublisherResult result) {
+		BundleDescription[] descriptions = new BundleDescription[batch.size()];
+		for (int i = 0; i < descriptions.length; i++) {
+			PendingBundle bundle = batch.get(i);
+			descriptions[i] = bundle.description;
+			advice.addEntry(bundle.description.getSymbolicName(), bundle.description.getVersion().toString(), bundle.file, bundle.lastModified, bundle.file.toURI());
+		}
+		IStatus status;
+		try {
+			status = new BundlesAction(descriptions).perform(info, result, new NullProgressMonitor());
+		} catch (RuntimeException e) {
+			status = new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.failed_publish_bundle, batch.get(0).file), e);
+		} finally {
+			advice.clearEntries();
+		}
+		if (status.getSeverity() != IStatus.ERROR && status.getSeverity() != IStatus.CANCEL)
+			return true;
+		if (batch.size() == 1) {
+			PendingBundle bundle = batch.get(0);
+			LogHelper.log(new MultiStatus(Activator.ID, IStatus.ERROR, new IStatus[] {status}, NLS.bind(Messages.failed_publish_bundle, bundle.file), null));
+			removeArtifacts(bundle);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether the unit of the given bundle is in the result.
+	 */
+	private boolean isPublished(PendingBundle bundle, IPublisherResult result) {
+		String path = bundle.file.getAbsolutePath();
+		for (IInstallableUnit iu : result.getIUs(bundle.description.getSymbolicName(), IPublisherResult.ROOT))
+			if (path.equals(iu.getProperty(FILE_NAME)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Removes the artifact descriptors which a failed run may have added for the given bundle.
+	 */
+	private void removeArtifacts(PendingBundle bundle) {
+		if (artifactRepository == null)
+			return;
+		String path = bundle.file.getAbsolutePath();
+		IArtifactKey key = BundlesAction.createBundleArtifactKey(bundle.description.getSymbolicName(), bundle.description.getVersion().toString());
+		IArtifactDescriptor[] descriptors = artifactRepository.getArtifactDescriptors(key);
+		for (int i = 0; i < descriptors.length; i++)
+			if (descriptors[i] instanceof SimpleArtifactDescriptor && path.equals(((SimpleArtifactDescriptor) descriptors[i]).getRepositoryProperty(FILE_NAME)))
+				artifactRepository.removeDescriptor(descriptors[i]);
+	}
+
+	/**
+	 * Remembers what was published for the given bundle so that it is not opened again
+	 * while it is unchanged. Fragments and bundles that have additional units are not cached
+	 * because their units depend on more than the bundle itself.
+	 */
+	private void cacheBundle(PendingBundle bundle, IPublisherResult result) {
+		BundleDescription description = bundle.description;
+		if (cache == null || description.getHost() != null || description.getSymbolicName() == null)
+			return;
+		Collection<IAdditionalInstallableUnitAdvice> additional = info.getAdvice(null, false, description.getSymbolicName(), Version.create(description.getVersion().toString()), IAdditionalInstallableUnitAdvice.class);
+		if (!additional.isEmpty())
+			return;
+		String path = bundle.file.getAbsolutePath();
+		Collection<IInstallableUnit> ius = new ArrayList<IInstallableUnit>();
+		Collection<SimpleArtifactDescriptor> descriptors = new ArrayList<SimpleArtifactDescriptor>();
+		for (IInstallableUnit iu : result.getIUs(description.getSymbolicName(), IPublisherResult.ROOT)) {
+			if (!path.equals(iu.getProperty(FILE_NAME)))
+				continue;
+			ius.add(iu);
+			if (artifactRepository == null)
+				continue;
+			for (IArtifactKey key : iu.getArtifacts()) {
+				IArtifactDescriptor[] published = artifactRepository.getArtifactDescriptors(key);
+				for (int i = 0; i < published.length; i++)
+					if (published[i] instanceof SimpleArtifactDescriptor && path.equals(((SimpleArtifactDescriptor) published[i]).getRepositoryProperty(FILE_NAME)))
+						descriptors.add((SimpleArtifactDescriptor) published[i]);
+			}
+		}
+		if (!ius.isEmpty())
+			cache.put(bundle.file, bundle.size, bundle.lastModified, ius, descriptors);
+	}
+
 	private boolean processFeature(File file, boolean isAddition) {
 		String link = metadataRepository.getProperties().get(Site.PROP_LINK_FILE);
 		advice.setProperties(file, file.lastModified(), file.toURI(), link);
@@ -174,16 +353,30 @@ public class RepositoryListener extends DirectoryChangeListener {
 	public void startPoll() {
 		iusToAdd = new PublisherResult();
 		iusToChange = new PublisherResult();
+		bundlesToAdd.clear();
+		bundlesToChange.clear();
 		synchronizeCurrentFiles();
 	}
 
 	public void stopPoll() {
+		publishBundles(bundlesToAdd, iusToAdd);
+		publishBundles(bundlesToChange, iusToChange);
+		bundlesToAdd.clear();
+		bundlesToChange.clear();
+
 		final Set<File> filesToRemove = new HashSet<File>(currentFiles.keySet());
 		filesToRemove.removeAll(polledSeenFiles);
 		polledSeenFiles.clear();
 
 		synchronizeMetadataRepository(filesToRemove);
 		synchronizeArtifactRepository(filesToRemove);
+		if (cache != null) {
+			for (File file : filesToRemove)
+				cache.remove(file);
+			cache.save();
+			// the entries are read again when the next poll finds a new or changed bundle
+			cache.release();
+		}
 		iusToAdd = null;
 		iusToChange = null;
 	}
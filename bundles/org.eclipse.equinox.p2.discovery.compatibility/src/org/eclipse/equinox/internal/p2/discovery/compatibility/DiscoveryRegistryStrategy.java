@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 Tasktop Technologies and others.
+ * Copyright (c) 2009, 2013 Tasktop Technologies and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -25,18 +25,20 @@ import org.osgi.framework.Bundle;
 /**
  * @author David Green
  */
-class DiscoveryRegistryStrategy extends RegistryStrategy {
+public class DiscoveryRegistryStrategy extends RegistryStrategy {
 
 	private final List<JarFile> jars = new ArrayList<JarFile>();
 
-	private final Map<IContributor, File> contributorToJarFile = new HashMap<IContributor, File>();
+	private final Map<String, File> contributorToJarFile = new HashMap<String, File>();
 
-	private final Map<IContributor, Entry> contributorToDirectoryEntry = new HashMap<IContributor, Entry>();
+	private final Map<String, Entry> contributorToDirectoryEntry = new HashMap<String, Entry>();
 
 	private final Object token;
 
 	private Map<File, Entry> bundleFileToDirectoryEntry;
 
+	private boolean loadedFromCache;
+
 	public DiscoveryRegistryStrategy(File[] storageDirs, boolean[] cacheReadOnly, Object token) {
 		super(storageDirs, cacheReadOnly);
 		this.token = token;
@@ -45,22 +47,60 @@ class DiscoveryRegistryStrategy extends RegistryStrategy {
 	@Override
 	public void onStart(IExtensionRegistry registry, boolean loadedFromCache) {
 		super.onStart(registry, loadedFromCache);
+		this.loadedFromCache = loadedFromCache;
 		if (!loadedFromCache) {
 			processDiscoveryCoreBundle(registry);
 			processBundles(registry);
+		} else {
+			// the contributions are in the cache, only the jars they came from are needed
+			for (java.util.Map.Entry<File, Entry> bundleFile : bundleFileToDirectoryEntry.entrySet()) {
+				String contributorName = bundleFile.getValue().getLocation();
+				contributorToJarFile.put(contributorName, bundleFile.getKey());
+				contributorToDirectoryEntry.put(contributorName, bundleFile.getValue());
+			}
 		}
 	}
 
+	/**
+	 * Returns a time stamp of the bundles, so that the contributions cached by the registry
+	 * are only reused if the same bundles are contributed again.
+	 */
+	@Override
+	public long getContributionsTimestamp() {
+		if (bundleFileToDirectoryEntry == null) {
+			throw new IllegalStateException();
+		}
+		List<java.util.Map.Entry<File, Entry>> bundleFiles = new ArrayList<java.util.Map.Entry<File, Entry>>(bundleFileToDirectoryEntry.entrySet());
+		Collections.sort(bundleFiles, new Comparator<java.util.Map.Entry<File, Entry>>() {
+			public int compare(java.util.Map.Entry<File, Entry> o1, java.util.Map.Entry<File, Entry> o2) {
+				return o1.getValue().getLocation().compareTo(o2.getValue().getLocation());
+			}
+		});
+		// the contributions are translated when they are added
+		long timestamp = Locale.getDefault().toString().hashCode();
+		Bundle bundle = Platform.getBundle(Activator.ID);
+		if (bundle != null) {
+			timestamp = 31 * timestamp + bundle.getLastModified();
+		}
+		for (java.util.Map.Entry<File, Entry> bundleFile : bundleFiles) {
+			timestamp = 31 * timestamp + bundleFile.getValue().getLocation().hashCode();
+			timestamp = 31 * timestamp + (bundleFile.getValue().isPermitCategories() ? 1 : 0);
+			timestamp = 31 * timestamp + bundleFile.getKey().lastModified();
+			timestamp = 31 * timestamp + bundleFile.getKey().length();
+		}
+		return timestamp;
+	}
+
 	private void processDiscoveryCoreBundle(IExtensionRegistry registry) {
 		// we must add a contribution from the core bundle so that we get the
 		// extension point itself
 		try {
-			Bundle bundle = Platform.getBundle("org.eclipse.equinox.p2.discovery.compatibility"); //$NON-NLS-1$
+			Bundle bundle = Platform.getBundle(Activator.ID);
 			IContributor contributor = new RegistryContributor(bundle.getSymbolicName(), bundle.getSymbolicName(), null, null);
 
 			InputStream inputStream = bundle.getEntry("plugin.xml").openStream(); //$NON-NLS-1$
 			try {
-				registry.addContribution(inputStream, contributor, false, bundle.getSymbolicName(), null, token);
+				registry.addContribution(inputStream, contributor, true, bundle.getSymbolicName(), null, token);
 			} finally {
 				inputStream.close();
 			}
@@ -90,19 +130,20 @@ class DiscoveryRegistryStrategy extends RegistryStrategy {
 		if (pluginXmlEntry == null) {
 			throw new IOException(Messages.DiscoveryRegistryStrategy_missing_pluginxml);
 		}
-		IContributor contributor = new RegistryContributor(bundleFile.getName(), bundleFile.getName(), null, null);
+		// contributors are named after the entry location, so that they are the same when the registry is loaded from its cache
+		IContributor contributor = new RegistryContributor(entry.getLocation(), entry.getLocation(), null, null);
 		if (((IDynamicExtensionRegistry) registry).hasContributor(contributor)) {
 			jarFile.close();
 			return;
 		}
-		contributorToJarFile.put(contributor, bundleFile);
-		contributorToDirectoryEntry.put(contributor, entry);
+		contributorToJarFile.put(contributor.getName(), bundleFile);
+		contributorToDirectoryEntry.put(contributor.getName(), entry);
 
 		ResourceBundle translationBundle = loadTranslationBundle(jarFile);
 
 		InputStream inputStream = jarFile.getInputStream(pluginXmlEntry);
 		try {
-			registry.addContribution(inputStream, contributor, false, bundleFile.getPath(), translationBundle, token);
+			registry.addContribution(inputStream, contributor, true, bundleFile.getPath(), translationBundle, token);
 		} finally {
 			inputStream.close();
 		}
@@ -169,7 +210,7 @@ class DiscoveryRegistryStrategy extends RegistryStrategy {
 	 *             if the given contributor is unknown
 	 */
 	public File getJarFile(IContributor contributor) {
-		File file = contributorToJarFile.get(contributor);
+		File file = contributorToJarFile.get(contributor.getName());
 		if (file == null) {
 			throw new IllegalArgumentException(contributor.getName());
 		}
@@ -183,13 +224,20 @@ class DiscoveryRegistryStrategy extends RegistryStrategy {
 	 *             if the given contributor is unknown
 	 */
 	public Entry getDirectoryEntry(IContributor contributor) {
-		Entry entry = contributorToDirectoryEntry.get(contributor);
+		Entry entry = contributorToDirectoryEntry.get(contributor.getName());
 		if (entry == null) {
 			throw new IllegalArgumentException(contributor.getName());
 		}
 		return entry;
 	}
 
+	/**
+	 * Returns whether the registry was loaded from its cache, in which case no plugin.xml was parsed.
+	 */
+	public boolean isLoadedFromCache() {
+		return loadedFromCache;
+	}
+
 	public void setBundles(Map<File, Entry> bundleFileToDirectoryEntry) {
 		this.bundleFileToDirectoryEntry = bundleFileToDirectoryEntry;
 	}
@@ -13,6 +13,8 @@ package org.eclipse.equinox.internal.p2.discovery.compatibility;
 
 import java.io.*;
 import java.net.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.*;
 import org.eclipse.core.internal.registry.ExtensionRegistry;
@@ -33,6 +35,8 @@ import org.eclipse.osgi.util.NLS;
 @SuppressWarnings("restriction")
 public class RemoteBundleDiscoveryStrategy extends BundleDiscoveryStrategy {
 
+	private static final String REGISTRY_CACHE_FOLDER = "registry"; //$NON-NLS-1$
+
 	private String directoryUrl;
 
 	private DiscoveryRegistryStrategy registryStrategy;
@@ -41,6 +45,8 @@ public class RemoteBundleDiscoveryStrategy extends BundleDiscoveryStrategy {
 
 	private int maxDiscoveryJarDownloadAttempts = 1;
 
+	private boolean registryLoadedFromCache;
+
 	@Override
 	public void performDiscovery(IProgressMonitor monitor) throws CoreException {
 		if (items == null || categories == null || directoryUrl == null || tags == null) {
@@ -49,6 +55,7 @@ public class RemoteBundleDiscoveryStrategy extends BundleDiscoveryStrategy {
 		if (registryStrategy != null) {
 			throw new IllegalStateException();
 		}
+		registryLoadedFromCache = false;
 
 		final int totalTicks = 100000;
 		final int ticksTenPercent = totalTicks / 10;
@@ -64,8 +71,9 @@ public class RemoteBundleDiscoveryStrategy extends BundleDiscoveryStrategy {
 				if (!temporaryStorage.mkdirs()) {
 					throw new IOException();
 				}
-				registryCacheFolder = new File(temporaryStorage, ".rcache"); //$NON-NLS-1$
-				if (!registryCacheFolder.mkdirs()) {
+				// the registry cache is kept across sessions and reused while the directory bundles are unchanged
+				registryCacheFolder = getRegistryCacheFolder();
+				if (!registryCacheFolder.isDirectory() && !registryCacheFolder.mkdirs()) {
 					throw new IOException();
 				}
 			} catch (IOException e) {
@@ -157,6 +165,7 @@ public class RemoteBundleDiscoveryStrategy extends BundleDiscoveryStrategy {
 				registryStrategy = new DiscoveryRegistryStrategy(new File[] {registryCacheFolder}, new boolean[] {false}, this);
 				registryStrategy.setBundles(bundleFileToDirectoryEntry);
 				IExtensionRegistry extensionRegistry = new ExtensionRegistry(registryStrategy, this, this);
+				registryLoadedFromCache = registryStrategy.isLoadedFromCache();
 				try {
 					IExtensionPoint extensionPoint = extensionRegistry.getExtensionPoint(ConnectorDiscoveryExtensionReader.EXTENSION_POINT_ID);
 					if (extensionPoint != null) {
@@ -221,6 +230,30 @@ public class RemoteBundleDiscoveryStrategy extends BundleDiscoveryStrategy {
 		}
 	}
 
+	/**
+	 * Returns the folder of the registry cache of the directory, named after a digest of the directory URL.
+	 */
+	private File getRegistryCacheFolder() throws IOException {
+		StringBuilder name = new StringBuilder();
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(directoryUrl.getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		return Activator.getDefault().getStateLocation().append(REGISTRY_CACHE_FOLDER).append(name.toString()).toFile();
+	}
+
+	/**
+	 * Returns whether the extension registry of the last discovery was loaded from its cache rather than built
+	 * by parsing the directory bundles.
+	 */
+	public boolean isRegistryLoadedFromCache() {
+		return registryLoadedFromCache;
+	}
+
 	private ExecutorService createExecutorService(int size) {
 		final int maxThreads = 4;
 		return Executors.newFixedThreadPool(Math.min(size, maxThreads));
@@ -58,6 +58,8 @@ public class TransportUtil {
 			throw new CoreException(new Status(IStatus.ERROR, Activator.ID, Messages.TransportUtil_InternalError));
 		}
 		copyStream(new BufferedInputStream(new FileInputStream(cacheFile)), true, new BufferedOutputStream(new FileOutputStream(target)), true);
+		// the copy is as recent as the cached download, so that it can tell whether the content changed
+		target.setLastModified(cacheFile.lastModified());
 	}
 
 	public static int copyStream(InputStream in, boolean closeIn, OutputStream out, boolean closeOut) throws IOException {
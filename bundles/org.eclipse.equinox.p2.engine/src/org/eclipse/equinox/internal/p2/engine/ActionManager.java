@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,8 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
@@ -34,7 +33,55 @@ public class ActionManager implements IRegistryChangeListener {
 	 */
 	public static final String SERVICE_NAME = ActionManager.class.getName();
 
+	// the most instructions kept parsed, identical instructions being shared by many units
+	private static final int MAX_CACHED_INSTRUCTIONS = 1000;
+
+	/**
+	 * Creates the actions of one action extension, resolving the extension once.
+	 */
+	private static class ActionFactory {
+		final IConfigurationElement element;
+		final Touchpoint touchpoint;
+		// the action class when its instances can be created without the registry
+		Class<?> actionClass;
+
+		ActionFactory(IConfigurationElement element, Touchpoint touchpoint) {
+			this.element = element;
+			this.touchpoint = touchpoint;
+		}
+
+		ProvisioningAction createAction() throws CoreException {
+			ProvisioningAction action = null;
+			if (actionClass != null) {
+				try {
+					action = (ProvisioningAction) actionClass.newInstance();
+				} catch (InstantiationException e) {
+					actionClass = null;
+				} catch (IllegalAccessException e) {
+					actionClass = null;
+				}
+			}
+			if (action == null) {
+				action = (ProvisioningAction) element.createExecutableExtension(ATTRIBUTE_CLASS);
+				// the class names an action without factory or initialization data
+				if (!(action instanceof IExecutableExtension) && action.getClass().getName().equals(element.getAttribute(ATTRIBUTE_CLASS)))
+					actionClass = action.getClass();
+			}
+			if (touchpoint != null)
+				action.setTouchpoint(touchpoint);
+			return action;
+		}
+	}
+
 	private HashMap<String, IConfigurationElement> actionMap;
+	private final Map<String, ActionFactory> actionFactories = new HashMap<String, ActionFactory>();
+	private final Map<List<Object>, InstructionParser.ParsedAction[]> instructions = new LinkedHashMap<List<Object>, InstructionParser.ParsedAction[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, InstructionParser.ParsedAction[]> eldest) {
+			return size() > MAX_CACHED_INSTRUCTIONS;
+		}
+	};
 	private TouchpointManager touchpointManager;
 
 	public ActionManager() {
@@ -62,20 +109,10 @@ public class ActionManager implements IRegistryChangeListener {
 	}
 
 	public ProvisioningAction getAction(String actionId, VersionRange versionRange) {
-		IConfigurationElement actionElement = getActionMap().get(actionId);
-		if (actionElement != null && actionElement.isValid()) {
+		ActionFactory factory = getActionFactory(actionId);
+		if (factory != null && factory.element.isValid()) {
 			try {
-				ProvisioningAction action = (ProvisioningAction) actionElement.createExecutableExtension(ATTRIBUTE_CLASS);
-
-				String touchpointType = actionElement.getAttribute(TOUCHPOINT_TYPE);
-				if (touchpointType != null) {
-					String touchpointVersion = actionElement.getAttribute(TOUCHPOINT_VERSION);
-					Touchpoint touchpoint = touchpointManager.getTouchpoint(touchpointType, touchpointVersion);
-					if (touchpoint == null)
-						throw new IllegalArgumentException(NLS.bind(Messages.ActionManager_Required_Touchpoint_Not_Found, touchpointType, actionId));
-					action.setTouchpoint(touchpoint);
-				}
-				return action;
+				return factory.createAction();
 			} catch (InvalidRegistryObjectException e) {
 				// skip
 			} catch (CoreException e) {
@@ -85,6 +122,51 @@ public class ActionManager implements IRegistryChangeListener {
 		return null;
 	}
 
+	private ActionFactory getActionFactory(String actionId) {
+		synchronized (this) {
+			ActionFactory factory = actionFactories.get(actionId);
+			if (factory != null)
+				return factory;
+		}
+		Map<String, IConfigurationElement> map = getActionMap();
+		IConfigurationElement actionElement = map.get(actionId);
+		if (actionElement == null || !actionElement.isValid())
+			return null;
+		Touchpoint touchpoint = null;
+		try {
+			String touchpointType = actionElement.getAttribute(TOUCHPOINT_TYPE);
+			if (touchpointType != null) {
+				String touchpointVersion = actionElement.getAttribute(TOUCHPOINT_VERSION);
+				touchpoint = touchpointManager.getTouchpoint(touchpointType, touchpointVersion);
+				if (touchpoint == null)
+					throw new IllegalArgumentException(NLS.bind(Messages.ActionManager_Required_Touchpoint_Not_Found, touchpointType, actionId));
+			}
+		} catch (InvalidRegistryObjectException e) {
+			return null;
+		}
+		ActionFactory factory = new ActionFactory(actionElement, touchpoint);
+		synchronized (this) {
+			// unless the registry changed meanwhile
+			if (actionMap == map)
+				actionFactories.put(actionId, factory);
+		}
+		return factory;
+	}
+
+	/**
+	 * Returns the parsed instruction cached for the given key, or <code>null</code>.
+	 */
+	synchronized InstructionParser.ParsedAction[] getParsedInstruction(List<Object> key) {
+		return instructions.get(key);
+	}
+
+	/**
+	 * Caches a parsed instruction until the action extensions change.
+	 */
+	synchronized void putParsedInstruction(List<Object> key, InstructionParser.ParsedAction[] parsedInstruction) {
+		instructions.put(key, parsedInstruction);
+	}
+
 	private synchronized Map<String, IConfigurationElement> getActionMap() {
 		if (actionMap != null)
 			return actionMap;
@@ -117,6 +199,8 @@ public class ActionManager implements IRegistryChangeListener {
 
 	public synchronized void registryChanged(IRegistryChangeEvent event) {
 		actionMap = null;
+		actionFactories.clear();
+		instructions.clear();
 	}
 
 	static void reportError(String errorMsg) {
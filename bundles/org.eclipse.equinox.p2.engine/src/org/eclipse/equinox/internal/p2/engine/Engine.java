@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@ package org.eclipse.equinox.internal.p2.engine;
 
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.*;
@@ -65,6 +66,9 @@ public class Engine implements IEngine {
 		Profile profile = profileRegistry.validate(iprofile);
 
 		profileRegistry.lockProfile(profile);
+		ProvisioningMetrics metrics = ProvisioningMetrics.getMetrics(agent);
+		ProvisioningMetrics.Operation operation = metrics.startOperation("engine"); //$NON-NLS-1$
+		long start = metrics.start();
 		try {
 			eventBus.publishEvent(new BeginOperationEvent(profile, phaseSet, operands, this));
 			if (DebugHelper.DEBUG_ENGINE)
@@ -101,6 +105,8 @@ public class Engine implements IEngine {
 		} finally {
 			profileRegistry.unlockProfile(profile);
 			profile.setChanged(false);
+			metrics.time("engine.total", start); //$NON-NLS-1$
+			metrics.endOperation(operation);
 		}
 	}
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -13,6 +13,7 @@ package org.eclipse.equinox.internal.p2.engine;
 import java.io.File;
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
@@ -54,9 +55,12 @@ public class EngineSession {
 
 	private final IProvisioningAgent agent;
 
+	private final ProvisioningMetrics metrics;
+
 	public EngineSession(IProvisioningAgent agent, IProfile profile, ProvisioningContext context) {
 		super();
 		this.agent = agent;
+		this.metrics = ProvisioningMetrics.getMetrics(agent);
 		this.profile = profile;
 		this.context = context;
 	}
@@ -69,6 +73,10 @@ public class EngineSession {
 		return agent;
 	}
 
+	ProvisioningMetrics getMetrics() {
+		return metrics;
+	}
+
 	public ProvisioningContext getProvisioningContext() {
 		return context;
 	}
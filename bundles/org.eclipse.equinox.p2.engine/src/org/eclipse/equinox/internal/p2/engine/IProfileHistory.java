@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+/**
+ * Implemented by profile registries that can describe the states of a profile
+ * without loading them.
+ */
+public interface IProfileHistory {
+
+	/**
+	 * Returns the number of installable units in the given state of a profile, or -1 if
+	 * the profile has no such state.
+	 */
+	public int getInstallableUnitCount(String id, long timestamp);
+
+}
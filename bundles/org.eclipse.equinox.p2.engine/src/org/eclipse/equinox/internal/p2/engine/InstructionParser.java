@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2010 IBM Corporation and others.
+ * Copyright (c) 2005, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -29,6 +29,25 @@ public class InstructionParser {
 		}
 	}
 
+	/**
+	 * An action statement of an instruction, with its action id qualified and its
+	 * parameters parsed, shared by the units having the same instruction.
+	 */
+	static final class ParsedAction {
+		final String actionId;
+		final VersionRange versionRange;
+		// null when the parameters are malformed
+		final Map<String, String> parameters;
+		final String statement;
+
+		ParsedAction(String actionId, VersionRange versionRange, Map<String, String> parameters, String statement) {
+			this.actionId = actionId;
+			this.versionRange = versionRange;
+			this.parameters = parameters;
+			this.statement = statement;
+		}
+	}
+
 	private static final String VERSION_EQUALS = "version="; //$NON-NLS-1$
 	private ActionManager actionManager;
 
@@ -38,13 +57,26 @@ public class InstructionParser {
 	}
 
 	public List<ProvisioningAction> parseActions(ITouchpointInstruction instruction, ITouchpointType touchpointType) {
-		List<ProvisioningAction> actions = new ArrayList<ProvisioningAction>();
+		List<Object> key = Arrays.<Object> asList(instruction.getBody(), instruction.getImportAttribute(), touchpointType);
+		ParsedAction[] parsedActions = actionManager.getParsedInstruction(key);
+		if (parsedActions == null) {
+			parsedActions = parseInstruction(instruction, touchpointType);
+			actionManager.putParsedInstruction(key, parsedActions);
+		}
+		List<ProvisioningAction> actions = new ArrayList<ProvisioningAction>(parsedActions.length);
+		for (int i = 0; i < parsedActions.length; i++)
+			actions.add(createAction(parsedActions[i]));
+		return actions;
+	}
+
+	private ParsedAction[] parseInstruction(ITouchpointInstruction instruction, ITouchpointType touchpointType) {
+		List<ParsedAction> parsedActions = new ArrayList<ParsedAction>();
 		Map<String, ActionEntry> importMap = parseImportAttribute(instruction.getImportAttribute());
 		StringTokenizer tokenizer = new StringTokenizer(instruction.getBody(), ";"); //$NON-NLS-1$
 		while (tokenizer.hasMoreTokens()) {
-			actions.add(parseAction(tokenizer.nextToken(), importMap, touchpointType));
+			parsedActions.add(parseAction(tokenizer.nextToken(), importMap, touchpointType));
 		}
-		return actions;
+		return parsedActions.toArray(new ParsedAction[parsedActions.size()]);
 	}
 
 	private Map<String, ActionEntry> parseImportAttribute(String importAttribute) {
@@ -70,19 +102,23 @@ public class InstructionParser {
 		return result;
 	}
 
-	private ProvisioningAction parseAction(String statement, Map<String, ActionEntry> qualifier, ITouchpointType touchpointType) {
+	private ParsedAction parseAction(String statement, Map<String, ActionEntry> qualifier, ITouchpointType touchpointType) {
 		int openBracket = statement.indexOf('(');
 		int closeBracket = statement.lastIndexOf(')');
 		if (openBracket == -1 || closeBracket == -1 || openBracket > closeBracket)
 			throw new IllegalArgumentException(NLS.bind(Messages.action_syntax_error, statement));
 		String actionName = statement.substring(0, openBracket).trim();
-		ProvisioningAction action = lookupAction(actionName, qualifier, touchpointType);
-		if (action instanceof MissingAction)
-			return action;
+		VersionRange versionRange = null;
+		ActionEntry actionEntry = qualifier.get(actionName);
+		if (actionEntry != null) {
+			actionName = actionEntry.actionId;
+			versionRange = actionEntry.versionRange;
+		}
+		String actionId = actionManager.getTouchpointQualifiedActionId(actionName, touchpointType);
 
 		String nameValuePairs = statement.substring(openBracket + 1, closeBracket);
 		if (nameValuePairs.length() == 0)
-			return new ParameterizedProvisioningAction(action, Collections.<String, String> emptyMap(), statement);
+			return new ParsedAction(actionId, versionRange, Collections.<String, String> emptyMap(), statement);
 
 		StringTokenizer tokenizer = new StringTokenizer(nameValuePairs, ","); //$NON-NLS-1$
 		Map<String, String> parameters = new HashMap<String, String>();
@@ -90,27 +126,21 @@ public class InstructionParser {
 			String nameValuePair = tokenizer.nextToken();
 			int colonIndex = nameValuePair.indexOf(":"); //$NON-NLS-1$
 			if (colonIndex == -1)
-				throw new IllegalArgumentException(NLS.bind(Messages.action_syntax_error, statement));
+				return new ParsedAction(actionId, versionRange, null, statement);
 			String name = nameValuePair.substring(0, colonIndex).trim();
 			String value = nameValuePair.substring(colonIndex + 1).trim();
 			parameters.put(name, value);
 		}
-		return new ParameterizedProvisioningAction(action, parameters, statement);
+		return new ParsedAction(actionId, versionRange, Collections.unmodifiableMap(parameters), statement);
 	}
 
-	private ProvisioningAction lookupAction(String actionId, Map<String, ActionEntry> importMap, ITouchpointType touchpointType) {
-		VersionRange versionRange = null;
-		ActionEntry actionEntry = importMap.get(actionId);
-		if (actionEntry != null) {
-			actionId = actionEntry.actionId;
-			versionRange = actionEntry.versionRange;
-		}
-
-		actionId = actionManager.getTouchpointQualifiedActionId(actionId, touchpointType);
-		ProvisioningAction action = actionManager.getAction(actionId, versionRange);
+	private ProvisioningAction createAction(ParsedAction parsedAction) {
+		ProvisioningAction action = actionManager.getAction(parsedAction.actionId, parsedAction.versionRange);
 		if (action == null)
-			action = new MissingAction(actionId, versionRange);
-
-		return action;
+			return new MissingAction(parsedAction.actionId, parsedAction.versionRange);
+		// malformed parameters only matter for actions that exist
+		if (parsedAction.parameters == null)
+			throw new IllegalArgumentException(NLS.bind(Messages.action_syntax_error, parsedAction.statement));
+		return new ParameterizedProvisioningAction(action, parsedAction.parameters, parsedAction.statement);
 	}
 }
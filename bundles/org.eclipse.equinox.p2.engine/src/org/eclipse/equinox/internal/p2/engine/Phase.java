@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2012 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,6 +14,7 @@ package org.eclipse.equinox.internal.p2.engine;
 import java.util.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
@@ -83,6 +84,17 @@ public abstract class Phase {
 	}
 
 	void perform(MultiStatus status, EngineSession session, Operand[] operands, IProgressMonitor monitor) {
+		ProvisioningMetrics metrics = session.getMetrics();
+		long start = metrics.start();
+		try {
+			doPerform(status, session, operands, monitor);
+		} finally {
+			if (start != 0)
+				metrics.time("engine.phase." + phaseId, start); //$NON-NLS-1$
+		}
+	}
+
+	private void doPerform(MultiStatus status, EngineSession session, Operand[] operands, IProgressMonitor monitor) {
 		SubMonitor subMonitor = SubMonitor.convert(monitor, prePerformWork + mainPerformWork + postPerformWork);
 		session.recordPhaseEnter(this);
 		broadcastPhaseEvent(session, operands, PhaseEvent.TYPE_START);
@@ -178,10 +190,13 @@ public abstract class Phase {
 					parameters = Collections.unmodifiableMap(parameters);
 
 					IStatus actionStatus = null;
+					long actionStart = session.getMetrics().start();
+					boolean executed = false;
 					try {
 						session.recordActionExecute(action, parameters);
 						actionStatus = action.execute(parameters);
 						lastResult = action.getResult();
+						executed = true;
 					} catch (RuntimeException e) {
 						if (!forced)
 							throw e;
@@ -193,6 +208,9 @@ public abstract class Phase {
 							throw e;
 						// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
 						actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+					} finally {
+						if (actionStart != 0)
+							recordAction(session.getMetrics(), "engine.action.", action, actionStart, !executed || (actionStatus != null && actionStatus.matches(IStatus.ERROR))); //$NON-NLS-1$
 					}
 					if (forced && actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
 						MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
@@ -278,9 +296,12 @@ public abstract class Phase {
 				parameters = touchpointToTouchpointOperandParameters.get(touchpoint);
 			}
 			IStatus actionStatus = null;
+			long actionStart = session.getMetrics().start();
+			boolean undone = false;
 			try {
 				session.recordActionUndo(action, parameters);
 				actionStatus = action.undo(parameters);
+				undone = true;
 			} catch (RuntimeException e) {
 				// "action.undo" calls user code and might throw an unchecked exception
 				// we catch the error here to gather information on where the problem occurred.
@@ -288,6 +309,9 @@ public abstract class Phase {
 			} catch (LinkageError e) {
 				// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
 				actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.action_undo_error, action.getClass().getName()), e);
+			} finally {
+				if (actionStart != 0)
+					recordAction(session.getMetrics(), "engine.undo.", action, actionStart, !undone || (actionStatus != null && actionStatus.matches(IStatus.ERROR))); //$NON-NLS-1$
 			}
 			if (actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
 				MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
@@ -350,6 +374,23 @@ public abstract class Phase {
 
 	protected abstract List<ProvisioningAction> getActions(Operand operand);
 
+	/*
+	 * Records the time of an executed or undone action, and counts it under the failures
+	 * if it failed.
+	 */
+	private static void recordAction(ProvisioningMetrics metrics, String prefix, ProvisioningAction action, long start, boolean failed) {
+		String name = getActionName(action);
+		metrics.time(prefix + name, start);
+		if (failed)
+			metrics.count(prefix + "failures." + name, 1); //$NON-NLS-1$
+	}
+
+	private static String getActionName(ProvisioningAction action) {
+		if (action instanceof ParameterizedProvisioningAction)
+			action = ((ParameterizedProvisioningAction) action).getAction();
+		return action.getClass().getName();
+	}
+
 	/**
 	 * Returns a human-readable message to be displayed in case of an error performing
 	 * this phase. Subclasses should override.
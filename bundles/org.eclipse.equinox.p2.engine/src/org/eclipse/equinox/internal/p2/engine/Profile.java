@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others. All rights reserved. This
+ * Copyright (c) 2007, 2013 IBM Corporation and others. All rights reserved. This
  * program and the accompanying materials are made available under the terms of
  * the Eclipse Public License v1.0 which accompanies this distribution, and is
  * available at http://www.eclipse.org/legal/epl-v10.html
@@ -16,6 +16,7 @@ import java.util.Map.Entry;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
+import org.eclipse.equinox.internal.p2.core.helpers.PersistentHashMap;
 import org.eclipse.equinox.internal.p2.metadata.*;
 import org.eclipse.equinox.internal.p2.metadata.index.*;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -61,11 +62,19 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 
 	/**
 	 * This storage is to be used by the touchpoints to store data.
+	 * It is shared with snapshots until either profile changes it.
 	 */
 	private OrderedProperties storage = new OrderedProperties();
+	private boolean storageShared = false;
 
+	/*
+	 * The installable units and their properties are shared with snapshots.  The property
+	 * maps of the installable units are never changed, they are replaced.
+	 */
 	private IUMap ius = new IUMap();
-	final Map<IInstallableUnit, OrderedProperties> iuProperties = new HashMap<IInstallableUnit, OrderedProperties>();
+	PersistentHashMap<IInstallableUnit, OrderedProperties> iuProperties = new PersistentHashMap<IInstallableUnit, OrderedProperties>();
+	// whether there may be properties of installable units no longer in the profile
+	private boolean orphanedProperties = false;
 	private boolean changed = false;
 
 	private long timestamp;
@@ -175,15 +184,23 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	 * 	in the local storage of this profile.
 	 */
 	public void setProperty(String key, String value) {
-		storage.setProperty(key, value);
+		getEditableStorage().setProperty(key, value);
 		changed = true;
 	}
 
 	public void removeProperty(String key) {
-		storage.remove(key);
+		getEditableStorage().remove(key);
 		changed = true;
 	}
 
+	private OrderedProperties getEditableStorage() {
+		if (storageShared) {
+			storage = new OrderedProperties(storage);
+			storageShared = false;
+		}
+		return storage;
+	}
+
 	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
 		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
 			if (idIndex == null)
@@ -245,24 +262,28 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	public String setInstallableUnitProperty(IInstallableUnit iu, String key, String value) {
 		//		String iuKey = createIUKey(iu);
 		OrderedProperties properties = iuProperties.get(iu);
-		if (properties == null) {
-			properties = new OrderedProperties();
-			iuProperties.put(iu, properties);
-		}
+		if (properties == null && !ius.contains(iu))
+			orphanedProperties = true;
+		properties = properties == null ? new OrderedProperties() : new OrderedProperties(properties);
+		String oldValue = (String) properties.setProperty(key, value);
+		iuProperties.put(iu, properties);
 
 		changed = true;
-		return (String) properties.setProperty(key, value);
+		return oldValue;
 	}
 
 	public String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
 		//		String iuKey = createIUKey(iu);
 		OrderedProperties properties = iuProperties.get(iu);
-		if (properties == null)
+		if (properties == null || !properties.containsKey(key))
 			return null;
 
+		properties = new OrderedProperties(properties);
 		String oldValue = properties.remove(key);
 		if (properties.isEmpty())
 			iuProperties.remove(iu);
+		else
+			iuProperties.put(iu, properties);
 
 		changed = true;
 		return oldValue;
@@ -300,7 +321,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	 * 	of the profile.
 	 */
 	public void addProperties(Map<String, String> properties) {
-		storage.putAll(properties);
+		getEditableStorage().putAll(properties);
 		changed = true;
 	}
 
@@ -316,6 +337,8 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	public void removeInstallableUnit(IInstallableUnit iu) {
 		iu = iu.unresolved();
 		ius.remove(iu);
+		if (iuProperties.containsKey(iu))
+			orphanedProperties = true;
 		changed = true;
 	}
 
@@ -331,7 +354,8 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	}
 
 	public void clearLocalProperties() {
-		storage.clear();
+		storage = new OrderedProperties();
+		storageShared = false;
 		changed = true;
 	}
 
@@ -346,15 +370,21 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	public void clearInstallableUnits() {
 		ius.clear();
 		iuProperties.clear();
+		orphanedProperties = false;
 		changed = true;
 	}
 
+	/**
+	 * Returns a copy of this profile and of its parents.  The copy shares the installable
+	 * units and properties of this profile until either profile is changed, so taking a
+	 * snapshot does not depend on the size of the profile.
+	 */
 	public Profile snapshot() {
 		Profile parentSnapshot = null;
 		if (parentProfile != null)
 			parentSnapshot = parentProfile.snapshot();
 
-		Profile snapshot = new Profile(agent, profileId, parentSnapshot, storage);
+		Profile snapshot = new Profile(agent, profileId, parentSnapshot, null);
 		if (surrogateProfileHandler != null)
 			snapshot.setSurrogateProfileHandler(surrogateProfileHandler);
 		snapshot.setTimestamp(timestamp);
@@ -365,21 +395,30 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 			}
 		}
 
-		for (Iterator<IInstallableUnit> iter = ius.iterator(); iter.hasNext();) {
-			IInstallableUnit iu = iter.next();
-			snapshot.addInstallableUnit(iu);
-			Map<String, String> properties = getInstallableUnitProperties(iu);
-			if (properties != null)
-				snapshot.addInstallableUnitProperties(iu, properties);
-		}
+		snapshot.storage = storage;
+		snapshot.storageShared = true;
+		storageShared = true;
+		snapshot.ius = ius.clone();
+		snapshot.iuProperties = iuProperties.clone();
+		// a snapshot only has the properties of its installable units
+		if (orphanedProperties)
+			snapshot.clearOrphanedInstallableUnitProperties();
 		snapshot.setChanged(false);
 		return snapshot;
 	}
 
 	public void addInstallableUnitProperties(IInstallableUnit iu, Map<String, String> properties) {
+		if (properties.isEmpty())
+			return;
+		OrderedProperties existing = iuProperties.get(iu);
+		if (existing == null && !ius.contains(iu))
+			orphanedProperties = true;
+		OrderedProperties updated = existing == null ? new OrderedProperties(properties.size()) : new OrderedProperties(existing);
 		for (Entry<String, String> entry : properties.entrySet()) {
-			setInstallableUnitProperty(iu, entry.getKey(), entry.getValue());
+			updated.setProperty(entry.getKey(), entry.getValue());
 		}
+		iuProperties.put(iu, updated);
+		changed = true;
 	}
 
 	public void clearInstallableUnitProperties(IInstallableUnit iu) {
@@ -399,6 +438,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		for (IInstallableUnit iu : toRemove) {
 			iuProperties.remove(iu);
 		}
+		orphanedProperties = false;
 		//		List iuKeys = new ArrayList();
 		//		for (Iterator it = ius.iterator(); it.hasNext();)
 		//			iuKeys.add((IInstallableUnit) it.next());
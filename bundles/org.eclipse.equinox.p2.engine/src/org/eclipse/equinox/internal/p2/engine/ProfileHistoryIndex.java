@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A small index of the states of a profile, stored next to the profile files. For each
+ * state it records the number of installable units and the parent profile, so that the
+ * history of a profile can be browsed without parsing its profile files. The index is
+ * only a cache: states missing from it are added when they are first looked up.
+ */
+class ProfileHistoryIndex {
+	static final String INDEX_FILENAME = "history.index"; //$NON-NLS-1$
+	private static final int MAGIC = 0x50325048; // "P2PH"
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The indexed information about one state of a profile.
+	 */
+	static final class Entry {
+		final long timestamp;
+		final int installableUnitCount;
+		final String parentId;
+
+		Entry(long timestamp, int installableUnitCount, String parentId) {
+			this.timestamp = timestamp;
+			this.installableUnitCount = installableUnitCount;
+			this.parentId = parentId;
+		}
+	}
+
+	private final File file;
+	private final Map<Long, Entry> entries = new TreeMap<Long, Entry>();
+	private long lastModified = -1;
+	private long length = -1;
+
+	ProfileHistoryIndex(File profileDirectory) {
+		file = new File(profileDirectory, INDEX_FILENAME);
+	}
+
+	Entry get(long timestamp) {
+		refresh();
+		return entries.get(new Long(timestamp));
+	}
+
+	/**
+	 * Adds the given entry and removes the entries of states that no longer exist.
+	 */
+	void put(Entry entry, long[] timestamps) {
+		refresh();
+		entries.put(new Long(entry.timestamp), entry);
+		Set<Long> existing = new HashSet<Long>(timestamps.length);
+		for (int i = 0; i < timestamps.length; i++)
+			existing.add(new Long(timestamps[i]));
+		entries.keySet().retainAll(existing);
+		save();
+	}
+
+	void remove(long timestamp) {
+		refresh();
+		if (entries.remove(new Long(timestamp)) != null)
+			save();
+	}
+
+	/*
+	 * Reads the index again if another registry, possibly in another process, wrote it.
+	 */
+	private void refresh() {
+		long current = file.lastModified();
+		if (current == lastModified && file.length() == length)
+			return;
+		entries.clear();
+		lastModified = current;
+		length = file.length();
+		if (current == 0)
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+					return;
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					long timestamp = in.readLong();
+					int installableUnitCount = in.readInt();
+					String parentId = in.readBoolean() ? in.readUTF() : null;
+					entries.put(new Long(timestamp), new Entry(timestamp, installableUnitCount, parentId));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// the missing entries are computed again
+			entries.clear();
+		}
+	}
+
+	private void save() {
+		File tempFile = null;
+		try {
+			// registries of other processes may write the index at the same time
+			tempFile = File.createTempFile(INDEX_FILENAME, ".tmp", file.getParentFile()); //$NON-NLS-1$
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(entries.size());
+				for (Entry entry : entries.values()) {
+					out.writeLong(entry.timestamp);
+					out.writeInt(entry.installableUnitCount);
+					out.writeBoolean(entry.parentId != null);
+					if (entry.parentId != null)
+						out.writeUTF(entry.parentId);
+				}
+			} finally {
+				out.close();
+			}
+			file.delete();
+			if (!tempFile.renameTo(file))
+				throw new IOException("Could not rename " + tempFile); //$NON-NLS-1$
+			lastModified = file.lastModified();
+			length = file.length();
+		} catch (IOException e) {
+			// the index is only a cache, it is written again with the next state
+			if (tempFile != null)
+				tempFile.delete();
+			lastModified = -1;
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -124,6 +124,7 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 	protected class IUPropertiesHandler extends AbstractHandler {
 
 		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
+		private final String[] values = new String[required.length];
 
 		private String iuIdentity;
 		private Map<String, Map<String, String>> iusPropertiesMap;
@@ -131,9 +132,23 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 
 		public IUPropertiesHandler(AbstractHandler parentHandler, Attributes attributes, Map<String, Map<String, String>> iusPropertiesMap) {
 			super(parentHandler, IU_PROPERTIES_ELEMENT);
-			this.iusPropertiesMap = iusPropertiesMap;
+			initialize(attributes, iusPropertiesMap);
+		}
+
+		// Constructor for a handler reused for the properties of all units
+		IUPropertiesHandler() {
+			this.elementHandled = IU_PROPERTIES_ELEMENT;
+		}
+
+		void reuse(AbstractHandler parentHandler, Attributes attributes, Map<String, Map<String, String>> propertiesMap) {
+			reuse(parentHandler);
+			propertiesHandler = null;
+			initialize(attributes, propertiesMap);
+		}
 
-			String values[] = parseRequiredAttributes(attributes, required);
+		private void initialize(Attributes attributes, Map<String, Map<String, String>> propertiesMap) {
+			this.iusPropertiesMap = propertiesMap;
+			parseAttributes(attributes, required, noAttributes, values);
 			String id = values[0];
 			Version version = checkVersion(IU_PROPERTIES_ELEMENT, VERSION_ATTRIBUTE, values[1]);
 			iuIdentity = id + "_" + version.toString(); //$NON-NLS-1$
@@ -157,6 +172,8 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 	protected class IUsPropertiesHandler extends AbstractHandler {
 
 		private Map<String, Map<String, String>> iusPropertiesMap;
+		// reused for the properties of all units
+		private IUPropertiesHandler iuPropertiesHandler;
 
 		public IUsPropertiesHandler(AbstractHandler parentHandler, Attributes attributes) {
 			super(parentHandler, IUS_PROPERTIES_ELEMENT);
@@ -171,7 +188,9 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 
 		public void startElement(String name, Attributes attributes) {
 			if (name.equals(IU_PROPERTIES_ELEMENT)) {
-				new IUPropertiesHandler(this, attributes, iusPropertiesMap);
+				if (iuPropertiesHandler == null)
+					iuPropertiesHandler = new IUPropertiesHandler();
+				iuPropertiesHandler.reuse(this, attributes, iusPropertiesMap);
 			} else {
 				invalidElement(name, attributes);
 			}
@@ -37,7 +37,7 @@ import org.osgi.framework.ServiceReference;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
-public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
+public class SimpleProfileRegistry implements IProfileRegistry, IProfileHistory, IAgentService {
 
 	private static final String SIMPLE_PROFILE_REGISTRY_INTERNAL = "_simpleProfileRegistry_internal_"; //$NON-NLS-1$
 	private static final String PROFILE_REGISTRY = "profile registry"; //$NON-NLS-1$
@@ -54,9 +54,12 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	protected final IProvisioningAgent agent;
 
 	/**
-	 * Reference to Map of String(Profile id)->Profile. 
+	 * Map of String(Profile id)->Profile. Each profile is loaded when it is first needed,
+	 * and can be reclaimed independently of the other profiles.
 	 */
-	private SoftReference<Map<String, Profile>> profiles;
+	private final Map<String, SoftReference<Profile>> profiles = new HashMap<String, SoftReference<Profile>>();
+	// the history indexes of the profiles, by profile id
+	private final Map<String, ProfileHistoryIndex> historyIndexes = new HashMap<String, ProfileHistoryIndex>();
 	private Map<String, ProfileLock> profileLocks = new HashMap<String, ProfileLock>();
 
 	private String self;
@@ -129,13 +132,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	 * If the current profile for self is marked as a roaming profile, we need
 	 * to update its install and bundle pool locations.
 	 */
-	private void updateSelfProfile(Map<String, Profile> profileMap) {
-		if (profileMap == null)
-			return;
-		Profile selfProfile = profileMap.get(self);
-		if (selfProfile == null)
-			return;
-
+	private void updateSelfProfile(Profile selfProfile) {
 		//register default locale provider where metadata translations are found
 		//TODO ideally this should not be hard-coded to the current profile
 		TranslationSupport.getInstance().setTranslationSource(selfProfile);
@@ -186,23 +183,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (SELF.equals(id))
 			id = self;
 
-		if (profiles != null) {
-			IProfile profile = getProfile(id);
-			if (profile != null && profile.getTimestamp() == timestamp)
-				return profile;
-		}
+		Profile loaded = getLoadedProfile(id);
+		if (loaded != null && loaded.getTimestamp() == timestamp)
+			return loaded.snapshot();
 
-		File profileDirectory = getProfileFolder(id);
-		if (!profileDirectory.isDirectory())
+		File profileFile = getProfileFile(id, timestamp);
+		if (profileFile == null)
 			return null;
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
-				return null;
-		}
-
 		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
 		try {
 			parser.parse(profileFile);
@@ -246,7 +234,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	private Profile internalGetProfile(String id) {
 		if (SELF.equals(id))
 			id = self;
-		Profile profile = getProfileMap().get(id);
+		Profile profile = getCachedProfile(id);
 		if (self != null && self.equals(id)) {
 			boolean resetProfile = false;
 			if (profile != null && ignoreExistingProfile(profile)) {
@@ -339,8 +327,8 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			return null;
 
 		saveProfile(profile);
-		resetProfiles();
-		return getProfileMap().get(id);
+		resetProfile(id);
+		return getCachedProfile(id);
 	}
 
 	public synchronized IProfile[] getProfiles() {
@@ -354,28 +342,81 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	/**
-	 * Returns an initialized map of String(Profile id)->Profile. 
+	 * Returns a map of String(Profile id)->Profile holding all the profiles of the registry.
+	 * This loads every profile, use {@link #getCachedProfile(String)} to access a single one.
 	 */
 	protected Map<String, Profile> getProfileMap() {
-		if (profiles != null) {
-			Map<String, Profile> result = profiles.get();
-			if (result != null)
-				return result;
+		Map<String, Profile> result = new LinkedHashMap<String, Profile>(8);
+		File[] profileDirectories = listProfileDirectories();
+		for (int i = 0; i < profileDirectories.length; i++) {
+			String profileId = getProfileId(profileDirectories[i]);
+			Profile profile = getCachedProfile(profileId);
+			if (profile != null)
+				result.put(profileId, profile);
 		}
-		Map<String, Profile> result = restore();
-		if (result == null)
-			result = new LinkedHashMap<String, Profile>(8);
-		profiles = new SoftReference<Map<String, Profile>>(result);
-		if (updateSelfProfile) {
-			//update self profile on first load
-			updateSelfProfile(result);
+		// profiles that could not be persisted only exist in memory
+		for (String profileId : profiles.keySet()) {
+			if (!result.containsKey(profileId)) {
+				Profile profile = getLoadedProfile(profileId);
+				if (profile != null)
+					result.put(profileId, profile);
+			}
 		}
 		return result;
 	}
 
+	/*
+	 * Returns the profile with the given id if it is in memory, without loading it.
+	 */
+	private Profile getLoadedProfile(String id) {
+		SoftReference<Profile> reference = profiles.get(id);
+		return reference == null ? null : reference.get();
+	}
+
+	/**
+	 * Returns the current state of the profile with the given id, loading it and its
+	 * parent profiles if they are not in memory.
+	 */
+	protected Profile getCachedProfile(String id) {
+		if (id == null)
+			return null;
+		Profile profile = getLoadedProfile(id);
+		if (profile != null)
+			return profile;
+		profile = loadProfile(id);
+		if (profile == null)
+			return null;
+		profiles.put(id, new SoftReference<Profile>(profile));
+		if (updateSelfProfile && id.equals(self)) {
+			//update self profile on first load
+			updateSelfProfile(profile);
+		}
+		return profile;
+	}
+
+	/*
+	 * Removes the given profile, and the loaded profiles that descend from it, from memory.
+	 */
+	private void resetProfile(String id) {
+		profiles.remove(id);
+		for (Iterator<String> it = profiles.keySet().iterator(); it.hasNext();) {
+			Profile profile = getLoadedProfile(it.next());
+			if (profile == null) {
+				it.remove();
+				continue;
+			}
+			for (IProfile parent = profile.getParentProfile(); parent != null; parent = ((Profile) parent).getParentProfile()) {
+				if (parent.getProfileId().equals(id)) {
+					it.remove();
+					break;
+				}
+			}
+		}
+	}
+
 	public synchronized void updateProfile(Profile profile) {
 		String id = profile.getProfileId();
-		Profile current = getProfileMap().get(id);
+		Profile current = getCachedProfile(id);
 		if (current == null)
 			throw new IllegalArgumentException(NLS.bind(Messages.profile_does_not_exist, id));
 
@@ -411,15 +452,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	public synchronized IProfile addProfile(String id, Map<String, String> profileProperties, String parentId) throws ProvisionException {
 		if (SELF.equals(id))
 			id = self;
-		Map<String, Profile> profileMap = getProfileMap();
-		if (profileMap.get(id) != null)
+		if (getCachedProfile(id) != null)
 			throw new ProvisionException(NLS.bind(Messages.Profile_Duplicate_Root_Profile_Id, id));
 
 		Profile parent = null;
 		if (parentId != null) {
 			if (SELF.equals(parentId))
 				parentId = self;
-			parent = profileMap.get(parentId);
+			parent = getCachedProfile(parentId);
 			if (parent == null)
 				throw new ProvisionException(NLS.bind(Messages.Profile_Parent_Not_Found, parentId));
 		}
@@ -427,7 +467,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		Profile profile = new Profile(agent, id, parent, profileProperties);
 		if (surrogateProfileHandler != null && surrogateProfileHandler.isSurrogate(profile))
 			profile.setSurrogateProfileHandler(surrogateProfileHandler);
-		profileMap.put(id, profile);
+		profiles.put(id, new SoftReference<Profile>(profile));
 		saveProfile(profile);
 		broadcastChangeEvent(id, IProfileEvent.ADDED);
 		return profile.snapshot();
@@ -436,9 +476,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	public synchronized void removeProfile(String profileId) {
 		if (SELF.equals(profileId))
 			profileId = self;
-		//note we need to maintain a reference to the profile map until it is persisted to prevent gc
-		Map<String, Profile> profileMap = getProfileMap();
-		Profile profile = profileMap.get(profileId);
+		Profile profile = getCachedProfile(profileId);
 		if (profile == null)
 			return;
 
@@ -458,7 +496,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 				internalUnlockProfile(savedParent);
 			}
 		}
-		profileMap.remove(profileId);
+		profiles.remove(profileId);
 		profileLocks.remove(profileId);
 		// deleting the profile removes the folder and subsequently all
 		// the profile state properties as well since they are stored in a file in the folder.
@@ -470,23 +508,15 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (SELF.equals(id))
 			id = self;
 
-		if (profiles != null) {
-			IProfile profile = getProfile(id);
-			if (profile != null && profile.getTimestamp() == timestamp)
-				throw new ProvisionException(Messages.SimpleProfileRegistry_CannotRemoveCurrentSnapshot);
-		}
+		Profile loaded = getLoadedProfile(id);
+		if (loaded != null && loaded.getTimestamp() == timestamp)
+			throw new ProvisionException(Messages.SimpleProfileRegistry_CannotRemoveCurrentSnapshot);
 
-		File profileDirectory = getProfileFolder(id);
-		if (!profileDirectory.isDirectory())
+		File profileFile = getProfileFile(id, timestamp);
+		if (profileFile == null)
 			return;
-
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
-				return;
-		}
 		FileUtils.deleteAll(profileFile);
+		getHistoryIndex(id).remove(timestamp);
 		// Ignore the return value here. If there was a problem removing the profile state
 		// properties we don't want to fail the whole operation since the profile state itself 
 		// was removed successfully
@@ -499,53 +529,169 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	/**
-	 * Restores the profile registry from disk, and returns the loaded profile map.
-	 * Returns <code>null</code> if unable to read the registry.
+	 * Restores the current state of the given profile from disk. Returns <code>null</code>
+	 * if the registry has no such profile.
 	 */
-	private Map<String, Profile> restore() {
+	private Profile loadProfile(String id) {
 		if (store == null || !store.isDirectory())
 			throw new IllegalStateException(NLS.bind(Messages.reg_dir_not_available, store));
+		File profileDirectory = getProfileFolder(id);
+		if (!profileDirectory.isDirectory())
+			return null;
 
 		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		ProfileLock lock = profileLocks.get(id);
+		if (lock == null) {
+			lock = new ProfileLock(this, profileDirectory);
+			profileLocks.put(id, lock);
+		}
+
+		boolean locked = false;
+		if (lock.processHoldsLock() || (locked = lock.lock())) {
+			try {
+				File profileFile = findLatestProfileFile(profileDirectory);
+				if (profileFile != null) {
+					try {
+						parser.parse(profileFile);
+					} catch (IOException e) {
+						LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+					}
+				}
+			} finally {
+				if (locked)
+					lock.unlock();
+			}
+		} else {
+			// could not lock the profile, so add a place holder
+			parser.addProfilePlaceHolder(id);
+		}
+
+		ProfileParser.ProfileHandler profileHandler = parser.getProfileHandlers().get(id);
+		if (profileHandler == null)
+			return null;
+		Profile parent = getCachedProfile(profileHandler.getParentId());
+		Profile profile = parser.createProfile(profileHandler, parent);
+		List<String> subProfileIds = findSubProfileIds(id);
+		for (int i = 0; i < subProfileIds.size(); i++)
+			profile.addSubProfile(subProfileIds.get(i));
+		return profile;
+	}
+
+	/*
+	 * Returns the ids of the profiles whose current state has the given profile as parent.
+	 * The parents of the profiles that are not loaded are read from their history index.
+	 */
+	private List<String> findSubProfileIds(String id) {
+		List<String> result = new ArrayList<String>();
+		File[] profileDirectories = listProfileDirectories();
+		for (int i = 0; i < profileDirectories.length; i++) {
+			String profileId = getProfileId(profileDirectories[i]);
+			if (profileId.equals(id))
+				continue;
+			String parentId = null;
+			Profile profile = getLoadedProfile(profileId);
+			if (profile != null) {
+				if (profile.getParentProfile() != null)
+					parentId = profile.getParentProfile().getProfileId();
+			} else {
+				File profileFile = findLatestProfileFile(profileDirectories[i]);
+				if (profileFile == null)
+					continue;
+				String fileName = profileFile.getName();
+				ProfileHistoryIndex.Entry entry = getHistoryEntry(profileId, Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT))));
+				if (entry != null)
+					parentId = entry.parentId;
+			}
+			if (id.equals(parentId))
+				result.add(profileId);
+		}
+		return result;
+	}
+
+	private File[] listProfileDirectories() {
+		if (store == null || !store.isDirectory())
+			throw new IllegalStateException(NLS.bind(Messages.reg_dir_not_available, store));
 		File[] profileDirectories = store.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
 				return pathname.getName().endsWith(PROFILE_EXT) && pathname.isDirectory();
 			}
 		});
 		// protect against NPE
-		if (profileDirectories == null) {
-			parser.getProfileMap();
+		return profileDirectories == null ? new File[0] : profileDirectories;
+	}
+
+	private static String getProfileId(File profileDirectory) {
+		String directoryName = profileDirectory.getName();
+		return unescape(directoryName.substring(0, directoryName.lastIndexOf(PROFILE_EXT)));
+	}
+
+	/*
+	 * Returns the file of the given state of a profile, or null if there is no such state.
+	 */
+	private File getProfileFile(String id, long timestamp) {
+		File profileDirectory = getProfileFolder(id);
+		if (!profileDirectory.isDirectory())
+			return null;
+
+		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
+		if (!profileFile.exists()) {
+			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
+			if (!profileFile.exists())
+				return null;
 		}
-		for (int i = 0; i < profileDirectories.length; i++) {
-			String directoryName = profileDirectories[i].getName();
-			String profileId = unescape(directoryName.substring(0, directoryName.lastIndexOf(PROFILE_EXT)));
-			ProfileLock lock = profileLocks.get(profileId);
-			if (lock == null) {
-				lock = new ProfileLock(this, profileDirectories[i]);
-				profileLocks.put(profileId, lock);
-			}
+		return profileFile;
+	}
 
-			boolean locked = false;
-			if (lock.processHoldsLock() || (locked = lock.lock())) {
-				try {
-					File profileFile = findLatestProfileFile(profileDirectories[i]);
-					if (profileFile != null) {
-						try {
-							parser.parse(profileFile);
-						} catch (IOException e) {
-							LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
-						}
-					}
-				} finally {
-					if (locked)
-						lock.unlock();
-				}
-			} else {
-				// could not lock the profile, so add a place holder
-				parser.addProfilePlaceHolder(profileId);
-			}
+	private ProfileHistoryIndex getHistoryIndex(String id) {
+		ProfileHistoryIndex index = historyIndexes.get(id);
+		if (index == null) {
+			index = new ProfileHistoryIndex(getProfileFolder(id));
+			historyIndexes.put(id, index);
+		}
+		return index;
+	}
+
+	/*
+	 * Returns the history index entry of the given state of a profile. States that
+	 * are not indexed yet are parsed once and added to the index.
+	 */
+	private ProfileHistoryIndex.Entry getHistoryEntry(String id, long timestamp) {
+		ProfileHistoryIndex index = getHistoryIndex(id);
+		ProfileHistoryIndex.Entry entry = index.get(timestamp);
+		if (entry != null)
+			return entry;
+
+		File profileFile = getProfileFile(id, timestamp);
+		if (profileFile == null)
+			return null;
+		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		try {
+			parser.parse(profileFile);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+			return null;
 		}
-		return parser.getProfileMap();
+		ProfileParser.ProfileHandler profileHandler = parser.getProfileHandlers().get(id);
+		if (profileHandler == null)
+			return null;
+		IInstallableUnit[] ius = profileHandler.getInstallableUnits();
+		entry = new ProfileHistoryIndex.Entry(timestamp, ius == null ? 0 : ius.length, profileHandler.getParentId());
+		index.put(entry, listProfileTimestamps(id));
+		return entry;
+	}
+
+	/*(non-Javadoc)
+	 * @see org.eclipse.equinox.internal.p2.engine.IProfileHistory#getInstallableUnitCount(java.lang.String, long)
+	 * The count is read from the history index of the profile, so that browsing the
+	 * history does not parse every profile file.
+	 */
+	public synchronized int getInstallableUnitCount(String id, long timestamp) {
+		if (SELF.equals(id))
+			id = self;
+		if (id == null)
+			return -1;
+		ProfileHistoryIndex.Entry entry = getHistoryEntry(id, timestamp);
+		return entry == null ? -1 : entry.installableUnitCount;
 	}
 
 	private File findLatestProfileFile(File profileDirectory) {
@@ -600,6 +746,11 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 				os = new BufferedOutputStream(new FileOutputStream(profileFile));
 			Writer writer = new Writer(os);
 			writer.writeProfile(profile);
+			os.close();
+			os = null;
+			// the writer does not persist the parent profile, so the saved state has none
+			int installableUnitCount = profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size();
+			getHistoryIndex(profile.getProfileId()).put(new ProfileHistoryIndex.Entry(currentTimestamp, installableUnitCount, null), listProfileTimestamps(profile.getProfileId()));
 		} catch (IOException e) {
 			profile.setTimestamp(previousTimestamp);
 			profileFile.delete();
@@ -634,6 +785,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	private void deleteProfile(String profileId) {
 		File profileDirectory = getProfileFolder(profileId);
 		FileUtils.deleteAll(profileDirectory);
+		historyIndexes.remove(profileId);
 	}
 
 	/**
@@ -764,7 +916,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 				parentProfile = profileMap.get(parentId);
 			}
 
-			Profile profile = new Profile(agent, profileId, parentProfile, profileHandler.getProperties());
+			profileMap.put(profileId, createProfile(profileHandler, parentProfile));
+		}
+
+		/**
+		 * Creates the profile described by the given handler, with the given parent.
+		 */
+		public Profile createProfile(ProfileHandler profileHandler, Profile parentProfile) {
+			Profile profile = new Profile(agent, profileHandler.getProfileId(), parentProfile, profileHandler.getProperties());
 			if (surrogateProfileHandler != null && surrogateProfileHandler.isSurrogate(profile))
 				profile.setSurrogateProfileHandler(surrogateProfileHandler);
 
@@ -784,7 +943,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 				}
 			}
 			profile.setChanged(false);
-			profileMap.put(profileId, profile);
+			return profile;
 		}
 
 		private final class ProfileDocHandler extends DocHandler {
@@ -815,7 +974,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	public synchronized boolean isCurrent(IProfile profile) {
-		Profile internalProfile = getProfileMap().get(profile.getProfileId());
+		Profile internalProfile = getCachedProfile(profile.getProfileId());
 		if (internalProfile == null)
 			throw new IllegalArgumentException(NLS.bind(Messages.profile_not_registered, profile.getProfileId()));
 
@@ -871,7 +1030,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (timestamps.length == 0) {
 			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
 				DebugHelper.debug(PROFILE_REGISTRY, "check timestamp: expected " + profile.getTimestamp() + " but no profiles were found"); //$NON-NLS-1$ //$NON-NLS-2$
-			resetProfiles();
+			resetProfile(profile.getProfileId());
 			return false;
 		}
 
@@ -880,7 +1039,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			if (DebugHelper.DEBUG_PROFILE_REGISTRY)
 				DebugHelper.debug(PROFILE_REGISTRY, "check timestamp: expected " + profile.getTimestamp() + " but was " + currentTimestamp); //$NON-NLS-1$ //$NON-NLS-2$
 			if (internalProfile.getTimestamp() != currentTimestamp)
-				resetProfiles();
+				resetProfile(profile.getProfileId());
 			return false;
 		}
 
@@ -897,10 +1056,9 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (id == null)
 			return false;
 
-		// check profiles to avoid restoring the profile registry
-		if (profiles != null)
-			if (getProfile(id) != null)
-				return true;
+		// check the loaded profiles to avoid restoring the profile
+		if (getLoadedProfile(id) != null)
+			return true;
 
 		File profileDirectory = getProfileFolder(id);
 		if (!profileDirectory.isDirectory())
@@ -914,7 +1072,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	public synchronized void resetProfiles() {
-		profiles = null;
+		profiles.clear();
 	}
 
 	public synchronized void unlockProfile(IProfile profile) {
@@ -30,6 +30,7 @@ public class Main {
 		System.out.println();
 		System.out.println("-outputDir <dir>  the output directory"); //$NON-NLS-1$
 		System.out.println("-verbose        verbose mode "); //$NON-NLS-1$
+		System.out.println("-threads <n>    process the jars nested in a zip using n threads"); //$NON-NLS-1$
 	}
 
 	public static JarProcessorExecutor.Options processArguments(String[] args) {
@@ -63,7 +64,14 @@ public class Main {
 				options.verbose = true;
 			}  else if (args[i].equals("-processAll")) { //$NON-NLS-1$
 				options.processAll = true;
-			} 
+			} else if (args[i].equals("-threads") && i < args.length - 2) { //$NON-NLS-1$
+				try {
+					options.threads = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					printUsage();
+					return null;
+				}
+			}
 		}
 
 		options.input = new File(args[i]);
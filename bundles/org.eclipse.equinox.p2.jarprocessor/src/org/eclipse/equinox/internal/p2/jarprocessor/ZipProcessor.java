@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2006, 2009 IBM Corporation and others.
+ *  Copyright (c) 2006, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -12,6 +12,7 @@ package org.eclipse.equinox.internal.p2.jarprocessor;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 import org.eclipse.internal.provisional.equinox.p2.jarprocessor.JarProcessor;
 import org.eclipse.internal.provisional.equinox.p2.jarprocessor.JarProcessorExecutor;
@@ -52,134 +53,55 @@ public class ZipProcessor {
 		return options.repack || (options.pack && options.signCommand != null);
 	}
 
+	/*
+	 * An entry to be written to the output zip. If no file is given, the content
+	 * of the original zip entry is copied.
+	 */
+	private static class Output {
+		final String name;
+		final File file;
+		final boolean optional;
+
+		Output(String name, File file, boolean optional) {
+			this.name = name;
+			this.file = file;
+			this.optional = optional;
+		}
+	}
+
+	/*
+	 * The outputs resulting from processing one entry of the input zip.
+	 */
+	private static class EntryResult {
+		final ZipEntry entry;
+		final List<Output> outputs = new ArrayList<Output>(2);
+		File extractedFile = null;
+
+		EntryResult(ZipEntry entry) {
+			this.entry = entry;
+		}
+	}
+
 	public void processZip(File zipFile) throws ZipException, IOException {
 		if (options.verbose)
 			System.out.println("Processing " + zipFile.getPath()); //$NON-NLS-1$
-		ZipFile zip = new ZipFile(zipFile);
+		final ZipFile zip = new ZipFile(zipFile);
 		initialize(zip);
 
-		String extension = options.unpack ? "pack.gz" : ".jar"; //$NON-NLS-1$ //$NON-NLS-2$
 		File tempDir = new File(getWorkingDirectory(), "temp_" + zipFile.getName()); //$NON-NLS-1$
-		JarProcessor processor = new JarProcessor();
-		processor.setVerbose(options.verbose);
-		processor.setProcessAll(options.processAll);
-		processor.setWorkingDirectory(tempDir.getCanonicalPath());
-		if (options.unpack) {
-			executor.addPackUnpackStep(processor, properties, options);
-		}
 
 		File outputFile = new File(getWorkingDirectory(), zipFile.getName() + ".temp"); //$NON-NLS-1$
 		File parent = outputFile.getParentFile();
 		if (!parent.exists())
 			parent.mkdirs();
 		ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(outputFile));
-		Enumeration<? extends ZipEntry> entries = zip.entries();
-		if (entries.hasMoreElements()) {
-			for (ZipEntry entry = entries.nextElement(); entry != null; entry = entries.hasMoreElements() ? (ZipEntry) entries.nextElement() : null) {
-				String name = entry.getName();
-
-				InputStream entryStream = zip.getInputStream(entry);
-
-				boolean pack = options.pack && !packExclusions.contains(name);
-				boolean sign = options.signCommand != null && !signExclusions.contains(name);
-				boolean repack = repacking() && !packExclusions.contains(name);
-
-				File extractedFile = null;
-
-				if (entry.getName().endsWith(extension) && (pack || sign || repack || options.unpack)) {
-					extractedFile = new File(tempDir, name);
-					parent = extractedFile.getParentFile();
-					if (!parent.exists())
-						parent.mkdirs();
-					if (options.verbose)
-						System.out.println("Extracting " + entry.getName()); //$NON-NLS-1$
-					FileOutputStream extracted = new FileOutputStream(extractedFile);
-					Utils.transferStreams(entryStream, extracted, true); // this will close the stream
-					entryStream = null;
-
-					boolean skip = Utils.shouldSkipJar(extractedFile, options.processAll, options.verbose);
-					if (skip) {
-						//skipping this file 
-						entryStream = new FileInputStream(extractedFile);
-						if (options.verbose)
-							System.out.println(entry.getName() + " is not marked, skipping."); //$NON-NLS-1$
-					} else {
-						if (options.unpack) {
-							File result = processor.processJar(extractedFile);
-							name = name.substring(0, name.length() - extractedFile.getName().length()) + result.getName();
-							extractedFile = result;
-						} else {
-							if (repack || sign) {
-								processor.clearProcessSteps();
-								if (repack)
-									executor.addPackUnpackStep(processor, properties, options);
-								if (sign)
-									executor.addSignStep(processor, properties, options);
-								extractedFile = processor.processJar(extractedFile);
-							}
-							if (pack) {
-								processor.clearProcessSteps();
-								executor.addPackStep(processor, properties, options);
-								File modifiedFile = processor.processJar(extractedFile);
-								if (modifiedFile.exists()) {
-									try {
-										String newName = name.substring(0, name.length() - extractedFile.getName().length()) + modifiedFile.getName();
-										if (options.verbose) {
-											System.out.println("Adding " + newName + " to " + outputFile.getPath()); //$NON-NLS-1$ //$NON-NLS-2$
-											System.out.println();
-										}
-										ZipEntry zipEntry = new ZipEntry(newName);
-										entryStream = new FileInputStream(modifiedFile);
-										zipOut.putNextEntry(zipEntry);
-										Utils.transferStreams(entryStream, zipOut, false); //we want to keep zipOut open
-										entryStream.close();
-										Utils.clear(modifiedFile);
-									} catch (IOException e) {
-										Utils.close(entryStream);
-										if (options.verbose) {
-											e.printStackTrace();
-											System.out.println("Warning: Problem reading " + modifiedFile.getPath() + "."); //$NON-NLS-1$//$NON-NLS-2$
-										}
-									}
-									entryStream = null;
-								} else if (options.verbose) {
-									System.out.println("Warning: " + modifiedFile.getPath() + " not found."); //$NON-NLS-1$//$NON-NLS-2$
-								}
-							}
-						}
-						if (extractedFile.exists()) {
-							try {
-								entryStream = new FileInputStream(extractedFile);
-							} catch (IOException e) {
-								if (options.verbose) {
-									e.printStackTrace();
-									System.out.println("Warning: Problem reading " + extractedFile.getPath() + "."); //$NON-NLS-1$//$NON-NLS-2$
-								}
-							}
-						}
-
-						if (options.verbose && entryStream != null) {
-							System.out.println("Adding " + name + " to " + outputFile.getPath()); //$NON-NLS-1$ //$NON-NLS-2$
-						}
-					}
-				}
-				if (entryStream != null) {
-					ZipEntry newEntry = new ZipEntry(name);
-					try {
-						zipOut.putNextEntry(newEntry);
-						Utils.transferStreams(entryStream, zipOut, false);
-						zipOut.closeEntry();
-					} catch (ZipException e) {
-						if (options.verbose) {
-							System.out.println("Warning: " + name + " already exists in " + outputFile.getName() + ".  Skipping."); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
-						}
-					}
-					entryStream.close();
-				}
-
-				if (extractedFile != null)
-					Utils.clear(extractedFile);
-
+		List<ZipEntry> entries = new ArrayList<ZipEntry>(Collections.list(zip.entries()));
+		if (options.threads > 1 && entries.size() > 1) {
+			processEntriesInParallel(zip, entries, tempDir, zipOut, outputFile);
+		} else {
+			JarProcessor processor = createProcessor(tempDir);
+			for (ZipEntry entry : entries) {
+				writeEntry(zip, processEntry(zip, entry, tempDir, processor, outputFile), zipOut, outputFile);
 				if (options.verbose) {
 					System.out.println();
 					System.out.println("Processing " + zipFile.getPath()); //$NON-NLS-1$
@@ -196,6 +118,191 @@ public class ZipProcessor {
 		Utils.clear(tempDir);
 	}
 
+	/*
+	 * Process the nested jars on a pool of options.threads workers, each working in its own
+	 * directory. Every worker runs at most one external pack, unpack or sign process at a time, so
+	 * the size of the pool also bounds the number of concurrent processes. The results are written
+	 * in the order of the original entries so the output does not depend on the scheduling. At most
+	 * twice as many entries as there are workers are in flight, so the extracted and processed files
+	 * waiting to be written don't pile up in the temp directory.
+	 */
+	private void processEntriesInParallel(final ZipFile zip, List<ZipEntry> entries, File tempDir, ZipOutputStream zipOut, final File outputFile) throws IOException {
+		int threads = Math.min(options.threads, entries.size());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			LinkedList<Future<EntryResult>> results = new LinkedList<Future<EntryResult>>();
+			int index = 0;
+			for (final ZipEntry entry : entries) {
+				if (results.size() >= 2 * threads)
+					writeEntry(zip, getResult(results.removeFirst()), zipOut, outputFile);
+				final File workingDir = new File(tempDir, Integer.toString(index++));
+				FutureTask<EntryResult> task = new FutureTask<EntryResult>(new Callable<EntryResult>() {
+					public EntryResult call() throws Exception {
+						return processEntry(zip, entry, workingDir, createProcessor(workingDir), outputFile);
+					}
+				});
+				// entries which are only copied don't need to wait for a worker
+				if (needsProcessing(entry))
+					pool.execute(task);
+				else
+					task.run();
+				results.add(task);
+			}
+			while (!results.isEmpty())
+				writeEntry(zip, getResult(results.removeFirst()), zipOut, outputFile);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private EntryResult getResult(Future<EntryResult> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			IOException exception = new IOException(cause.getMessage());
+			exception.initCause(cause);
+			throw exception;
+		}
+	}
+
+	private JarProcessor createProcessor(File workingDirectory) throws IOException {
+		JarProcessor processor = new JarProcessor();
+		processor.setVerbose(options.verbose);
+		processor.setProcessAll(options.processAll);
+		processor.setWorkingDirectory(workingDirectory.getCanonicalPath());
+		if (options.unpack) {
+			executor.addPackUnpackStep(processor, properties, options);
+		}
+		return processor;
+	}
+
+	private String getExtension() {
+		return options.unpack ? "pack.gz" : ".jar"; //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private boolean needsProcessing(ZipEntry entry) {
+		String name = entry.getName();
+		boolean pack = options.pack && !packExclusions.contains(name);
+		boolean sign = options.signCommand != null && !signExclusions.contains(name);
+		boolean repack = repacking() && !packExclusions.contains(name);
+		return name.endsWith(getExtension()) && (pack || sign || repack || options.unpack);
+	}
+
+	/*
+	 * Run the steps on the given entry and return what has to be written to the output.
+	 */
+	EntryResult processEntry(ZipFile zip, ZipEntry entry, File tempDir, JarProcessor processor, File outputFile) throws IOException {
+		EntryResult result = new EntryResult(entry);
+		String name = entry.getName();
+
+		boolean pack = options.pack && !packExclusions.contains(name);
+		boolean sign = options.signCommand != null && !signExclusions.contains(name);
+		boolean repack = repacking() && !packExclusions.contains(name);
+
+		if (!needsProcessing(entry)) {
+			result.outputs.add(new Output(name, null, false));
+			return result;
+		}
+
+		File extractedFile = new File(tempDir, name);
+		File parent = extractedFile.getParentFile();
+		if (!parent.exists())
+			parent.mkdirs();
+		if (options.verbose)
+			System.out.println("Extracting " + entry.getName()); //$NON-NLS-1$
+		FileOutputStream extracted = new FileOutputStream(extractedFile);
+		Utils.transferStreams(zip.getInputStream(entry), extracted, true); // this will close the stream
+		result.extractedFile = extractedFile;
+
+		boolean skip = Utils.shouldSkipJar(extractedFile, options.processAll, options.verbose);
+		if (skip) {
+			//skipping this file 
+			result.outputs.add(new Output(name, extractedFile, false));
+			if (options.verbose)
+				System.out.println(entry.getName() + " is not marked, skipping."); //$NON-NLS-1$
+			return result;
+		}
+
+		if (options.unpack) {
+			File unpacked = processor.processJar(extractedFile);
+			name = name.substring(0, name.length() - extractedFile.getName().length()) + unpacked.getName();
+			extractedFile = unpacked;
+		} else {
+			if (repack || sign) {
+				processor.clearProcessSteps();
+				if (repack)
+					executor.addPackUnpackStep(processor, properties, options);
+				if (sign)
+					executor.addSignStep(processor, properties, options);
+				extractedFile = processor.processJar(extractedFile);
+			}
+			if (pack) {
+				processor.clearProcessSteps();
+				executor.addPackStep(processor, properties, options);
+				File modifiedFile = processor.processJar(extractedFile);
+				if (modifiedFile.exists()) {
+					String newName = name.substring(0, name.length() - extractedFile.getName().length()) + modifiedFile.getName();
+					if (options.verbose) {
+						System.out.println("Adding " + newName + " to " + outputFile.getPath()); //$NON-NLS-1$ //$NON-NLS-2$
+						System.out.println();
+					}
+					result.outputs.add(new Output(newName, modifiedFile, true));
+				} else if (options.verbose) {
+					System.out.println("Warning: " + modifiedFile.getPath() + " not found."); //$NON-NLS-1$//$NON-NLS-2$
+				}
+			}
+		}
+		result.extractedFile = extractedFile;
+		if (extractedFile.exists()) {
+			result.outputs.add(new Output(name, extractedFile, false));
+			if (options.verbose)
+				System.out.println("Adding " + name + " to " + outputFile.getPath()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		return result;
+	}
+
+	/*
+	 * Write the outputs of a processed entry to the zip and remove the files they came from.
+	 */
+	private void writeEntry(ZipFile zip, EntryResult result, ZipOutputStream zipOut, File outputFile) throws IOException {
+		for (Output output : result.outputs) {
+			InputStream entryStream = null;
+			try {
+				entryStream = output.file == null ? zip.getInputStream(result.entry) : new FileInputStream(output.file);
+				zipOut.putNextEntry(new ZipEntry(output.name));
+				Utils.transferStreams(entryStream, zipOut, false); //we want to keep zipOut open
+				zipOut.closeEntry();
+			} catch (ZipException e) {
+				if (options.verbose) {
+					System.out.println("Warning: " + output.name + " already exists in " + outputFile.getName() + ".  Skipping."); //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
+				}
+			} catch (IOException e) {
+				if (!output.optional && entryStream != null)
+					throw e;
+				if (options.verbose) {
+					e.printStackTrace();
+					System.out.println("Warning: Problem reading " + output.name + "."); //$NON-NLS-1$//$NON-NLS-2$
+				}
+			} finally {
+				Utils.close(entryStream);
+			}
+			if (output.optional)
+				Utils.clear(output.file);
+		}
+
+		if (result.extractedFile != null)
+			Utils.clear(result.extractedFile);
+	}
+
 	private void initialize(ZipFile zip) {
 		ZipEntry entry = zip.getEntry("pack.properties"); //$NON-NLS-1$
 		properties = new Properties();
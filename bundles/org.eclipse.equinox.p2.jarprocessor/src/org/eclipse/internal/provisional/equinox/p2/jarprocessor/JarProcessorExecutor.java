@@ -26,6 +26,7 @@ public class JarProcessorExecutor {
 		public boolean unpack = false;
 		public boolean verbose = false;
 		public boolean processAll = false;
+		public int threads = 1;
 		public File input = null;
 	}
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -23,6 +23,7 @@ import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataWriter;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.ParallelUnitsParser;
 import org.eclipse.equinox.internal.p2.persistence.XMLWriter;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -192,6 +193,9 @@ public class MetadataRepositoryIO {
 
 		private IMetadataRepository theRepository = null;
 
+		// the units parsed concurrently, if any
+		IInstallableUnit[] parsedUnits = null;
+
 		public Parser(BundleContext context, String bundleId) {
 			super(context, bundleId);
 		}
@@ -203,10 +207,22 @@ public class MetadataRepositoryIO {
 			try {
 				// TODO: currently not caching the parser since we make no assumptions
 				//		 or restrictions on concurrent parsing
+				InputStream document = stream;
+				int threads = ParallelUnitsParser.getThreadCount();
+				if (threads > 1) {
+					ParallelUnitsParser unitsParser = new ParallelUnitsParser(stream, threads);
+					if (unitsParser.hasUnitRanges()) {
+						parsedUnits = unitsParser.parseUnits(context, bundleId, errorContext, monitor);
+						IStatus[] problems = unitsParser.getProblems();
+						if (problems.length > 0)
+							status = new MultiStatus(bundleId, IStatus.OK, problems, getErrorMessage(), null);
+					}
+					document = unitsParser.getDocument();
+				}
 				getParser();
 				RepositoryHandler repositoryHandler = new RepositoryHandler();
 				xmlReader.setContentHandler(new RepositoryDocHandler(REPOSITORY_ELEMENT, repositoryHandler));
-				xmlReader.parse(new InputSource(stream));
+				xmlReader.parse(new InputSource(document));
 				if (isValidXML()) {
 					theRepository = repositoryHandler.getRepository();
 				}
@@ -307,8 +323,11 @@ public class MetadataRepositoryIO {
 				if (isValidXML()) {
 					state.Properties = (propertiesHandler == null ? new OrderedProperties(0) //
 							: propertiesHandler.getProperties());
-					state.Units = (unitsHandler == null ? new IInstallableUnit[0] //
-							: unitsHandler.getUnits());
+					if (parsedUnits != null)
+						state.Units = parsedUnits;
+					else
+						state.Units = (unitsHandler == null ? new IInstallableUnit[0] //
+								: unitsHandler.getUnits());
 					state.Repositories = repositoryReferencesHandler == null ? new IRepositoryReference[0] : repositoryReferencesHandler.getReferences();
 					Object repositoryObject = null;
 					//can't create repository if missing type - this is already logged when parsing attributes
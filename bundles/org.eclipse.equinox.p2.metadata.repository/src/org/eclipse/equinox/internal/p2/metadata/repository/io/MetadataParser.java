@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -33,10 +33,70 @@ import org.xml.sax.ContentHandler;
 public abstract class MetadataParser extends XMLParser implements XMLConstants {
 	static final ILicense[] NO_LICENSES = new ILicense[0];
 
+	private Map<String, Version> versions;
+	private Map<String, VersionRange> versionRanges;
+
+	// reused for all the provided capabilities and requirements of the document
+	private ProvidedCapabilityHandler providedCapabilityHandler;
+	private RequirementHandler requirementHandler;
+
 	public MetadataParser(BundleContext context, String bundleId) {
 		super(context, bundleId);
 	}
 
+	/**
+	 * Makes this parser reuse the versions and version ranges found in the given maps, and add
+	 * the ones it parses to them. The maps may be shared by parsers running concurrently.
+	 */
+	protected void shareVersions(Map<String, Version> sharedVersions, Map<String, VersionRange> sharedVersionRanges) {
+		this.versions = sharedVersions;
+		this.versionRanges = sharedVersionRanges;
+	}
+
+	public Version checkVersion(String element, String attribute, String value) {
+		if (versions == null || value == null)
+			return super.checkVersion(element, attribute, value);
+		Version version = versions.get(value);
+		if (version == null) {
+			version = super.checkVersion(element, attribute, value);
+			// invalid values are parsed again so that each occurrence is reported
+			if (version != Version.emptyVersion)
+				versions.put(value, version);
+		}
+		return version;
+	}
+
+	public VersionRange checkVersionRange(String element, String attribute, String value) {
+		if (versionRanges == null || value == null)
+			return super.checkVersionRange(element, attribute, value);
+		VersionRange range = versionRanges.get(value);
+		if (range == null) {
+			range = super.checkVersionRange(element, attribute, value);
+			if (range != VersionRange.emptyRange)
+				versionRanges.put(value, range);
+		}
+		return range;
+	}
+
+	/**
+	 * Handles a provided capability with the handler reused for all the provided capabilities.
+	 */
+	protected void handleProvidedCapability(AbstractHandler parentHandler, Attributes attributes, List<IProvidedCapability> capabilities) {
+		if (providedCapabilityHandler == null)
+			providedCapabilityHandler = new ProvidedCapabilityHandler();
+		providedCapabilityHandler.reuse(parentHandler, attributes, capabilities);
+	}
+
+	/**
+	 * Handles a requirement with the handler reused for all the requirements, which cannot
+	 * be nested in each other.
+	 */
+	protected void handleRequirement(AbstractHandler parentHandler, Attributes attributes, List<IRequirement> capabilities) {
+		if (requirementHandler == null)
+			requirementHandler = new RequirementHandler();
+		requirementHandler.reuse(parentHandler, attributes, capabilities);
+	}
+
 	protected abstract class AbstractMetadataHandler extends AbstractHandler {
 
 		public AbstractMetadataHandler(ContentHandler parentHandler, String elementHandled) {
@@ -438,7 +498,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 
 		public void startElement(String name, Attributes attributes) {
 			if (REQUIREMENT_ELEMENT.equals(name))
-				new RequirementHandler(this, attributes, requirement);
+				handleRequirement(this, attributes, requirement);
 			else {
 				invalidElement(name, attributes);
 			}
@@ -462,7 +522,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 
 		public void startElement(String name, Attributes attributes) {
 			if (REQUIREMENT_ELEMENT.equals(name)) {
-				new RequirementHandler(this, attributes, lifeCycleRequirement);
+				handleRequirement(this, attributes, lifeCycleRequirement);
 			} else {
 				invalidElement(name, attributes);
 			}
@@ -483,7 +543,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 
 		public void startElement(String name, Attributes attributes) {
 			if (name.equals(PROVIDED_CAPABILITY_ELEMENT)) {
-				new ProvidedCapabilityHandler(this, attributes, providedCapabilities);
+				handleProvidedCapability(this, attributes, providedCapabilities);
 			} else {
 				invalidElement(name, attributes);
 			}
@@ -491,10 +551,25 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 	}
 
 	protected class ProvidedCapabilityHandler extends AbstractHandler {
+		private final String[] values = new String[REQUIRED_PROVIDED_CAPABILITY_ATTRIBUTES.length];
 
 		public ProvidedCapabilityHandler(AbstractHandler parentHandler, Attributes attributes, List<IProvidedCapability> capabilities) {
 			super(parentHandler, PROVIDED_CAPABILITY_ELEMENT);
-			String[] values = parseRequiredAttributes(attributes, REQUIRED_PROVIDED_CAPABILITY_ATTRIBUTES);
+			addCapability(attributes, capabilities);
+		}
+
+		// Constructor for a handler reused for all provided capabilities
+		ProvidedCapabilityHandler() {
+			this.elementHandled = PROVIDED_CAPABILITY_ELEMENT;
+		}
+
+		void reuse(AbstractHandler parentHandler, Attributes attributes, List<IProvidedCapability> capabilities) {
+			reuse(parentHandler);
+			addCapability(attributes, capabilities);
+		}
+
+		private void addCapability(Attributes attributes, List<IProvidedCapability> capabilities) {
+			parseAttributes(attributes, REQUIRED_PROVIDED_CAPABILITY_ATTRIBUTES, noAttributes, values);
 			Version version = checkVersion(PROVIDED_CAPABILITY_ELEMENT, VERSION_ATTRIBUTE, values[2]);
 			capabilities.add(MetadataFactory.createProvidedCapability(values[0], values[1], version));
 		}
@@ -518,7 +593,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 
 		public void startElement(String name, Attributes attributes) {
 			if (name.equals(REQUIREMENT_ELEMENT)) {
-				new RequirementHandler(this, attributes, requiredCapabilities);
+				handleRequirement(this, attributes, requiredCapabilities);
 			} else {
 				invalidElement(name, attributes);
 			}
@@ -539,7 +614,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 
 		public void startElement(String name, Attributes attributes) {
 			if (name.equals(REQUIREMENT_ELEMENT)) {
-				new RequirementHandler(this, attributes, requiredCapabilities);
+				handleRequirement(this, attributes, requiredCapabilities);
 			} else {
 				invalidElement(name, attributes);
 			}
@@ -560,7 +635,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 
 		public void startElement(String name, Attributes attributes) {
 			if (name.equals(REQUIREMENT_ELEMENT)) {
-				new RequirementHandler(this, attributes, requiredCapabilities);
+				handleRequirement(this, attributes, requiredCapabilities);
 			} else {
 				invalidElement(name, attributes);
 			}
@@ -582,11 +657,35 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 		private TextHandler filterHandler = null;
 		private TextHandler descriptionHandler = null;
 
+		private final String[] capabilityValues = new String[REQIURED_CAPABILITY_ATTRIBUTES.length + OPTIONAL_CAPABILITY_ATTRIBUTES.length];
+		private final String[] expressionValues = new String[REQIUREMENT_ATTRIBUTES.length + OPTIONAL_REQUIREMENT_ATTRIBUTES.length];
+
 		public RequirementHandler(AbstractHandler parentHandler, Attributes attributes, List<IRequirement> capabilities) {
 			super(parentHandler, REQUIREMENT_ELEMENT);
-			this.capabilities = capabilities;
+			initialize(attributes, capabilities);
+		}
+
+		// Constructor for a handler reused for all requirements
+		RequirementHandler() {
+			this.elementHandled = REQUIREMENT_ELEMENT;
+		}
+
+		void reuse(AbstractHandler parentHandler, Attributes attributes, List<IRequirement> requirements) {
+			reuse(parentHandler);
+			match = null;
+			matchParams = null;
+			namespace = null;
+			name = null;
+			range = null;
+			filterHandler = null;
+			descriptionHandler = null;
+			initialize(attributes, requirements);
+		}
+
+		private void initialize(Attributes attributes, List<IRequirement> requirements) {
+			this.capabilities = requirements;
 			if (attributes.getIndex(NAMESPACE_ATTRIBUTE) >= 0) {
-				String[] values = parseAttributes(attributes, REQIURED_CAPABILITY_ATTRIBUTES, OPTIONAL_CAPABILITY_ATTRIBUTES);
+				String[] values = parseAttributes(attributes, REQIURED_CAPABILITY_ATTRIBUTES, OPTIONAL_CAPABILITY_ATTRIBUTES, capabilityValues);
 				namespace = values[0];
 				name = values[1];
 				range = checkVersionRange(REQUIREMENT_ELEMENT, VERSION_RANGE_ATTRIBUTE, values[2]);
@@ -597,7 +696,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 				greedy = checkBoolean(REQUIREMENT_ELEMENT, CAPABILITY_GREED_ATTRIBUTE, values[5], true).booleanValue();
 			} else {
 				// Expression based requirement
-				String[] values = parseAttributes(attributes, REQIUREMENT_ATTRIBUTES, OPTIONAL_REQUIREMENT_ATTRIBUTES);
+				String[] values = parseAttributes(attributes, REQIUREMENT_ATTRIBUTES, OPTIONAL_REQUIREMENT_ATTRIBUTES, expressionValues);
 				match = values[0];
 				matchParams = values[1];
 				min = values[2] == null ? 1 : checkInteger(REQUIREMENT_ELEMENT, MIN_ATTRIBUTE, values[2]);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2011 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -11,10 +11,10 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.metadata.repository.io;
 
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.*;
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.metadata.RequiredCapability;
@@ -25,11 +25,31 @@ import org.eclipse.equinox.p2.metadata.expression.*;
 
 public class MetadataWriter extends XMLWriter implements XMLConstants {
 
+	// The number of installable units serialized together by one worker thread
+	private static final int CHUNK_SIZE = 500;
+	/**
+	 * The system property setting the number of threads serializing installable units.
+	 * It defaults to the number of processors.
+	 */
+	public static final String PROP_WRITER_THREADS = "eclipse.p2.metadata.writerThreads"; //$NON-NLS-1$
+
 	public MetadataWriter(OutputStream output, ProcessingInstruction[] piElements) throws UnsupportedEncodingException {
 		super(output, piElements);
 		// TODO: add a processing instruction for the metadata version
 	}
 
+	/**
+	 * Creates a writer for a document fragment nested <code>depth</code> elements deep.
+	 * @see #createFragmentWriter(Writer, int)
+	 */
+	protected MetadataWriter(Writer output, int depth) {
+		super(output, depth);
+	}
+
+	private static int getThreadCount() {
+		return Integer.getInteger(PROP_WRITER_THREADS, Runtime.getRuntime().availableProcessors()).intValue();
+	}
+
 	/**
 	 * Writes a list of {@link IInstallableUnit}.
 	 * @param units An Iterator of {@link IInstallableUnit}.
@@ -42,11 +62,88 @@ public class MetadataWriter extends XMLWriter implements XMLConstants {
 
 		// The size is a bummer. Is it really needed? It forces the use of a collect
 		attribute(COLLECTION_SIZE_ATTRIBUTE, size);
-		while (units.hasNext())
-			writeInstallableUnit(units.next());
+		int threads = getThreadCount();
+		if (threads > 1 && size > CHUNK_SIZE)
+			writeInstallableUnitsInParallel(units, Math.min(threads, (size + CHUNK_SIZE - 1) / CHUNK_SIZE));
+		else
+			while (units.hasNext())
+				writeInstallableUnit(units.next());
 		end(INSTALLABLE_UNITS_ELEMENT);
 	}
 
+	/**
+	 * Creates the writer used to serialize a chunk of installable units on a worker
+	 * thread. Subclasses that change how installable units are written must return
+	 * a writer of their own type.
+	 * @param output The writer receiving the fragment
+	 * @param depth The number of elements enclosing the fragment
+	 */
+	protected MetadataWriter createFragmentWriter(Writer output, int depth) {
+		return new MetadataWriter(output, depth);
+	}
+
+	/*
+	 * Serializes chunks of units in parallel and appends them in their original order.
+	 * Only a bounded number of chunks are held in memory at any time.
+	 */
+	private void writeInstallableUnitsInParallel(Iterator<IInstallableUnit> units, int threads) {
+		final int depth = getDepth();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Metadata Writer"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			LinkedList<Future<CharArrayWriter>> pending = new LinkedList<Future<CharArrayWriter>>();
+			while (units.hasNext() || !pending.isEmpty()) {
+				while (units.hasNext() && pending.size() < threads * 2) {
+					final List<IInstallableUnit> chunk = new ArrayList<IInstallableUnit>(CHUNK_SIZE);
+					while (units.hasNext() && chunk.size() < CHUNK_SIZE)
+						chunk.add(units.next());
+					pending.add(executor.submit(new Callable<CharArrayWriter>() {
+						public CharArrayWriter call() {
+							CharArrayWriter fragment = new CharArrayWriter();
+							MetadataWriter writer = createFragmentWriter(fragment, depth);
+							for (IInstallableUnit iu : chunk)
+								writer.writeInstallableUnit(iu);
+							writer.flush();
+							return fragment;
+						}
+					}));
+				}
+				append(getFragment(pending.removeFirst()));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private CharArrayWriter getFragment(Future<CharArrayWriter> future) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					// finish the document, a partial write would corrupt it
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new IllegalStateException(cause);
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
 	protected void writeInstallableUnit(IInstallableUnit resolvedIU) {
 		IInstallableUnit iu = resolvedIU.unresolved();
 		start(INSTALLABLE_UNIT_ELEMENT);
@@ -0,0 +1,494 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository.io;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.xml.parsers.ParserConfigurationException;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.persistence.StringPool;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.osgi.framework.BundleContext;
+import org.xml.sax.*;
+
+/**
+ * Parses the installable units of a metadata document on several threads. The bytes of the
+ * document are scanned for the boundaries of the unit elements of its units element, ranges
+ * of units are parsed concurrently as documents of their own, and the resulting units are
+ * merged in document order. The rest of the document, without the units, is left to the
+ * caller to parse.
+ * <p>
+ * Only a prefix of the document is read up front. Documents that end within it, or whose
+ * units cannot be split as far as the prefix shows, are not buffered any further and are
+ * streamed to the caller's parser.
+ * </p><p>
+ * Splitting the units keeps the whole document in memory, so it is only done when the
+ * <code>eclipse.p2.metadata.parserThreads</code> property asks for more than one thread.
+ * </p>
+ */
+public class ParallelUnitsParser {
+	public static final String PROP_PARSER_THREADS = "eclipse.p2.metadata.parserThreads"; //$NON-NLS-1$
+	// ranges of units smaller than this are not worth a parser of their own
+	private static final int MIN_RANGE_SIZE = 256 * 1024;
+	// more ranges than threads, so that threads finishing early take more work
+	private static final int RANGES_PER_THREAD = 4;
+	// documents shorter than this have too few units for two ranges
+	private static final int PREFIX_SIZE = 2 * MIN_RANGE_SIZE;
+	private static final byte[] RANGE_PREFIX = toBytes("<?xml version='1.0' encoding='UTF-8'?><units>"); //$NON-NLS-1$
+	private static final byte[] RANGE_SUFFIX = toBytes("</units>"); //$NON-NLS-1$
+
+	private byte[] document;
+	private int length;
+	// the unread rest of the document, when it is not buffered
+	private InputStream rest;
+	private final int threads;
+	// offset of the content of the units element, and of its end tag
+	private int unitsStart = -1;
+	private int unitsEnd = -1;
+	// the boundaries of the ranges of units, from unitsStart to unitsEnd
+	private int[] ranges;
+	private final List<IStatus> problems = new ArrayList<IStatus>();
+
+	/**
+	 * Returns the number of threads to parse metadata with, 1 unless configured otherwise.
+	 */
+	public static int getThreadCount() {
+		return Integer.getInteger(PROP_PARSER_THREADS, 1).intValue();
+	}
+
+	/**
+	 * Reads the given metadata document and finds the ranges of units to parse on the given
+	 * number of threads. The stream is not closed.
+	 */
+	public ParallelUnitsParser(InputStream input, int threads) throws IOException {
+		this.threads = threads;
+		document = new byte[PREFIX_SIZE];
+		length = read(input, 0);
+		if (length < document.length || !scan(true)) {
+			rest = input;
+			return;
+		}
+		// the units can be split, read the whole document, in one buffer if the stream knows its size
+		int available = input.available();
+		grow(document.length + (available > 0 ? available + 1 : document.length));
+		while ((length = read(input, length)) == document.length)
+			grow(document.length * 2);
+		unitsStart = -1;
+		if (scan(false))
+			ranges = computeRanges();
+	}
+
+	private void grow(int size) {
+		byte[] grown = new byte[size];
+		System.arraycopy(document, 0, grown, 0, length);
+		document = grown;
+	}
+
+	/*
+	 * Reads the input into the document from the given offset until the document is full or
+	 * the input ends, and returns the new length.
+	 */
+	private int read(InputStream input, int offset) throws IOException {
+		int count = offset;
+		int read;
+		while (count < document.length && (read = input.read(document, count, document.length - count)) != -1)
+			count += read;
+		return count;
+	}
+
+	/**
+	 * Returns whether the units of the document can be parsed concurrently.
+	 */
+	public boolean hasUnitRanges() {
+		return ranges != null;
+	}
+
+	/**
+	 * Returns the document to parse, without its units if they are parsed by this parser.
+	 */
+	public InputStream getDocument() {
+		if (rest != null)
+			return new SequenceInputStream(new ByteArrayInputStream(document, 0, length), rest);
+		if (ranges == null)
+			return new ByteArrayInputStream(document, 0, length);
+		return new SequenceInputStream(new ByteArrayInputStream(document, 0, unitsStart), new ByteArrayInputStream(document, unitsEnd, length - unitsEnd));
+	}
+
+	/**
+	 * Returns the problems found while parsing the units.
+	 */
+	public IStatus[] getProblems() {
+		return problems.toArray(new IStatus[problems.size()]);
+	}
+
+	/**
+	 * Parses the ranges of units concurrently, and returns the units in document order.
+	 */
+	public IInstallableUnit[] parseUnits(final BundleContext context, final String bundleId, final String errorContext, final IProgressMonitor monitor) throws IOException {
+		if (ranges == null)
+			throw new IllegalStateException();
+		final Map<String, Version> versions = new ConcurrentHashMap<String, Version>();
+		final Map<String, VersionRange> versionRanges = new ConcurrentHashMap<String, VersionRange>();
+		final StringPool strings = new StringPool();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, ranges.length - 1), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Metadata Parser"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<RangeParser>> futures = new ArrayList<Future<RangeParser>>(ranges.length - 1);
+			for (int i = 0; i < ranges.length - 1; i++) {
+				final int start = ranges[i];
+				final int end = ranges[i + 1];
+				futures.add(executor.submit(new Callable<RangeParser>() {
+					public RangeParser call() throws IOException {
+						RangeParser parser = new RangeParser(context, bundleId, start, strings);
+						parser.setErrorContext(errorContext);
+						parser.shareVersions(versions, versionRanges);
+						parser.parse(end, monitor);
+						return parser;
+					}
+				}));
+			}
+			List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+			for (Future<RangeParser> future : futures) {
+				RangeParser parser = getResult(future);
+				units.addAll(parser.units);
+				IStatus status = parser.getStatus();
+				if (!status.isOK())
+					problems.addAll(Arrays.asList(status.getChildren()));
+			}
+			return units.toArray(new IInstallableUnit[units.size()]);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static RangeParser getResult(Future<RangeParser> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/*
+	 * Finds the units element in the root element, and the end of each of its children. Returns
+	 * false for documents that cannot be split without changing their meaning, such as documents
+	 * that are not UTF-8, or that declare entities or namespaces. If only the header is scanned,
+	 * returns true as soon as the start of the units element is found.
+	 */
+	private boolean scan(boolean headerOnly) {
+		int pos = 0;
+		if (length >= 3 && document[0] == (byte) 0xEF && document[1] == (byte) 0xBB && document[2] == (byte) 0xBF)
+			pos = 3;
+		if (startsWith(pos, "<?xml")) { //$NON-NLS-1$
+			int end = indexOf(pos, "?>"); //$NON-NLS-1$
+			if (end < 0 || !isUTF8Declaration(new String(document, pos, end - pos)))
+				return false;
+			pos = end + 2;
+		} else if (pos == 0 && length > 0 && document[0] != '<' && !isWhitespace(document[0])) {
+			// possibly UTF-16
+			return false;
+		}
+		int depth = 0;
+		boolean inUnits = false;
+		List<Integer> boundaries = new ArrayList<Integer>();
+		while (true) {
+			int lt = indexOf(pos, '<');
+			if (lt < 0 || lt + 1 >= length)
+				return false;
+			if (startsWith(lt, "<?")) { //$NON-NLS-1$
+				pos = skipPast(lt, "?>"); //$NON-NLS-1$
+			} else if (startsWith(lt, "<!--")) { //$NON-NLS-1$
+				pos = skipPast(lt, "-->"); //$NON-NLS-1$
+			} else if (startsWith(lt, "<![CDATA[")) { //$NON-NLS-1$
+				pos = skipPast(lt, "]]>"); //$NON-NLS-1$
+			} else if (document[lt + 1] == '!') {
+				// a document type declaration may declare entities
+				return false;
+			} else if (document[lt + 1] == '/') {
+				pos = skipPast(lt, ">"); //$NON-NLS-1$
+				depth--;
+				if (inUnits && depth == 1) {
+					unitsEnd = lt;
+					break;
+				}
+				if (inUnits && depth == 2)
+					boundaries.add(new Integer(pos));
+			} else {
+				int gt = endOfStartTag(lt);
+				if (gt < 0)
+					return false;
+				pos = gt + 1;
+				boolean empty = document[gt - 1] == '/';
+				if (depth <= 1 && contains(lt, gt, "xmlns")) //$NON-NLS-1$
+					return false;
+				if (!inUnits && depth == 1 && isElement(lt, INSTALLABLE_UNITS_ELEMENT)) {
+					if (empty)
+						return false;
+					inUnits = true;
+					unitsStart = pos;
+					if (headerOnly)
+						return true;
+				} else if (inUnits && depth == 2 && empty) {
+					boundaries.add(new Integer(pos));
+				}
+				if (!empty)
+					depth++;
+			}
+			if (pos < 0)
+				return false;
+		}
+		ranges = new int[boundaries.size()];
+		for (int i = 0; i < ranges.length; i++)
+			ranges[i] = boundaries.get(i).intValue();
+		return true;
+	}
+
+	/*
+	 * Groups the units found by the scan into ranges, or returns null if there are too few
+	 * units to be worth parsing concurrently.
+	 */
+	private int[] computeRanges() {
+		int[] boundaries = ranges;
+		int rangeSize = Math.max(MIN_RANGE_SIZE, (unitsEnd - unitsStart) / (threads * RANGES_PER_THREAD));
+		List<Integer> result = new ArrayList<Integer>();
+		result.add(new Integer(unitsStart));
+		int last = unitsStart;
+		for (int i = 0; i < boundaries.length; i++) {
+			if (boundaries[i] - last >= rangeSize && unitsEnd - boundaries[i] >= rangeSize / 2) {
+				result.add(new Integer(boundaries[i]));
+				last = boundaries[i];
+			}
+		}
+		result.add(new Integer(unitsEnd));
+		if (result.size() < 3)
+			return null;
+		int[] computed = new int[result.size()];
+		for (int i = 0; i < computed.length; i++)
+			computed[i] = result.get(i).intValue();
+		return computed;
+	}
+
+	private static final String INSTALLABLE_UNITS_ELEMENT = XMLConstants.INSTALLABLE_UNITS_ELEMENT;
+
+	private static boolean isUTF8Declaration(String declaration) {
+		int index = declaration.indexOf("encoding"); //$NON-NLS-1$
+		if (index < 0)
+			return true;
+		int quote = index + 8;
+		while (quote < declaration.length() && declaration.charAt(quote) != '"' && declaration.charAt(quote) != '\'')
+			quote++;
+		if (quote >= declaration.length())
+			return false;
+		int end = declaration.indexOf(declaration.charAt(quote), quote + 1);
+		return end > 0 && "UTF-8".equalsIgnoreCase(declaration.substring(quote + 1, end).trim()); //$NON-NLS-1$
+	}
+
+	private boolean isElement(int lt, String name) {
+		if (!startsWith(lt + 1, name) || lt + 1 + name.length() >= length)
+			return false;
+		byte next = document[lt + 1 + name.length()];
+		return next == '>' || next == '/' || isWhitespace(next);
+	}
+
+	/*
+	 * Returns the offset of the '>' ending the start tag at the given offset, skipping the
+	 * attribute values, which may contain '>'.
+	 */
+	private int endOfStartTag(int lt) {
+		byte quote = 0;
+		for (int i = lt + 1; i < length; i++) {
+			byte b = document[i];
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+	}
+
+	private boolean startsWith(int offset, String prefix) {
+		if (offset + prefix.length() > length)
+			return false;
+		for (int i = 0; i < prefix.length(); i++) {
+			if (document[offset + i] != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	private boolean contains(int start, int end, String string) {
+		for (int i = start; i + string.length() <= end; i++) {
+			if (startsWith(i, string))
+				return true;
+		}
+		return false;
+	}
+
+	private int indexOf(int from, char c) {
+		for (int i = from; i < length; i++) {
+			if (document[i] == c)
+				return i;
+		}
+		return -1;
+	}
+
+	private int indexOf(int from, String string) {
+		int i = from;
+		while ((i = indexOf(i, string.charAt(0))) >= 0) {
+			if (startsWith(i, string))
+				return i;
+			i++;
+		}
+		return -1;
+	}
+
+	private int skipPast(int from, String string) {
+		int index = indexOf(from, string);
+		return index < 0 ? -1 : index + string.length();
+	}
+
+	private static byte[] toBytes(String ascii) {
+		try {
+			return ascii.getBytes("US-ASCII"); //$NON-NLS-1$
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Parses one range of units, wrapped in a units element of its own.
+	 */
+	private final class RangeParser extends MetadataParser {
+		final List<IInstallableUnit> units = new ArrayList<IInstallableUnit>();
+		private final int start;
+
+		RangeParser(BundleContext context, String bundleId, int start, StringPool strings) {
+			super(context, bundleId);
+			this.start = start;
+			setStringPool(strings);
+		}
+
+		void parse(int end, IProgressMonitor monitor) throws IOException {
+			setProgressMonitor(monitor);
+			InputStream input = new SequenceInputStream(Collections.enumeration(Arrays.asList(new InputStream[] {new ByteArrayInputStream(RANGE_PREFIX), new ByteArrayInputStream(document, start, end - start), new ByteArrayInputStream(RANGE_SUFFIX)})));
+			try {
+				// the parser factory is shared, and configured by each parser it creates
+				synchronized (ParallelUnitsParser.class) {
+					getParser();
+				}
+				xmlReader.setContentHandler(new RangeDocHandler(new RangeHandler()));
+				xmlReader.parse(new InputSource(input));
+			} catch (SAXException e) {
+				if (e.getException() instanceof OperationCanceledException)
+					throw (OperationCanceledException) e.getException();
+				throw new IOException(e.getMessage());
+			} catch (ParserConfigurationException e) {
+				throw new IOException(e.getMessage());
+			}
+		}
+
+		protected Object getRootObject() {
+			return null;
+		}
+
+		protected String getErrorMessage() {
+			// only the children of the status are reported, by the parser of the whole document
+			return errorContext;
+		}
+
+		/*
+		 * Reports the lines of errors as lines of the whole document.
+		 */
+		private final class RangeDocHandler extends DocHandler {
+			RangeDocHandler(RootHandler rootHandler) {
+				super(INSTALLABLE_UNITS_ELEMENT, rootHandler);
+			}
+
+			public void setDocumentLocator(final Locator rangeLocator) {
+				super.setDocumentLocator(new Locator() {
+					private int lineOffset = -1;
+
+					public String getPublicId() {
+						return rangeLocator.getPublicId();
+					}
+
+					public String getSystemId() {
+						return rangeLocator.getSystemId();
+					}
+
+					public int getLineNumber() {
+						int line = rangeLocator.getLineNumber();
+						if (line <= 0)
+							return line;
+						if (lineOffset < 0) {
+							lineOffset = 0;
+							for (int i = 0; i < start; i++) {
+								if (document[i] == '\n')
+									lineOffset++;
+							}
+						}
+						return line + lineOffset;
+					}
+
+					public int getColumnNumber() {
+						return rangeLocator.getColumnNumber();
+					}
+				});
+			}
+		}
+
+		private final class RangeHandler extends RootHandler {
+			private final List<InstallableUnitDescription> descriptions = new ArrayList<InstallableUnitDescription>();
+
+			protected void handleRootAttributes(Attributes attributes) {
+				// the units element of a range has no attributes
+			}
+
+			public void startElement(String name, Attributes attributes) {
+				if (name.equals(INSTALLABLE_UNIT_ELEMENT)) {
+					new InstallableUnitHandler(this, attributes, descriptions);
+				} else {
+					invalidElement(name, attributes);
+				}
+			}
+
+			protected void finished() {
+				for (InstallableUnitDescription description : descriptions)
+					units.add(MetadataFactory.createInstallableUnit(description));
+			}
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2011 IBM Corporation and others.
+ * Copyright (c) 2009, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -14,13 +14,15 @@ package org.eclipse.equinox.internal.p2.metadata;
 import java.util.*;
 import java.util.Map.Entry;
 import org.eclipse.equinox.internal.p2.core.helpers.CollectionUtils;
+import org.eclipse.equinox.internal.p2.core.helpers.PersistentHashMap;
 import org.eclipse.equinox.p2.core.IPool;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.query.*;
 
 /**
- * A map that stores {@link IInstallableUnit} instances in a way that is efficient to query
+ * A map that stores {@link IInstallableUnit} instances in a way that is efficient to query.
+ * Cloning the map takes constant time, the clones share their storage until they are changed.
  */
 public class IUMap implements Cloneable {
 	/**
@@ -85,15 +87,16 @@ public class IUMap implements Cloneable {
 
 	/**
 	 * Map<String,Object> mapping IU id to either arrays of iu's or a single iu with that id.
+	 * The arrays are shared with clones and must not be changed.
 	 */
-	final Map<String, Object> units = new HashMap<String, Object>();
+	final PersistentHashMap<String, Object> units;
 
 	public IUMap() {
-		//
+		units = new PersistentHashMap<String, Object>();
 	}
 
 	private IUMap(IUMap cloneSource) {
-		units.putAll(cloneSource.units);
+		units = cloneSource.units.clone();
 	}
 
 	public void add(IInstallableUnit unit) {
@@ -151,7 +154,16 @@ public class IUMap implements Cloneable {
 	}
 
 	public boolean contains(IInstallableUnit unit) {
-		return !internalGet(unit.getId(), unit.getVersion()).isEmpty();
+		// Same as querying for the id and version, without creating a query
+		Collection<IInstallableUnit> idUnits = getUnits(unit.getId());
+		Version version = unit.getVersion();
+		if (version == null || version.equals(Version.emptyVersion))
+			return !idUnits.isEmpty();
+		for (IInstallableUnit candidate : idUnits) {
+			if (version.equals(candidate.getVersion()))
+				return true;
+		}
+		return false;
 	}
 
 	/**
@@ -239,18 +251,21 @@ public class IUMap implements Cloneable {
 			return;
 		}
 
-		Iterator<Entry<String, Object>> entries = units.entrySet().iterator();
-		while (entries.hasNext()) {
-			Entry<String, Object> entry = entries.next();
+		// The entries are copied rather than changed, they may be shared with clones
+		Map<String, Object> compressed = new HashMap<String, Object>(units.size());
+		for (Entry<String, Object> entry : units.entrySet()) {
 			Object value = entry.getValue();
 			if (value.getClass().isArray()) {
 				IInstallableUnit[] array = (IInstallableUnit[]) value;
+				IInstallableUnit[] pooled = new IInstallableUnit[array.length];
 				for (int i = 0; i < array.length; i++) {
-					array[i] = iuPool.add(array[i]);
+					pooled[i] = iuPool.add(array[i]);
 				}
+				compressed.put(entry.getKey(), pooled);
 			} else {
-				entry.setValue(iuPool.add((IInstallableUnit) value));
+				compressed.put(entry.getKey(), iuPool.add((IInstallableUnit) value));
 			}
 		}
+		units.putAll(compressed);
 	}
 }
@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.query;
+
+import java.util.Collection;
+
+/**
+ * Receives the results of a query in batches, as they are produced.
+ */
+public interface IQueryResultListener<T> {
+	/**
+	 * Called with the next batch of results. A result is passed at most once.
+	 * 
+	 * @param results the new results, never empty
+	 * @return <code>true</code> to continue the query, <code>false</code> to stop it
+	 */
+	boolean resultsAvailable(Collection<T> results);
+}
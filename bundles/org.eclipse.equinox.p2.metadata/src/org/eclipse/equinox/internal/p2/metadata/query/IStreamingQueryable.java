@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.query;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.IQueryable;
+
+/**
+ * A queryable that can pass the results of a query to a listener while the query
+ * is still running, for example after each repository it aggregates has been queried.
+ * Use {@link StreamingQuery#query(IQueryable, IQuery, IQueryResultListener, IProgressMonitor)}
+ * to stream the results of any queryable.
+ */
+public interface IStreamingQueryable<T> extends IQueryable<T> {
+	/**
+	 * Performs the query, passing the results to the listener in batches. Only queries
+	 * for which {@link StreamingQuery#isStreamable(IQuery)} is <code>true</code> produce
+	 * more than one batch.
+	 * 
+	 * @param query the query to perform
+	 * @param listener the listener receiving the results
+	 * @param monitor a progress monitor, or <code>null</code> if progress reporting
+	 * and cancellation are not desired
+	 * @return an OK status, or a cancel status if the query was canceled by the monitor
+	 * or stopped by the listener
+	 */
+	IStatus query(IQuery<T> query, IQueryResultListener<T> listener, IProgressMonitor monitor);
+}
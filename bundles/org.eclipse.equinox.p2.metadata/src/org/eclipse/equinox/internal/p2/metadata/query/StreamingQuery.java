@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.query;
+
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.p2.query.*;
+
+/**
+ * Passes the results of a query to an {@link IQueryResultListener} in batches. Results
+ * that have already been passed to the listener are skipped, so the results of several
+ * queryables can be added one after the other.
+ */
+public class StreamingQuery<T> {
+	public static final int DEFAULT_BATCH_SIZE = 200;
+
+	private final IQueryResultListener<T> listener;
+	private final int batchSize;
+	private final Set<T> delivered = new HashSet<T>();
+	private List<T> batch;
+	private boolean stopped;
+
+	/**
+	 * Returns whether the results of the given query can be passed on before the query
+	 * has seen all its input. This is the case for queries that match each element on its
+	 * own, but not for queries such as the latest version query that look at all the input.
+	 */
+	@SuppressWarnings("deprecation")
+	public static boolean isStreamable(IQuery<?> query) {
+		return query instanceof IMatchQuery<?>;
+	}
+
+	/**
+	 * Performs the query on the given queryable, passing the results to the listener in
+	 * batches. Queryables that are not {@link IStreamingQueryable} are queried once, and
+	 * their results passed on when the query is done.
+	 *
+	 * @return an OK status, or a cancel status if the query was canceled by the monitor
+	 * or stopped by the listener
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> IStatus query(IQueryable<T> queryable, IQuery<T> query, IQueryResultListener<T> listener, IProgressMonitor monitor) {
+		if (queryable instanceof IStreamingQueryable<?>)
+			return ((IStreamingQueryable<T>) queryable).query(query, listener, monitor);
+		if (monitor == null)
+			monitor = new NullProgressMonitor();
+		StreamingQuery<T> stream = new StreamingQuery<T>(listener);
+		try {
+			stream.addAll(queryable.query(query, monitor), monitor);
+		} catch (OperationCanceledException e) {
+			return Status.CANCEL_STATUS;
+		}
+		return stream.done(monitor);
+	}
+
+	public StreamingQuery(IQueryResultListener<T> listener) {
+		this(listener, DEFAULT_BATCH_SIZE);
+	}
+
+	public StreamingQuery(IQueryResultListener<T> listener, int batchSize) {
+		this.listener = listener;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Adds a result, passing the current batch to the listener when it is full.
+	 *
+	 * @return <code>false</code> if the listener stopped the query
+	 */
+	public boolean add(T result) {
+		if (stopped || !delivered.add(result))
+			return !stopped;
+		if (batch == null)
+			batch = new ArrayList<T>(batchSize);
+		batch.add(result);
+		if (batch.size() >= batchSize)
+			flush();
+		return !stopped;
+	}
+
+	/**
+	 * Adds all the given results, stopping when the monitor is canceled.
+	 *
+	 * @return <code>false</code> if the listener stopped the query or the monitor was canceled
+	 */
+	public boolean addAll(IQueryResult<T> results, IProgressMonitor monitor) {
+		Iterator<T> iter = results.iterator();
+		while (iter.hasNext()) {
+			if (monitor.isCanceled() || !add(iter.next()))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Passes the results added since the last batch to the listener.
+	 *
+	 * @return <code>false</code> if the listener stopped the query
+	 */
+	public boolean flush() {
+		if (stopped || batch == null || batch.isEmpty())
+			return !stopped;
+		List<T> results = batch;
+		batch = null;
+		stopped = !listener.resultsAvailable(Collections.unmodifiableList(results));
+		return !stopped;
+	}
+
+	/**
+	 * Returns whether any result has been added.
+	 */
+	public boolean isEmpty() {
+		return delivered.isEmpty();
+	}
+
+	/**
+	 * Passes the remaining results to the listener, unless the query was canceled.
+	 *
+	 * @return an OK status, or a cancel status if the query was canceled by the monitor
+	 * or stopped by the listener
+	 */
+	public IStatus done(IProgressMonitor monitor) {
+		if (monitor.isCanceled() || !flush())
+			return Status.CANCEL_STATUS;
+		return Status.OK_STATUS;
+	}
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.operations;
+
+import java.util.Set;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.equinox.internal.p2.director.QueryableArray;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+
+/**
+ * A copy of a provisioning context whose metadata has already been loaded. Several
+ * copies can share the same metadata, and the index built over it, while being used
+ * by planners running concurrently. Each copy has its own properties and extra
+ * installable units, so changing them does not affect the other copies.
+ */
+public class SharedMetadataProvisioningContext extends ProvisioningContext {
+	private final ProvisioningContext original;
+	private final IQueryable<IInstallableUnit> metadata;
+
+	/**
+	 * Loads the metadata of the given context into memory, so that it can be
+	 * shared by several copies of the context.
+	 */
+	public static IQueryable<IInstallableUnit> loadMetadata(ProvisioningContext context, IProgressMonitor monitor) {
+		SubMonitor sub = SubMonitor.convert(monitor, 2);
+		IQueryable<IInstallableUnit> queryable = context.getMetadata(sub.newChild(1));
+		Set<IInstallableUnit> ius = queryable.query(QueryUtil.createIUAnyQuery(), sub.newChild(1)).toUnmodifiableSet();
+		return new QueryableArray(ius.toArray(new IInstallableUnit[ius.size()]));
+	}
+
+	public SharedMetadataProvisioningContext(IProvisioningAgent agent, ProvisioningContext original, IQueryable<IInstallableUnit> metadata) {
+		super(agent);
+		this.original = original;
+		this.metadata = metadata;
+		getProperties().clear();
+		getProperties().putAll(original.getProperties());
+		setExtraInstallableUnits(original.getExtraInstallableUnits());
+	}
+
+	public IQueryable<IInstallableUnit> getMetadata(IProgressMonitor monitor) {
+		return metadata;
+	}
+
+	public IQueryable<IArtifactKey> getArtifactKeys(IProgressMonitor monitor) {
+		synchronized (original) {
+			return original.getArtifactKeys(monitor);
+		}
+	}
+
+	public IQueryable<IArtifactDescriptor> getArtifactDescriptors(IProgressMonitor monitor) {
+		synchronized (original) {
+			return original.getArtifactDescriptors(monitor);
+		}
+	}
+
+	public IQueryable<IArtifactRepository> getArtifactRepositories(IProgressMonitor monitor) {
+		synchronized (original) {
+			return original.getArtifactRepositories(monitor);
+		}
+	}
+}
@@ -11,14 +11,18 @@
 package org.eclipse.equinox.p2.operations;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
 import org.eclipse.equinox.internal.p2.operations.*;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.planner.IPlanner;
 import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.query.IQueryable;
 import org.eclipse.equinox.p2.repository.IRunnableWithProgress;
 
 /**
@@ -37,6 +41,10 @@ public class RemediationOperation extends ProfileChangeOperation {
 	private static int LOW_WEIGHT = 1;
 	private static int MEDIUM_WEIGHT = 2;
 	private static int HIGH_WEIGHT = 3;
+	// The number of remedy configurations evaluated concurrently, by default 1 evaluates them one after the other
+	private static final String PROP_REMEDIATION_THREADS = "eclipse.p2.remediation.threads"; //$NON-NLS-1$
+	// Every worker runs its own planner over the whole slice, so only a few run at once
+	private static final int MAX_REMEDIATION_THREADS = 4;
 	private List<Remedy> remedies;
 	private Remedy bestSolutionChangingTheRequest;
 	private Remedy bestSolutionChangingWhatIsInstalled;
@@ -99,6 +107,9 @@ public class RemediationOperation extends ProfileChangeOperation {
 	}
 
 	private IStatus computeAllRemediations(IProgressMonitor monitor) {
+		int threads = Math.min(Math.min(Integer.getInteger(PROP_REMEDIATION_THREADS, 1).intValue(), MAX_REMEDIATION_THREADS), remedyConfigs.length);
+		if (threads > 1)
+			return computeAllRemediationsInParallel(monitor, threads);
 		SubMonitor sub = SubMonitor.convert(monitor, remedyConfigs.length);
 		sub.setTaskName(Messages.RemediationOperation_ProfileChangeRequestProgress);
 		List<Remedy> tmpRemedies = new ArrayList<Remedy>(remedyConfigs.length);
@@ -107,7 +118,7 @@ public class RemediationOperation extends ProfileChangeOperation {
 				sub.subTask((i + 1) + " / " + remedyConfigs.length); //$NON-NLS-1$
 				if (sub.isCanceled())
 					return Status.CANCEL_STATUS;
-				Remedy remedy = computeRemedy(remedyConfigs[i], sub.newChild(1, SubMonitor.SUPPRESS_ALL_LABELS));
+				Remedy remedy = computeRemedy(remedyConfigs[i], getProvisioningContext(), sub.newChild(1, SubMonitor.SUPPRESS_ALL_LABELS));
 				if (remedy != null) {
 					tmpRemedies.add(remedy);
 				}
@@ -119,6 +130,98 @@ public class RemediationOperation extends ProfileChangeOperation {
 		return getResolutionResult();
 	}
 
+	/*
+	 * Evaluates the remedy configurations on a pool of planners sharing the metadata loaded
+	 * once up front. The remedies are kept in the order of the configurations, so the result
+	 * is the same as when they are evaluated one after the other.
+	 */
+	private IStatus computeAllRemediationsInParallel(IProgressMonitor monitor, int threads) {
+		SubMonitor sub = SubMonitor.convert(monitor, remedyConfigs.length + 1);
+		sub.setTaskName(Messages.RemediationOperation_ProfileChangeRequestProgress);
+		IProvisioningAgent agent = session.getProvisioningAgent();
+		ProvisioningContext context = getProvisioningContext();
+		// the workers cannot report progress on the calling thread, they only check for cancelation
+		final IProgressMonitor workerMonitor = new WorkerMonitor();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Remediation"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Remedy> tmpRemedies = new ArrayList<Remedy>(remedyConfigs.length);
+		try {
+			IQueryable<IInstallableUnit> metadata = SharedMetadataProvisioningContext.loadMetadata(context, sub.newChild(1));
+			List<Future<Remedy>> results = new ArrayList<Future<Remedy>>(remedyConfigs.length);
+			for (int i = 0; i < remedyConfigs.length; i++) {
+				final RemedyConfig configuration = remedyConfigs[i];
+				// each remedy gets its own context since the request flexer changes its properties
+				final ProvisioningContext remedyContext = new SharedMetadataProvisioningContext(agent, context, metadata);
+				results.add(executor.submit(new Callable<Remedy>() {
+					public Remedy call() {
+						return computeRemedy(configuration, remedyContext, workerMonitor);
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				sub.subTask((i + 1) + " / " + remedyConfigs.length); //$NON-NLS-1$
+				Remedy remedy = getRemedy(results.get(i), sub, workerMonitor);
+				if (remedy != null) {
+					tmpRemedies.add(remedy);
+				}
+				sub.worked(1);
+			}
+		} finally {
+			// stops the remaining work when canceled or failed
+			workerMonitor.setCanceled(true);
+			executor.shutdownNow();
+			sub.done();
+		}
+		remedies = tmpRemedies;
+		return getResolutionResult();
+	}
+
+	/*
+	 * A monitor whose cancelation, requested by the calling thread, is seen by all the workers.
+	 */
+	private static class WorkerMonitor extends NullProgressMonitor {
+		private volatile boolean canceled;
+
+		@Override
+		public boolean isCanceled() {
+			return canceled;
+		}
+
+		@Override
+		public void setCanceled(boolean canceled) {
+			this.canceled = canceled;
+		}
+	}
+
+	private Remedy getRemedy(Future<Remedy> result, IProgressMonitor monitor, IProgressMonitor workerMonitor) {
+		while (true) {
+			if (monitor.isCanceled()) {
+				workerMonitor.setCanceled(true);
+				throw new OperationCanceledException();
+			}
+			try {
+				return result.get(100, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				// check for cancelation again
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new OperationCanceledException();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IllegalStateException(cause);
+			}
+		}
+	}
+
 	private void determineBestSolutions() {
 		int beingInstalledWeight = 0;
 		int installationWeight = 0;
@@ -139,7 +242,7 @@ public class RemediationOperation extends ProfileChangeOperation {
 		}
 	}
 
-	private Remedy computeRemedy(RemedyConfig configuration, IProgressMonitor monitor) {
+	private Remedy computeRemedy(RemedyConfig configuration, ProvisioningContext context, IProgressMonitor monitor) {
 		Remedy remedy = new Remedy(originalRequest);
 		remedy.setConfig(configuration);
 		IPlanner planner = session.getPlanner();
@@ -148,7 +251,7 @@ public class RemediationOperation extends ProfileChangeOperation {
 		av.setAllowInstalledElementChange(configuration.allowInstalledUpdate);
 		av.setAllowInstalledElementRemoval(configuration.allowInstalledRemoval);
 		av.setAllowPartialInstall(configuration.allowPartialInstall);
-		av.setProvisioningContext(getProvisioningContext());
+		av.setProvisioningContext(context);
 		remedy.setRequest((ProfileChangeRequest) av.getChangeRequest(originalRequest, ((ProfileChangeRequest) originalRequest).getProfile(), monitor));
 		if (remedy.getRequest() == null)
 			return null;
@@ -300,7 +403,7 @@ public class RemediationOperation extends ProfileChangeOperation {
 
 	private Version searchInOriginalRequest(String id) {
 		for (IInstallableUnit iu : originalRequest.getAdditions()) {
-			if (iu.getId() == id)
+			if (iu.getId().equals(id))
 				return iu.getVersion();
 		}
 		return null;
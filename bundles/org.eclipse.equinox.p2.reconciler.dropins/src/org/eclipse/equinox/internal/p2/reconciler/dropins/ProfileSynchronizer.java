@@ -45,6 +45,7 @@ import org.osgi.framework.ServiceReference;
 public class ProfileSynchronizer {
 	private static final String RECONCILER_APPLICATION_ID = "org.eclipse.equinox.p2.reconciler.application"; //$NON-NLS-1$
 	private static final String TIMESTAMPS_FILE_PREFIX = "timestamps"; //$NON-NLS-1$
+	private static final String FINGERPRINTS_FILE_PREFIX = "fingerprints"; //$NON-NLS-1$
 	private static final String PROFILE_TIMESTAMP = "PROFILE"; //$NON-NLS-1$
 	private static final String NO_TIMESTAMP = "-1"; //$NON-NLS-1$
 	private static final String PROP_FROM_DROPINS = "org.eclipse.equinox.p2.reconciler.dropins"; //$NON-NLS-1$
@@ -57,6 +58,7 @@ public class ProfileSynchronizer {
 	private static final String EXPLANATION = "org.eclipse.equinox.p2.director.explain"; //$NON-NLS-1$
 
 	static final String PROP_IGNORE_USER_CONFIGURATION = "eclipse.ignoreUserConfiguration"; //$NON-NLS-1$
+	static final String PROP_INCREMENTAL = "org.eclipse.equinox.p2.reconciler.dropins.incremental"; //$NON-NLS-1$
 
 	final IProfile profile;
 
@@ -110,6 +112,19 @@ public class ProfileSynchronizer {
 
 		String updatedCacheExtensions = synchronizeCacheExtensions();
 
+		// if only the contents of known locations changed, try to plan just the delta
+		if (updatedCacheExtensions == null && isIncremental()) {
+			ReconcilerProfileChangeRequest request = createIncrementalProfileChangeRequest(readFingerprints());
+			if (request != null) {
+				if (isEmpty(request)) {
+					writeTimestamps();
+					return Status.OK_STATUS;
+				}
+				return synchronize(request, context, monitor);
+			}
+			Activator.trace("Incremental reconciliation not possible, performing full reconciliation."); //$NON-NLS-1$
+		}
+
 		// figure out if we really have anything to install/uninstall.
 		ReconcilerProfileChangeRequest request = createProfileChangeRequest(context);
 		if (request == null) {
@@ -122,7 +137,13 @@ public class ProfileSynchronizer {
 		}
 		if (updatedCacheExtensions != null)
 			request.setProfileProperty(CACHE_EXTENSIONS, updatedCacheExtensions);
+		return synchronize(request, context, monitor);
+	}
 
+	/*
+	 * Plan and execute the given change request and persist the resulting state.
+	 */
+	private IStatus synchronize(ReconcilerProfileChangeRequest request, ProvisioningContext context, IProgressMonitor monitor) {
 		// if some of the IUs move locations then construct a special plan and execute that first
 		IStatus moveResult = performRemoveForMovedIUs(request, context, monitor);
 		if (moveResult.getSeverity() == IStatus.ERROR || moveResult.getSeverity() == IStatus.CANCEL)
@@ -325,6 +346,87 @@ public class ProfileSynchronizer {
 		} catch (IOException e) {
 			//Ignore
 		}
+		if (isIncremental())
+			writeFingerprints();
+	}
+
+	/*
+	 * Return true if the incremental reconciliation mode has been enabled. In this mode we remember
+	 * the contents of every location and, on the next start, only plan the IUs which have been added to
+	 * or removed from them rather than handing every IU from every location to the planner.
+	 */
+	private boolean isIncremental() {
+		return Boolean.valueOf(Activator.getContext().getProperty(PROP_INCREMENTAL)).booleanValue();
+	}
+
+	/*
+	 * Write out the content fingerprints of all the locations so the next reconciliation can
+	 * compute the delta.
+	 */
+	private void writeFingerprints() {
+		Map<String, String> fingerprints = computeFingerprints();
+		try {
+			File file = Activator.getContext().getDataFile(FINGERPRINTS_FILE_PREFIX + profile.getProfileId().hashCode());
+			Activator.trace("Writing fingerprint file to : " + file.getAbsolutePath()); //$NON-NLS-1$
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				CollectionUtils.storeProperties(fingerprints, os, "Fingerprints for " + profile.getProfileId()); //$NON-NLS-1$
+			} finally {
+				os.close();
+			}
+		} catch (IOException e) {
+			//Ignore
+		}
+	}
+
+	/*
+	 * Read the content fingerprints written by the last reconciliation, or return null if there are none.
+	 */
+	private Map<String, String> readFingerprints() {
+		if (Boolean.TRUE.toString().equalsIgnoreCase(System.getProperty(PROP_IGNORE_USER_CONFIGURATION)))
+			return null;
+		File file = Activator.getContext().getDataFile(FINGERPRINTS_FILE_PREFIX + profile.getProfileId().hashCode());
+		try {
+			InputStream is = new BufferedInputStream(new FileInputStream(file));
+			try {
+				return CollectionUtils.loadProperties(is);
+			} finally {
+				is.close();
+			}
+		} catch (IOException e) {
+			Activator.trace("Fingerprint file could not be read: " + e.getMessage()); //$NON-NLS-1$
+			return null;
+		}
+	}
+
+	/*
+	 * Return the content fingerprints of all the locations. There is one entry per IU and location, mapping
+	 * "location|id/version" to the file name of the IU in that location. The profile timestamp is recorded
+	 * as well so we can tell whether the profile has been changed by somebody else in the meantime.
+	 */
+	public Map<String, String> computeFingerprints() {
+		Map<String, String> result = new HashMap<String, String>();
+		result.put(PROFILE_TIMESTAMP, Long.toString(profile.getTimestamp()));
+		for (Entry<String, IMetadataRepository> entry : repositoryMap.entrySet()) {
+			String prefix = entry.getKey() + PIPE;
+			for (Iterator<IInstallableUnit> iter = entry.getValue().query(QueryUtil.createIUAnyQuery(), null).iterator(); iter.hasNext();) {
+				IInstallableUnit iu = iter.next();
+				String fileName = iu.getProperty(RepositoryListener.FILE_NAME);
+				result.put(prefix + getKey(iu), fileName == null ? "" : fileName); //$NON-NLS-1$
+			}
+		}
+		return result;
+	}
+
+	private static String getKey(IInstallableUnit iu) {
+		return iu.getId() + '/' + iu.getVersion();
+	}
+
+	/*
+	 * Return true if the given request does not change anything.
+	 */
+	private static boolean isEmpty(ReconcilerProfileChangeRequest request) {
+		return request.getAdditions().isEmpty() && request.getRemovals().isEmpty() && request.getMoves().isEmpty() && request.getInstallableUnitProfilePropertiesToRemove().isEmpty();
 	}
 
 	/*
@@ -594,12 +696,7 @@ public class ProfileSynchronizer {
 			}
 			// even though we are adding all IUs below, we need to explicitly set the properties for
 			// them as well. Do that here.
-			if (QueryUtil.isGroup(iu))
-				request.setInstallableUnitProfileProperty(iu, IProfile.PROP_PROFILE_ROOT_IU, Boolean.TRUE.toString());
-			// mark all IUs with special property
-			request.setInstallableUnitProfileProperty(iu, PROP_FROM_DROPINS, Boolean.TRUE.toString());
-			request.setInstallableUnitInclusionRules(iu, ProfileInclusionRules.createOptionalInclusionRule(iu));
-			request.setInstallableUnitProfileProperty(iu, IProfile.PROP_PROFILE_LOCKED_IU, Integer.toString(IProfile.LOCK_UNINSTALL));
+			markAsDropin(request, iu);
 
 			// as soon as we find something locally that needs to be installed, then 
 			// everything from the parent's dropins must be installed locally as well.
@@ -644,6 +741,131 @@ public class ProfileSynchronizer {
 		return request;
 	}
 
+	/*
+	 * Return a change request containing only the IUs which were added to or removed from the locations since
+	 * the given fingerprints were taken, or null if the delta cannot be determined and a full reconciliation
+	 * has to be performed. This is the case when there are no fingerprints or they are corrupt, the profile
+	 * was changed in the meantime, locations were added or removed, or IUs have moved on disk.
+	 * 
+	 * Note that in contrast to the full reconciliation, IUs which were present before but could never be
+	 * installed are not handed to the planner again.
+	 */
+	public ReconcilerProfileChangeRequest createIncrementalProfileChangeRequest(Map<String, String> previous) {
+		if (previous == null)
+			return null;
+		if (!Long.toString(profile.getTimestamp()).equals(previous.get(PROFILE_TIMESTAMP))) {
+			Activator.trace("Profile changed since the fingerprints were taken."); //$NON-NLS-1$
+			return null;
+		}
+		if (Boolean.valueOf(profile.getProperty("org.eclipse.equinox.p2.resolve")).booleanValue()) //$NON-NLS-1$
+			return null;
+
+		Set<String> previousLocations = new HashSet<String>();
+		for (String key : previous.keySet()) {
+			if (PROFILE_TIMESTAMP.equals(key))
+				continue;
+			int index = key.indexOf(PIPE);
+			if (index == -1) {
+				Activator.trace("Fingerprints are corrupt."); //$NON-NLS-1$
+				return null;
+			}
+			previousLocations.add(key.substring(0, index));
+		}
+		// an empty location doesn't leave any entries so we can only tell about locations which went away
+		if (!repositoryMap.keySet().containsAll(previousLocations))
+			return null;
+
+		Map<String, String> current = computeFingerprints();
+
+		// entries which are new or whose file name has changed
+		Set<String> changedLocations = new HashSet<String>();
+		Set<String> addedEntries = new HashSet<String>();
+		Set<String> addedKeys = new HashSet<String>();
+		for (Entry<String, String> entry : current.entrySet()) {
+			String key = entry.getKey();
+			if (PROFILE_TIMESTAMP.equals(key) || entry.getValue().equals(previous.get(key)))
+				continue;
+			int index = key.indexOf(PIPE);
+			addedEntries.add(key);
+			addedKeys.add(key.substring(index + 1));
+			changedLocations.add(key.substring(0, index));
+		}
+
+		// entries which have gone away
+		Set<String> currentKeys = new HashSet<String>();
+		for (String key : current.keySet()) {
+			int index = key.indexOf(PIPE);
+			if (index != -1)
+				currentKeys.add(key.substring(index + 1));
+		}
+		Set<String> removedKeys = new HashSet<String>();
+		for (String key : previous.keySet()) {
+			if (PROFILE_TIMESTAMP.equals(key) || current.containsKey(key))
+				continue;
+			String iuKey = key.substring(key.indexOf(PIPE) + 1);
+			// the IU has moved to another location or has another file name, let the full reconciliation deal with it
+			if (addedKeys.contains(iuKey))
+				return null;
+			// the same IU is still available from another location
+			if (!currentKeys.contains(iuKey))
+				removedKeys.add(iuKey);
+		}
+
+		ReconcilerProfileChangeRequest request = new ReconcilerProfileChangeRequest(profile);
+		for (String location : changedLocations) {
+			String prefix = location + PIPE;
+			for (Iterator<IInstallableUnit> iter = repositoryMap.get(location).query(QueryUtil.createIUAnyQuery(), null).iterator(); iter.hasNext();) {
+				IInstallableUnit iu = iter.next();
+				if (!addedEntries.contains(prefix + getKey(iu)))
+					continue;
+				IQueryResult<IInstallableUnit> existing = profile.query(QueryUtil.createIUQuery(iu), null);
+				if (!existing.isEmpty()) {
+					String fileName = existing.iterator().next().getProperty(RepositoryListener.FILE_NAME);
+					// the IU was installed by other means, leave it alone - see bug 404619.
+					if (fileName == null)
+						continue;
+					// the IU has been moved on disk
+					if (!fileName.equals(iu.getProperty(RepositoryListener.FILE_NAME)))
+						return null;
+					continue;
+				}
+				markAsDropin(request, iu);
+				request.add(iu);
+			}
+		}
+
+		if (!removedKeys.isEmpty()) {
+			IQueryResult<IInstallableUnit> dropinIUs = profile.query(new IUProfilePropertyQuery(PROP_FROM_DROPINS, Boolean.TRUE.toString()), null);
+			for (Iterator<IInstallableUnit> iter = dropinIUs.iterator(); iter.hasNext();) {
+				IInstallableUnit iu = iter.next();
+				if (!removedKeys.contains(getKey(iu)))
+					continue;
+				// see createProfileChangeRequest(...) for the details about upgraded dropins
+				if (INCLUSION_STRICT.equals(profile.getInstallableUnitProperty(iu, INCLUSION_RULES))) {
+					request.removeInstallableUnitProfileProperty(iu, PROP_FROM_DROPINS);
+					request.removeInstallableUnitProfileProperty(iu, IProfile.PROP_PROFILE_LOCKED_IU);
+					continue;
+				}
+				request.remove(iu);
+			}
+		}
+
+		debug(request);
+		return request;
+	}
+
+	/*
+	 * Set the profile properties which mark the given IU as being installed from the dropins.
+	 */
+	private void markAsDropin(ReconcilerProfileChangeRequest request, IInstallableUnit iu) {
+		if (QueryUtil.isGroup(iu))
+			request.setInstallableUnitProfileProperty(iu, IProfile.PROP_PROFILE_ROOT_IU, Boolean.TRUE.toString());
+		// mark all IUs with special property
+		request.setInstallableUnitProfileProperty(iu, PROP_FROM_DROPINS, Boolean.TRUE.toString());
+		request.setInstallableUnitInclusionRules(iu, ProfileInclusionRules.createOptionalInclusionRule(iu));
+		request.setInstallableUnitProfileProperty(iu, IProfile.PROP_PROFILE_LOCKED_IU, Integer.toString(IProfile.LOCK_UNINSTALL));
+	}
+
 	/*
 	 * Create and return a negated requirement saying that the given IU must not exist in the profile.
 	 */
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.persistence;
+
+/**
+ * A bounded cache used to share equal strings read by parsers, in place of
+ * {@link String#intern()}. Each string is kept in the slot of its hash code, replacing
+ * the string previously kept there, so equal strings read close to each other are
+ * shared while the memory used stays bounded.
+ * <p>
+ * The pool is not locked: strings are immutable, so a thread reading a slot written by
+ * another thread either sees a complete string or a stale one, and a stale one only
+ * means a string is not shared.
+ */
+public class StringPool {
+	private static final int DEFAULT_SIZE = 16 * 1024;
+
+	private final String[] table;
+	private final int mask;
+
+	/**
+	 * Creates a pool with the default number of slots.
+	 */
+	public StringPool() {
+		this(DEFAULT_SIZE);
+	}
+
+	/**
+	 * Creates a pool with at least the given number of slots.
+	 */
+	public StringPool(int size) {
+		int capacity = 1;
+		while (capacity < size)
+			capacity <<= 1;
+		table = new String[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Returns a string equal to the given one, which is the given string unless an equal
+	 * string is in the pool. Returns <code>null</code> for <code>null</code>.
+	 */
+	public String share(String value) {
+		if (value == null)
+			return null;
+		int hash = value.hashCode();
+		// let the higher bits of the hash code select the slot too
+		int index = (hash ^ (hash >>> 16)) & mask;
+		String pooled = table[index];
+		if (pooled != null && pooled.hashCode() == hash && pooled.equals(value))
+			return pooled;
+		table[index] = value;
+		return value;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2011 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -11,8 +11,7 @@
 package org.eclipse.equinox.internal.p2.persistence;
 
 import java.net.*;
-import java.util.List;
-import java.util.StringTokenizer;
+import java.util.*;
 import javax.xml.parsers.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.Activator;
@@ -46,6 +45,9 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 
 	private IProgressMonitor monitor;
 
+	private StringPool strings; // shares equal attribute values and text
+	private PropertyHandler propertyHandler; // reused for all the properties of the document
+
 	private static ServiceTracker<SAXParserFactory, SAXParserFactory> xmlTracker = null;
 
 	public XMLParser(BundleContext context, String pluginId) {
@@ -124,6 +126,23 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 		this.monitor = monitor;
 	}
 
+	/**
+	 * Returns the pool sharing the equal strings read by this parser.
+	 */
+	protected StringPool getStringPool() {
+		if (strings == null)
+			strings = new StringPool();
+		return strings;
+	}
+
+	/**
+	 * Makes this parser share strings through the given pool, which may be used by parsers
+	 * running concurrently.
+	 */
+	protected void setStringPool(StringPool strings) {
+		this.strings = strings;
+	}
+
 	/**
 	 * Abstract base class for content handlers
 	 */
@@ -158,6 +177,18 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 			locator = docLocator;
 		}
 
+		/**
+		 * Makes this handler handle a new element, for handlers that are reused for all
+		 * the elements of their type rather than created for each of them. The handler
+		 * must reset its own state.
+		 */
+		protected void reuse(ContentHandler parent) {
+			this.parentHandler = parent;
+			if (this.characters != null)
+				this.characters.setLength(0);
+			xmlReader.setContentHandler(this);
+		}
+
 		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
 			finishCharacters();
 			String name = makeSimpleName(localName, qName);
@@ -299,7 +330,17 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 		 * Parse the attributes of an element with a single optional attribute.
 		 */
 		protected String parseOptionalAttribute(Attributes attributes, String name) {
-			return parseAttributes(attributes, noAttributes, new String[] {name})[0];
+			String result = null;
+			for (int i = 0; i < attributes.getLength(); i += 1) {
+				String attributeName = attributes.getLocalName(i);
+				String value = getStringPool().share(attributes.getValue(i).trim());
+				if (attributeName.equals(name)) {
+					result = value;
+				} else {
+					unexpectedAttribute(elementHandled, attributeName, value);
+				}
+			}
+			return result;
 		}
 
 		/**
@@ -308,10 +349,19 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 		 * Log warnings for extra attributes or missing required attributes.
 		 */
 		protected String[] parseAttributes(Attributes attributes, String[] required, String[] optional) {
-			String[] result = new String[required.length + optional.length];
+			return parseAttributes(attributes, required, optional, new String[required.length + optional.length]);
+		}
+
+		/**
+		 * Parse the attributes of an element into the given array, which handlers reused
+		 * for many elements can reuse too. Return the array.
+		 */
+		protected String[] parseAttributes(Attributes attributes, String[] required, String[] optional, String[] result) {
+			Arrays.fill(result, null);
+			StringPool pool = getStringPool();
 			for (int i = 0; i < attributes.getLength(); i += 1) {
 				String name = attributes.getLocalName(i);
-				String value = attributes.getValue(i).trim().intern();
+				String value = pool.share(attributes.getValue(i).trim());
 				int j;
 				if ((j = indexOf(required, name)) >= 0) {
 					result[j] = value;
@@ -393,7 +443,9 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 
 		public void startElement(String name, Attributes attributes) {
 			if (name.equals(PROPERTY_ELEMENT)) {
-				new PropertyHandler(this, attributes, properties);
+				if (propertyHandler == null)
+					propertyHandler = new PropertyHandler();
+				propertyHandler.reuse(this, attributes, properties);
 			} else {
 				invalidElement(name, attributes);
 			}
@@ -406,9 +458,25 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 	 */
 	protected class PropertyHandler extends AbstractHandler {
 
+		private final String[] property = new String[PROPERTY_ATTRIBUTES.length];
+
 		public PropertyHandler(ContentHandler parentHandler, Attributes attributes, OrderedProperties properties) {
 			super(parentHandler, PROPERTY_ELEMENT);
-			String[] property = parseProperty(attributes);
+			setProperty(attributes, properties);
+		}
+
+		// Constructor for a handler reused for all properties
+		PropertyHandler() {
+			this.elementHandled = PROPERTY_ELEMENT;
+		}
+
+		void reuse(ContentHandler parent, Attributes attributes, OrderedProperties properties) {
+			reuse(parent);
+			setProperty(attributes, properties);
+		}
+
+		private void setProperty(Attributes attributes, OrderedProperties properties) {
+			parseAttributes(attributes, PROPERTY_ATTRIBUTES, noAttributes, property);
 			if (isValidProperty(property)) {
 				properties.setProperty(property[0], property[1]);
 			}
@@ -418,10 +486,6 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 			invalidElement(name, attributes);
 		}
 
-		private String[] parseProperty(Attributes attributes) {
-			return parseRequiredAttributes(attributes, PROPERTY_ATTRIBUTES);
-		}
-
 		private boolean isValidProperty(String[] property) {
 			return (property.length == 2 && property[0] != null && property[1] != null);
 		}
@@ -459,7 +523,7 @@ public abstract class XMLParser extends DefaultHandler implements XMLConstants {
 		}
 
 		protected void processCharacters(String data) {
-			this.text = data == null ? null : data.intern();
+			this.text = getStringPool().share(data);
 		}
 
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -53,11 +53,18 @@ public class XMLWriter implements XMLConstants {
 		}
 	}
 
+	// The size of the character buffer in front of the underlying writer
+	private static final int BUFFER_SIZE = 8192;
+	private static final char[] LINE_SEPARATOR = System.getProperty("line.separator", "\n").toCharArray(); //$NON-NLS-1$ //$NON-NLS-2$
+
 	private Stack<String> elements; // XML elements that have not yet been closed
 	private boolean open; // Can attributes be added to the current element?
 	private String indent; // used for each level of indentation
+	private int depth; // the nesting depth of the elements enclosing a document fragment
 
 	private PrintWriter pw;
+	private char[] buffer = new char[BUFFER_SIZE]; // characters not yet passed to the print writer
+	private int count;
 
 	public XMLWriter(OutputStream output, ProcessingInstruction[] piElements) throws UnsupportedEncodingException {
 		this.pw = new PrintWriter(new OutputStreamWriter(output, "UTF8"), false); //$NON-NLS-1$
@@ -72,6 +79,19 @@ public class XMLWriter implements XMLConstants {
 		}
 	}
 
+	/**
+	 * Creates a writer for a document fragment that will be nested <code>depth</code>
+	 * elements deep in another document. No XML declaration is written, and the
+	 * fragment can later be added to the enclosing document with {@link #append(CharArrayWriter)}.
+	 */
+	protected XMLWriter(Writer output, int depth) {
+		this.pw = new PrintWriter(output, false);
+		this.elements = new Stack<String>();
+		this.open = false;
+		this.indent = "  "; //$NON-NLS-1$
+		this.depth = depth;
+	}
+
 	// start a new element
 	public void start(String name) {
 		if (this.open) {
@@ -115,49 +135,18 @@ public class XMLWriter implements XMLConstants {
 	public static String escape(String txt) {
 		StringBuffer buffer = null;
 		for (int i = 0; i < txt.length(); ++i) {
-			String replace;
 			char c = txt.charAt(i);
-			switch (c) {
-				case '<' :
-					replace = "&lt;"; //$NON-NLS-1$
-					break;
-				case '>' :
-					replace = "&gt;"; //$NON-NLS-1$
-					break;
-				case '"' :
-					replace = "&quot;"; //$NON-NLS-1$
-					break;
-				case '\'' :
-					replace = "&apos;"; //$NON-NLS-1$
-					break;
-				case '&' :
-					replace = "&amp;"; //$NON-NLS-1$
-					break;
-				case '\t' :
-					replace = "&#x9;"; //$NON-NLS-1$
-					break;
-				case '\n' :
-					replace = "&#xA;"; //$NON-NLS-1$
-					break;
-				case '\r' :
-					replace = "&#xD;"; //$NON-NLS-1$
-					break;
-				default :
-					// this is the set of legal xml scharacters in unicode excluding high surrogates since they cannot be represented with a char
-					// see http://www.w3.org/TR/REC-xml/#charsets
-					if ((c >= '\u0020' && c <= '\uD7FF') || (c >= '\uE000' && c <= '\uFFFD')) {
-						if (buffer != null)
-							buffer.append(c);
-						continue;
-					}
-					replace = Character.isWhitespace(c) ? " " : null; //$NON-NLS-1$
+			String replace = getReplacement(c);
+			if (replace == null) {
+				if (buffer != null)
+					buffer.append(c);
+				continue;
 			}
 			if (buffer == null) {
 				buffer = new StringBuffer(txt.length() + 16);
 				buffer.append(txt.substring(0, i));
 			}
-			if (replace != null)
-				buffer.append(replace);
+			buffer.append(replace);
 		}
 
 		if (buffer == null)
@@ -166,6 +155,54 @@ public class XMLWriter implements XMLConstants {
 		return buffer.toString();
 	}
 
+	/*
+	 * Returns the text replacing the given character in escaped text, or null if the
+	 * character is written as it is. Characters that are not legal xml characters are
+	 * replaced with a space if they are white space, and dropped otherwise.
+	 */
+	private static String getReplacement(char c) {
+		switch (c) {
+			case '<' :
+				return "&lt;"; //$NON-NLS-1$
+			case '>' :
+				return "&gt;"; //$NON-NLS-1$
+			case '"' :
+				return "&quot;"; //$NON-NLS-1$
+			case '\'' :
+				return "&apos;"; //$NON-NLS-1$
+			case '&' :
+				return "&amp;"; //$NON-NLS-1$
+			case '\t' :
+				return "&#x9;"; //$NON-NLS-1$
+			case '\n' :
+				return "&#xA;"; //$NON-NLS-1$
+			case '\r' :
+				return "&#xD;"; //$NON-NLS-1$
+			default :
+				// this is the set of legal xml scharacters in unicode excluding high surrogates since they cannot be represented with a char
+				// see http://www.w3.org/TR/REC-xml/#charsets
+				if ((c >= '\u0020' && c <= '\uD7FF') || (c >= '\uE000' && c <= '\uFFFD'))
+					return null;
+				return Character.isWhitespace(c) ? " " : ""; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	/*
+	 * Escapes the given text directly into the character buffer, following the same
+	 * rules as escape(String) but without creating intermediate strings.
+	 */
+	private void printEscaped(String txt) {
+		int length = txt.length();
+		for (int i = 0; i < length; ++i) {
+			char c = txt.charAt(i);
+			String replace = getReplacement(c);
+			if (replace == null)
+				print(c);
+			else
+				print(replace);
+		}
+	}
+
 	// write a boolean attribute if it doesn't have the default value
 	public void attribute(String name, boolean value, boolean defaultValue) {
 		if (value != defaultValue) {
@@ -197,7 +234,7 @@ public class XMLWriter implements XMLConstants {
 		print(' ');
 		print(name);
 		print("='"); //$NON-NLS-1$
-		print(escape(value.toString()));
+		printEscaped(value.toString());
 		print('\'');
 	}
 
@@ -216,9 +253,41 @@ public class XMLWriter implements XMLConstants {
 	}
 
 	public void flush() {
+		flushBuffer();
 		this.pw.flush();
 	}
 
+	/**
+	 * Closes the start tag of the current element, if it is still open, so that
+	 * nested content can be appended.
+	 */
+	protected void closeStartTag() {
+		if (this.open) {
+			println('>');
+			this.open = false;
+		}
+	}
+
+	/**
+	 * Returns the number of elements enclosing the current position.
+	 */
+	protected int getDepth() {
+		return this.depth + this.elements.size();
+	}
+
+	/**
+	 * Appends a document fragment written by a fragment writer at the current position.
+	 */
+	protected void append(CharArrayWriter fragment) {
+		closeStartTag();
+		flushBuffer();
+		try {
+			fragment.writeTo(this.pw);
+		} catch (IOException e) {
+			// cannot happen, print writers don't throw exceptions
+		}
+	}
+
 	public void writeProperties(Map<String, String> properties) {
 		writeProperties(PROPERTIES_ELEMENT, properties);
 	}
@@ -249,23 +318,46 @@ public class XMLWriter implements XMLConstants {
 	}
 
 	private void println(char c) {
-		this.pw.println(c);
+		print(c);
+		println();
 	}
 
 	private void println(String s) {
-		this.pw.println(s);
+		print(s);
+		println();
 	}
 
 	private void println() {
-		this.pw.println();
+		if (count + LINE_SEPARATOR.length > buffer.length)
+			flushBuffer();
+		System.arraycopy(LINE_SEPARATOR, 0, buffer, count, LINE_SEPARATOR.length);
+		count += LINE_SEPARATOR.length;
 	}
 
 	private void print(char c) {
-		this.pw.print(c);
+		if (count == buffer.length)
+			flushBuffer();
+		buffer[count++] = c;
 	}
 
 	private void print(String s) {
-		this.pw.print(s);
+		int length = s.length();
+		if (count + length > buffer.length) {
+			flushBuffer();
+			if (length > buffer.length) {
+				this.pw.write(s);
+				return;
+			}
+		}
+		s.getChars(0, length, buffer, count);
+		count += length;
+	}
+
+	private void flushBuffer() {
+		if (count > 0) {
+			this.pw.write(buffer, 0, count);
+			count = 0;
+		}
 	}
 
 	private void printlnIndented(String s, boolean escape) {
@@ -273,12 +365,16 @@ public class XMLWriter implements XMLConstants {
 			println();
 		} else {
 			indent();
-			println(escape ? escape(s) : s);
+			if (escape)
+				printEscaped(s);
+			else
+				print(s);
+			println();
 		}
 	}
 
 	private void indent() {
-		for (int i = this.elements.size(); i > 0; i -= 1) {
+		for (int i = getDepth(); i > 0; i -= 1) {
 			print(this.indent);
 		}
 	}
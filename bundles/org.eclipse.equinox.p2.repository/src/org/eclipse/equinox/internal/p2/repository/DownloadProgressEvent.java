@@ -12,8 +12,9 @@ package org.eclipse.equinox.internal.p2.repository;
 
 import java.net.URI;
 import java.util.EventObject;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.CoalescibleEvent;
 
-public class DownloadProgressEvent extends EventObject {
+public class DownloadProgressEvent extends EventObject implements CoalescibleEvent {
 
 	private static final long serialVersionUID = -7880532297074721824L;
 	private ProgressStatistics stat;
@@ -46,4 +47,8 @@ public class DownloadProgressEvent extends EventObject {
 	public double getPercentage() {
 		return stat.getPercentage();
 	}
+
+	public Object getCoalescingKey() {
+		return stat;
+	}
 }
@@ -27,6 +27,7 @@ public class AllDiscoveryTests {
 		suite.addTestSuite(DirectoryParserTest.class);
 		suite.addTestSuite(BundleDiscoveryStrategyTest.class);
 		//suite.addTestSuite(RemoteBundleDiscoveryStrategyTest.class);
+		suite.addTestSuite(RemoteBundleDiscoveryCacheTest.class);
 		//suite.addTestSuite(ConnectorDiscoveryRemoteTest.class);
 		suite.addTestSuite(TransportUtilTest.class);
 		return suite;
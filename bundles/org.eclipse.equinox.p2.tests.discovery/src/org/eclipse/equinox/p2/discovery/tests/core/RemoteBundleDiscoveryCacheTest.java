@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.discovery.tests.core;
+
+import java.io.*;
+import java.net.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import junit.framework.TestCase;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.discovery.compatibility.*;
+import org.eclipse.equinox.internal.p2.discovery.model.*;
+
+/**
+ * Opens a discovery directory served by a local server several times, and checks that
+ * the directory bundles are only downloaded and parsed again when they change.
+ */
+public class RemoteBundleDiscoveryCacheTest extends TestCase {
+
+	/**
+	 * Serves the files of a directory over HTTP and counts the files downloaded.
+	 */
+	static class DirectoryServer implements Runnable {
+		private final File root;
+		private final ServerSocket socket;
+		private final Map<String, Integer> downloads = new HashMap<String, Integer>();
+
+		DirectoryServer(File root) throws IOException {
+			this.root = root;
+			socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+			Thread thread = new Thread(this, "Discovery directory server"); //$NON-NLS-1$
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		String getURL(String path) {
+			return "http://127.0.0.1:" + socket.getLocalPort() + '/' + path; //$NON-NLS-1$
+		}
+
+		synchronized int getDownloadCount(String path) {
+			Integer count = downloads.get(path);
+			return count == null ? 0 : count.intValue();
+		}
+
+		public void run() {
+			while (!socket.isClosed()) {
+				try {
+					Socket connection = socket.accept();
+					try {
+						handle(connection);
+					} finally {
+						connection.close();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		}
+
+		private void handle(Socket connection) throws IOException {
+			BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "ISO-8859-1")); //$NON-NLS-1$
+			String request = in.readLine();
+			String line;
+			while ((line = in.readLine()) != null && line.length() > 0) {
+				// skip the headers
+			}
+			OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+			String[] parts = request == null ? new String[0] : request.split(" "); //$NON-NLS-1$
+			String path = parts.length > 1 ? parts[1].substring(1) : ""; //$NON-NLS-1$
+			File file = new File(root, path);
+			if (!file.isFile()) {
+				out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+			} else {
+				SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US); //$NON-NLS-1$
+				format.setTimeZone(TimeZone.getTimeZone("GMT")); //$NON-NLS-1$
+				StringBuffer headers = new StringBuffer("HTTP/1.1 200 OK\r\n"); //$NON-NLS-1$
+				headers.append("Content-Type: application/octet-stream\r\n"); //$NON-NLS-1$
+				headers.append("Content-Length: ").append(file.length()).append("\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+				headers.append("Last-Modified: ").append(format.format(new Date(file.lastModified()))).append("\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+				headers.append("Connection: close\r\n\r\n"); //$NON-NLS-1$
+				out.write(headers.toString().getBytes("ISO-8859-1")); //$NON-NLS-1$
+				if (parts[0].equals("GET")) { //$NON-NLS-1$
+					synchronized (this) {
+						Integer count = downloads.get(path);
+						downloads.put(path, new Integer(count == null ? 1 : count.intValue() + 1));
+					}
+					InputStream content = new FileInputStream(file);
+					try {
+						byte[] buffer = new byte[8192];
+						int read;
+						while ((read = content.read(buffer)) != -1)
+							out.write(buffer, 0, read);
+					} finally {
+						content.close();
+					}
+				}
+			}
+			out.flush();
+		}
+
+		void stop() throws IOException {
+			socket.close();
+		}
+	}
+
+	private File root;
+
+	private DirectoryServer server;
+
+	private boolean loadedFromCache;
+
+	@Override
+	protected void setUp() throws Exception {
+		root = File.createTempFile(RemoteBundleDiscoveryCacheTest.class.getSimpleName(), ".tmp"); //$NON-NLS-1$
+		root.delete();
+		root.mkdirs();
+		server = new DirectoryServer(root);
+		writeBundle("first.jar", "first", "First Connector"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		writeBundle("second.jar", "second", "Second Connector"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(root, "directory.xml")), "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			writer.write("<directory xmlns=\"http://www.eclipse.org/mylyn/discovery/directory/\">\n"); //$NON-NLS-1$
+			writer.write("<entry url=\"" + getURL("first.jar") + "\" permitCategories=\"true\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			writer.write("<entry url=\"" + getURL("second.jar") + "\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			writer.write("</directory>\n"); //$NON-NLS-1$
+		} finally {
+			writer.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+		delete(root);
+	}
+
+	private String getURL(String path) {
+		return server.getURL(path);
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private void writeBundle(String fileName, String id, String name) throws IOException {
+		StringBuffer pluginXml = new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<?eclipse version=\"3.4\"?>\n<plugin>\n"); //$NON-NLS-1$
+		pluginXml.append("<extension point=\"org.eclipse.mylyn.discovery.core.connectorDiscovery\">\n"); //$NON-NLS-1$
+		pluginXml.append("<connectorCategory id=\"test.category\" name=\"Test Category\" description=\"A test category\"/>\n"); //$NON-NLS-1$
+		pluginXml.append("<connectorDescriptor categoryId=\"test.category\" id=\"").append(id).append("\" kind=\"task\" license=\"License\" name=\"").append(name); //$NON-NLS-1$ //$NON-NLS-2$
+		pluginXml.append("\" description=\"A test connector\" provider=\"Test\" siteUrl=\"http://localhost/discovery/\"/>\n"); //$NON-NLS-1$
+		pluginXml.append("</extension>\n</plugin>\n"); //$NON-NLS-1$
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(new File(root, fileName)));
+		try {
+			out.putNextEntry(new ZipEntry("plugin.xml")); //$NON-NLS-1$
+			out.write(pluginXml.toString().getBytes("UTF-8")); //$NON-NLS-1$
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+
+	private Map<String, String> discover() throws Exception {
+		RemoteBundleDiscoveryStrategy discoveryStrategy = new RemoteBundleDiscoveryStrategy();
+		discoveryStrategy.setDirectoryUrl(getURL("directory.xml")); //$NON-NLS-1$
+		discoveryStrategy.setCategories(new ArrayList<CatalogCategory>());
+		discoveryStrategy.setItems(new ArrayList<CatalogItem>());
+		discoveryStrategy.setCertifications(new ArrayList<Certification>());
+		discoveryStrategy.setTags(new ArrayList<Tag>());
+		try {
+			discoveryStrategy.performDiscovery(new NullProgressMonitor());
+			loadedFromCache = discoveryStrategy.isRegistryLoadedFromCache();
+			Map<String, String> names = new HashMap<String, String>();
+			for (CatalogItem item : discoveryStrategy.getItems()) {
+				names.put(item.getId(), item.getName());
+				assertNotNull(item.getSource().getResource("plugin.xml")); //$NON-NLS-1$
+			}
+			return names;
+		} finally {
+			discoveryStrategy.dispose();
+		}
+	}
+
+	public void testUnchangedBundlesNotDownloaded() throws Exception {
+		Map<String, String> first = discover();
+		assertEquals(2, first.size());
+		assertEquals("First Connector", first.get("first")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("Second Connector", first.get("second")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(1, server.getDownloadCount("first.jar")); //$NON-NLS-1$
+		assertEquals(1, server.getDownloadCount("second.jar")); //$NON-NLS-1$
+		assertFalse(loadedFromCache);
+
+		// only the last modified times are requested again, and no plugin.xml is parsed
+		assertEquals(first, discover());
+		assertTrue(loadedFromCache);
+		assertEquals(first, discover());
+		assertTrue(loadedFromCache);
+		assertEquals(1, server.getDownloadCount("directory.xml")); //$NON-NLS-1$
+		assertEquals(1, server.getDownloadCount("first.jar")); //$NON-NLS-1$
+		assertEquals(1, server.getDownloadCount("second.jar")); //$NON-NLS-1$
+	}
+
+	public void testChangedBundleDownloaded() throws Exception {
+		assertEquals("Second Connector", discover().get("second")); //$NON-NLS-1$ //$NON-NLS-2$
+
+		writeBundle("second.jar", "second", "Changed Connector"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		// newer than the cached download
+		new File(root, "second.jar").setLastModified(System.currentTimeMillis() + 60000); //$NON-NLS-1$
+		Map<String, String> names = discover();
+		assertEquals("First Connector", names.get("first")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals("Changed Connector", names.get("second")); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals(1, server.getDownloadCount("first.jar")); //$NON-NLS-1$
+		assertEquals(2, server.getDownloadCount("second.jar")); //$NON-NLS-1$
+		assertFalse(loadedFromCache);
+	}
+
+	public void testTouchedBundleParsed() throws Exception {
+		Map<String, String> first = discover();
+		assertEquals(first, discover());
+		assertTrue(loadedFromCache);
+
+		// same content, but newer than the cached download
+		new File(root, "second.jar").setLastModified(System.currentTimeMillis() + 60000); //$NON-NLS-1$
+		assertEquals(first, discover());
+		assertEquals(2, server.getDownloadCount("second.jar")); //$NON-NLS-1$
+		assertFalse(loadedFromCache);
+
+		assertEquals(first, discover());
+		assertTrue(loadedFromCache);
+	}
+
+	public void testContributionsTimestamp() throws Exception {
+		File first = new File(root, "first.jar"); //$NON-NLS-1$
+		File second = new File(root, "second.jar"); //$NON-NLS-1$
+		Map<File, Directory.Entry> bundles = new HashMap<File, Directory.Entry>();
+		bundles.put(first, createEntry(getURL("first.jar"))); //$NON-NLS-1$
+		bundles.put(second, createEntry(getURL("second.jar"))); //$NON-NLS-1$
+		DiscoveryRegistryStrategy strategy = new DiscoveryRegistryStrategy(new File[] {new File(root, "registry")}, new boolean[] {false}, this); //$NON-NLS-1$
+		strategy.setBundles(bundles);
+		long lastModified = (second.lastModified() / 1000 - 10) * 1000;
+		second.setLastModified(lastModified);
+		long timestamp = strategy.getContributionsTimestamp();
+
+		second.setLastModified(lastModified + 2000);
+		assertTrue(timestamp != strategy.getContributionsTimestamp());
+		second.setLastModified(lastModified);
+		assertEquals(timestamp, strategy.getContributionsTimestamp());
+
+		// longer, but just as old
+		OutputStream out = new FileOutputStream(second, true);
+		try {
+			out.write(0);
+		} finally {
+			out.close();
+		}
+		second.setLastModified(lastModified);
+		assertTrue(timestamp != strategy.getContributionsTimestamp());
+	}
+
+	private Directory.Entry createEntry(String location) {
+		Directory.Entry entry = new Directory.Entry();
+		entry.setLocation(location);
+		return entry;
+	}
+}
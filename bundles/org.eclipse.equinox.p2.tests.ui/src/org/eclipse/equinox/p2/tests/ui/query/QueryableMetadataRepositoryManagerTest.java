@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others.
+ * Copyright (c) 2008, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -12,8 +12,10 @@ package org.eclipse.equinox.p2.tests.ui.query;
 
 import java.io.File;
 import java.net.URI;
-import java.util.Collection;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.tests.harness.CancelingProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.query.IQueryResultListener;
 import org.eclipse.equinox.internal.p2.ui.*;
 import org.eclipse.equinox.internal.p2.ui.model.AvailableIUElement;
 import org.eclipse.equinox.internal.p2.ui.model.MetadataRepositories;
@@ -23,8 +25,7 @@ import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.operations.ProvisioningJob;
 import org.eclipse.equinox.p2.operations.ProvisioningSession;
-import org.eclipse.equinox.p2.query.IQueryResult;
-import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
 import org.eclipse.equinox.p2.tests.TestData;
@@ -246,6 +247,94 @@ public class QueryableMetadataRepositoryManagerTest extends AbstractQueryTest {
 		assertEquals("1.1", Version.createOSGi(3, 0, 0), next.getIU().getVersion());
 	}
 
+	public void testStreamedQuery() {
+		URI multipleVersion1, multipleVersion2;
+		try {
+			multipleVersion1 = TestData.getFile("metadataRepo", "multipleversions1").toURI();
+			multipleVersion2 = TestData.getFile("metadataRepo", "multipleversions2").toURI();
+		} catch (Exception e) {
+			fail("0.99", e);
+			return;
+		}
+		IMetadataRepositoryManager metadataRepositoryManager = getMetadataRepositoryManager();
+		metadataRepositoryManager.addRepository(multipleVersion1);
+		metadataRepositoryManager.addRepository(multipleVersion2);
+		QueryableMetadataRepositoryManager manager = getQueryableManager();
+
+		final List<Collection<IInstallableUnit>> batches = new ArrayList<Collection<IInstallableUnit>>();
+		IStatus status = manager.query(QueryUtil.createIUAnyQuery(), new IQueryResultListener<IInstallableUnit>() {
+			public boolean resultsAvailable(Collection<IInstallableUnit> results) {
+				batches.add(results);
+				return true;
+			}
+		}, getMonitor());
+		assertTrue("1.0", status.isOK());
+		assertEquals("1.1", 2, batches.size());
+		Set<IInstallableUnit> streamed = new HashSet<IInstallableUnit>();
+		for (Collection<IInstallableUnit> batch : batches)
+			streamed.addAll(batch);
+		assertEquals("1.2", manager.query(QueryUtil.createIUAnyQuery(), getMonitor()).toUnmodifiableSet(), streamed);
+
+		// the listener can stop the query after the first repository
+		batches.clear();
+		status = manager.query(QueryUtil.createIUAnyQuery(), new IQueryResultListener<IInstallableUnit>() {
+			public boolean resultsAvailable(Collection<IInstallableUnit> results) {
+				batches.add(results);
+				return false;
+			}
+		}, getMonitor());
+		assertEquals("2.0", IStatus.CANCEL, status.getSeverity());
+		assertEquals("2.1", 1, batches.size());
+
+		// the latest version query is not streamed
+		batches.clear();
+		status = manager.query(QueryUtil.createLatestIUQuery(), new IQueryResultListener<IInstallableUnit>() {
+			public boolean resultsAvailable(Collection<IInstallableUnit> results) {
+				batches.add(results);
+				return true;
+			}
+		}, getMonitor());
+		assertTrue("3.0", status.isOK());
+		assertEquals("3.1", 1, batches.size());
+	}
+
+	public void testStreamedDescriptor() {
+		URI multipleVersion1, multipleVersion2;
+		try {
+			multipleVersion1 = TestData.getFile("metadataRepo", "multipleversions1").toURI();
+			multipleVersion2 = TestData.getFile("metadataRepo", "multipleversions2").toURI();
+		} catch (Exception e) {
+			fail("0.99", e);
+			return;
+		}
+		IMetadataRepositoryManager metadataRepositoryManager = getMetadataRepositoryManager();
+		metadataRepositoryManager.addRepository(multipleVersion1);
+		metadataRepositoryManager.addRepository(multipleVersion2);
+		QueryableMetadataRepositoryManager manager = getQueryableManager();
+
+		IUViewQueryContext context = new IUViewQueryContext(IUViewQueryContext.AVAILABLE_VIEW_FLAT);
+		context.setShowLatestVersionsOnly(false);
+
+		MetadataRepositories rootElement = new MetadataRepositories(context, ui, manager);
+		QueryProvider queryProvider = new QueryProvider(ui);
+		ElementQueryDescriptor queryDescriptor = queryProvider.getQueryDescriptor(rootElement);
+		assertTrue("1.0", queryDescriptor.canStream());
+		final Collection<Object> streamed = new ArrayList<Object>();
+		IStatus status = queryDescriptor.performQuery(new IQueryResultListener<Object>() {
+			public boolean resultsAvailable(Collection<Object> results) {
+				streamed.addAll(results);
+				return true;
+			}
+		}, getMonitor());
+		assertTrue("1.1", status.isOK());
+		assertEquals("1.2", 5, streamed.size());
+		for (Object element : streamed)
+			assertTrue("1.3", element instanceof AvailableIUElement);
+
+		context.setShowLatestVersionsOnly(true);
+		assertFalse("2.0", queryProvider.getQueryDescriptor(rootElement).canStream());
+	}
+
 	/**
 	 * Tests that the repository nickname is set on load.  See bug 274334 for details.
 	 */
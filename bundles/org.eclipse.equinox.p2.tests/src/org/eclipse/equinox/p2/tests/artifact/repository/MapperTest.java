@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import java.net.URI;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.Mapper;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestActivator;
+
+/**
+ * Tests for the mapping of artifacts to locations in a simple artifact repository.
+ */
+public class MapperTest extends AbstractProvisioningTest {
+	private static final String[][] RULES = { {"(& (classifier=osgi.bundle) (format=packed))", "${repoUrl}/plugins/${id}_${version}.jar.pack.gz"}, //
+			{"(& (classifier=osgi.bundle))", "${repoUrl}/plugins/${id}_${version}.jar"}, //
+			{"(& (classifier=binary) (id=b*))", "${repoUrl}/binary/${ID}_${unknown}${version}"}, //
+			{"(format=packed)", "${repoUrl}/packed/${id}"}, //
+			{"(| (classifier=x) (classifier=y))", "${repoUrl}/xy/${id}_${version"}};
+
+	private Mapper mapper;
+	private URI location;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		mapper = new Mapper();
+		mapper.initialize(TestActivator.getContext(), RULES);
+		location = new URI("file:/repo/");
+	}
+
+	public void testSimpleRules() throws Exception {
+		assertEquals("1.0", new URI("file:/repo/plugins/a_1.0.0.jar.pack.gz"), mapper.map(location, "osgi.bundle", "a", "1.0.0", "packed"));
+		assertEquals("1.1", new URI("file:/repo/plugins/a_1.0.0.jar"), mapper.map(location, "osgi.bundle", "a", "1.0.0", null));
+		assertEquals("1.2", new URI("file:/repo/packed/a"), mapper.map(location, "other", "a", "1.0.0", "packed"));
+		assertNull("1.3", mapper.map(location, "other", "a", "1.0.0", null));
+		assertNull("1.4", mapper.map(location, null, "a", "1.0.0", null));
+	}
+
+	public void testFilterRules() throws Exception {
+		assertEquals("1.0", new URI("file:/repo/binary/b_1.0.0"), mapper.map(location, "binary", "b", "1.0.0", null));
+		assertNull("1.1", mapper.map(location, "binary", "a", "1.0.0", null));
+		// an unterminated variable leaves the pattern unchanged
+		assertEquals("1.2", new URI("$%7BrepoUrl%7D/xy/$%7Bid%7D_$%7Bversion"), mapper.map(location, "y", "a", "1.0.0", null));
+	}
+
+	public void testRepositoryLocationChange() throws Exception {
+		assertEquals("1.0", new URI("file:/repo/plugins/a_1.0.0.jar"), mapper.map(location, "osgi.bundle", "a", "1.0.0", null));
+		assertEquals("1.1", new URI("file:/other/plugins/a_1.0.0.jar"), mapper.map(new URI("file:/other"), "osgi.bundle", "a", "1.0.0", null));
+		assertEquals("1.2", new URI("file:/repo/plugins/a_1.0.0.jar"), mapper.map(location, "osgi.bundle", "a", "1.0.0", null));
+	}
+
+	public void testSerialize() {
+		String[][] serialized = mapper.serialize();
+		assertEquals("1.0", RULES.length, serialized.length);
+		assertEquals("1.1", "(&(classifier=osgi.bundle)(format=packed))", serialized[0][0]);
+		assertEquals("1.2", RULES[0][1], serialized[0][1]);
+	}
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.*;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.*;
+import org.eclipse.equinox.p2.repository.artifact.spi.ProcessingStepDescriptor;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for the binary index of simple artifact repositories.
+ */
+public class SimpleArtifactRepositoryIndexTest extends AbstractProvisioningTest {
+	private static final String PROP_INDEX = "eclipse.p2.artifactRepository.index";
+	private File repositoryFile;
+	private SimpleArtifactRepository repository;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repositoryFile = getTempFolder();
+		System.setProperty(PROP_INDEX, Boolean.TRUE.toString());
+		repository = (SimpleArtifactRepository) getArtifactRepositoryManager().createRepository(repositoryFile.toURI(), "IndexTest", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		for (int i = 0; i < 10; i++) {
+			SimpleArtifactDescriptor descriptor = new SimpleArtifactDescriptor(new ArtifactKey("osgi.bundle", "a" + i, Version.createOSGi(1, 0, i, "qualifier")));
+			descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_SIZE, Integer.toString(100 * i));
+			descriptor.setProperty(IArtifactDescriptor.ARTIFACT_SIZE, "0" + i);
+			descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_MD5, "md5" + i);
+			if (i % 2 == 0) {
+				descriptor.setProperty(IArtifactDescriptor.FORMAT, IArtifactDescriptor.FORMAT_PACKED);
+				descriptor.setProcessingSteps(new IProcessingStepDescriptor[] {new ProcessingStepDescriptor("org.eclipse.equinox.p2.processing.Pack200Unpacker", null, true)});
+			}
+			descriptor.setRepositoryProperty("repository.property", "value" + i);
+			repository.addDescriptor(descriptor, new NullProgressMonitor());
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(PROP_INDEX);
+		getArtifactRepositoryManager().removeRepository(repositoryFile.toURI());
+		delete(repositoryFile);
+		super.tearDown();
+	}
+
+	private File getContentFile() {
+		return new File(repositoryFile, "artifacts.xml");
+	}
+
+	private SimpleArtifactRepository load() throws Exception {
+		SimpleArtifactRepositoryFactory factory = new SimpleArtifactRepositoryFactory();
+		factory.setAgent(getAgent());
+		return (SimpleArtifactRepository) factory.load(repositoryFile.toURI(), 0, new NullProgressMonitor());
+	}
+
+	private void assertSameDescriptors(SimpleArtifactRepository expected, SimpleArtifactRepository actual) {
+		assertEquals("1.0", expected.getDescriptors().size(), actual.getDescriptors().size());
+		for (SimpleArtifactDescriptor descriptor : expected.getDescriptors()) {
+			IArtifactKey key = descriptor.getArtifactKey();
+			IArtifactDescriptor[] loaded = actual.getArtifactDescriptors(key);
+			assertEquals("1.1 " + key, 1, loaded.length);
+			SimpleArtifactDescriptor other = (SimpleArtifactDescriptor) loaded[0];
+			assertEquals("1.2 " + key, descriptor, other);
+			assertEquals("1.3 " + key, new ArrayList<Map.Entry<String, String>>(descriptor.getProperties().entrySet()), new ArrayList<Map.Entry<String, String>>(other.getProperties().entrySet()));
+			assertEquals("1.4 " + key, descriptor.getRepositoryProperties(), other.getRepositoryProperties());
+			assertTrue("1.5 " + key, Arrays.equals(descriptor.getProcessingSteps(), other.getProcessingSteps()));
+		}
+	}
+
+	public void testIndexRoundTrip() throws Exception {
+		File indexFile = SimpleArtifactRepositoryIndex.getIndexFile(getContentFile());
+		assertTrue("1.0", indexFile.exists());
+		SimpleArtifactRepository indexed = new SimpleArtifactRepositoryIndex(getAgent()).read(getContentFile());
+		assertNotNull("1.1", indexed);
+		assertEquals("1.2", repository.getName(), indexed.getName());
+		assertEquals("1.3", repository.getProperties(), indexed.getProperties());
+		assertEquals("1.4", repository.getRules().length, indexed.getRules().length);
+
+		SimpleArtifactRepository loaded = load();
+		assertSameDescriptors(repository, loaded);
+		assertEquals("1.5", "0", loaded.getArtifactDescriptors(new ArtifactKey("osgi.bundle", "a0", Version.createOSGi(1, 0, 0, "qualifier")))[0].getProperty(IArtifactDescriptor.DOWNLOAD_SIZE));
+	}
+
+	public void testStaleIndexIgnored() throws Exception {
+		File contentFile = getContentFile();
+		assertTrue("1.0", contentFile.setLastModified(contentFile.lastModified() + 10000));
+		assertNull("1.1", new SimpleArtifactRepositoryIndex(getAgent()).read(contentFile));
+		assertSameDescriptors(repository, load());
+	}
+
+	public void testCorruptIndexIgnored() throws Exception {
+		File indexFile = SimpleArtifactRepositoryIndex.getIndexFile(getContentFile());
+		RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+		try {
+			file.setLength(file.length() / 2);
+		} finally {
+			file.close();
+		}
+		assertSameDescriptors(repository, load());
+	}
+
+	public void testIndexDeletedWhenDisabled() throws Exception {
+		System.getProperties().remove(PROP_INDEX);
+		repository.removeDescriptor(repository.getDescriptors().iterator().next(), new NullProgressMonitor());
+		assertFalse("1.0", SimpleArtifactRepositoryIndex.getIndexFile(getContentFile()).exists());
+		assertSameDescriptors(repository, load());
+	}
+}
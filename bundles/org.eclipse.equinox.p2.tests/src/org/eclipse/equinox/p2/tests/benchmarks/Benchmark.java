@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.benchmarks;
+
+/**
+ * A piece of work measured by a {@link BenchmarkRunner}. Each call to {@link #run()}
+ * performs {@link #getOperations()} operations, and results are reported per operation.
+ */
+public abstract class Benchmark {
+	private final int operations;
+
+	protected Benchmark() {
+		this(1);
+	}
+
+	protected Benchmark(int operations) {
+		this.operations = operations;
+	}
+
+	public int getOperations() {
+		return operations;
+	}
+
+	/**
+	 * Prepares the state used by {@link #run()}. Not measured.
+	 */
+	protected void setUp() throws Exception {
+		// nothing by default
+	}
+
+	/**
+	 * Performs the measured work. Implementations should consume their results, for
+	 * example by returning them, so that the work cannot be optimized away.
+	 */
+	protected abstract Object run() throws Exception;
+
+	protected void tearDown() throws Exception {
+		// nothing by default
+	}
+}
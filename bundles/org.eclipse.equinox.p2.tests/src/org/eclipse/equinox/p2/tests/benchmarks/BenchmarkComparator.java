@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.benchmarks;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares two results files written by {@link BenchmarkRunner}. A benchmark has regressed
+ * when its mean grew by more than the threshold and by more than the sum of both standard
+ * deviations. Runs as a plain Java application, without OSGi:
+ * <pre>
+ * java -cp &lt;tests bundle classes&gt; org.eclipse.equinox.p2.tests.benchmarks.BenchmarkComparator baseline.tsv current.tsv [threshold percent]
+ * </pre>
+ * The exit code is 1 if any benchmark regressed.
+ */
+public class BenchmarkComparator {
+	private static final double DEFAULT_THRESHOLD = 10;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: BenchmarkComparator <baseline> <current> [threshold percent]");
+			System.exit(2);
+		}
+		double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+		int regressions = compare(read(new File(args[0])), read(new File(args[1])), threshold, System.out);
+		System.exit(regressions == 0 ? 0 : 1);
+	}
+
+	static Map<String, BenchmarkResult> read(File file) throws IOException {
+		Map<String, BenchmarkResult> results = new LinkedHashMap<String, BenchmarkResult>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				BenchmarkResult result = BenchmarkResult.parse(line.trim());
+				if (result != null)
+					results.put(result.name, result);
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	/**
+	 * Prints the comparison of the given results and returns the number of regressions.
+	 */
+	static int compare(Map<String, BenchmarkResult> baseline, Map<String, BenchmarkResult> current, double threshold, PrintStream out) {
+		int regressions = 0;
+		out.println("benchmark\tbaseline.ns\tcurrent.ns\tchange");
+		for (BenchmarkResult result : current.values()) {
+			BenchmarkResult base = baseline.get(result.name);
+			if (base == null) {
+				out.println(result.name + "\t-\t" + format(result.mean) + "\tnew");
+				continue;
+			}
+			double change = base.mean == 0 ? 0 : (result.mean - base.mean) * 100 / base.mean;
+			boolean regressed = change > threshold && result.mean - base.mean > result.stddev + base.stddev;
+			if (regressed)
+				regressions++;
+			out.println(result.name + '\t' + format(base.mean) + '\t' + format(result.mean) + '\t' + (change >= 0 ? "+" : "") + format(change) + '%' + (regressed ? "\tREGRESSION" : ""));
+		}
+		for (String name : baseline.keySet())
+			if (!current.containsKey(name))
+				out.println(name + '\t' + format(baseline.get(name).mean) + "\t-\tmissing");
+		return regressions;
+	}
+
+	private static String format(double value) {
+		return Double.toString(Math.round(value * 10) / 10.0);
+	}
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * The statistics of the measured iterations of a benchmark, in nanoseconds per operation.
+ * Results are stored as tab separated lines so that they can be compared with
+ * {@link BenchmarkComparator} and kept under version control.
+ */
+public class BenchmarkResult {
+	static final String HEADER = "benchmark\toperations\titerations\tmean.ns\tstddev.ns\tmin.ns\tmedian.ns\tp90.ns\tmax.ns"; //$NON-NLS-1$
+
+	final String name;
+	final int operations;
+	final int iterations;
+	final double mean;
+	final double stddev;
+	final double min;
+	final double median;
+	final double p90;
+	final double max;
+
+	BenchmarkResult(String name, int operations, long[] samples) {
+		this.name = name;
+		this.operations = operations;
+		this.iterations = samples.length;
+		double[] perOperation = new double[samples.length];
+		double sum = 0;
+		for (int i = 0; i < samples.length; i++) {
+			perOperation[i] = (double) samples[i] / operations;
+			sum += perOperation[i];
+		}
+		Arrays.sort(perOperation);
+		mean = sum / samples.length;
+		double squares = 0;
+		for (int i = 0; i < perOperation.length; i++)
+			squares += (perOperation[i] - mean) * (perOperation[i] - mean);
+		stddev = perOperation.length > 1 ? Math.sqrt(squares / (perOperation.length - 1)) : 0;
+		min = perOperation[0];
+		median = percentile(perOperation, 50);
+		p90 = percentile(perOperation, 90);
+		max = perOperation[perOperation.length - 1];
+	}
+
+	private BenchmarkResult(String[] fields) {
+		name = fields[0];
+		operations = Integer.parseInt(fields[1]);
+		iterations = Integer.parseInt(fields[2]);
+		mean = Double.parseDouble(fields[3]);
+		stddev = Double.parseDouble(fields[4]);
+		min = Double.parseDouble(fields[5]);
+		median = Double.parseDouble(fields[6]);
+		p90 = Double.parseDouble(fields[7]);
+		max = Double.parseDouble(fields[8]);
+	}
+
+	private static double percentile(double[] sorted, int percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	/**
+	 * Parses a line written by {@link #toString()}, or returns <code>null</code> if the line
+	 * is a comment or the header.
+	 */
+	static BenchmarkResult parse(String line) {
+		if (line.length() == 0 || line.startsWith("#") || line.startsWith(HEADER)) //$NON-NLS-1$
+			return null;
+		String[] fields = line.split("\t"); //$NON-NLS-1$
+		if (fields.length < 9)
+			throw new IllegalArgumentException("Malformed result: " + line); //$NON-NLS-1$
+		return new BenchmarkResult(fields);
+	}
+
+	public String toString() {
+		StringBuffer buffer = new StringBuffer(name);
+		buffer.append('\t').append(operations);
+		buffer.append('\t').append(iterations);
+		double[] values = {mean, stddev, min, median, p90, max};
+		for (int i = 0; i < values.length; i++)
+			buffer.append('\t').append(Math.round(values[i] * 10) / 10.0);
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.benchmarks;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Runs benchmarks with warmup iterations followed by measured iterations, and writes
+ * the statistics of all the benchmarks run so far to a results file. The runner is
+ * configured with these system properties:
+ * <ul>
+ * <li><code>p2.benchmark.warmup</code>: the number of warmup iterations, 5 by default</li>
+ * <li><code>p2.benchmark.iterations</code>: the number of measured iterations, 10 by default</li>
+ * <li><code>p2.benchmark.filter</code>: a regular expression selecting the benchmarks to run</li>
+ * <li><code>p2.benchmark.results</code>: the file the results are written to</li>
+ * </ul>
+ */
+public class BenchmarkRunner {
+	public static final String PROP_WARMUP = "p2.benchmark.warmup";
+	public static final String PROP_ITERATIONS = "p2.benchmark.iterations";
+	public static final String PROP_FILTER = "p2.benchmark.filter";
+	public static final String PROP_RESULTS = "p2.benchmark.results";
+
+	private final int warmup;
+	private final int iterations;
+	private final Pattern filter;
+	private final File resultsFile;
+	private final List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+	// holds the result of the last iteration so that the work cannot be optimized away
+	volatile Object sink;
+
+	public BenchmarkRunner() {
+		warmup = Integer.getInteger(PROP_WARMUP, 5).intValue();
+		iterations = Math.max(1, Integer.getInteger(PROP_ITERATIONS, 10).intValue());
+		String pattern = System.getProperty(PROP_FILTER);
+		filter = pattern == null ? null : Pattern.compile(pattern);
+		String file = System.getProperty(PROP_RESULTS);
+		resultsFile = file == null ? null : new File(file);
+	}
+
+	public boolean isSelected(String name) {
+		return filter == null || filter.matcher(name).find();
+	}
+
+	/**
+	 * Runs the given benchmark if it is selected. Returns its result, or <code>null</code>
+	 * if it was not run.
+	 */
+	public BenchmarkResult run(String name, Benchmark benchmark) throws Exception {
+		if (!isSelected(name))
+			return null;
+		long[] samples = new long[iterations];
+		benchmark.setUp();
+		try {
+			for (int i = 0; i < warmup; i++)
+				sink = benchmark.run();
+			for (int i = 0; i < iterations; i++) {
+				// start each iteration from a collected heap to reduce the noise of earlier garbage
+				System.gc();
+				long start = System.nanoTime();
+				sink = benchmark.run();
+				samples[i] = System.nanoTime() - start;
+			}
+		} finally {
+			benchmark.tearDown();
+		}
+		sink = null;
+		BenchmarkResult result = new BenchmarkResult(name, benchmark.getOperations(), samples);
+		results.add(result);
+		System.out.println(result);
+		writeResults();
+		return result;
+	}
+
+	private void writeResults() throws IOException {
+		if (resultsFile == null)
+			return;
+		File parent = resultsFile.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(resultsFile), "UTF-8"));
+		try {
+			writer.println("# " + new Date());
+			writer.println("# java " + System.getProperty("java.version") + " (" + System.getProperty("java.vm.name") + "), " + System.getProperty("os.name") + ' ' + System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() + " processors");
+			writer.println("# warmup " + warmup + ", iterations " + iterations);
+			writer.println(BenchmarkResult.HEADER);
+			for (BenchmarkResult result : results)
+				writer.println(result);
+		} finally {
+			writer.close();
+		}
+	}
+}
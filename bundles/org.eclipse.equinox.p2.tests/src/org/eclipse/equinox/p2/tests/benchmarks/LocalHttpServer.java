@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.benchmarks;
+
+import java.io.*;
+import java.net.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * A minimal HTTP server on the loopback interface that answers GET and HEAD requests,
+ * either with the same content for every path or with the files of a directory. It stands
+ * in for a remote repository so that download benchmarks measure the transport rather
+ * than the network, and so that tests can count the files downloaded.
+ */
+public class LocalHttpServer implements Runnable {
+	private final byte[] content;
+	private final File root;
+	private final long lastModified;
+	private final ServerSocket socket;
+	private final Thread thread;
+	private final Map<String, Integer> downloads = new HashMap<String, Integer>();
+
+	/**
+	 * Creates a server answering every request with the given content.
+	 */
+	public LocalHttpServer(byte[] content) throws IOException {
+		this(content, null);
+	}
+
+	/**
+	 * Creates a server answering requests with the files below the given directory.
+	 * Requests for other paths are answered with 404.
+	 */
+	public LocalHttpServer(File root) throws IOException {
+		this(null, root);
+	}
+
+	private LocalHttpServer(byte[] content, File root) throws IOException {
+		this.content = content;
+		this.root = root;
+		lastModified = System.currentTimeMillis();
+		socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		thread = new Thread(this, "Benchmark HTTP server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public URI getURI(String path) {
+		return URI.create("http://127.0.0.1:" + socket.getLocalPort() + '/' + path);
+	}
+
+	/**
+	 * Returns the number of GET requests answered for the paths starting with the given prefix.
+	 */
+	public synchronized int getDownloadCount(String prefix) {
+		int count = 0;
+		for (Map.Entry<String, Integer> entry : downloads.entrySet()) {
+			if (entry.getKey().startsWith(prefix))
+				count += entry.getValue().intValue();
+		}
+		return count;
+	}
+
+	public void run() {
+		while (!socket.isClosed()) {
+			try {
+				final Socket connection = socket.accept();
+				Thread handler = new Thread(new Runnable() {
+					public void run() {
+						handle(connection);
+					}
+				}, "Benchmark HTTP connection");
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+	void handle(Socket connection) {
+		try {
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), "ISO-8859-1"));
+				String request = in.readLine();
+				String line;
+				while ((line = in.readLine()) != null && line.length() > 0) {
+					// skip the headers
+				}
+				OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+				String[] parts = request == null ? new String[0] : request.split(" ");
+				String path = parts.length > 1 ? parts[1].substring(1) : "";
+				File file = root == null ? null : new File(root, path);
+				if (root != null && !file.isFile()) {
+					out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1"));
+				} else {
+					SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+					format.setTimeZone(TimeZone.getTimeZone("GMT"));
+					StringBuffer headers = new StringBuffer("HTTP/1.1 200 OK\r\n");
+					headers.append("Content-Type: application/octet-stream\r\n");
+					headers.append("Content-Length: ").append(file == null ? content.length : file.length()).append("\r\n");
+					headers.append("Last-Modified: ").append(format.format(new Date(file == null ? lastModified : file.lastModified()))).append("\r\n");
+					headers.append("Connection: close\r\n\r\n");
+					out.write(headers.toString().getBytes("ISO-8859-1"));
+					if (parts.length > 0 && parts[0].equals("GET")) {
+						synchronized (this) {
+							Integer count = downloads.get(path);
+							downloads.put(path, new Integer(count == null ? 1 : count.intValue() + 1));
+						}
+						if (file == null)
+							out.write(content);
+						else
+							copy(file, out);
+					}
+				}
+				out.flush();
+			} finally {
+				connection.close();
+			}
+		} catch (IOException e) {
+			// the client went away
+		}
+	}
+
+	private void copy(File file, OutputStream out) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+		} finally {
+			in.close();
+		}
+	}
+
+	public void stop() throws IOException {
+		socket.close();
+	}
+}
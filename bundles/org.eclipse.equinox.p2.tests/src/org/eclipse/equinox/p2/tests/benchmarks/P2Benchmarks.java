@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.benchmarks;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.internal.p2.engine.Profile;
+import org.eclipse.equinox.internal.p2.engine.SimpleProfileRegistry;
+import org.eclipse.equinox.internal.p2.repository.Transport;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.io.IUDeserializer;
+import org.eclipse.equinox.p2.metadata.io.IUSerializer;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Benchmarks of the p2 hot paths: version handling, metadata serialization, capability
+ * queries, slicing, encoding and solving, planning, downloads and profile persistence.
+ * The benchmarks run against a {@link SyntheticRepository} of <code>p2.benchmark.size</code>
+ * bundles (2000 by default), so results are comparable between runs.
+ * <p>
+ * The benchmarks do not run with the automated tests. To run them headless:
+ * <pre>
+ * mvn -Pbenchmarks verify -Dp2.benchmark.filter=planner
+ * </pre>
+ * The results are written to <code>target/benchmarks.tsv</code>, see {@link BenchmarkRunner}
+ * for the other properties. Use {@link BenchmarkComparator} to compare the results with
+ * those of a baseline run.
+ * </p>
+ */
+public class P2Benchmarks extends AbstractProvisioningTest {
+	public static final String PROP_SIZE = "p2.benchmark.size";
+	private static final String PROFILE_ID = "benchmark";
+
+	private static BenchmarkRunner runner;
+	private static SyntheticRepository repository;
+
+	private static synchronized BenchmarkRunner getRunner() {
+		if (runner == null)
+			runner = new BenchmarkRunner();
+		return runner;
+	}
+
+	private static synchronized SyntheticRepository getRepository() {
+		if (repository == null)
+			repository = new SyntheticRepository(Integer.getInteger(PROP_SIZE, 2000).intValue(), SyntheticRepository.DEFAULT_SEED);
+		return repository;
+	}
+
+	private IInstallableUnit createEntryPoint(IInstallableUnit product) {
+		InstallableUnitDescription description = new InstallableUnitDescription();
+		description.setId("benchmark.entry");
+		description.setVersion(Version.createOSGi(1, 0, 0));
+		description.setRequirements(new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, product.getId(), new VersionRange(product.getVersion(), true, product.getVersion(), true), null, false, false)});
+		return MetadataFactory.createInstallableUnit(description);
+	}
+
+	private IQueryable<IInstallableUnit> createQueryable(List<IInstallableUnit> ius, IInstallableUnit extra) {
+		List<IInstallableUnit> all = new ArrayList<IInstallableUnit>(ius);
+		all.add(extra);
+		return new QueryableArray(all.toArray(new IInstallableUnit[all.size()]));
+	}
+
+	public void testVersionParse() throws Exception {
+		final String[] versions = getRepository().getVersionStrings();
+		getRunner().run("version.parse", new Benchmark(versions.length) {
+			protected Object run() {
+				Version last = null;
+				for (int i = 0; i < versions.length; i++)
+					last = Version.parseVersion(versions[i]);
+				return last;
+			}
+		});
+	}
+
+	public void testVersionSort() throws Exception {
+		String[] strings = getRepository().getVersionStrings();
+		final Version[] versions = new Version[strings.length];
+		for (int i = 0; i < strings.length; i++)
+			versions[i] = Version.parseVersion(strings[i]);
+		getRunner().run("version.sort", new Benchmark(versions.length) {
+			protected Object run() {
+				Version[] sorted = versions.clone();
+				Arrays.sort(sorted);
+				return sorted;
+			}
+		});
+	}
+
+	public void testMetadataWrite() throws Exception {
+		final List<IInstallableUnit> ius = getRepository().getInstallableUnits();
+		getRunner().run("metadata.write", new Benchmark(ius.size()) {
+			protected Object run() throws Exception {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 1024);
+				new IUSerializer(bytes).write(ius);
+				return bytes;
+			}
+		});
+	}
+
+	public void testMetadataRead() throws Exception {
+		final List<IInstallableUnit> ius = getRepository().getInstallableUnits();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024 * 1024);
+		new IUSerializer(bytes).write(ius);
+		final byte[] content = bytes.toByteArray();
+		getRunner().run("metadata.read", new Benchmark(ius.size()) {
+			protected Object run() throws Exception {
+				return new IUDeserializer().read(new ByteArrayInputStream(content));
+			}
+		});
+	}
+
+	public void testCapabilityQuery() throws Exception {
+		final List<IRequirement> requirements = new ArrayList<IRequirement>();
+		for (IInstallableUnit bundle : getRepository().getBundles())
+			requirements.addAll(bundle.getRequirements());
+		getRunner().run("query.capability", new Benchmark(requirements.size()) {
+			private URI location;
+			private IMetadataRepository metadata;
+
+			protected void setUp() throws Exception {
+				location = getTempFolder().toURI();
+				metadata = createMetadataRepository(location, null);
+				metadata.addInstallableUnits(getRepository().getInstallableUnits());
+			}
+
+			protected Object run() {
+				int matches = 0;
+				for (IRequirement requirement : requirements)
+					matches += metadata.query(QueryUtil.createMatchQuery(requirement.getMatches()), null).toUnmodifiableSet().size();
+				return new Integer(matches);
+			}
+
+			protected void tearDown() {
+				getMetadataRepositoryManager().removeRepository(location);
+				delete(new File(location));
+			}
+		});
+	}
+
+	public void testSlice() throws Exception {
+		final IInstallableUnit entry = createEntryPoint(getRepository().getProduct());
+		final IQueryable<IInstallableUnit> input = createQueryable(getRepository().getInstallableUnits(), entry);
+		final Map<String, String> context = SimplePlanner.createSelectionContext(new HashMap<String, String>());
+		getRunner().run("director.slice", new Benchmark() {
+			protected Object run() {
+				return new Slicer(input, context, false).slice(new IInstallableUnit[] {entry}, new NullProgressMonitor());
+			}
+		});
+	}
+
+	public void testEncodeAndSolve() throws Exception {
+		final IInstallableUnit entry = createEntryPoint(getRepository().getProduct());
+		final Map<String, String> context = SimplePlanner.createSelectionContext(new HashMap<String, String>());
+		final IQueryable<IInstallableUnit> slice = new Slicer(createQueryable(getRepository().getInstallableUnits(), entry), context, false).slice(new IInstallableUnit[] {entry}, new NullProgressMonitor());
+		assertNotNull("slice", slice);
+		final IQueryable<IInstallableUnit> installed = new QueryableArray(new IInstallableUnit[0]);
+		final Collection<IInstallableUnit> roots = Collections.singleton(getRepository().getProduct());
+		getRunner().run("director.encodeAndSolve", new Benchmark() {
+			protected Object run() {
+				// the slicer's non greedy units are not visible from here, which only affects optional requirements
+				Projector projector = new Projector(slice, context, new HashSet<IInstallableUnit>(), false);
+				projector.encode(entry, new IInstallableUnit[0], installed, roots, new NullProgressMonitor());
+				IStatus status = projector.invokeSolver(new NullProgressMonitor());
+				assertTrue(status.toString(), status.isOK());
+				return projector.extractSolution();
+			}
+		});
+	}
+
+	public void testPlanner() throws Exception {
+		getRunner().run("planner.install", new Benchmark() {
+			private URI location;
+			private IProfile profile;
+			private ProvisioningContext context;
+
+			protected void setUp() throws Exception {
+				location = getTempFolder().toURI();
+				IMetadataRepository metadata = createMetadataRepository(location, null);
+				metadata.addInstallableUnits(getRepository().getInstallableUnits());
+				profile = createProfile(PROFILE_ID);
+				context = new ProvisioningContext(getAgent());
+				context.setMetadataRepositories(new URI[] {location});
+				context.setArtifactRepositories(new URI[0]);
+			}
+
+			protected Object run() {
+				IPlanner planner = createPlanner();
+				ProfileChangeRequest request = new ProfileChangeRequest(profile);
+				request.add(getRepository().getProduct());
+				IProvisioningPlan plan = planner.getProvisioningPlan(request, context, new NullProgressMonitor());
+				assertTrue(plan.getStatus().toString(), plan.getStatus().isOK());
+				return plan;
+			}
+
+			protected void tearDown() {
+				getMetadataRepositoryManager().removeRepository(location);
+				delete(new File(location));
+			}
+		});
+	}
+
+	public void testDownload() throws Exception {
+		final byte[] content = new byte[1024 * 1024];
+		new Random(SyntheticRepository.DEFAULT_SEED).nextBytes(content);
+		getRunner().run("transport.download", new Benchmark() {
+			private LocalHttpServer server;
+			private Transport transport;
+
+			protected void setUp() throws Exception {
+				server = new LocalHttpServer(content);
+				transport = (Transport) getAgent().getService(Transport.SERVICE_NAME);
+			}
+
+			protected Object run() {
+				ByteArrayOutputStream target = new ByteArrayOutputStream(content.length);
+				IStatus status = transport.download(server.getURI("/artifact.jar"), target, new NullProgressMonitor());
+				assertTrue(status.toString(), status.isOK());
+				assertEquals(content.length, target.size());
+				return target;
+			}
+
+			protected void tearDown() throws Exception {
+				server.stop();
+			}
+		});
+	}
+
+	public void testProfileSave() throws Exception {
+		final List<IInstallableUnit> ius = getRepository().getInstallableUnits();
+		getRunner().run("profile.save", new Benchmark(ius.size()) {
+			private File directory;
+			private SimpleProfileRegistry registry;
+
+			protected void setUp() throws Exception {
+				directory = getTempFolder();
+				registry = new SimpleProfileRegistry(getAgent(), directory);
+				registry.addProfile(PROFILE_ID);
+			}
+
+			protected Object run() {
+				Profile profile = (Profile) registry.getProfile(PROFILE_ID);
+				registry.lockProfile(profile);
+				try {
+					for (IInstallableUnit iu : ius)
+						profile.addInstallableUnit(iu);
+					registry.updateProfile(profile);
+				} finally {
+					registry.unlockProfile(profile);
+				}
+				return profile;
+			}
+
+			protected void tearDown() {
+				delete(directory);
+			}
+		});
+	}
+
+	public void testProfileLoad() throws Exception {
+		final List<IInstallableUnit> ius = getRepository().getInstallableUnits();
+		getRunner().run("profile.load", new Benchmark(ius.size()) {
+			private File directory;
+
+			protected void setUp() throws Exception {
+				directory = getTempFolder();
+				SimpleProfileRegistry registry = new SimpleProfileRegistry(getAgent(), directory);
+				registry.addProfile(PROFILE_ID);
+				Profile profile = (Profile) registry.getProfile(PROFILE_ID);
+				registry.lockProfile(profile);
+				for (IInstallableUnit iu : ius)
+					profile.addInstallableUnit(iu);
+				registry.updateProfile(profile);
+				registry.unlockProfile(profile);
+			}
+
+			protected Object run() {
+				IProfile profile = new SimpleProfileRegistry(getAgent(), directory).getProfile(PROFILE_ID);
+				assertNotNull(profile);
+				return profile;
+			}
+
+			protected void tearDown() {
+				delete(directory);
+			}
+		});
+	}
+}
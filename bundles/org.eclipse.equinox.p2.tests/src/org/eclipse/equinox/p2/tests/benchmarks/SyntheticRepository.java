@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.benchmarks;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+
+/**
+ * Generates the same installable units for the same size and seed. Bundles export
+ * packages and import packages of lower numbered bundles, so every bundle can be
+ * installed. Some bundles come in two versions and are singletons, which gives the
+ * solver choices to make. Features group the bundles and a product requires all features.
+ */
+public class SyntheticRepository {
+	public static final long DEFAULT_SEED = 20130601L;
+	public static final String PRODUCT_ID = "benchmark.product";
+	private static final String PACKAGE_NAMESPACE = "java.package";
+	private static final int BUNDLES_PER_FEATURE = 50;
+
+	private final List<IInstallableUnit> bundles = new ArrayList<IInstallableUnit>();
+	private final List<IInstallableUnit> features = new ArrayList<IInstallableUnit>();
+	private final IInstallableUnit product;
+	private final String[] versionStrings;
+
+	public SyntheticRepository(int bundleCount, long seed) {
+		Random random = new Random(seed);
+		Version[] latest = new Version[bundleCount];
+		for (int i = 0; i < bundleCount; i++) {
+			Version version = Version.createOSGi(1, i % 5, random.nextInt(20), "v2013" + (1000 + random.nextInt(9000)));
+			// a tenth of the bundles also come in an older version
+			if (i % 10 == 0)
+				bundles.add(createBundle(i, Version.createOSGi(1, i % 5, 0, "v2012"), random));
+			bundles.add(createBundle(i, version, random));
+			latest[i] = version;
+		}
+		for (int start = 0; start < bundleCount; start += BUNDLES_PER_FEATURE) {
+			InstallableUnitDescription feature = new InstallableUnitDescription();
+			feature.setId("benchmark.feature" + start / BUNDLES_PER_FEATURE + ".feature.group");
+			feature.setVersion(Version.createOSGi(1, 0, 0, "v2013"));
+			feature.setProperty(InstallableUnitDescription.PROP_TYPE_GROUP, Boolean.TRUE.toString());
+			List<IRequirement> requirements = new ArrayList<IRequirement>();
+			for (int i = start; i < Math.min(start + BUNDLES_PER_FEATURE, bundleCount); i++)
+				requirements.add(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, getBundleId(i), new VersionRange(latest[i], true, latest[i], true), null, false, false));
+			feature.setRequirements(requirements.toArray(new IRequirement[requirements.size()]));
+			feature.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, feature.getId(), feature.getVersion())});
+			features.add(MetadataFactory.createInstallableUnit(feature));
+		}
+		InstallableUnitDescription description = new InstallableUnitDescription();
+		description.setId(PRODUCT_ID);
+		description.setVersion(Version.createOSGi(1, 0, 0));
+		description.setProperty(InstallableUnitDescription.PROP_TYPE_GROUP, Boolean.TRUE.toString());
+		IRequirement[] requirements = new IRequirement[features.size()];
+		for (int i = 0; i < requirements.length; i++) {
+			IInstallableUnit feature = features.get(i);
+			requirements[i] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, feature.getId(), new VersionRange(feature.getVersion(), true, feature.getVersion(), true), null, false, false);
+		}
+		description.setRequirements(requirements);
+		description.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, PRODUCT_ID, description.getVersion())});
+		product = MetadataFactory.createInstallableUnit(description);
+
+		versionStrings = new String[bundleCount * 5];
+		for (int i = 0; i < versionStrings.length; i++)
+			versionStrings[i] = random.nextInt(5) + "." + random.nextInt(20) + '.' + random.nextInt(100) + (random.nextBoolean() ? ".v" + (20130000 + random.nextInt(10000)) : "");
+	}
+
+	private IInstallableUnit createBundle(int index, Version version, Random random) {
+		InstallableUnitDescription description = new InstallableUnitDescription();
+		description.setId(getBundleId(index));
+		description.setVersion(version);
+		description.setSingleton(index % 10 == 0);
+		description.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, description.getId(), version), MetadataFactory.createProvidedCapability("osgi.bundle", description.getId(), version), MetadataFactory.createProvidedCapability(PACKAGE_NAMESPACE, getPackageName(index), version)});
+		List<IRequirement> requirements = new ArrayList<IRequirement>();
+		if (index > 0) {
+			int imports = random.nextInt(4);
+			for (int i = 0; i < imports; i++) {
+				int imported = random.nextInt(index);
+				boolean optional = random.nextInt(5) == 0;
+				requirements.add(MetadataFactory.createRequirement(PACKAGE_NAMESPACE, getPackageName(imported), new VersionRange(Version.createOSGi(1, 0, 0), true, Version.createOSGi(2, 0, 0), false), null, optional, false, !optional));
+			}
+		}
+		description.setRequirements(requirements.toArray(new IRequirement[requirements.size()]));
+		description.setProperty("org.eclipse.equinox.p2.name", "Benchmark Bundle " + index);
+		description.setProperty("org.eclipse.equinox.p2.provider", "Eclipse.org");
+		description.setArtifacts(new IArtifactKey[] {new ArtifactKey("osgi.bundle", description.getId(), version)});
+		return MetadataFactory.createInstallableUnit(description);
+	}
+
+	private static String getBundleId(int index) {
+		return "benchmark.bundle" + index;
+	}
+
+	private static String getPackageName(int index) {
+		return "benchmark.bundle" + index + ".api";
+	}
+
+	public List<IInstallableUnit> getBundles() {
+		return bundles;
+	}
+
+	public List<IInstallableUnit> getFeatures() {
+		return features;
+	}
+
+	public IInstallableUnit getProduct() {
+		return product;
+	}
+
+	/**
+	 * Returns all the installable units, in a stable order.
+	 */
+	public List<IInstallableUnit> getInstallableUnits() {
+		List<IInstallableUnit> result = new ArrayList<IInstallableUnit>(bundles.size() + features.size() + 1);
+		result.addAll(bundles);
+		result.addAll(features);
+		result.add(product);
+		return result;
+	}
+
+	/**
+	 * Returns version strings in a mix of formats and ranges.
+	 */
+	public String[] getVersionStrings() {
+		return versionStrings;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -25,8 +25,12 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(CompoundQueryableTest.class);
 		suite.addTestSuite(FileUtilsTest.class);
 		suite.addTestSuite(OrderedPropertiesTest.class);
+		suite.addTestSuite(PersistentHashMapTest.class);
 		suite.addTestSuite(ProvisioningAgentTest.class);
+		suite.addTestSuite(ProvisioningEventBusTest.class);
+		suite.addTestSuite(ProvisioningMetricsTest.class);
 		suite.addTestSuite(QueryTest.class);
+		suite.addTestSuite(StringPoolTest.class);
 		suite.addTestSuite(URLUtilTest.class);
 		return suite;
 	}
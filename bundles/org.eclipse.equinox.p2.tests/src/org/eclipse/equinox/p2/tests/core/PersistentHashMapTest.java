@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.core;
+
+import java.util.*;
+import junit.framework.TestCase;
+import org.eclipse.equinox.internal.p2.core.helpers.PersistentHashMap;
+
+/**
+ * Compares {@link PersistentHashMap} and its clones with hash maps.
+ */
+public class PersistentHashMapTest extends TestCase {
+
+	/**
+	 * A key whose hash code is given, to create collisions.
+	 */
+	static class Key {
+		final int hash;
+		final int id;
+
+		Key(int hash, int id) {
+			this.hash = hash;
+			this.id = id;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).id == id;
+		}
+
+		public String toString() {
+			return "Key(" + id + ')';
+		}
+	}
+
+	public void testPutGetRemove() {
+		PersistentHashMap<String, String> map = new PersistentHashMap<String, String>();
+		assertTrue("1.0", map.isEmpty());
+		assertNull("1.1", map.put("a", "1"));
+		assertEquals("1.2", "1", map.put("a", "2"));
+		assertEquals("1.3", "2", map.get("a"));
+		assertTrue("1.4", map.containsKey("a"));
+		assertNull("1.5", map.get("b"));
+		assertEquals("1.6", 1, map.size());
+		assertEquals("1.7", "2", map.remove("a"));
+		assertNull("1.8", map.remove("a"));
+		assertTrue("1.9", map.isEmpty());
+	}
+
+	public void testCloneIsIndependent() {
+		PersistentHashMap<String, String> map = new PersistentHashMap<String, String>();
+		for (int i = 0; i < 1000; i++)
+			map.put("key" + i, "value" + i);
+		PersistentHashMap<String, String> clone = map.clone();
+		clone.put("key1", "changed");
+		clone.remove("key2");
+		clone.put("new", "value");
+		map.put("key3", "changed");
+		assertEquals("1.0", "value1", map.get("key1"));
+		assertEquals("1.1", "value2", map.get("key2"));
+		assertNull("1.2", map.get("new"));
+		assertEquals("1.3", "changed", clone.get("key1"));
+		assertNull("1.4", clone.get("key2"));
+		assertEquals("1.5", "value3", clone.get("key3"));
+		assertEquals("1.6", 1000, map.size());
+		assertEquals("1.7", 1000, clone.size());
+	}
+
+	public void testSameAsHashMap() {
+		Random random = new Random(4711);
+		// few hash codes for collisions, many for a deep trie
+		int[] hashRanges = new int[] {4, 1000, Integer.MAX_VALUE};
+		for (int round = 0; round < 30; round++) {
+			int hashRange = hashRanges[round % hashRanges.length];
+			List<PersistentHashMap<Key, Integer>> maps = new ArrayList<PersistentHashMap<Key, Integer>>();
+			List<Map<Key, Integer>> expected = new ArrayList<Map<Key, Integer>>();
+			maps.add(new PersistentHashMap<Key, Integer>());
+			expected.add(new HashMap<Key, Integer>());
+			for (int operation = 0; operation < 3000; operation++) {
+				int index = random.nextInt(maps.size());
+				PersistentHashMap<Key, Integer> map = maps.get(index);
+				Map<Key, Integer> hashMap = expected.get(index);
+				int id = random.nextInt(500);
+				Key key = new Key(hashRange == Integer.MAX_VALUE ? id * 0x9E3779B9 : (id % hashRange) << (round % 2 == 0 ? 0 : 28), id);
+				int choice = random.nextInt(100);
+				String message = round + "." + operation;
+				if (choice < 50) {
+					Integer value = new Integer(random.nextInt());
+					assertEquals(message, hashMap.put(key, value), map.put(key, value));
+				} else if (choice < 80) {
+					assertEquals(message, hashMap.remove(key), map.remove(key));
+				} else if (choice < 83 && maps.size() < 10) {
+					maps.add(map.clone());
+					expected.add(new HashMap<Key, Integer>(hashMap));
+				} else if (choice < 85) {
+					for (Iterator<Key> iter = map.keySet().iterator(); iter.hasNext();) {
+						Key next = iter.next();
+						if (random.nextInt(4) == 0) {
+							iter.remove();
+							hashMap.remove(next);
+						}
+					}
+				} else {
+					assertEquals(message, hashMap.get(key), map.get(key));
+					assertEquals(message, hashMap.containsKey(key), map.containsKey(key));
+				}
+				assertEquals(message, hashMap.size(), map.size());
+			}
+			for (int i = 0; i < maps.size(); i++) {
+				assertEquals(round + ".equals." + i, expected.get(i), maps.get(i));
+				assertEquals(round + ".entries." + i, expected.get(i).entrySet(), new HashSet<Map.Entry<Key, Integer>>(maps.get(i).entrySet()));
+			}
+		}
+	}
+}
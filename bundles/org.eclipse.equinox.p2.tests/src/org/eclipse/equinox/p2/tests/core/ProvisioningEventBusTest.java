@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.core;
+
+import java.util.*;
+import junit.framework.TestCase;
+import org.eclipse.equinox.internal.p2.core.ProvisioningEventBus;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.*;
+
+/**
+ * Tests for {@link ProvisioningEventBus}.
+ */
+public class ProvisioningEventBusTest extends TestCase {
+	static class ProgressEvent extends EventObject implements CoalescibleEvent {
+		private static final long serialVersionUID = 1L;
+		final int value;
+
+		ProgressEvent(Object source, int value) {
+			super(source);
+			this.value = value;
+		}
+
+		public Object getCoalescingKey() {
+			return getSource();
+		}
+	}
+
+	static class RecordingListener implements ProvisioningListener {
+		final List<EventObject> events = Collections.synchronizedList(new ArrayList<EventObject>());
+		final Object gate = new Object();
+		boolean blocked;
+
+		public void notify(EventObject o) {
+			synchronized (gate) {
+				while (blocked) {
+					try {
+						gate.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			synchronized (events) {
+				events.add(o);
+				events.notifyAll();
+			}
+		}
+
+		/*
+		 * Waits until the listener was notified of the given number of events, and returns
+		 * whether it was notified of exactly that many.
+		 */
+		boolean waitForEvents(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			synchronized (events) {
+				long remaining;
+				while (events.size() < count && (remaining = end - System.currentTimeMillis()) > 0)
+					events.wait(remaining);
+				return events.size() == count;
+			}
+		}
+
+		void setBlocked(boolean value) {
+			synchronized (gate) {
+				blocked = value;
+				gate.notifyAll();
+			}
+		}
+	}
+
+	static class RecordingSynchronousListener extends RecordingListener implements SynchronousProvisioningListener {
+		//
+	}
+
+	ProvisioningEventBus bus;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		bus = new ProvisioningEventBus();
+	}
+
+	protected void tearDown() throws Exception {
+		bus.close();
+		super.tearDown();
+	}
+
+	public void testSynchronousListenersSeeEveryEvent() {
+		RecordingSynchronousListener listener = new RecordingSynchronousListener();
+		bus.addListener(listener);
+		Object source = new Object();
+		for (int i = 0; i < 100; i++)
+			bus.publishEvent(new ProgressEvent(source, i));
+		assertEquals("1.0", 100, listener.events.size());
+		bus.removeListener(listener);
+		bus.publishEvent(new EventObject(source));
+		assertEquals("1.1", 100, listener.events.size());
+	}
+
+	public void testProgressEventsAreCoalesced() throws InterruptedException {
+		RecordingListener listener = new RecordingListener();
+		bus.addListener(listener);
+		Object source = new Object();
+		EventObject other = new EventObject(source);
+
+		// hold the dispatcher so that the events pile up
+		listener.setBlocked(true);
+		bus.publishEvent(other);
+		for (int i = 0; i < 100; i++)
+			bus.publishEvent(new ProgressEvent(source, i));
+		listener.setBlocked(false);
+
+		assertTrue("1.0", listener.waitForEvents(2));
+		assertEquals("1.1", 0, bus.getQueueDepth());
+		assertEquals("1.2", 101, bus.getPublishedEventCount());
+		assertEquals("1.3", 99, bus.getCoalescedEventCount());
+		assertSame("1.4", other, listener.events.get(0));
+		assertEquals("1.5", 99, ((ProgressEvent) listener.events.get(1)).value);
+	}
+
+	public void testMaxCoalescibleEventRate() throws InterruptedException {
+		RecordingListener listener = new RecordingListener();
+		bus.addListener(listener);
+		bus.setMaxCoalescibleEventRate(1);
+		Object source = new Object();
+		bus.publishEvent(new ProgressEvent(source, 0));
+		assertTrue("1.0", listener.waitForEvents(1));
+		assertEquals("1.1", 0, ((ProgressEvent) listener.events.get(0)).value);
+		// held back until the interval ends
+		for (int i = 1; i < 100; i++)
+			bus.publishEvent(new ProgressEvent(source, i));
+
+		// other events are never held back
+		for (int i = 0; i < 10; i++)
+			bus.publishEvent(new EventObject(source));
+
+		// the last progress event is delivered when the interval ends
+		assertTrue("1.2", listener.waitForEvents(12));
+		List<ProgressEvent> progress = new ArrayList<ProgressEvent>();
+		synchronized (listener.events) {
+			for (EventObject event : listener.events)
+				if (event instanceof ProgressEvent)
+					progress.add((ProgressEvent) event);
+		}
+		assertEquals("1.3", 2, progress.size());
+		assertEquals("1.4", 99, progress.get(1).value);
+		assertEquals("1.5", 98, bus.getCoalescedEventCount());
+	}
+
+	public void testSynchronousListenersNotifiedOneEventAtATime() throws InterruptedException {
+		final int[] active = new int[1];
+		final int[] maxActive = new int[1];
+		bus.addListener(new SynchronousProvisioningListener() {
+			public void notify(EventObject o) {
+				synchronized (active) {
+					maxActive[0] = Math.max(maxActive[0], ++active[0]);
+				}
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				synchronized (active) {
+					active[0]--;
+				}
+			}
+		});
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < 20; j++)
+						bus.publishEvent(new EventObject(this));
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+		assertEquals("1.0", 1, maxActive[0]);
+	}
+}
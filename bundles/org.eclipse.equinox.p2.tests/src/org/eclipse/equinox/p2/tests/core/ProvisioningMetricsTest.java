@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.core;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics;
+import org.eclipse.equinox.internal.p2.core.helpers.ProvisioningMetrics.Metric;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests for {@link ProvisioningMetrics}.
+ */
+public class ProvisioningMetricsTest extends AbstractProvisioningTest {
+	private ProvisioningMetrics metrics;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		metrics = ProvisioningMetrics.getMetrics(getAgent());
+		metrics.setEnabled(true);
+		metrics.reset();
+	}
+
+	protected void tearDown() throws Exception {
+		metrics.setEnabled(false);
+		metrics.reset();
+		super.tearDown();
+	}
+
+	public void testServiceRegistered() {
+		assertSame(metrics, getAgent().getService(ProvisioningMetrics.SERVICE_NAME));
+	}
+
+	public void testDisabled() {
+		metrics.setEnabled(false);
+		assertEquals("1.0", 0, metrics.start());
+		metrics.count("test.count", 1);
+		assertNull("1.1", metrics.startOperation("test"));
+		assertTrue("1.2", metrics.getMetrics().isEmpty());
+	}
+
+	public void testInstall() {
+		IInstallableUnit a = createIU("A", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0, 1.0.0]")));
+		IInstallableUnit b = createIU("B", Version.create("1.0.0"));
+		createTestMetdataRepository(new IInstallableUnit[] {a, b});
+		IProfile profile = createProfile(ProvisioningMetricsTest.class.getName());
+		assertOK("1.0", install(profile, new IInstallableUnit[] {a}, true, createPlanner(), createEngine()));
+
+		Map<String, Metric> recorded = metrics.getMetrics();
+		String[] timings = {"planner.total", "planner.gather", "planner.slice", "planner.encode", "planner.solve", "planner.generatePlan", "engine.total"};
+		for (int i = 0; i < timings.length; i++) {
+			Metric metric = recorded.get(timings[i]);
+			assertNotNull("2.0 " + timings[i], metric);
+			assertTrue("2.1 " + timings[i], metric.isTiming());
+			assertTrue("2.2 " + timings[i], metric.getCount() > 0);
+		}
+		assertTrue("3.0", recorded.get("projector.variables").getTotal() > 0);
+		assertTrue("3.1", recorded.get("projector.constraints").getTotal() > 0);
+		boolean phases = false;
+		for (String name : recorded.keySet())
+			phases |= name.startsWith("engine.phase.");
+		assertTrue("3.2", phases);
+	}
+
+	public void testOperationReport() throws Exception {
+		File folder = getTempFolder();
+		ProvisioningMetrics reporting = new ProvisioningMetrics(true, folder);
+		reporting.count("outside", 1);
+		ProvisioningMetrics.Operation operation = reporting.startOperation("test");
+		reporting.count("inside", 3);
+		reporting.count("inside", 5);
+		reporting.time("timed \"name\"", reporting.start());
+		reporting.endOperation(operation);
+
+		assertEquals("1.0", 2, operation.getMetrics().size());
+		assertNull("1.1", operation.getMetrics().get("outside"));
+		Metric inside = operation.getMetrics().get("inside");
+		assertEquals("1.2", 2, inside.getCount());
+		assertEquals("1.3", 8, inside.getTotal());
+		assertEquals("1.4", 3, inside.getMin());
+		assertEquals("1.5", 5, inside.getMax());
+		assertEquals("1.6", 2, reporting.getMetrics().get("inside").getCount());
+
+		File[] reports = folder.listFiles();
+		assertEquals("2.0", 1, reports.length);
+		assertTrue("2.1", reports[0].getName().startsWith("test-"));
+		String json = operation.toJSON();
+		assertTrue("2.2", json.startsWith("{\"operation\":\"test\""));
+		assertTrue("2.3", json.indexOf("\"inside\":{\"type\":\"count\",\"count\":2,\"total\":8,\"min\":3,\"max\":5}") > 0);
+		assertTrue("2.4", json.indexOf("\"timed \\\"name\\\"\":{\"type\":\"time\"") > 0);
+		delete(folder);
+	}
+
+	public void testConcurrentOperations() throws Exception {
+		final ProvisioningMetrics operations = new ProvisioningMetrics(true, null);
+		final ProvisioningMetrics.Operation first = operations.startOperation("first");
+		final ProvisioningMetrics.Operation[] second = new ProvisioningMetrics.Operation[1];
+		Thread thread = new Thread() {
+			public void run() {
+				second[0] = operations.startOperation("second");
+				operations.count("second", 1);
+				// work handed over by the first operation
+				ProvisioningMetrics.Operation previous = operations.setCurrentOperation(first);
+				operations.count("handed", 1);
+				operations.setCurrentOperation(previous);
+				operations.endOperation(second[0]);
+			}
+		};
+		thread.start();
+		thread.join();
+		operations.count("first", 1);
+		ProvisioningMetrics.Operation nested = operations.startOperation("nested");
+		operations.count("nested", 1);
+		operations.endOperation(nested);
+		operations.endOperation(first);
+		operations.count("after", 1);
+
+		assertEquals("1.0", new HashSet<String>(Arrays.asList("first", "handed", "nested")), first.getMetrics().keySet());
+		assertEquals("1.1", Collections.singleton("second"), second[0].getMetrics().keySet());
+		assertEquals("1.2", Collections.singleton("nested"), nested.getMetrics().keySet());
+		assertNull("1.3", operations.getCurrentOperation());
+		assertEquals("1.4", 5, operations.getMetrics().size());
+	}
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.core;
+
+import junit.framework.TestCase;
+import org.eclipse.equinox.internal.p2.persistence.StringPool;
+
+public class StringPoolTest extends TestCase {
+	public void testShare() {
+		StringPool pool = new StringPool();
+		String first = new String("org.eclipse.equinox.p2.iu");
+		String second = new String("org.eclipse.equinox.p2.iu");
+		assertSame(first, pool.share(first));
+		assertSame(first, pool.share(second));
+		assertNull(pool.share(null));
+		assertEquals("", pool.share(""));
+	}
+
+	public void testBounded() {
+		// all strings use the same slot
+		StringPool pool = new StringPool(1);
+		String a = new String("a");
+		String b = new String("b");
+		assertSame(a, pool.share(a));
+		assertSame(b, pool.share(b));
+		assertSame(b, pool.share(new String("b")));
+		// a was replaced by b, so an equal string is returned as is
+		String otherA = new String("a");
+		assertSame(otherA, pool.share(otherA));
+	}
+
+	public void testConcurrentUse() throws InterruptedException {
+		final StringPool pool = new StringPool(64);
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 100000; j++) {
+							String value = Integer.toString(j % 1000);
+							assertEquals(value, pool.share(value));
+						}
+					} catch (Throwable t) {
+						failure[0] = t;
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++)
+			threads[i].join();
+		assertNull(failure[0]);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,6 +14,7 @@ import java.util.*;
 import org.eclipse.equinox.internal.p2.director.OperationGenerator;
 import org.eclipse.equinox.internal.p2.engine.*;
 import org.eclipse.equinox.internal.p2.metadata.ResolvedInstallableUnit;
+import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
@@ -497,6 +498,88 @@ public class OperationGenerationTest extends AbstractProvisioningTest {
 		assertContainsInstallableUnitOperand("3.0", operands, new InstallableUnitOperand(fromResolved, toResolved));
 	}
 
+	public void testSortedOperationSameAsOperation() {
+		IProfile profile = createProfile("temp");
+		for (int seed = 0; seed < 200; seed++) {
+			Random random = new Random(seed);
+			List<IInstallableUnit> pool = new ArrayList<IInstallableUnit>();
+			for (int i = 0; i < 40; i++)
+				pool.add(createRandomIU(random));
+			List<IInstallableUnit> from = createRandomState(random, pool);
+			List<IInstallableUnit> to = createRandomState(random, pool);
+
+			ProvisioningPlan expected = (ProvisioningPlan) getEngine().createPlan(profile, null);
+			new OperationGenerator(expected).generateOperation(from, to);
+			ProvisioningPlan actual = (ProvisioningPlan) getEngine().createPlan(profile, null);
+			new OperationGenerator(actual).generateSortedOperation(OperationGenerator.sort(from), OperationGenerator.sort(to));
+			assertSameOperands("seed " + seed, expected.getOperands(), actual.getOperands());
+		}
+	}
+
+	private IInstallableUnit createRandomIU(Random random) {
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		String id = "iu" + random.nextInt(15);
+		Version version = Version.createOSGi(1 + random.nextInt(4), 0, 0);
+		desc.setId(id);
+		desc.setVersion(version);
+		if (random.nextInt(3) > 0) {
+			// sometimes an update of another unit
+			String updatedId = random.nextInt(5) == 0 ? "iu" + random.nextInt(15) : id;
+			desc.setUpdateDescriptor(MetadataFactory.createUpdateDescriptor(updatedId, new VersionRange(Version.emptyVersion, true, version, false), IUpdateDescriptor.NORMAL, null));
+		}
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	private List<IInstallableUnit> createRandomState(Random random, List<IInstallableUnit> pool) {
+		List<IInstallableUnit> state = new ArrayList<IInstallableUnit>();
+		for (IInstallableUnit iu : pool) {
+			if (random.nextInt(3) == 0)
+				continue;
+			int copies = random.nextInt(5) == 0 ? 2 : 1;
+			for (int i = 0; i < copies; i++) {
+				int fragmentCount = random.nextInt(3);
+				IInstallableUnitFragment[] fragments = new IInstallableUnitFragment[fragmentCount];
+				for (int j = 0; j < fragmentCount; j++)
+					fragments[j] = createIUFragment(iu, "cu" + random.nextInt(3), Version.createOSGi(1, 0, 0));
+				state.add(fragmentCount == 0 && random.nextBoolean() ? iu : MetadataFactory.createResolvedInstallableUnit(iu, fragments));
+			}
+		}
+		Collections.shuffle(state, random);
+		return state;
+	}
+
+	//The configuration changes come last, in any order
+	private void assertSameOperands(String message, Operand[] expected, Operand[] actual) {
+		assertEquals(message, expected.length, actual.length);
+		List<InstallableUnitOperand> expectedConfigurations = new ArrayList<InstallableUnitOperand>();
+		List<InstallableUnitOperand> actualConfigurations = new ArrayList<InstallableUnitOperand>();
+		for (int i = 0; i < expected.length; i++) {
+			InstallableUnitOperand expectedOperand = (InstallableUnitOperand) expected[i];
+			InstallableUnitOperand actualOperand = (InstallableUnitOperand) actual[i];
+			if (expectedOperand.first() != null && expectedOperand.first().equals(expectedOperand.second())) {
+				expectedConfigurations.add(expectedOperand);
+				actualConfigurations.add(actualOperand);
+			} else {
+				assertTrue(message, expectedConfigurations.isEmpty());
+				assertSameOperand(message, expectedOperand, actualOperand);
+			}
+		}
+		Comparator<InstallableUnitOperand> comparator = new Comparator<InstallableUnitOperand>() {
+			public int compare(InstallableUnitOperand o1, InstallableUnitOperand o2) {
+				return o1.first().compareTo(o2.first());
+			}
+		};
+		Collections.sort(expectedConfigurations, comparator);
+		Collections.sort(actualConfigurations, comparator);
+		for (int i = 0; i < expectedConfigurations.size(); i++)
+			assertSameOperand(message, expectedConfigurations.get(i), actualConfigurations.get(i));
+	}
+
+	private void assertSameOperand(String message, InstallableUnitOperand expected, InstallableUnitOperand actual) {
+		assertSame(message, expected.first(), actual.first());
+		assertSame(message, expected.second(), actual.second());
+	}
+
 	public void assertContains(String message, Object[] searched, Object expected) {
 		for (int i = 0; i < searched.length; i++) {
 			if (searched[i].equals(expected))
@@ -10,7 +10,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.tests.directorywatcher;
 
-import java.io.File;
+import java.io.*;
 import java.util.Collection;
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -149,6 +149,69 @@ public class RepositoryListenerTest extends AbstractDirectoryWatcherTest {
 		assertTrue("11.0", jaredDescriptor != null && directoryDescriptor != null);
 	}
 
+	/*
+	 * Publish the same bundles with a second listener, which restores them from the
+	 * publish cache, and ensure that the repositories hold the same content.
+	 */
+	public void testRepublishUnchangedBundles() {
+		File folder = getTempFolder();
+		toRemove.add(folder);
+		copy("1.0", getTestData("1.1", "/testData/directorywatcher1"), folder);
+		copy("1.2", getTestData("1.3", "/testData/directorywatcher2"), folder);
+
+		TestRepositoryWatcher watcher = TestRepositoryWatcher.createWatcher(folder);
+		watcher.poll();
+		IInstallableUnit[] ius = watcher.getInstallableUnits();
+		assertEquals("2.0", 3, ius.length);
+		assertEquals("2.1", 3, watcher.getArtifactKeys().length);
+
+		// overwrite a jar without changing its size and time, so only a cache hit can publish it
+		File jar = new File(folder, "org.eclipse.osgi.services_3.1.200.v20070605.jar");
+		long lastModified = jar.lastModified();
+		long length = jar.length();
+		try {
+			OutputStream out = new FileOutputStream(jar);
+			try {
+				out.write(new byte[(int) length]);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			fail("2.2", e);
+		}
+		assertTrue("2.3", jar.setLastModified(lastModified));
+
+		TestRepositoryWatcher other = TestRepositoryWatcher.createWatcher(folder);
+		other.poll();
+		IInstallableUnit[] otherIUs = other.getInstallableUnits();
+		assertEquals("3.0", ius.length, otherIUs.length);
+		boolean restored = false;
+		for (int i = 0; i < otherIUs.length; i++)
+			restored |= otherIUs[i].getId().equals("org.eclipse.osgi.services") && jar.getAbsolutePath().equals(otherIUs[i].getProperty("file.name"));
+		assertTrue("3.0.1", restored);
+		for (int i = 0; i < otherIUs.length; i++) {
+			IInstallableUnit iu = otherIUs[i];
+			assertNotNull("3.1 " + iu, iu.getProperty("file.name"));
+			assertNotNull("3.2 " + iu, iu.getProperty("file.lastModified"));
+			assertEquals("3.3 " + iu, 1, iu.getArtifacts().size());
+		}
+		IArtifactKey[] keys = other.getArtifactKeys();
+		assertEquals("4.0", 3, keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			IArtifactDescriptor[] descriptors = other.getArtifactDescriptors(keys[i]);
+			assertEquals("4.1 " + keys[i], 1, descriptors.length);
+			SimpleArtifactDescriptor descriptor = (SimpleArtifactDescriptor) descriptors[0];
+			File file = new File(descriptor.getRepositoryProperty("file.name"));
+			assertTrue("4.2 " + keys[i], file.getAbsolutePath().startsWith(folder.getAbsolutePath()));
+		}
+
+		// removed bundles are still removed from the repositories
+		removeContents(getTestData("5.0", "/testData/directorywatcher2"), folder);
+		other.poll();
+		assertEquals("5.1", 2, other.getInstallableUnits().length);
+		assertEquals("5.2", 2, other.getArtifactKeys().length);
+	}
+
 	/*
 	 * Test to ensure that we convert bundles with Eclipse 2.x-style plugin.xml files into 
 	 * proper OSGi manifest files so the bundle can be installed
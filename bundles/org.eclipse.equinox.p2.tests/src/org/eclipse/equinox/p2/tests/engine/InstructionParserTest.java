@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2005, 2010 IBM Corporation and others.
+ *  Copyright (c) 2005, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -17,6 +17,7 @@ import junit.framework.TestSuite;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.equinox.internal.p2.engine.ActionManager;
 import org.eclipse.equinox.internal.p2.engine.InstructionParser;
+import org.eclipse.equinox.internal.p2.engine.ParameterizedProvisioningAction;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
 import org.eclipse.equinox.p2.engine.spi.Touchpoint;
 import org.eclipse.equinox.p2.metadata.*;
@@ -176,4 +177,34 @@ public class InstructionParserTest extends AbstractProvisioningTest {
 		}
 		fail();
 	}
+
+	public void testSameInstructionParsedAgain() {
+		ActionManager actionManager = new ActionManager();
+		ITouchpointInstruction instruction = MetadataFactory.createTouchpointInstruction("goodAction(a:1, b:2); goodAction()", null);
+		List<ProvisioningAction> first = new InstructionParser(actionManager).parseActions(instruction, TOUCHPOINT_TYPE);
+		List<ProvisioningAction> second = new InstructionParser(actionManager).parseActions(MetadataFactory.createTouchpointInstruction("goodAction(a:1, b:2); goodAction()", null), TOUCHPOINT_TYPE);
+		assertEquals(2, second.size());
+		for (int i = 0; i < first.size(); i++) {
+			ParameterizedProvisioningAction firstAction = (ParameterizedProvisioningAction) first.get(i);
+			ParameterizedProvisioningAction secondAction = (ParameterizedProvisioningAction) second.get(i);
+			// actions keep state, so each unit gets its own
+			assertNotSame(firstAction.getAction(), secondAction.getAction());
+			assertEquals(TestAction.class, secondAction.getAction().getClass());
+			assertEquals(firstAction.getActionText(), secondAction.getActionText());
+			assertEquals(firstAction.getParameters(), secondAction.getParameters());
+		}
+		assertEquals("1", ((ParameterizedProvisioningAction) second.get(0)).getParameters().get("a"));
+	}
+
+	public void testBadParameterParsedAgain() {
+		ActionManager actionManager = new ActionManager();
+		for (int i = 0; i < 2; i++) {
+			try {
+				new InstructionParser(actionManager).parseActions(MetadataFactory.createTouchpointInstruction("goodAction(a:1, badParameter)", null), TOUCHPOINT_TYPE);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2011 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -1095,4 +1095,57 @@ public class ProfileRegistryTest extends AbstractProvisioningTest {
 		assertEquals("c", result.get("a"));
 		assertEquals("yy", result.get("zz"));
 	}
+
+	public void testInstallableUnitCountFromHistoryIndex() throws ProvisionException {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		Profile profile = (Profile) profileRegistry.addProfile(getName());
+		profile.addInstallableUnit(createIU("a"));
+		saveProfile(profileRegistry, profile);
+		profile.addInstallableUnit(createIU("b"));
+		saveProfile(profileRegistry, profile);
+
+		long[] timestamps = profileRegistry.listProfileTimestamps(getName());
+		assertEquals("1.0", 3, timestamps.length);
+		File index = new File(new File(folder, getName() + ".profile"), "history.index");
+		assertTrue("1.1", index.exists());
+		for (int i = 0; i < timestamps.length; i++)
+			assertEquals("1.2." + i, i, profileRegistry.getInstallableUnitCount(getName(), timestamps[i]));
+		assertEquals("1.3", -1, profileRegistry.getInstallableUnitCount(getName(), 1));
+
+		// a missing index is built again from the profile files
+		assertTrue("2.0", index.delete());
+		profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		for (int i = 0; i < timestamps.length; i++)
+			assertEquals("2.1." + i, i, profileRegistry.getInstallableUnitCount(getName(), timestamps[i]));
+		assertTrue("2.2", index.exists());
+
+		// removed states are removed from the index
+		profileRegistry.removeProfile(getName(), timestamps[0]);
+		assertEquals("3.0", -1, profileRegistry.getInstallableUnitCount(getName(), timestamps[0]));
+		assertEquals("3.1", 2, profileRegistry.getInstallableUnitCount(getName(), timestamps[2]));
+	}
+
+	public void testProfilesLoadedSeparately() throws ProvisionException {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		profileRegistry.addProfile("parent");
+		profileRegistry.addProfile("child", null, "parent");
+		profileRegistry.addProfile("other");
+		assertEquals("1.0", Collections.singletonList("child"), ((Profile) profileRegistry.getProfile("parent")).getSubProfileIds());
+		assertEquals("1.1", "parent", ((Profile) profileRegistry.getProfile("child")).getParentProfile().getProfileId());
+
+		profileRegistry.removeProfile("other");
+		assertNull("2.0", profileRegistry.getProfile("other"));
+		assertNotNull("2.1", profileRegistry.getProfile("parent"));
+
+		profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		profileRegistry.addProfile("another");
+		assertTrue("3.0", profileRegistry.containsProfile("child"));
+		assertEquals("3.1", 3, profileRegistry.getProfiles().length);
+		profileRegistry.resetProfiles();
+		assertNotNull("3.2", profileRegistry.getProfile("another"));
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -19,6 +19,7 @@ import org.eclipse.equinox.internal.p2.engine.*;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.engine.IProfileRegistry;
+import org.eclipse.equinox.p2.engine.query.IUProfilePropertyQuery;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.query.*;
@@ -149,6 +150,37 @@ public class ProfileTest extends AbstractProvisioningTest {
 		assertNull(registry.getProfile(PROFILE_NAME));
 	}
 
+	public void testSnapshotIsIndependent() {
+		Profile profile = new Profile(getAgent(), PROFILE_NAME, null, null);
+		IInstallableUnit a = createIU("a");
+		IInstallableUnit b = createIU("b");
+		profile.addInstallableUnit(a);
+		profile.setInstallableUnitProperty(a, "key", "value");
+		profile.setProperty("property", "value");
+
+		Profile snapshot = profile.snapshot();
+		assertFalse(snapshot.isChanged());
+		snapshot.addInstallableUnit(b);
+		snapshot.setInstallableUnitProperty(a, "key", "changed");
+		snapshot.setProperty("property", "changed");
+		assertEquals(1, queryResultSize(profile.query(QueryUtil.createIUAnyQuery(), null)));
+		assertEquals("value", profile.getInstallableUnitProperty(a, "key"));
+		assertEquals("value", profile.getProperty("property"));
+
+		profile.removeInstallableUnit(a);
+		profile.setProperty("other", "value");
+		assertEquals(2, queryResultSize(snapshot.query(QueryUtil.createIUAnyQuery(), null)));
+		assertEquals("changed", snapshot.getInstallableUnitProperty(a, "key"));
+		assertNull(snapshot.getProperty("other"));
+
+		// the properties of removed units are not part of a snapshot
+		Profile second = profile.snapshot();
+		assertTrue(second.query(QueryUtil.createIUAnyQuery(), null).isEmpty());
+		assertNull(second.getInstallableUnitProperty(a, "key"));
+		assertTrue(second.query(new IUProfilePropertyQuery("key", "value"), null).isEmpty());
+		assertEquals("value", profile.getInstallableUnitProperty(a, "key"));
+	}
+
 	private static String PROFILE_TEST_TARGET = "profileTest";
 	private static Version PROFILE_TEST_VERSION = Version.create("0.0.1");
 
@@ -11,8 +11,11 @@
 package org.eclipse.equinox.p2.tests.jarprocessor;
 
 import java.io.*;
+import java.util.*;
+import java.util.zip.*;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.equinox.internal.p2.jarprocessor.PackStep;
+import org.eclipse.equinox.internal.p2.jarprocessor.Utils;
 import org.eclipse.equinox.internal.p2.jarprocessor.verifier.Verifier;
 import org.eclipse.equinox.internal.p2.jarprocessor.verifier.VerifyStep;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
@@ -125,4 +128,73 @@ public class JarProcessorTests extends AbstractProvisioningTest {
 			newOut.close();
 		}
 	}
+
+	public void testParallelZipProcessing() throws Exception {
+		if (!PackStep.canPack())
+			return;
+
+		File workingDir = getTestFolder("testParallelZipProcessing");
+		String install = Platform.getInstallLocation().getURL().getPath();
+		File plugins = new File(install, "plugins");
+		File[] files = plugins.listFiles(new FileFilter() {
+			public boolean accept(File pathname) {
+				String name = pathname.getName();
+				return pathname.isFile() && name.endsWith(".jar") && name.startsWith("org.eclipse.equinox.p2.") && name.indexOf(".source") == -1;
+			}
+		});
+
+		File zip = new File(workingDir, "site.zip");
+		ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			for (int i = 0; i < files.length; i++) {
+				zipOut.putNextEntry(new ZipEntry("plugins/" + files[i].getName()));
+				InputStream in = new FileInputStream(files[i]);
+				try {
+					Utils.transferStreams(in, zipOut, false);
+				} finally {
+					in.close();
+				}
+				zipOut.closeEntry();
+			}
+		} finally {
+			zipOut.close();
+		}
+
+		PrintStream oldOut = System.out;
+		PrintStream newOut = new PrintStream(new FileOutputStream(workingDir + "/out.out"));
+		System.setOut(newOut);
+		try {
+			Map<String, Long> serial = processZip(zip, new File(workingDir, "serial"), 1);
+			Map<String, Long> parallel = processZip(zip, new File(workingDir, "parallel"), 4);
+			assertFalse(serial.isEmpty());
+			assertEquals(new ArrayList<String>(serial.keySet()), new ArrayList<String>(parallel.keySet()));
+			assertEquals(serial, parallel);
+		} finally {
+			System.setOut(oldOut);
+			newOut.close();
+		}
+	}
+
+	private Map<String, Long> processZip(File zip, File outputDir, int threads) throws IOException {
+		Options options = new Options();
+		options.pack = true;
+		options.processAll = true;
+		options.threads = threads;
+		options.outputDir = outputDir.getAbsolutePath();
+		options.input = zip;
+		new JarProcessorExecutor().runJarProcessor(options);
+
+		// entry names in order and their sizes
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		ZipFile output = new ZipFile(new File(outputDir, zip.getName()));
+		try {
+			for (Enumeration<? extends ZipEntry> entries = output.entries(); entries.hasMoreElements();) {
+				ZipEntry entry = entries.nextElement();
+				result.put(entry.getName(), Long.valueOf(entry.getSize()));
+			}
+		} finally {
+			output.close();
+		}
+		return result;
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2011 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -27,6 +27,8 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(StandaloneSerializationTest.class);
 		suite.addTestSuite(MetadataRepositoryManagerTest.class);
 		suite.addTestSuite(NoFailOver.class);
+		suite.addTestSuite(ParallelMetadataParserTest.class);
+		suite.addTestSuite(ParallelMetadataWriterTest.class);
 		suite.addTestSuite(SiteIndexFileTest.class);
 		//		suite.addTestSuite(ResumeDownloadTest.class);
 		// DISABLING until we get a test build
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.repository;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.repository.SimpleMetadataRepositoryFactory;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.ParallelUnitsParser;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.io.IUSerializer;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.IRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that the units of a metadata repository parsed on several threads are the units
+ * parsed on one thread.
+ */
+public class ParallelMetadataParserTest extends AbstractProvisioningTest {
+	private static final int IU_COUNT = 3000;
+	private File repoLocation;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		repoLocation = getTempFolder();
+		Map properties = new HashMap();
+		properties.put(IRepository.PROP_COMPRESSED, "false");
+		IMetadataRepository repository = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(IU_COUNT);
+		for (int i = 0; i < IU_COUNT; i++)
+			ius.add(createUnit(i));
+		repository.addInstallableUnits(ius);
+		assertTrue(getContentFile().length() > 1024 * 1024);
+	}
+
+	protected void tearDown() throws Exception {
+		getMetadataRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	private IInstallableUnit createUnit(int i) {
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		String id = "test.iu" + i;
+		Version version = Version.createOSGi(1, i % 10, i);
+		desc.setId(id);
+		desc.setVersion(version);
+		desc.setProperty(IInstallableUnit.PROP_NAME, "Unit <" + i + "> & \"" + (char) 0xe9 + "\"");
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, id, version)});
+		desc.setRequirements(new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "test.iu" + (i + 1), new VersionRange("[1.0.0,2.0.0)"), null, false, false)});
+		desc.addTouchpointData(MetadataFactory.createTouchpointData(Collections.singletonMap("install", "installBundle(bundle:${artifact});")));
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	private File getContentFile() {
+		return new File(repoLocation, "content.xml");
+	}
+
+	private String loadUnits(int threads) throws Exception {
+		System.setProperty(ParallelUnitsParser.PROP_PARSER_THREADS, Integer.toString(threads));
+		try {
+			SimpleMetadataRepositoryFactory factory = new SimpleMetadataRepositoryFactory();
+			factory.setAgent(getAgent());
+			IMetadataRepository repository = factory.load(repoLocation.toURI(), 0, new NullProgressMonitor());
+			Set<IInstallableUnit> units = repository.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+			assertEquals(IU_COUNT, units.size());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			new IUSerializer(out).write(units);
+			return out.toString("UTF-8");
+		} finally {
+			System.getProperties().remove(ParallelUnitsParser.PROP_PARSER_THREADS);
+		}
+	}
+
+	private boolean hasUnitRanges(byte[] document) throws IOException {
+		return new ParallelUnitsParser(new ByteArrayInputStream(document), 4).hasUnitRanges();
+	}
+
+	private byte[] readContentFile() throws IOException {
+		InputStream in = new FileInputStream(getContentFile());
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	public void testSameUnitsAsSerialParser() throws Exception {
+		assertTrue(hasUnitRanges(readContentFile()));
+		assertEquals(loadUnits(1), loadUnits(4));
+	}
+
+	public void testMarkupInCommentsAndProcessingInstructions() throws Exception {
+		String serial = loadUnits(1);
+		String content = new String(readContentFile(), "UTF-8");
+		StringBuffer buffer = new StringBuffer(content.length() + IU_COUNT * 64);
+		int count = 0;
+		int start = 0;
+		int end;
+		while ((end = content.indexOf("</unit>", start)) >= 0) {
+			end += "</unit>".length();
+			buffer.append(content.substring(start, end));
+			if (count++ % 2 == 0)
+				buffer.append("<!-- </unit></units> <unit> -->");
+			else
+				buffer.append("<?test </units>?>");
+			start = end;
+		}
+		buffer.append(content.substring(start));
+		byte[] document = buffer.toString().getBytes("UTF-8");
+		assertTrue(hasUnitRanges(document));
+		OutputStream out = new FileOutputStream(getContentFile());
+		try {
+			out.write(document);
+		} finally {
+			out.close();
+		}
+		assertEquals(serial, loadUnits(4));
+	}
+
+	public void testNotSplit() throws Exception {
+		String content = new String(readContentFile(), "UTF-8");
+		// truncated
+		assertFalse(new ParallelUnitsParser(new ByteArrayInputStream(content.substring(0, 10000).getBytes("UTF-8")), 4).hasUnitRanges());
+		// other encodings
+		String utf16 = content.replaceFirst("encoding='UTF-8'", "encoding='UTF-16'");
+		assertFalse(utf16.equals(content));
+		assertFalse(hasUnitRanges(utf16.getBytes("UTF-16")));
+		// entities
+		assertFalse(hasUnitRanges(content.replaceFirst("<repository", "<!DOCTYPE repository [<!ENTITY e 'e'>]><repository").getBytes("UTF-8")));
+		assertTrue(hasUnitRanges(content.getBytes("UTF-8")));
+	}
+
+	public void testNotSplitDocumentStreamed() throws Exception {
+		String content = new String(readContentFile(), "UTF-8");
+		byte[] document = content.replaceFirst("<repository", "<!DOCTYPE repository [<!ENTITY e 'e'>]><repository").getBytes("UTF-8");
+		final int[] read = new int[1];
+		InputStream input = new FilterInputStream(new ByteArrayInputStream(document)) {
+			public int read(byte[] b, int off, int len) throws IOException {
+				int count = super.read(b, off, len);
+				if (count > 0)
+					read[0] += count;
+				return count;
+			}
+		};
+		ParallelUnitsParser parser = new ParallelUnitsParser(input, 4);
+		assertFalse(parser.hasUnitRanges());
+		// only a prefix is read before the document is handed to the serial parser
+		assertTrue(read[0] < document.length);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = parser.getDocument();
+		byte[] buffer = new byte[8192];
+		int count;
+		while ((count = in.read(buffer)) != -1)
+			out.write(buffer, 0, count);
+		assertTrue(Arrays.equals(document, out.toByteArray()));
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataWriter;
+import org.eclipse.equinox.internal.p2.persistence.XMLWriter;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that installable units serialized on several threads are written exactly as
+ * they are written on one thread, and that the buffered writer escapes text as
+ * {@link XMLWriter#escape(String)} does.
+ */
+public class ParallelMetadataWriterTest extends AbstractProvisioningTest {
+	private static final int IU_COUNT = 3000;
+	// markup, white space escaped as character references, a non-BMP character,
+	// illegal white space and illegal characters
+	private static final String SPECIAL_CHARS = "<tag attr=\"a\" other='b'> & &amp; \t\n\r \uD834\uDD1E \u000B\u001C \u0001\u0000\uFFFE\uFFFF \u00e9\u20ac";
+
+	private IInstallableUnit createUnit(int i) {
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		String id = "test.iu" + i;
+		Version version = Version.createOSGi(1, i % 10, i);
+		desc.setId(id);
+		desc.setVersion(version);
+		desc.setProperty(IInstallableUnit.PROP_NAME, "Unit " + i + SPECIAL_CHARS);
+		// longer than the buffer of the writer, so that escaping crosses buffer boundaries
+		if (i % 100 == 0) {
+			StringBuffer value = new StringBuffer();
+			while (value.length() < 20000)
+				value.append(SPECIAL_CHARS).append(i);
+			desc.setProperty("test.long", value.toString());
+		}
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, id, version)});
+		desc.setRequirements(new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "test.iu" + (i + 1), new VersionRange("[1.0.0,2.0.0)"), null, false, false)});
+		desc.addTouchpointData(MetadataFactory.createTouchpointData(Collections.singletonMap("install", "installBundle(bundle:${artifact});" + SPECIAL_CHARS)));
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	private byte[] writeUnits(List<IInstallableUnit> units, int threads) throws Exception {
+		System.setProperty(MetadataWriter.PROP_WRITER_THREADS, Integer.toString(threads));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			MetadataWriter writer = new MetadataWriter(out, null);
+			writer.start("repository");
+			writer.writeInstallableUnits(units.iterator(), units.size());
+			writer.end("repository");
+			writer.flush();
+			return out.toByteArray();
+		} finally {
+			System.getProperties().remove(MetadataWriter.PROP_WRITER_THREADS);
+		}
+	}
+
+	public void testSameOutputAsSerialWriter() throws Exception {
+		List<IInstallableUnit> units = new ArrayList<IInstallableUnit>(IU_COUNT);
+		for (int i = 0; i < IU_COUNT; i++)
+			units.add(createUnit(i));
+		byte[] serial = writeUnits(units, 1);
+		assertTrue("1.0", serial.length > 1024 * 1024);
+		assertTrue("1.1", Arrays.equals(serial, writeUnits(units, 4)));
+		assertTrue("1.2", Arrays.equals(serial, writeUnits(units, 7)));
+	}
+
+	public void testEscapedAsEscape() throws Exception {
+		StringBuffer value = new StringBuffer();
+		while (value.length() < 20000)
+			value.append(SPECIAL_CHARS);
+		String text = value.toString();
+		String escaped = XMLWriter.escape(text);
+		assertTrue("1.0", escaped.indexOf("&lt;tag attr=&quot;a&quot; other=&apos;b&apos;&gt; &amp; &amp;amp; &#x9;&#xA;&#xD;      \u00e9\u20ac") >= 0);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XMLWriter writer = new XMLWriter(out, null);
+		writer.start("test");
+		writer.attribute("value", text);
+		writer.cdata(text);
+		writer.end();
+		writer.flush();
+		String document = out.toString("UTF-8");
+		assertTrue("2.0", document.indexOf("value='" + escaped + "'") >= 0);
+		assertTrue("2.1", document.indexOf(escaped + System.getProperty("line.separator")) >= 0);
+	}
+}
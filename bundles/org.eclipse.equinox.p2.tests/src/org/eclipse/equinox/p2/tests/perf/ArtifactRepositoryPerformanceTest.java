@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.File;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.*;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.*;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+
+/**
+ * Performance tests for artifact repositories
+ */
+public class ArtifactRepositoryPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int ARTIFACT_COUNT = 50000;
+	private static final int READER_COUNT = 8;
+	private static final int WRITES = 5;
+	private static final String PROP_INDEX = "eclipse.p2.artifactRepository.index";
+	protected File repoLocation;
+	SimpleArtifactRepository repository;
+	IArtifactDescriptor[] descriptors;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		repoLocation = new File(tempDir, "ArtifactRepositoryPerformanceTest");
+		delete(repoLocation);
+		repoLocation.mkdir();
+		repository = (SimpleArtifactRepository) getArtifactRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		descriptors = new IArtifactDescriptor[ARTIFACT_COUNT];
+		for (int i = 0; i < ARTIFACT_COUNT; i++) {
+			String classifier = i % 10 == 0 ? "org.eclipse.update.feature" : "osgi.bundle";
+			ArtifactDescriptor descriptor = new ArtifactDescriptor(new ArtifactKey(classifier, "org.eclipse.artifact" + i, Version.createOSGi(1, 0, i)));
+			descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_SIZE, Integer.toString(1000 + i));
+			descriptor.setProperty(IArtifactDescriptor.ARTIFACT_SIZE, Integer.toString(1000 + i));
+			descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_MD5, Integer.toHexString(i * 31));
+			descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_CONTENTTYPE, IArtifactDescriptor.TYPE_ZIP);
+			descriptors[i] = descriptor;
+		}
+		repository.addDescriptors(descriptors, null);
+	}
+
+	protected void tearDown() throws Exception {
+		getArtifactRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	public void testLocationResolution() {
+		new PerformanceTestRunner() {
+			protected void test() {
+				for (int i = 0; i < descriptors.length; i++)
+					repository.getLocation(descriptors[i]);
+			}
+		}.run(this, "Test resolve artifact locations for " + ARTIFACT_COUNT + " artifacts", REPEATS, 10);
+	}
+
+	public void testConcurrentLookupsWithWriter() {
+		new PerformanceTestRunner() {
+			IArtifactDescriptor[] added = new IArtifactDescriptor[WRITES];
+
+			protected void setUp() {
+				for (int i = 0; i < WRITES; i++)
+					added[i] = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "org.eclipse.added" + i, Version.createOSGi(1, 0, 0)));
+			}
+
+			protected void tearDown() {
+				repository.removeDescriptors(added, new NullProgressMonitor());
+			}
+
+			protected void test() {
+				Thread writer = new Thread() {
+					public void run() {
+						for (int i = 0; i < WRITES; i++)
+							repository.addDescriptor(added[i], new NullProgressMonitor());
+					}
+				};
+				Thread[] readers = new Thread[READER_COUNT];
+				for (int i = 0; i < readers.length; i++) {
+					readers[i] = new Thread() {
+						public void run() {
+							for (int j = 0; j < descriptors.length; j++) {
+								IArtifactDescriptor descriptor = descriptors[j];
+								repository.contains(descriptor.getArtifactKey());
+								repository.getArtifactDescriptors(descriptor.getArtifactKey());
+								repository.getLocation(descriptor);
+							}
+						}
+					};
+				}
+				writer.start();
+				for (int i = 0; i < readers.length; i++)
+					readers[i].start();
+				try {
+					for (int i = 0; i < readers.length; i++)
+						readers[i].join();
+					writer.join();
+				} catch (InterruptedException e) {
+					fail("1.99", e);
+				}
+			}
+		}.run(this, "Test " + READER_COUNT + " readers and 1 writer on " + ARTIFACT_COUNT + " artifacts", REPEATS, 1);
+	}
+
+	public void testLoadFromXML() {
+		loadRepository("Test load " + ARTIFACT_COUNT + " artifacts from XML", false);
+	}
+
+	public void testLoadFromIndex() {
+		loadRepository("Test load " + ARTIFACT_COUNT + " artifacts from the binary index", true);
+	}
+
+	/**
+	 * The loaded repository is kept until the end of each iteration so that the
+	 * used heap measured by the performance meter includes it.
+	 */
+	private void loadRepository(String name, final boolean index) {
+		if (index)
+			System.setProperty(PROP_INDEX, Boolean.TRUE.toString());
+		try {
+			repository.save();
+		} finally {
+			System.getProperties().remove(PROP_INDEX);
+		}
+		assertEquals("1.0", index, SimpleArtifactRepositoryIndex.getIndexFile(new File(repoLocation, "artifacts.xml")).exists());
+		final SimpleArtifactRepositoryFactory factory = new SimpleArtifactRepositoryFactory();
+		factory.setAgent(getAgent());
+		new PerformanceTestRunner() {
+			IArtifactRepository loaded;
+
+			protected void tearDown() {
+				assertEquals("1.1", ARTIFACT_COUNT, ((SimpleArtifactRepository) loaded).getDescriptors().size());
+				loaded = null;
+			}
+
+			protected void test() {
+				try {
+					loaded = factory.load(repoLocation.toURI(), 0, new NullProgressMonitor());
+				} catch (ProvisionException e) {
+					fail("1.99", e);
+				}
+			}
+		}.run(this, name, REPEATS, 1);
+	}
+}
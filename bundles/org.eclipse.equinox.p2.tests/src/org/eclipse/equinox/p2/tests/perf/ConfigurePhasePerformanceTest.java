@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.Collections;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+
+/**
+ * Performance tests for the configure phase of units sharing the same touchpoint instruction.
+ */
+public class ConfigurePhasePerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int IU_COUNT = 3000;
+
+	IInstallableUnit[] ius;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		ius = new IInstallableUnit[IU_COUNT];
+		for (int i = 0; i < ius.length; i++)
+			ius[i] = generateConfiguredIU(i);
+	}
+
+	protected IInstallableUnit generateConfiguredIU(int i) {
+		MetadataFactory.InstallableUnitDescription desc = new MetadataFactory.InstallableUnitDescription();
+		desc.setId("org.eclipse.someiu" + i);
+		desc.setVersion(Version.createOSGi(1, 1, i));
+		desc.addTouchpointData(MetadataFactory.createTouchpointData(Collections.singletonMap("configure", "test1.test(name:value, unit:${iu});test1.test(name:other);")));
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	public void testConfigureUnits() {
+		new PerformanceTestRunner() {
+			IProfile profile;
+			IProvisioningPlan plan;
+			int count;
+
+			protected void setUp() {
+				profile = createProfile(getName() + count++);
+				plan = getEngine().createPlan(profile, null);
+				for (int i = 0; i < ius.length; i++)
+					plan.addInstallableUnit(ius[i]);
+			}
+
+			protected void test() {
+				assertOK("1.0", getEngine().perform(plan, PhaseSetFactory.createPhaseSetIncluding(new String[] {PhaseSetFactory.PHASE_CONFIGURE}), new NullProgressMonitor()));
+			}
+		}.run(this, "Test configure phase of " + IU_COUNT + " units", REPEATS, 1);
+	}
+}
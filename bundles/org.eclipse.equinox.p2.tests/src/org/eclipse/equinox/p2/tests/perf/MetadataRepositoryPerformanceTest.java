@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,7 +13,11 @@ package org.eclipse.equinox.p2.tests.perf;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.metadata.repository.SimpleMetadataRepositoryFactory;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.ParallelUnitsParser;
+import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.QueryUtil;
@@ -50,7 +54,7 @@ public class MetadataRepositoryPerformanceTest extends ProvisioningPerformanceTe
 			IQuery[] queries = new IQuery[IU_COUNT];
 
 			protected void setUp() {
-				List<IInstallableUnit> ius = new ArrayList(IU_COUNT);
+				List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(IU_COUNT);
 				for (int i = 0; i < IU_COUNT; i++) {
 					IInstallableUnit iu = generateIU(i);
 					queries[i] = QueryUtil.createIUQuery(iu.getId(), iu.getVersion());
@@ -69,4 +73,69 @@ public class MetadataRepositoryPerformanceTest extends ProvisioningPerformanceTe
 			}
 		}.run(this, "Test query local metadata repo for " + IU_COUNT + " ius", REPEATS, 10);
 	}
+
+	public void testSaveLocalRepository() {
+		final int IU_COUNT = 20000;
+		new PerformanceTestRunner() {
+			int saves = 0;
+
+			protected void setUp() {
+				List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(IU_COUNT);
+				for (int i = 0; i < IU_COUNT; i++)
+					ius.add(generateIU(i));
+				repository.addInstallableUnits(ius);
+			}
+
+			protected void tearDown() {
+			}
+
+			protected void test() {
+				// setting a property saves the repository
+				repository.setProperty("test.save", Integer.toString(saves++));
+			}
+		}.run(this, "Test save local metadata repo for " + IU_COUNT + " ius", REPEATS, 1);
+	}
+
+	public void testLoadLocalRepositoryWith1Thread() {
+		loadRepository(1);
+	}
+
+	public void testLoadLocalRepositoryWith4Threads() {
+		loadRepository(4);
+	}
+
+	public void testLoadLocalRepositoryWith16Threads() {
+		loadRepository(16);
+	}
+
+	private void loadRepository(int threads) {
+		final int IU_COUNT = 20000;
+		List<IInstallableUnit> ius = new ArrayList<IInstallableUnit>(IU_COUNT);
+		for (int i = 0; i < IU_COUNT; i++)
+			ius.add(generateIU(i));
+		repository.addInstallableUnits(ius);
+		final SimpleMetadataRepositoryFactory factory = new SimpleMetadataRepositoryFactory();
+		factory.setAgent(getAgent());
+		System.setProperty(ParallelUnitsParser.PROP_PARSER_THREADS, Integer.toString(threads));
+		try {
+			new PerformanceTestRunner() {
+				IMetadataRepository loaded;
+
+				protected void tearDown() {
+					assertEquals("1.1", IU_COUNT, loaded.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+					loaded = null;
+				}
+
+				protected void test() {
+					try {
+						loaded = factory.load(repoLocation.toURI(), 0, new NullProgressMonitor());
+					} catch (ProvisionException e) {
+						fail("1.99", e);
+					}
+				}
+			}.run(this, "Test load local metadata repo for " + IU_COUNT + " ius with " + threads + " threads", REPEATS, 1);
+		} finally {
+			System.getProperties().remove(ParallelUnitsParser.PROP_PARSER_THREADS);
+		}
+	}
 }
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.*;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.artifact.repository.SignatureVerifier;
+
+/**
+ * Performance tests for processing steps run on downloaded artifacts
+ */
+public class ProcessingStepPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int ARTIFACT_COUNT = 500;
+	private static final int ARTIFACT_SIZE = 20 * 1024;
+
+	byte[] artifact;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JarOutputStream jar = new JarOutputStream(bytes);
+		jar.putNextEntry(new ZipEntry("content.bin"));
+		byte[] content = new byte[ARTIFACT_SIZE];
+		for (int i = 0; i < content.length; i++)
+			content[i] = (byte) i;
+		jar.write(content);
+		jar.close();
+		artifact = bytes.toByteArray();
+	}
+
+	public void testSignatureVerifierSmallArtifacts() {
+		new PerformanceTestRunner() {
+			protected void test() {
+				try {
+					for (int i = 0; i < ARTIFACT_COUNT; i++) {
+						SignatureVerifier verifier = new SignatureVerifier();
+						ByteArrayOutputStream destination = new ByteArrayOutputStream(artifact.length);
+						verifier.link(destination, new NullProgressMonitor());
+						verifier.write(artifact, 0, artifact.length);
+						verifier.close();
+						assertOK("1.0", verifier.getStatus());
+					}
+				} catch (IOException e) {
+					fail("1.99", e);
+				}
+			}
+		}.run(this, "Test verify " + ARTIFACT_COUNT + " unsigned artifacts of " + ARTIFACT_SIZE / 1024 + "KB", REPEATS, 1);
+	}
+}
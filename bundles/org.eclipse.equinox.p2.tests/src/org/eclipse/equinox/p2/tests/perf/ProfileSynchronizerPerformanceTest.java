@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.File;
+import java.net.URI;
+import java.util.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.reconciler.dropins.ProfileSynchronizer;
+import org.eclipse.equinox.internal.provisional.p2.directorywatcher.RepositoryListener;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.planner.ProfileInclusionRules;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+
+/**
+ * Performance tests for the dropins reconciler when a single bundle is added
+ * to a large dropins folder.
+ */
+public class ProfileSynchronizerPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int IU_COUNT = 1500;
+	private static final String PROP_FROM_DROPINS = "org.eclipse.equinox.p2.reconciler.dropins";
+
+	protected File repoLocation;
+	IProfile profile;
+	IMetadataRepository repository;
+	IInstallableUnit added;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		IInstallableUnit[] ius = new IInstallableUnit[IU_COUNT];
+		for (int i = 0; i < ius.length; i++)
+			ius[i] = generateDropinIU(i);
+		added = generateDropinIU(IU_COUNT);
+
+		profile = createProfile(getName());
+		IEngine engine = getEngine();
+		IProvisioningPlan plan = engine.createPlan(profile, null);
+		for (int i = 0; i < ius.length; i++) {
+			plan.addInstallableUnit(ius[i]);
+			plan.setInstallableUnitProfileProperty(ius[i], PROP_FROM_DROPINS, Boolean.TRUE.toString());
+			plan.setInstallableUnitProfileProperty(ius[i], "org.eclipse.equinox.p2.internal.inclusion.rules", ProfileInclusionRules.createOptionalInclusionRule(ius[i]));
+		}
+		assertOK("1.0", engine.perform(plan, null));
+		profile = getProfile(getName());
+
+		repoLocation = new File(System.getProperty("java.io.tmpdir"), getName());
+		delete(repoLocation);
+		repoLocation.mkdir();
+		repository = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "dropins", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		repository.addInstallableUnits(Arrays.asList(ius));
+	}
+
+	protected void tearDown() throws Exception {
+		getMetadataRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	protected IInstallableUnit generateDropinIU(int i) {
+		MetadataFactory.InstallableUnitDescription desc = new MetadataFactory.InstallableUnitDescription();
+		desc.setId("org.eclipse.someiu" + i);
+		desc.setVersion(Version.createOSGi(1, 1, i));
+		desc.setProperty(RepositoryListener.FILE_NAME, "/dropins/plugins/org.eclipse.someiu" + i + "_1.1." + i + ".jar");
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), desc.getVersion())});
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	protected ProvisioningContext getContext() {
+		ProvisioningContext context = new ProvisioningContext(getAgent());
+		context.setMetadataRepositories(new URI[] {repository.getLocation()});
+		context.setArtifactRepositories(new URI[0]);
+		return context;
+	}
+
+	public void testFullReconcileOneAddedBundle() {
+		new PerformanceTestRunner() {
+			ProfileSynchronizer synchronizer;
+
+			protected void setUp() {
+				repository.addInstallableUnits(Collections.singletonList(added));
+				synchronizer = new ProfileSynchronizer(getAgent(), profile, Collections.singletonList(repository));
+			}
+
+			protected void tearDown() {
+				repository.removeInstallableUnits(Collections.singletonList(added));
+			}
+
+			protected void test() {
+				ProvisioningContext context = getContext();
+				IProfileChangeRequest request = synchronizer.createProfileChangeRequest(context);
+				IProvisioningPlan plan = ((IPlanner) getAgent().getService(IPlanner.SERVICE_NAME)).getProvisioningPlan(request, context, null);
+				assertOK("2.0", plan.getStatus());
+			}
+		}.run(this, "Test full reconciliation of 1 added bundle with " + IU_COUNT + " dropins", REPEATS, 1);
+	}
+
+	public void testIncrementalReconcileOneAddedBundle() {
+		new PerformanceTestRunner() {
+			ProfileSynchronizer synchronizer;
+			Map<String, String> fingerprints;
+
+			protected void setUp() {
+				fingerprints = new ProfileSynchronizer(getAgent(), profile, Collections.singletonList(repository)).computeFingerprints();
+				repository.addInstallableUnits(Collections.singletonList(added));
+				synchronizer = new ProfileSynchronizer(getAgent(), profile, Collections.singletonList(repository));
+			}
+
+			protected void tearDown() {
+				repository.removeInstallableUnits(Collections.singletonList(added));
+			}
+
+			protected void test() {
+				IProfileChangeRequest request = synchronizer.createIncrementalProfileChangeRequest(fingerprints);
+				assertNotNull("3.0", request);
+				assertEquals("3.1", 1, request.getAdditions().size());
+				IProvisioningPlan plan = ((IPlanner) getAgent().getService(IPlanner.SERVICE_NAME)).getProvisioningPlan(request, getContext(), null);
+				assertOK("3.2", plan.getStatus());
+			}
+		}.run(this, "Test incremental reconciliation of 1 added bundle with " + IU_COUNT + " dropins", REPEATS, 1);
+	}
+}
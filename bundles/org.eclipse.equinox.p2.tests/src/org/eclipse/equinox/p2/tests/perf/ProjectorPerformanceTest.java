@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.*;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.director.Projector;
+import org.eclipse.equinox.internal.p2.director.QueryableArray;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQueryable;
+
+/**
+ * Performance tests for the encoding and solving of a large slice.
+ */
+public class ProjectorPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int ID_COUNT = 20000;
+	private static final int ROOT_COUNT = 500;
+
+	List<IInstallableUnit> ius;
+	IInstallableUnit entryPoint;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		Random random = new Random(1);
+		ius = new ArrayList<IInstallableUnit>();
+		for (int i = 0; i < ID_COUNT; i++) {
+			// every tenth id has two versions
+			int versions = i % 10 == 0 ? 2 : 1;
+			for (int v = 0; v < versions; v++) {
+				IRequirement[] reqs = new IRequirement[4];
+				for (int k = 0; k < reqs.length; k++)
+					reqs[k] = createRequirement("org.eclipse.someiu" + random.nextInt(ID_COUNT), k == reqs.length - 1);
+				ius.add(generateIU("org.eclipse.someiu" + i, v, i % 3 != 0, reqs));
+			}
+		}
+		IRequirement[] rootReqs = new IRequirement[ROOT_COUNT];
+		for (int i = 0; i < rootReqs.length; i++)
+			rootReqs[i] = createRequirement("org.eclipse.someiu" + random.nextInt(ID_COUNT), false);
+		entryPoint = generateIU("entryPoint", 0, false, rootReqs);
+		ius.add(entryPoint);
+	}
+
+	protected IRequirement createRequirement(String id, boolean optional) {
+		return MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, id, new VersionRange("[1.0.0,2.0.0)"), null, optional, false, true);
+	}
+
+	protected IInstallableUnit generateIU(String id, int minor, boolean singleton, IRequirement[] reqs) {
+		MetadataFactory.InstallableUnitDescription desc = new MetadataFactory.InstallableUnitDescription();
+		desc.setId(id);
+		desc.setVersion(Version.createOSGi(1, minor, 0));
+		desc.setSingleton(singleton);
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, id, desc.getVersion())});
+		desc.setRequirements(reqs);
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	public void testEncodeAndSolveSlice() {
+		final IQueryable<IInstallableUnit> slice = new QueryableArray(ius.toArray(new IInstallableUnit[ius.size()]));
+		new PerformanceTestRunner() {
+			protected void test() {
+				Projector projector = new Projector(slice, new HashMap<String, String>(), new HashSet<IInstallableUnit>(), false);
+				projector.encode(entryPoint, new IInstallableUnit[0], new QueryableArray(new IInstallableUnit[0]), ius.subList(0, 10), new NullProgressMonitor());
+				assertOK("1.0", projector.invokeSolver(new NullProgressMonitor()));
+				assertTrue("1.1", projector.extractSolution().contains(entryPoint));
+			}
+		}.run(this, "Test encoding and solving a slice of " + ius.size() + " units", REPEATS, 1);
+	}
+}
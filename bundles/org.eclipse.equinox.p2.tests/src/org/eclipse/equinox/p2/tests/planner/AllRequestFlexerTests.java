@@ -16,6 +16,7 @@ public class AllRequestFlexerTests extends TestCase {
 
 	public static Test suite() {
 		TestSuite suite = new TestSuite(AllRequestFlexerTests.class.getName());
+		suite.addTestSuite(RemediationOperationParallelTest.class);
 		suite.addTestSuite(TestRequestFlexerIUProperties.class);
 		suite.addTestSuite(TestRequestFlexerOneInstalledOneBeingInstalled.class);
 		suite.addTestSuite(TestRequestFlexerOneInstalledReplacingIt.class);
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.HashSet;
+import java.util.List;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.operations.*;
+import org.eclipse.equinox.p2.planner.*;
+import org.eclipse.equinox.p2.tests.*;
+
+/**
+ * Checks that remedies evaluated concurrently are the same as remedies evaluated
+ * one after the other.
+ */
+public class RemediationOperationParallelTest extends AbstractProvisioningTest {
+	private static final String PROP_THREADS = "eclipse.p2.remediation.threads";
+
+	@IUDescription(content = "package: sdk \n" + "singleton: true\n" + "version: 1 \n" + "depends: platform = 1")
+	public IInstallableUnit sdk1;
+
+	@IUDescription(content = "package: platform \n" + "singleton: true\n" + "version: 1 \n")
+	public IInstallableUnit platform1;
+
+	@IUDescription(content = "package: sdk \n" + "singleton: true\n" + "version: 2 \n" + "depends: platform = 2")
+	public IInstallableUnit sdk2;
+
+	@IUDescription(content = "package: platform \n" + "singleton: true\n" + "version: 2 \n")
+	public IInstallableUnit platform2;
+
+	@IUDescription(content = "package: egit \n" + "singleton: true\n" + "version: 1 \n" + "depends: platform = 1")
+	public IInstallableUnit egit1;
+
+	@IUDescription(content = "package: egit \n" + "singleton: true\n" + "version: 2 \n" + "depends: platform = 2")
+	public IInstallableUnit egit2;
+
+	@IUDescription(content = "package: svn \n" + "singleton: true\n" + "version: 1 \n" + "depends: platform = 1")
+	public IInstallableUnit svn1;
+
+	@IUDescription(content = "package: svn \n" + "singleton: true\n" + "version: 2 \n" + "depends: platform = 2")
+	public IInstallableUnit svn2;
+
+	private IProfile profile;
+	private IPlanner planner;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		profile = createProfile("TestProfile." + getName());
+		IULoader.loadIUs(this);
+		createTestMetdataRepository(new IInstallableUnit[] {sdk1, platform1});
+		planner = createPlanner();
+		assertOK(install(profile, new IInstallableUnit[] {sdk1}, true, planner, createEngine()));
+		createTestMetdataRepository(new IInstallableUnit[] {sdk1, platform1, sdk2, platform2, egit1, egit2, svn1, svn2});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(PROP_THREADS);
+		super.tearDown();
+		getProfileRegistry().removeProfile(profile.getProfileId());
+	}
+
+	private RemediationOperation remediate(int threads) {
+		System.setProperty(PROP_THREADS, Integer.toString(threads));
+		IProfileChangeRequest request = planner.createChangeRequest(profile);
+		request.add(egit2);
+		request.setInstallableUnitInclusionRules(egit2, ProfileInclusionRules.createStrictInclusionRule(egit2));
+		request.add(svn1);
+		request.setInstallableUnitInclusionRules(svn1, ProfileInclusionRules.createStrictInclusionRule(svn1));
+		RemediationOperation operation = new RemediationOperation(new ProvisioningSession(getAgent()), request);
+		operation.setProfileId(profile.getProfileId());
+		operation.setProvisioningContext(new ProvisioningContext(getAgent()));
+		operation.resolveModal(new NullProgressMonitor());
+		return operation;
+	}
+
+	public void testSameRemediesAsSerial() {
+		RemediationOperation serial = remediate(1);
+		RemediationOperation parallel = remediate(4);
+		List<Remedy> expected = serial.getRemedies();
+		List<Remedy> actual = parallel.getRemedies();
+		assertFalse("1.0", expected.isEmpty());
+		assertEquals("1.1", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Remedy expectedRemedy = expected.get(i);
+			Remedy actualRemedy = actual.get(i);
+			assertEquals("1.2." + i, expectedRemedy.getConfig().allowPartialInstall, actualRemedy.getConfig().allowPartialInstall);
+			assertEquals("1.3." + i, expectedRemedy.getConfig().allowDifferentVersion, actualRemedy.getConfig().allowDifferentVersion);
+			assertEquals("1.4." + i, expectedRemedy.getConfig().allowInstalledUpdate, actualRemedy.getConfig().allowInstalledUpdate);
+			assertEquals("1.5." + i, expectedRemedy.getConfig().allowInstalledRemoval, actualRemedy.getConfig().allowInstalledRemoval);
+			assertEquals("1.6." + i, new HashSet<IInstallableUnit>(expectedRemedy.getRequest().getAdditions()), new HashSet<IInstallableUnit>(actualRemedy.getRequest().getAdditions()));
+			assertEquals("1.7." + i, new HashSet<IInstallableUnit>(expectedRemedy.getRequest().getRemovals()), new HashSet<IInstallableUnit>(actualRemedy.getRequest().getRemovals()));
+			assertEquals("1.8." + i, expectedRemedy.getBeingInstalledRelaxedWeight(), actualRemedy.getBeingInstalledRelaxedWeight());
+			assertEquals("1.9." + i, expectedRemedy.getInstallationRelaxedWeight(), actualRemedy.getInstallationRelaxedWeight());
+		}
+		assertEquals("2.0", expected.indexOf(serial.bestSolutionChangingTheRequest()), actual.indexOf(parallel.bestSolutionChangingTheRequest()));
+		assertEquals("2.1", expected.indexOf(serial.bestSolutionChangingWhatIsInstalled()), actual.indexOf(parallel.bestSolutionChangingWhatIsInstalled()));
+	}
+}
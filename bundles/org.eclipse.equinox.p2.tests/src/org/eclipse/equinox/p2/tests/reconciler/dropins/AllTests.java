@@ -34,6 +34,7 @@ public class AllTests extends TestCase {
 			suite.addTest(SharedInstallTestsProfileSpoofEnabledConfigured.suite());
 		}
 		suite.addTest(Bug362692.suite());
+		suite.addTestSuite(IncrementalProfileSynchronizerTest.class);
 		return suite;
 	}
 }
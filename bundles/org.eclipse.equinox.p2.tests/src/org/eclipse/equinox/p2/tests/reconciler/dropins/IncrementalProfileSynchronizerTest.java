@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.reconciler.dropins;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
+import org.eclipse.equinox.internal.p2.reconciler.dropins.ProfileSynchronizer;
+import org.eclipse.equinox.internal.provisional.p2.directorywatcher.RepositoryListener;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.ProfileInclusionRules;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the change requests computed by the incremental dropins reconciliation.
+ */
+public class IncrementalProfileSynchronizerTest extends AbstractProvisioningTest {
+	private static final int IU_COUNT = 5;
+	private static final String PROP_FROM_DROPINS = "org.eclipse.equinox.p2.reconciler.dropins";
+
+	private IInstallableUnit[] ius;
+	private IProfile profile;
+	private File dropinsLocation;
+	private File otherLocation;
+	private IMetadataRepository dropins;
+	private IMetadataRepository other;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		ius = new IInstallableUnit[IU_COUNT];
+		for (int i = 0; i < ius.length; i++)
+			ius[i] = createDropinIU(i, "/dropins/plugins/org.eclipse.someiu" + i + "_1.1." + i + ".jar");
+
+		profile = createProfile(getName());
+		IEngine engine = getEngine();
+		IProvisioningPlan plan = engine.createPlan(profile, null);
+		for (int i = 0; i < ius.length; i++) {
+			plan.addInstallableUnit(ius[i]);
+			plan.setInstallableUnitProfileProperty(ius[i], PROP_FROM_DROPINS, Boolean.TRUE.toString());
+			plan.setInstallableUnitProfileProperty(ius[i], "org.eclipse.equinox.p2.internal.inclusion.rules", ProfileInclusionRules.createOptionalInclusionRule(ius[i]));
+		}
+		assertOK("0.1", engine.perform(plan, null));
+		profile = getProfile(getName());
+
+		dropinsLocation = getTempFolder();
+		dropins = getMetadataRepositoryManager().createRepository(dropinsLocation.toURI(), "dropins", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		dropins.addInstallableUnits(Arrays.asList(ius));
+		otherLocation = getTempFolder();
+		other = getMetadataRepositoryManager().createRepository(otherLocation.toURI(), "other", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+	}
+
+	protected void tearDown() throws Exception {
+		getMetadataRepositoryManager().removeRepository(dropinsLocation.toURI());
+		getMetadataRepositoryManager().removeRepository(otherLocation.toURI());
+		delete(dropinsLocation);
+		delete(otherLocation);
+		super.tearDown();
+	}
+
+	private IInstallableUnit createDropinIU(int i, String fileName) {
+		MetadataFactory.InstallableUnitDescription desc = new MetadataFactory.InstallableUnitDescription();
+		desc.setId("org.eclipse.someiu" + i);
+		desc.setVersion(Version.createOSGi(1, 1, i));
+		desc.setProperty(RepositoryListener.FILE_NAME, fileName);
+		desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), desc.getVersion())});
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	private ProfileSynchronizer createSynchronizer() {
+		return new ProfileSynchronizer(getAgent(), profile, Arrays.asList(new IMetadataRepository[] {dropins, other}));
+	}
+
+	public void testUnchanged() {
+		Map<String, String> fingerprints = createSynchronizer().computeFingerprints();
+		ProfileChangeRequest request = createSynchronizer().createIncrementalProfileChangeRequest(fingerprints);
+		assertNotNull("1.0", request);
+		assertTrue("1.1", request.getAdditions().isEmpty());
+		assertTrue("1.2", request.getRemovals().isEmpty());
+		assertTrue("1.3", request.getInstallableUnitProfilePropertiesToAdd().isEmpty());
+	}
+
+	public void testAddedBundle() {
+		Map<String, String> fingerprints = createSynchronizer().computeFingerprints();
+		IInstallableUnit added = createDropinIU(IU_COUNT, "/dropins/plugins/org.eclipse.someiu" + IU_COUNT + "_1.1." + IU_COUNT + ".jar");
+		dropins.addInstallableUnits(Collections.singletonList(added));
+		ProfileChangeRequest request = createSynchronizer().createIncrementalProfileChangeRequest(fingerprints);
+		assertNotNull("1.0", request);
+		assertEquals("1.1", Collections.singletonList(added), new ArrayList<IInstallableUnit>(request.getAdditions()));
+		assertTrue("1.2", request.getRemovals().isEmpty());
+		assertEquals("1.3", Boolean.TRUE.toString(), request.getInstallableUnitProfilePropertiesToAdd().get(added).get(PROP_FROM_DROPINS));
+	}
+
+	public void testRemovedBundle() {
+		Map<String, String> fingerprints = createSynchronizer().computeFingerprints();
+		dropins.removeInstallableUnits(Collections.singletonList(ius[1]));
+		ProfileChangeRequest request = createSynchronizer().createIncrementalProfileChangeRequest(fingerprints);
+		assertNotNull("1.0", request);
+		assertTrue("1.1", request.getAdditions().isEmpty());
+		assertEquals("1.2", Collections.singletonList(ius[1]), new ArrayList<IInstallableUnit>(request.getRemovals()));
+	}
+
+	public void testRenamedBundleFallsBack() {
+		Map<String, String> fingerprints = createSynchronizer().computeFingerprints();
+		dropins.removeInstallableUnits(Collections.singletonList(ius[2]));
+		dropins.addInstallableUnits(Collections.singletonList(createDropinIU(2, "/dropins/plugins/renamed.jar")));
+		assertNull("1.0", createSynchronizer().createIncrementalProfileChangeRequest(fingerprints));
+	}
+
+	public void testMovedBundleFallsBack() {
+		Map<String, String> fingerprints = createSynchronizer().computeFingerprints();
+		dropins.removeInstallableUnits(Collections.singletonList(ius[2]));
+		other.addInstallableUnits(Collections.singletonList(createDropinIU(2, "/other/plugins/org.eclipse.someiu2_1.1.2.jar")));
+		assertNull("1.0", createSynchronizer().createIncrementalProfileChangeRequest(fingerprints));
+	}
+
+	public void testMissingFingerprintsFallBack() {
+		assertNull("1.0", createSynchronizer().createIncrementalProfileChangeRequest(null));
+		Map<String, String> fingerprints = createSynchronizer().computeFingerprints();
+		fingerprints.remove("PROFILE");
+		assertNull("1.1", createSynchronizer().createIncrementalProfileChangeRequest(fingerprints));
+		assertNull("1.2", createSynchronizer().createIncrementalProfileChangeRequest(new HashMap<String, String>()));
+	}
+
+	public void testCorruptFingerprintsFallBack() {
+		Map<String, String> fingerprints = createSynchronizer().computeFingerprints();
+		fingerprints.put("PROFILE", "garbage");
+		assertNull("1.0", createSynchronizer().createIncrementalProfileChangeRequest(fingerprints));
+
+		fingerprints = createSynchronizer().computeFingerprints();
+		fingerprints.put("garbage", "");
+		assertNull("1.1", createSynchronizer().createIncrementalProfileChangeRequest(fingerprints));
+
+		// an unknown location
+		fingerprints = createSynchronizer().computeFingerprints();
+		fingerprints.put("file:/garbage/|org.eclipse.someiu0/1.1.0", "");
+		assertNull("1.2", createSynchronizer().createIncrementalProfileChangeRequest(fingerprints));
+	}
+}
@@ -25,6 +25,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(LinkActionTest.class);
 		suite.addTestSuite(MkdirActionTest.class);
 		suite.addTestSuite(NativeTouchpointTest.class);
+		suite.addTestSuite(ParallelUnzipTest.class);
 		suite.addTestSuite(RmdirActionTest.class);
 		suite.addTestSuite(UnzipActionTest.class);
 		suite.addTestSuite(CopyActionTest.class);
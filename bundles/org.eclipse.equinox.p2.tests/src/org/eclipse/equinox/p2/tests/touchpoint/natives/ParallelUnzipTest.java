@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.touchpoint.natives;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.equinox.internal.p2.touchpoint.natives.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Checks that zip files extracted concurrently give the same files as zip files
+ * extracted from a stream.
+ */
+public class ParallelUnzipTest extends AbstractProvisioningTest {
+	private static final String PROP_THREADS = "eclipse.p2.unzip.threads";
+	private static final int FILE_COUNT = 500;
+
+	private File zipFile;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		System.setProperty(PROP_THREADS, "4");
+		zipFile = new File(getTempFolder(), "root.zip");
+		ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile));
+		try {
+			for (int i = 0; i < 10; i++) {
+				out.putNextEntry(new ZipEntry("eclipse/dir" + i + "/"));
+				out.closeEntry();
+			}
+			for (int i = 0; i < FILE_COUNT; i++) {
+				String extension = i % 3 == 0 ? ".so" : ".txt";
+				ZipEntry entry = new ZipEntry("eclipse/dir" + (i % 10) + "/sub" + (i % 7) + "/file" + i + extension);
+				entry.setTime(1000000000000L + i * 2000L);
+				out.putNextEntry(entry);
+				for (int j = 0; j <= i % 20; j++)
+					out.write(("content of file " + i + '\n').getBytes());
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(PROP_THREADS);
+		super.tearDown();
+	}
+
+	private void assertSameAsStream(String message, String path, String[] includes, String[] excludes) throws IOException {
+		File streamFolder = new File(getTempFolder(), "stream");
+		File parallelFolder = new File(getTempFolder(), "parallel");
+		InputStream in = new FileInputStream(zipFile);
+		File[] expected;
+		try {
+			expected = Util.unzipStream(in, zipFile.length(), streamFolder, path, includes, excludes, null, null, null);
+		} finally {
+			in.close();
+		}
+		File[] actual = Util.unzipFile(zipFile, parallelFolder, path, includes, excludes, null, null, null);
+		assertEquals(message + ".0", expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			String expectedPath = expected[i].getAbsolutePath().substring(streamFolder.getAbsolutePath().length());
+			String actualPath = actual[i].getAbsolutePath().substring(parallelFolder.getAbsolutePath().length());
+			assertEquals(message + ".1." + i, expectedPath, actualPath);
+			assertEquals(message + ".2." + i, expected[i].isDirectory(), actual[i].isDirectory());
+			if (!expected[i].isDirectory()) {
+				assertEquals(message + ".3." + i, expected[i].lastModified(), actual[i].lastModified());
+				assertEquals(message + ".4." + i, readFile(expected[i]), readFile(actual[i]));
+			}
+		}
+	}
+
+	private String readFile(File file) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Util.copyStream(new FileInputStream(file), true, out, true);
+		return out.toString();
+	}
+
+	public void testSameFilesAsStream() throws IOException {
+		assertSameAsStream("1", null, null, null);
+		assertSameAsStream("2", "eclipse/dir3", null, null);
+		assertSameAsStream("3", null, new String[] {"*.so"}, null);
+		assertSameAsStream("4", null, null, new String[] {"*sub2*"});
+		assertSameAsStream("5", "eclipse", new String[] {"*.txt"}, new String[] {"*dir1/*"});
+	}
+
+	public void testBackup() throws IOException {
+		File target = getTempFolder();
+		List<File> originals = new ArrayList<File>();
+		for (int i = 0; i < FILE_COUNT; i += 50) {
+			File original = new File(target, "eclipse/dir" + (i % 10) + "/sub" + (i % 7) + "/file" + i + (i % 3 == 0 ? ".so" : ".txt"));
+			original.getParentFile().mkdirs();
+			Writer writer = new FileWriter(original);
+			writer.write("original " + i);
+			writer.close();
+			originals.add(original);
+		}
+		BackupStore store = new BackupStore(getTempFolder(), "backup");
+		File[] files = Util.unzipFile(zipFile, target, null, null, null, store, null, null);
+		assertEquals("1.0", 10 + FILE_COUNT, files.length);
+		for (File original : originals)
+			assertTrue("1.1", readFile(original).startsWith("content of file"));
+		store.restore();
+		for (int i = 0; i < originals.size(); i++)
+			assertEquals("2." + i, "original " + (i * 50), readFile(originals.get(i)));
+	}
+
+	public void testInvalidZipFile() throws IOException {
+		File invalid = new File(getTempFolder(), "invalid.zip");
+		Writer writer = new FileWriter(invalid);
+		writer.write("not a zip file");
+		writer.close();
+		try {
+			Util.unzipFile(invalid, getTempFolder(), null, null, null, null, null, null);
+			fail("1.0");
+		} catch (IOException e) {
+			assertEquals("1.1", NLS.bind(Messages.Util_Error_Unzipping, invalid, Messages.Util_Invalid_Zip_File_Format), e.getMessage());
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -13,12 +13,16 @@ package org.eclipse.equinox.p2.tests.updatechecker;
 import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.internal.p2.updatechecker.UpdateChecker;
 import org.eclipse.equinox.internal.provisional.p2.director.IDirector;
 import org.eclipse.equinox.internal.provisional.p2.updatechecker.IUpdateChecker;
 import org.eclipse.equinox.internal.provisional.p2.updatechecker.UpdateEvent;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.engine.IProfile;
 import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
 import org.eclipse.equinox.p2.tests.TestActivator;
@@ -30,6 +34,41 @@ public class UpdateCheckerTest extends AbstractProvisioningTest {
 	IProfile profile;
 	IInstallableUnit toInstallIU, update;
 
+	/**
+	 * An update checker which counts the checks it has completed.
+	 */
+	static class CountingUpdateChecker extends UpdateChecker {
+		private int checks = 0;
+
+		CountingUpdateChecker(IProvisioningAgent agent) {
+			super(agent);
+		}
+
+		protected Collection<IInstallableUnit> getUpdates(String profileId, IQuery<IInstallableUnit> query) {
+			Collection<IInstallableUnit> result = super.getUpdates(profileId, query);
+			synchronized (this) {
+				checks++;
+				notifyAll();
+			}
+			return result;
+		}
+
+		synchronized int getChecks() {
+			return checks;
+		}
+
+		/**
+		 * Waits until the given number of checks have been completed.
+		 */
+		synchronized void waitForChecks(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			long remaining;
+			while (checks < count && (remaining = end - System.currentTimeMillis()) > 0)
+				wait(remaining);
+			assertTrue("Timed out waiting for update checks", checks >= count);
+		}
+	}
+
 	protected IUpdateChecker getChecker() {
 		IUpdateChecker checker = (IUpdateChecker) getAgent().getService(IUpdateChecker.SERVICE_NAME);
 		assertNotNull(checker);
@@ -80,4 +119,24 @@ public class UpdateCheckerTest extends AbstractProvisioningTest {
 		listener.waitForEvent();
 		listener.verify(1);
 	}
-}
\ No newline at end of file
+
+	public void testPollingListenerOnlyNotifiedOfChanges() throws InterruptedException {
+		CountingUpdateChecker checker = new CountingUpdateChecker(getAgent());
+		ArrayList<IInstallableUnit> toUpdate = new ArrayList<IInstallableUnit>();
+		toUpdate.add(toInstallIU);
+		TestUpdateListener listener = new TestUpdateListener(new UpdateEvent(profile.getProfileId(), toUpdate));
+		checker.addUpdateCheck(profile.getProfileId(), QueryUtil.createIUAnyQuery(), 1, 50, listener);
+		try {
+			listener.waitForEvent();
+			listener.verify(1);
+
+			//nothing changed so further polls should not result in an event.
+			//Checks run one after the other, so once a check has started the
+			//previous one has notified its listener.
+			checker.waitForChecks(checker.getChecks() + 3);
+			listener.verify(1);
+		} finally {
+			checker.removeUpdateCheck(listener);
+		}
+	}
+}
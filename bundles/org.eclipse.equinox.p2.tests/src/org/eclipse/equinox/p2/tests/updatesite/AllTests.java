@@ -24,6 +24,7 @@ public class AllTests extends TestCase {
 		suite.addTestSuite(DoesNotCacheStaleData.class);
 		suite.addTestSuite(SiteXMLActionTest.class);
 		suite.addTestSuite(UpdateSiteTest.class);
+		suite.addTestSuite(UpdateSiteParallelLoadTest.class);
 		suite.addTestSuite(LocalUpdatesiteTest.class);
 		return suite;
 	}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.updatesite;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.eclipse.equinox.internal.p2.updatesite.UpdateSite;
+import org.eclipse.equinox.p2.publisher.eclipse.Feature;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.benchmarks.LocalHttpServer;
+
+/**
+ * Loads a generated update site without a digest from a local HTTP server, so that
+ * the features are loaded concurrently from their archives.
+ */
+public class UpdateSiteParallelLoadTest extends AbstractProvisioningTest {
+	private static final String PROP_THREADS = "eclipse.p2.updatesite.threads";
+	private static final String PROP_FEATURE_CACHE = "eclipse.p2.updatesite.featureCache";
+	private static final int FEATURE_COUNT = 10;
+
+	private File siteRoot;
+	private LocalHttpServer server;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		siteRoot = getTempFolder();
+		server = new LocalHttpServer(siteRoot);
+		generateSite();
+	}
+
+	protected void tearDown() throws Exception {
+		System.getProperties().remove(PROP_THREADS);
+		System.getProperties().remove(PROP_FEATURE_CACHE);
+		server.stop();
+		delete(siteRoot);
+		super.tearDown();
+	}
+
+	/*
+	 * Generates top level features that each include a feature, which includes another one.
+	 * Two site files in different folders list the same features.
+	 */
+	private void generateSite() throws IOException {
+		File features = new File(siteRoot, "features");
+		features.mkdirs();
+		StringBuffer site = new StringBuffer("<site url=\"").append(server.getURI("")).append("\">\n");
+		for (int i = 0; i < FEATURE_COUNT; i++) {
+			writeFeature(features, "top" + i, "middle" + i);
+			writeFeature(features, "middle" + i, "bottom" + i);
+			writeFeature(features, "bottom" + i, null);
+			site.append("<feature url=\"features/top").append(i).append("_1.0.0.jar\" id=\"top").append(i).append("\" version=\"1.0.0\"/>\n");
+		}
+		site.append("</site>\n");
+		writeSite(new File(siteRoot, "first"), site.toString());
+		writeSite(new File(siteRoot, "second"), site.toString());
+		writeSite(new File(siteRoot, "third"), site.toString());
+	}
+
+	private void writeFeature(File folder, String id, String includedId) throws IOException {
+		StringBuffer feature = new StringBuffer("<feature id=\"").append(id).append("\" version=\"1.0.0\">\n");
+		if (includedId != null)
+			feature.append("<includes id=\"").append(includedId).append("\" version=\"1.0.0\"/>\n");
+		feature.append("<plugin id=\"").append(id).append(".plugin\" version=\"1.0.0\"/>\n");
+		feature.append("</feature>\n");
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(new File(folder, id + "_1.0.0.jar")));
+		try {
+			out.putNextEntry(new ZipEntry("feature.xml"));
+			out.write(feature.toString().getBytes("UTF-8"));
+			out.closeEntry();
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeSite(File folder, String content) throws IOException {
+		folder.mkdirs();
+		Writer out = new OutputStreamWriter(new FileOutputStream(new File(folder, "site.xml")), "UTF-8");
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+	private Set<String> loadFeatureIds(String siteFolder, int threads) throws Exception {
+		System.setProperty(PROP_THREADS, Integer.toString(threads));
+		UpdateSite updateSite = UpdateSite.load(server.getURI(siteFolder + "/site.xml"), getTransport(), getMonitor());
+		Feature[] features = updateSite.loadFeatures(getMonitor());
+		Set<String> ids = new HashSet<String>();
+		for (int i = 0; i < features.length; i++)
+			ids.add(features[i].getId() + '_' + features[i].getVersion());
+		return ids;
+	}
+
+	public void testIncludedFeatures() throws Exception {
+		Set<String> ids = loadFeatureIds("first", 4);
+		assertEquals("1.0", 3 * FEATURE_COUNT, ids.size());
+		for (int i = 0; i < FEATURE_COUNT; i++) {
+			assertTrue("1.1." + i, ids.contains("top" + i + "_1.0.0"));
+			assertTrue("1.2." + i, ids.contains("middle" + i + "_1.0.0"));
+			assertTrue("1.3." + i, ids.contains("bottom" + i + "_1.0.0"));
+		}
+		assertEquals("1.4", 3 * FEATURE_COUNT, server.getDownloadCount("features/"));
+	}
+
+	public void testSameFeaturesAsSerial() throws Exception {
+		// both loads parse the downloaded archives rather than the cached ones
+		System.setProperty(PROP_FEATURE_CACHE, "false");
+		Set<String> serial = loadFeatureIds("first", 1);
+		Set<String> parallel = loadFeatureIds("second", 8);
+		assertEquals("1.0", serial, parallel);
+		assertEquals("1.1", 2 * 3 * FEATURE_COUNT, server.getDownloadCount("features/"));
+	}
+
+	public void testArchivesCachedAcrossSites() throws Exception {
+		Set<String> first = loadFeatureIds("first", 4);
+		int downloads = server.getDownloadCount("features/");
+		Set<String> second = loadFeatureIds("third", 4);
+		assertEquals("1.0", first, second);
+		// the archives are unchanged, so only their last modified times are requested again
+		assertEquals("1.1", downloads, server.getDownloadCount("features/"));
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -13,8 +13,6 @@ package org.eclipse.equinox.internal.p2.touchpoint.natives;
 import java.io.*;
 import java.net.URI;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 import org.eclipse.core.runtime.*;
@@ -93,14 +91,11 @@ public class Util {
 	 * If a path is specified, the path is consider as entry point in zip, as when the to directory in zip would have been the specified path.
 	 */
 	public static File[] unzipFile(File zipFile, File outputDir, String path, String[] includePatterns, String[] excludePatterns, IBackupStore store, String taskName, IProgressMonitor monitor) throws IOException {
-		InputStream in = new FileInputStream(zipFile);
 		try {
-			return unzipStream(in, zipFile.length(), outputDir, path, includePatterns, excludePatterns, store, taskName, monitor);
+			return ZipExtractor.extract(zipFile, outputDir, new ZipExtractor.EntryFilter(path, includePatterns, excludePatterns), store);
 		} catch (IOException e) {
 			// add the file name to the message
 			throw new IOException(NLS.bind(Messages.Util_Error_Unzipping, zipFile, e.getMessage()));
-		} finally {
-			in.close();
 		}
 	}
 
@@ -129,74 +124,31 @@ public class Util {
 			throw new IOException(Messages.Util_Invalid_Zip_File_Format);
 		}
 
-		if (path != null && path.trim().length() == 0)
-			path = null;
-		Pattern pathRegex = path == null ? null : createAntStylePattern("(" + path + ")(*)"); //$NON-NLS-1$ //$NON-NLS-2$
-
-		Collection<Pattern> includeRegexp = new ArrayList<Pattern>();
-		Collection<Pattern> excludeRegexp = new ArrayList<Pattern>();
-		if (includePatterns != null) {
-			for (String pattern : includePatterns) {
-				if (pattern != null) {
-					includeRegexp.add(createAntStylePattern(pattern));
-				}
-			}
-		}
-		if (excludePatterns != null) {
-			for (String pattern : excludePatterns) {
-				if (pattern != null) {
-					excludeRegexp.add(createAntStylePattern(pattern));
-				}
-			}
-		}
+		ZipExtractor.EntryFilter filter = new ZipExtractor.EntryFilter(path, includePatterns, excludePatterns);
 		ArrayList<File> unzippedFiles = new ArrayList<File>();
 		do {
-			String name = ze.getName();
-			if (pathRegex == null || pathRegex.matcher(name).matches()) {
-				boolean unzip = includeRegexp.isEmpty();
-				for (Pattern pattern : includeRegexp) {
-					unzip = pattern.matcher(name).matches();
-					if (unzip)
-						break;
-				}
-				if (unzip && !excludeRegexp.isEmpty()) {
-					for (Pattern pattern : excludeRegexp) {
-						if (pattern.matcher(name).matches()) {
-							unzip = false;
-							break;
-						}
-					}
-				}
-				if (unzip) {
-					if (pathRegex != null) {
-						Matcher matcher = pathRegex.matcher(name);
-						if (matcher.matches()) {
-							name = matcher.group(2);
-							if (name.startsWith("/")) //$NON-NLS-1$
-								name = name.substring(1);
-						}
-					}
-					File outFile = new File(outputDir, name);
-					unzippedFiles.add(outFile);
-					if (ze.isDirectory()) {
-						outFile.mkdirs();
+			String name = filter.getOutputName(ze.getName());
+			if (name != null) {
+				File outFile = new File(outputDir, name);
+				unzippedFiles.add(outFile);
+				if (ze.isDirectory()) {
+					outFile.mkdirs();
+				} else {
+					if (outFile.exists()) {
+						if (store != null)
+							store.backup(outFile);
+						else
+							outFile.delete();
 					} else {
-						if (outFile.exists()) {
-							if (store != null)
-								store.backup(outFile);
-							else
-								outFile.delete();
-						} else {
-							outFile.getParentFile().mkdirs();
-						}
-						try {
-							copyStream(in, false, new FileOutputStream(outFile), true);
-						} catch (FileNotFoundException e) {
-							// TEMP: ignore this for now in case we're trying to replace
-							// a running eclipse.exe
-						}
-						outFile.setLastModified(ze.getTime());
+						outFile.getParentFile().mkdirs();
 					}
+					try {
+						copyStream(in, false, new FileOutputStream(outFile), true);
+					} catch (FileNotFoundException e) {
+						// TEMP: ignore this for now in case we're trying to replace
+						// a running eclipse.exe
+					}
+					outFile.setLastModified(ze.getTime());
 				}
 			}
 			in.closeEntry();
@@ -234,30 +186,4 @@ public class Util {
 		}
 	}
 
-	private static Pattern createAntStylePattern(String pattern) {
-		StringBuffer sb = new StringBuffer();
-		for (int c = 0; c < pattern.length(); c++) {
-			switch (pattern.charAt(c)) {
-				case '.' :
-					sb.append("\\."); //$NON-NLS-1$
-					break;
-				case '*' :
-					sb.append(".*"); //$NON-NLS-1$
-					break;
-				case '?' :
-					sb.append(".?"); //$NON-NLS-1$
-					break;
-				default :
-					sb.append(pattern.charAt(c));
-					break;
-			}
-		}
-		String string = sb.toString();
-		if (string.endsWith("\\..*")) { //$NON-NLS-1$
-			sb.append("|"); //$NON-NLS-1$
-			sb.append(string.substring(0, string.length() - 4));
-		}
-		return Pattern.compile(sb.toString());
-	}
-
 }
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.touchpoint.natives;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.*;
+
+/**
+ * Extracts the entries of a zip file that are selected by a path and include and exclude
+ * patterns. The entries are selected from the central directory of the zip file, and the
+ * files they overwrite are backed up before any entry is extracted, so that the entries
+ * can then be extracted concurrently.
+ */
+class ZipExtractor {
+	private static final String PROP_UNZIP_THREADS = "eclipse.p2.unzip.threads"; //$NON-NLS-1$
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// smaller zip files are extracted on the calling thread
+	private static final int MIN_PARALLEL_ENTRIES = 32;
+
+	/**
+	 * Selects the entries to extract and the paths they are extracted to.
+	 */
+	static class EntryFilter {
+		private final Pattern pathRegex;
+		private final Collection<Pattern> includeRegexp = new ArrayList<Pattern>();
+		private final Collection<Pattern> excludeRegexp = new ArrayList<Pattern>();
+
+		EntryFilter(String path, String[] includePatterns, String[] excludePatterns) {
+			if (path != null && path.trim().length() == 0)
+				path = null;
+			pathRegex = path == null ? null : createAntStylePattern("(" + path + ")(*)"); //$NON-NLS-1$ //$NON-NLS-2$
+			if (includePatterns != null) {
+				for (String pattern : includePatterns) {
+					if (pattern != null) {
+						includeRegexp.add(createAntStylePattern(pattern));
+					}
+				}
+			}
+			if (excludePatterns != null) {
+				for (String pattern : excludePatterns) {
+					if (pattern != null) {
+						excludeRegexp.add(createAntStylePattern(pattern));
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the path the given entry is extracted to, relative to the output directory,
+		 * or <code>null</code> if the entry is not extracted.
+		 */
+		String getOutputName(String name) {
+			if (pathRegex != null && !pathRegex.matcher(name).matches())
+				return null;
+			boolean unzip = includeRegexp.isEmpty();
+			for (Pattern pattern : includeRegexp) {
+				unzip = pattern.matcher(name).matches();
+				if (unzip)
+					break;
+			}
+			if (!unzip)
+				return null;
+			for (Pattern pattern : excludeRegexp) {
+				if (pattern.matcher(name).matches())
+					return null;
+			}
+			if (pathRegex != null) {
+				Matcher matcher = pathRegex.matcher(name);
+				if (matcher.matches()) {
+					name = matcher.group(2);
+					if (name.startsWith("/")) //$NON-NLS-1$
+						name = name.substring(1);
+				}
+			}
+			return name;
+		}
+	}
+
+	private final ZipFile zip;
+	private final IBackupStore store;
+	private final List<ZipEntry> entries = new ArrayList<ZipEntry>();
+	private final List<File> outFiles = new ArrayList<File>();
+
+	private ZipExtractor(ZipFile zip, IBackupStore store) {
+		this.zip = zip;
+		this.store = store;
+	}
+
+	/**
+	 * Extracts the selected entries of the given zip file into the output directory, backing
+	 * up the files they overwrite if the backup store is not null.
+	 *
+	 * @return the extracted files and directories, in the order of the zip file entries
+	 */
+	static File[] extract(File zipFile, File outputDir, EntryFilter filter, IBackupStore store) throws IOException {
+		ZipFile zip;
+		try {
+			zip = new ZipFile(zipFile);
+		} catch (ZipException e) {
+			// report it like the stream extraction, which finds no entry in an invalid zip file
+			IOException invalid = new IOException(Messages.Util_Invalid_Zip_File_Format);
+			invalid.initCause(e);
+			throw invalid;
+		}
+		try {
+			// There must be at least one entry in a zip file.
+			if (zip.size() == 0)
+				throw new IOException(Messages.Util_Invalid_Zip_File_Format);
+			ZipExtractor extractor = new ZipExtractor(zip, store);
+			extractor.select(outputDir, filter);
+			extractor.extract();
+			return extractor.outFiles.toArray(new File[extractor.outFiles.size()]);
+		} finally {
+			zip.close();
+		}
+	}
+
+	private void select(File outputDir, EntryFilter filter) {
+		for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+			ZipEntry entry = e.nextElement();
+			String name = filter.getOutputName(entry.getName());
+			if (name == null)
+				continue;
+			entries.add(entry);
+			outFiles.add(new File(outputDir, name));
+		}
+	}
+
+	private void extract() throws IOException {
+		int threads = Math.min(Integer.getInteger(PROP_UNZIP_THREADS, Runtime.getRuntime().availableProcessors()).intValue(), entries.size() / MIN_PARALLEL_ENTRIES);
+		if (threads <= 1 || !prepareDirectories()) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			for (int i = 0; i < entries.size(); i++) {
+				if (entries.get(i).isDirectory()) {
+					outFiles.get(i).mkdirs();
+				} else {
+					prepareFile(outFiles.get(i), true);
+					extractFile(i, buffer);
+				}
+			}
+			return;
+		}
+		extractInParallel(threads);
+	}
+
+	/*
+	 * Backs up the files that are overwritten and creates all the directories, unless
+	 * entries overlap. Overlapping entries are extracted one after the other, so that
+	 * they are backed up and overwritten in order.
+	 */
+	private boolean prepareDirectories() throws IOException {
+		Set<File> files = new HashSet<File>();
+		Set<File> directories = new LinkedHashSet<File>();
+		for (int i = 0; i < entries.size(); i++) {
+			File outFile = outFiles.get(i);
+			if (!files.add(outFile))
+				return false;
+			if (entries.get(i).isDirectory())
+				directories.add(outFile);
+			File parent = outFile.getParentFile();
+			while (parent != null && directories.add(parent))
+				parent = parent.getParentFile();
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			if (!entries.get(i).isDirectory() && directories.contains(outFiles.get(i)))
+				return false;
+		}
+		for (int i = 0; i < entries.size(); i++) {
+			if (!entries.get(i).isDirectory())
+				prepareFile(outFiles.get(i), false);
+		}
+		for (File directory : directories)
+			directory.mkdirs();
+		return true;
+	}
+
+	private void prepareFile(File outFile, boolean createParent) throws IOException {
+		if (outFile.exists()) {
+			if (store != null)
+				store.backup(outFile);
+			else
+				outFile.delete();
+		} else if (createParent) {
+			outFile.getParentFile().mkdirs();
+		}
+	}
+
+	private void extractFile(int index, byte[] buffer) throws IOException {
+		ZipEntry entry = entries.get(index);
+		File outFile = outFiles.get(index);
+		InputStream in = zip.getInputStream(entry);
+		try {
+			OutputStream out = new FileOutputStream(outFile);
+			try {
+				int len;
+				while ((len = in.read(buffer)) != -1)
+					out.write(buffer, 0, len);
+			} finally {
+				out.close();
+			}
+		} catch (FileNotFoundException e) {
+			// TEMP: ignore this for now in case we're trying to replace
+			// a running eclipse.exe
+		} finally {
+			in.close();
+		}
+		outFile.setLastModified(entry.getTime());
+	}
+
+	private void extractInParallel(int threads) throws IOException {
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Unzip"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>(threads);
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() throws IOException {
+						byte[] buffer = new byte[BUFFER_SIZE];
+						int index;
+						while (failed.get() == 0 && (index = next.getAndIncrement()) < entries.size()) {
+							if (entries.get(index).isDirectory())
+								continue;
+							try {
+								extractFile(index, buffer);
+							} catch (IOException e) {
+								failed.incrementAndGet();
+								throw e;
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof IOException)
+						throw (IOException) cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					if (cause instanceof Error)
+						throw (Error) cause;
+					throw new IllegalStateException(cause);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	static Pattern createAntStylePattern(String pattern) {
+		StringBuffer sb = new StringBuffer();
+		for (int c = 0; c < pattern.length(); c++) {
+			switch (pattern.charAt(c)) {
+				case '.' :
+					sb.append("\\."); //$NON-NLS-1$
+					break;
+				case '*' :
+					sb.append(".*"); //$NON-NLS-1$
+					break;
+				case '?' :
+					sb.append(".?"); //$NON-NLS-1$
+					break;
+				default :
+					sb.append(pattern.charAt(c));
+					break;
+			}
+		}
+		String string = sb.toString();
+		if (string.endsWith("\\..*")) { //$NON-NLS-1$
+			sb.append("|"); //$NON-NLS-1$
+			sb.append(string.substring(0, string.length() - 4));
+		}
+		return Pattern.compile(sb.toString());
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -11,8 +11,11 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.ui;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.metadata.query.IQueryResultListener;
+import org.eclipse.equinox.internal.p2.metadata.query.StreamingQuery;
 import org.eclipse.equinox.p2.query.*;
 
 /**
@@ -67,6 +70,50 @@ public class ElementQueryDescriptor {
 		return results.toUnmodifiableSet();
 	}
 
+	/**
+	 * Returns whether the results of the query can be passed on in batches
+	 * as the query produces them.
+	 */
+	public boolean canStream() {
+		return query != null && collector != null && queryable != null && StreamingQuery.isStreamable(query) && (wrapper == null || wrapper.isIncremental());
+	}
+
+	/**
+	 * Performs the query, passing the results to the listener as they are produced.
+	 * When the query cannot be streamed, the results are passed on once the query
+	 * is done.
+	 * @param listener the listener receiving the results
+	 * @param monitor
+	 * @return an OK status, or a cancel status if the query was canceled
+	 */
+	public IStatus performQuery(final IQueryResultListener<Object> listener, IProgressMonitor monitor) {
+		if (!canStream()) {
+			Collection<?> results = performQuery(monitor);
+			if (!results.isEmpty())
+				listener.resultsAvailable(new ArrayList<Object>(results));
+			return Status.OK_STATUS;
+		}
+		final boolean[] passed = new boolean[1];
+		IStatus status = StreamingQuery.query(queryable, query, new IQueryResultListener<Object>() {
+			public boolean resultsAvailable(Collection<Object> results) {
+				for (Object result : results)
+					collector.accept(result);
+				Collection<Object> elements = wrapper == null ? results : wrapper.wrapElements(results);
+				if (elements.isEmpty())
+					return true;
+				passed[0] = true;
+				return listener.resultsAvailable(elements);
+			}
+		}, monitor);
+		// Let the wrapper explain why nothing was found
+		if (status.isOK() && !passed[0] && wrapper != null) {
+			Collection<?> explanation = wrapper.getElements(collector);
+			if (!explanation.isEmpty())
+				listener.resultsAvailable(new ArrayList<Object>(explanation));
+		}
+		return status;
+	}
+
 	public boolean hasCollector() {
 		return this.collector != null;
 	}
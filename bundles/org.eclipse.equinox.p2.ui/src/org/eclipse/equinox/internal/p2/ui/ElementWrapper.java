@@ -1,5 +1,5 @@
 /******************************************************************************* 
-* Copyright (c) 2009, 2010 EclipseSource and others. All rights reserved. This
+* Copyright (c) 2009, 2013 EclipseSource and others. All rights reserved. This
 * program and the accompanying materials are made available under the terms of
 * the Eclipse Public License v1.0 which accompanies this distribution, and is
 * available at http://www.eclipse.org/legal/epl-v10.html
@@ -35,6 +35,29 @@ public abstract class ElementWrapper {
 		return getCollection();
 	}
 
+	/**
+	 * Transforms a batch of query results to a collection of UI elements.  Unlike
+	 * {@link #getElements(Collector)}, no explanation is added when the results are
+	 * filtered out.  Only used when the wrapper {@link #isIncremental()}.
+	 */
+	public Collection<Object> wrapElements(Collection<?> results) {
+		Collection<Object> elements = new ArrayList<Object>(results.size());
+		for (Object o : results) {
+			if (shouldWrap(o))
+				elements.add(wrap(o));
+		}
+		return elements;
+	}
+
+	/**
+	 * Returns whether query results can be wrapped in batches, as the query
+	 * produces them.  Wrappers that need to see all the results at once, for
+	 * example to merge some of them, must return <code>false</code>.
+	 */
+	public boolean isIncremental() {
+		return false;
+	}
+
 	/**
 	 * Gets the collection where the elements are being stored.
 	 */
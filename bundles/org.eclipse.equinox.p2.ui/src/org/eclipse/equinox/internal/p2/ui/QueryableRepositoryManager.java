@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -10,11 +10,10 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.ui;
 
-import org.eclipse.equinox.p2.query.QueryUtil;
-
 import java.net.URI;
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.metadata.query.*;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.operations.ProvisioningSession;
 import org.eclipse.equinox.p2.operations.RepositoryTracker;
@@ -30,9 +29,11 @@ import org.eclipse.osgi.util.NLS;
  * are included in the query.  Callers interested in only the resulting repository URIs
  * should specify a {@link RepositoryLocationQuery}, in which case the 
  * query is performed over the URI's.  Otherwise the repositories are loaded and
- * the query is performed over the repositories themselves.
+ * the query is performed over the repositories themselves.  Queries that
+ * match each element on its own can be streamed, in which case the results of
+ * each repository are passed on as soon as that repository is loaded.
  */
-public abstract class QueryableRepositoryManager<T> implements IQueryable<T> {
+public abstract class QueryableRepositoryManager<T> implements IStreamingQueryable<T> {
 	private ProvisioningSession session;
 	protected boolean includeDisabledRepos;
 	protected RepositoryTracker tracker;
@@ -72,6 +73,32 @@ public abstract class QueryableRepositoryManager<T> implements IQueryable<T> {
 		return query(getRepoLocations(manager), query, monitor);
 	}
 
+	/**
+	 * Iterates over the repositories configured in this queryable, passing the
+	 * results of each repository to the listener before loading the next one.
+	 * Queries that are not streamable are performed over all the repositories
+	 * at once.
+	 */
+	public IStatus query(IQuery<T> query, IQueryResultListener<T> listener, IProgressMonitor monitor) {
+		if (monitor == null)
+			monitor = new NullProgressMonitor();
+		StreamingQuery<T> results = new StreamingQuery<T>(listener);
+		if (query instanceof RepositoryLocationQuery || !StreamingQuery.isStreamable(query)) {
+			results.addAll(query(query, monitor), monitor);
+			return results.done(monitor);
+		}
+		Collection<URI> uris = getRepoLocations(getRepositoryManager());
+		SubMonitor sub = SubMonitor.convert(monitor, uris.size() * 200);
+		for (URI uri : uris) {
+			IRepository<T> repo = loadRepository(uri, sub.newChild(100));
+			if (repo != null && !(results.addAll(repo.query(query, sub.newChild(100)), sub) && results.flush()))
+				return Status.CANCEL_STATUS;
+			if (sub.isCanceled())
+				return Status.CANCEL_STATUS;
+		}
+		return results.done(monitor);
+	}
+
 	public IQueryable<URI> locationsQueriable() {
 		return new IQueryable<URI>() {
 
@@ -152,15 +179,7 @@ public abstract class QueryableRepositoryManager<T> implements IQueryable<T> {
 		SubMonitor sub = SubMonitor.convert(monitor, (uris.size() + 1) * 100);
 		ArrayList<IRepository<T>> loadedRepos = new ArrayList<IRepository<T>>(uris.size());
 		for (URI uri : uris) {
-			IRepository<T> repo = null;
-			try {
-				repo = loadRepository(getRepositoryManager(), uri, sub.newChild(100));
-			} catch (ProvisionException e) {
-				tracker.reportLoadFailure(uri, e);
-			} catch (OperationCanceledException e) {
-				// user has canceled
-				repo = null;
-			}
+			IRepository<T> repo = loadRepository(uri, sub.newChild(100));
 			if (repo != null)
 				loadedRepos.add(repo);
 		}
@@ -170,6 +189,21 @@ public abstract class QueryableRepositoryManager<T> implements IQueryable<T> {
 		return Collector.emptyCollector();
 	}
 
+	/*
+	 * Loads the repository, reporting load failures to the tracker.  Returns
+	 * null if the repository could not be loaded.
+	 */
+	private IRepository<T> loadRepository(URI uri, IProgressMonitor monitor) {
+		try {
+			return loadRepository(getRepositoryManager(), uri, monitor);
+		} catch (ProvisionException e) {
+			tracker.reportLoadFailure(uri, e);
+		} catch (OperationCanceledException e) {
+			// user has canceled
+		}
+		return null;
+	}
+
 	public void setRespositoryFlags(int flags) {
 		this.repositoryFlags = flags;
 	}
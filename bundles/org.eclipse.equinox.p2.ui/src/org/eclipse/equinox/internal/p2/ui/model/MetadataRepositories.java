@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,6 +10,8 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.ui.model;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.query.IQueryResultListener;
 import org.eclipse.equinox.internal.p2.ui.*;
 import org.eclipse.equinox.internal.p2.ui.query.IUViewQueryContext;
 import org.eclipse.equinox.p2.ui.ProvisioningUI;
@@ -80,6 +82,17 @@ public class MetadataRepositories extends RootElement {
 		return QueryProvider.METADATA_REPOS;
 	}
 
+	/*
+	 * Overridden so that the available software of each repository is shown
+	 * as soon as the repository is loaded, rather than after all of them are.
+	 */
+	protected void fetchChildren(Object o, IQueryResultListener<Object> listener, IProgressMonitor monitor) {
+		if (getQueryType() == QueryProvider.AVAILABLE_IUS)
+			streamChildren(o, listener, monitor);
+		else
+			super.fetchChildren(o, listener, monitor);
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.eclipse.ui.model.IWorkbenchAdapter#getLabel(java.lang.Object)
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2011 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -13,6 +13,7 @@ package org.eclipse.equinox.internal.p2.ui.model;
 import java.util.*;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.equinox.internal.p2.engine.IProfileHistory;
 import org.eclipse.equinox.internal.p2.ui.ProvUI;
 import org.eclipse.equinox.internal.p2.ui.ProvUIMessages;
 import org.eclipse.equinox.p2.engine.IProfile;
@@ -68,7 +69,7 @@ public class ProfileSnapshots extends ProvElement implements IDeferredWorkbenchA
 			// Eliminate the first in the list (earliest) if there was no content at all.
 			// This doesn't always happen, but can, and we don't want to offer the user an empty profile to
 			// revert to. Just reset the list since it only has one element.
-			if (i == 0 && element.getChildren(element).length == 0)
+			if (i == 0 && isEmpty(registry, element))
 				elements.clear();
 		}
 		// current profile is the last one in the list
@@ -77,6 +78,14 @@ public class ProfileSnapshots extends ProvElement implements IDeferredWorkbenchA
 		return elements.toArray(new RollbackProfileElement[elements.size()]);
 	}
 
+	private boolean isEmpty(IProfileRegistry registry, RollbackProfileElement element) {
+		// a registry keeping a history can count the units without loading the snapshot.
+		// A snapshot with units may still show no children, so only an empty count is conclusive.
+		if (registry instanceof IProfileHistory && ((IProfileHistory) registry).getInstallableUnitCount(profileId, element.getTimestamp()) == 0)
+			return true;
+		return element.getChildren(element).length == 0;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.ui.model.IWorkbenchAdapter#getLabel(java.lang.Object)
 	 */
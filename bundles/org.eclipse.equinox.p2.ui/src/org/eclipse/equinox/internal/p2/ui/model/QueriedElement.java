@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2011 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -13,6 +13,7 @@ package org.eclipse.equinox.internal.p2.ui.model;
 import java.util.*;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.query.IQueryResultListener;
 import org.eclipse.equinox.internal.p2.ui.ElementQueryDescriptor;
 import org.eclipse.equinox.internal.p2.ui.QueryProvider;
 import org.eclipse.equinox.internal.p2.ui.query.IUViewQueryContext;
@@ -114,6 +115,44 @@ public abstract class QueriedElement extends ProvElement {
 		return new Object[0];
 	}
 
+	/**
+	 * Fetches the children of the receiver, passing them to the listener in batches.
+	 * By default all children are fetched before they are passed on.  Subclasses
+	 * whose children take long to query may use 
+	 * {@link #streamChildren(Object, IQueryResultListener, IProgressMonitor)} instead.
+	 */
+	protected void fetchChildren(Object o, IQueryResultListener<Object> listener, IProgressMonitor monitor) {
+		Object[] children = fetchChildren(o, monitor);
+		if (children.length > 0)
+			listener.resultsAvailable(Arrays.asList(children));
+	}
+
+	/**
+	 * Performs the query for the children of the receiver, passing the children
+	 * to the listener as the query produces them.
+	 */
+	protected void streamChildren(Object o, final IQueryResultListener<Object> listener, IProgressMonitor monitor) {
+		cachedChildren = Collections.emptyList();
+		QueryProvider provider = new QueryProvider(getProvisioningUI());
+		ElementQueryDescriptor queryDescriptor = provider.getQueryDescriptor(this);
+		if (queryDescriptor == null)
+			return;
+		final Set<Object> siblings = new HashSet<Object>(Arrays.asList(getSiblings()));
+		final Collection<Object> results = new ArrayList<Object>();
+		queryDescriptor.performQuery(new IQueryResultListener<Object>() {
+			public boolean resultsAvailable(Collection<Object> batch) {
+				results.addAll(batch);
+				Collection<Object> returnedChildren = new ArrayList<Object>(batch.size());
+				for (Object child : batch) {
+					if (!siblings.contains(child))
+						returnedChildren.add(child);
+				}
+				return returnedChildren.isEmpty() || listener.resultsAvailable(returnedChildren);
+			}
+		}, monitor);
+		cachedChildren = Collections.unmodifiableCollection(results);
+	}
+
 	public void setQueryable(IQueryable<?> queryable) {
 		this.queryable = queryable;
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -10,9 +10,11 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.ui.model;
 
+import java.util.Collection;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.equinox.internal.p2.metadata.query.IQueryResultListener;
 import org.eclipse.equinox.internal.p2.ui.QueryableMetadataRepositoryManager;
 import org.eclipse.ui.progress.IDeferredWorkbenchAdapter;
 import org.eclipse.ui.progress.IElementCollector;
@@ -29,13 +31,16 @@ public abstract class RemoteQueriedElement extends QueriedElement implements IDe
 		super(parent);
 	}
 
-	public void fetchDeferredChildren(Object o, IElementCollector collector, IProgressMonitor monitor) {
+	public void fetchDeferredChildren(Object o, final IElementCollector collector, final IProgressMonitor monitor) {
 		try {
-			Object[] children = fetchChildren(o, monitor);
-
-			if (!monitor.isCanceled()) {
-				collector.add(children, monitor);
-			}
+			fetchChildren(o, new IQueryResultListener<Object>() {
+				public boolean resultsAvailable(Collection<Object> children) {
+					if (monitor.isCanceled())
+						return false;
+					collector.add(children.toArray(), monitor);
+					return true;
+				}
+			}, monitor);
 		} catch (OperationCanceledException e) {
 			// Nothing to do
 		}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2011 IBM Corporation and others.
+ * Copyright (c) 2007, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -63,6 +63,13 @@ public class AvailableIUWrapper extends QueriedElementWrapper {
 
 	InformationCache cache = null;
 
+	/*
+	 * Each available IU is wrapped on its own.
+	 */
+	public boolean isIncremental() {
+		return true;
+	}
+
 	protected boolean shouldWrap(Object match) {
 		IInstallableUnit iu = ProvUI.getAdapter(match, IInstallableUnit.class);
 		cache = computeIUInformation(iu); // Cache the result
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others.
+ * Copyright (c) 2008, 2013 IBM Corporation and others.
  * All rights reserved. This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License v1.0
  * which accompanies this distribution, and is available at
@@ -15,6 +15,7 @@ package org.eclipse.equinox.internal.p2.ui.query;
 import java.util.HashSet;
 import java.util.Set;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.metadata.query.*;
 import org.eclipse.equinox.internal.p2.ui.ProvUIMessages;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
@@ -23,9 +24,10 @@ import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.ui.ProvisioningUI;
 
 /**
- * An object that implements a query for available updates
+ * An object that implements a query for available updates.  Streamable
+ * queries pass on the updates of each installable unit as soon as they are found.
  */
-public class QueryableUpdates implements IQueryable<IInstallableUnit> {
+public class QueryableUpdates implements IStreamingQueryable<IInstallableUnit> {
 
 	private IInstallableUnit[] iusToUpdate;
 	ProvisioningUI ui;
@@ -57,4 +59,31 @@ public class QueryableUpdates implements IQueryable<IInstallableUnit> {
 			monitor.done();
 		}
 	}
+
+	public IStatus query(IQuery<IInstallableUnit> query, IQueryResultListener<IInstallableUnit> listener, IProgressMonitor monitor) {
+		if (monitor == null)
+			monitor = new NullProgressMonitor();
+		StreamingQuery<IInstallableUnit> results = new StreamingQuery<IInstallableUnit>(listener);
+		if (!StreamingQuery.isStreamable(query)) {
+			results.addAll(query(query, monitor), monitor);
+			return results.done(monitor);
+		}
+		int totalWork = 2000;
+		monitor.beginTask(ProvUIMessages.QueryableUpdates_UpdateListProgress, totalWork);
+		IPlanner planner = (IPlanner) ui.getSession().getProvisioningAgent().getService(IPlanner.SERVICE_NAME);
+		try {
+			for (int i = 0; i < iusToUpdate.length; i++) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				IQueryResult<IInstallableUnit> updates = planner.updatesFor(iusToUpdate[i], new ProvisioningContext(ui.getSession().getProvisioningAgent()), new SubProgressMonitor(monitor, totalWork / 2 / iusToUpdate.length));
+				if (!(results.addAll(query.perform(updates.iterator()), monitor) && results.flush()))
+					return Status.CANCEL_STATUS;
+			}
+			return results.done(monitor);
+		} catch (OperationCanceledException e) {
+			return Status.CANCEL_STATUS;
+		} finally {
+			monitor.done();
+		}
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,6 +14,7 @@ package org.eclipse.equinox.internal.p2.updatechecker;
 import java.net.URI;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
@@ -25,36 +26,49 @@ import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.planner.IPlanner;
 import org.eclipse.equinox.p2.query.*;
+import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.IRepositoryManager;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
 
 /**
  * Default implementation of {@link IUpdateChecker}.
  * <p>
- * This implementation is not optimized.  It doesn't optimize for multiple
- * polls on the same profile, nor does it cache any info about a profile from
- * poll to poll.
+ * All update checks share a single scheduler thread. The result of a check is
+ * remembered per profile and query, together with the state of the profile and of the
+ * repositories it was computed against. Checks for the same profile and query are
+ * only recomputed when the profile or the timestamp of one of the repositories has changed, and
+ * listeners are only notified when the set of IUs with updates differs from the one
+ * they were last told about.
  */
 public class UpdateChecker implements IUpdateChecker {
 	public static boolean DEBUG = false;
 	public static boolean TRACE = false;
+	private static final Object ANY_QUERY = new Object();
 	/**
-	 * Map of IUpdateListener->UpdateCheckThread.
+	 * Map of IUpdateListener->UpdateCheck.
 	 */
-	private HashMap<IUpdateListener, UpdateCheckThread> checkers = new HashMap<IUpdateListener, UpdateCheckThread>();
+	private HashMap<IUpdateListener, UpdateCheck> checkers = new HashMap<IUpdateListener, UpdateCheck>();
+	/**
+	 * Map of CheckKey->CheckResult, the last result computed for a profile and query.
+	 */
+	private final Map<CheckKey, CheckResult> results = new HashMap<CheckKey, CheckResult>();
+	private ScheduledExecutorService scheduler;
 
 	private final IProvisioningAgent agent;
 	IProfileRegistry profileRegistry;
 	IPlanner planner;
 
-	private class UpdateCheckThread extends Thread {
-		boolean done = false;
+	private class UpdateCheck implements Runnable {
+		volatile boolean done = false;
 		long poll, delay;
 		IUpdateListener listener;
 		String profileId;
 		IQuery<IInstallableUnit> query;
+		Set<IInstallableUnit> lastNotified = Collections.emptySet();
+		ScheduledFuture<?> future;
 
-		UpdateCheckThread(String profileId, IQuery<IInstallableUnit> query, long delay, long poll, IUpdateListener listener) {
+		UpdateCheck(String profileId, IQuery<IInstallableUnit> query, long delay, long poll, IUpdateListener listener) {
 			this.poll = poll;
 			this.delay = delay;
 			this.profileId = profileId;
@@ -62,37 +76,74 @@ public class UpdateChecker implements IUpdateChecker {
 			this.listener = listener;
 		}
 
+		boolean isOneTime() {
+			return delay == ONE_TIME_CHECK || delay <= 0 || poll <= 0;
+		}
+
 		public void run() {
+			if (done)
+				return;
 			try {
-				if (delay != ONE_TIME_CHECK && delay > 0) {
-					Thread.sleep(delay);
-				}
-				while (!done) {
-
-					trace("Checking for updates for " + profileId + " at " + getTimeStamp()); //$NON-NLS-1$ //$NON-NLS-2$
-					Collection<IInstallableUnit> iusWithUpdates = checkForUpdates(profileId, query);
-					if (iusWithUpdates.size() > 0) {
+				trace("Checking for updates for " + profileId + " at " + getTimeStamp()); //$NON-NLS-1$ //$NON-NLS-2$
+				Collection<IInstallableUnit> iusWithUpdates = getUpdates(profileId, query);
+				if (iusWithUpdates.size() > 0) {
+					Set<IInstallableUnit> current = new HashSet<IInstallableUnit>(iusWithUpdates);
+					if (current.equals(lastNotified)) {
+						trace("No new updates since the last notification"); //$NON-NLS-1$
+					} else {
 						trace("Notifying listener of available updates"); //$NON-NLS-1$
+						lastNotified = current;
 						UpdateEvent event = new UpdateEvent(profileId, iusWithUpdates);
 						if (!done)
 							listener.updatesAvailable(event);
-					} else {
-						trace("No updates were available"); //$NON-NLS-1$
-					}
-					if (delay == ONE_TIME_CHECK || delay <= 0) {
-						done = true;
-					} else {
-						Thread.sleep(poll);
 					}
+				} else {
+					trace("No updates were available"); //$NON-NLS-1$
+					lastNotified = Collections.emptySet();
 				}
-			} catch (InterruptedException e) {
-				// nothing
 			} catch (Exception e) {
 				LogHelper.log(new Status(IStatus.ERROR, UpdateCheckerComponent.BUNDLE_ID, "Exception in update check thread", e)); //$NON-NLS-1$
+			} finally {
+				if (isOneTime())
+					done = true;
 			}
 		}
 	}
 
+	/*
+	 * Identifies the checks which can share their results.
+	 */
+	private static class CheckKey {
+		final String profileId;
+		final Object query;
+
+		CheckKey(String profileId, IQuery<IInstallableUnit> query) {
+			this.profileId = profileId;
+			this.query = query == null ? ANY_QUERY : query;
+		}
+
+		public int hashCode() {
+			return profileId.hashCode() * 31 + query.hashCode();
+		}
+
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CheckKey))
+				return false;
+			CheckKey other = (CheckKey) obj;
+			return profileId.equals(other.profileId) && query.equals(other.query);
+		}
+	}
+
+	private static class CheckResult {
+		final String state;
+		final Collection<IInstallableUnit> iusWithUpdates;
+
+		CheckResult(String state, Collection<IInstallableUnit> iusWithUpdates) {
+			this.state = state;
+			this.iusWithUpdates = iusWithUpdates;
+		}
+	}
+
 	public UpdateChecker(IProvisioningAgent agent) {
 		this.agent = agent;
 	}
@@ -100,33 +151,98 @@ public class UpdateChecker implements IUpdateChecker {
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.updatechecker.IUpdateChecker#addUpdateCheck(java.lang.String, long, long, org.eclipse.equinox.internal.provisional.p2.updatechecker.IUpdateListener)
 	 */
-	public void addUpdateCheck(String profileId, IQuery<IInstallableUnit> query, long delay, long poll, IUpdateListener listener) {
+	public synchronized void addUpdateCheck(String profileId, IQuery<IInstallableUnit> query, long delay, long poll, IUpdateListener listener) {
 		if (checkers.containsKey(listener))
 			return;
 		trace("Adding update checker for " + profileId + " at " + getTimeStamp()); //$NON-NLS-1$ //$NON-NLS-2$
-		UpdateCheckThread thread = new UpdateCheckThread(profileId, query, delay, poll, listener);
-		checkers.put(listener, thread);
-		thread.start();
+		UpdateCheck check = new UpdateCheck(profileId, query, delay, poll, listener);
+		checkers.put(listener, check);
+		if (check.isOneTime())
+			check.future = getScheduler().schedule(check, 0, TimeUnit.MILLISECONDS);
+		else
+			check.future = getScheduler().scheduleWithFixedDelay(check, delay, poll, TimeUnit.MILLISECONDS);
 	}
 
 	/* (non-Javadoc)
 	 * @see org.eclipse.equinox.internal.provisional.p2.updatechecker.IUpdateChecker#removeUpdateCheck(org.eclipse.equinox.internal.provisional.p2.updatechecker.IUpdateListener)
 	 */
-	public void removeUpdateCheck(IUpdateListener listener) {
-		checkers.remove(listener);
+	public synchronized void removeUpdateCheck(IUpdateListener listener) {
+		UpdateCheck check = checkers.remove(listener);
+		if (check == null)
+			return;
+		check.done = true;
+		if (check.future != null)
+			check.future.cancel(false);
+		// forget the results nobody is interested in anymore
+		Set<CheckKey> used = new HashSet<CheckKey>();
+		for (UpdateCheck remaining : checkers.values())
+			if (!remaining.done)
+				used.add(new CheckKey(remaining.profileId, remaining.query));
+		synchronized (results) {
+			results.keySet().retainAll(used);
+		}
+		if (used.isEmpty() && scheduler != null) {
+			scheduler.shutdown();
+			scheduler = null;
+		}
 	}
 
 	/*
-	 * Return the array of ius in the profile that have updates
-	 * available.
+	 * Return the scheduler running all the update checks, creating it if needed.
 	 */
-	Collection<IInstallableUnit> checkForUpdates(String profileId, IQuery<IInstallableUnit> query) {
+	private ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Update Checker"); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/*
+	 * Return the ius in the profile that have updates available, reusing the
+	 * result of a previous check when neither the profile nor the repositories
+	 * have changed since.
+	 */
+	protected Collection<IInstallableUnit> getUpdates(String profileId, IQuery<IInstallableUnit> query) {
 		IProfile profile = getProfileRegistry().getProfile(profileId);
-		ArrayList<IInstallableUnit> iusWithUpdates = new ArrayList<IInstallableUnit>();
 		if (profile == null)
 			return Collections.<IInstallableUnit> emptyList();
+		List<IMetadataRepository> repositories = getAvailableRepositories();
+		String state = getState(profile, repositories);
+		CheckKey key = new CheckKey(profileId, query);
+		synchronized (results) {
+			CheckResult result = results.get(key);
+			if (result != null && state != null && state.equals(result.state)) {
+				trace("Profile and repositories unchanged, reusing the last result"); //$NON-NLS-1$
+				return result.iusWithUpdates;
+			}
+		}
+		URI[] locations = new URI[repositories.size()];
+		for (int i = 0; i < locations.length; i++)
+			locations[i] = repositories.get(i).getLocation();
+		Collection<IInstallableUnit> iusWithUpdates = checkForUpdates(profile, query, locations);
+		synchronized (results) {
+			if (state == null)
+				results.remove(key);
+			else
+				results.put(key, new CheckResult(state, iusWithUpdates));
+		}
+		return iusWithUpdates;
+	}
+
+	/*
+	 * Return the array of ius in the profile that have updates
+	 * available.
+	 */
+	private Collection<IInstallableUnit> checkForUpdates(IProfile profile, IQuery<IInstallableUnit> query, URI[] repositories) {
+		ArrayList<IInstallableUnit> iusWithUpdates = new ArrayList<IInstallableUnit>();
 		ProvisioningContext context = new ProvisioningContext(agent);
-		context.setMetadataRepositories(getAvailableRepositories());
+		context.setMetadataRepositories(repositories);
 		if (query == null)
 			query = QueryUtil.createIUAnyQuery();
 		Iterator<IInstallableUnit> iter = profile.query(query, null).iterator();
@@ -139,22 +255,41 @@ public class UpdateChecker implements IUpdateChecker {
 		return iusWithUpdates;
 	}
 
+	/*
+	 * Return a description of the state of the given profile and repositories which
+	 * changes whenever the profile or the contents of one of the repositories change,
+	 * or <code>null</code> if the state cannot be determined. Repositories record the
+	 * time they were last saved in their timestamp property; a repository without one
+	 * gives no way to detect changes, so results computed against it are not reused.
+	 */
+	private String getState(IProfile profile, List<IMetadataRepository> repositories) {
+		StringBuffer state = new StringBuffer();
+		state.append(profile.getTimestamp());
+		for (IMetadataRepository repository : repositories) {
+			Map<String, String> properties = repository.getProperties();
+			String timestamp = properties == null ? null : properties.get(IRepository.PROP_TIMESTAMP);
+			if (timestamp == null)
+				return null;
+			state.append(',').append(repository.getLocation()).append('@').append(timestamp);
+		}
+		return state.toString();
+	}
+
 	/**
 	 * Returns the list of metadata repositories that are currently available.
 	 */
-	private URI[] getAvailableRepositories() {
+	private List<IMetadataRepository> getAvailableRepositories() {
 		IMetadataRepositoryManager repoMgr = (IMetadataRepositoryManager) agent.getService(IMetadataRepositoryManager.SERVICE_NAME);
 		URI[] repositories = repoMgr.getKnownRepositories(IRepositoryManager.REPOSITORIES_ALL);
-		ArrayList<URI> available = new ArrayList<URI>();
+		ArrayList<IMetadataRepository> available = new ArrayList<IMetadataRepository>();
 		for (int i = 0; i < repositories.length; i++) {
 			try {
-				repoMgr.loadRepository(repositories[i], null);
-				available.add(repositories[i]);
+				available.add(repoMgr.loadRepository(repositories[i], null));
 			} catch (ProvisionException e) {
 				LogHelper.log(e.getStatus());
 			}
 		}
-		return available.toArray(new URI[available.size()]);
+		return available;
 	}
 
 	void trace(String message) {
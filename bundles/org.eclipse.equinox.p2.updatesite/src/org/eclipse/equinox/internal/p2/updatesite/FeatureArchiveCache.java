@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright (c) 2013 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.updatesite;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Keeps the feature archives downloaded from remote update sites in the data area of
+ * this bundle, so that they are not downloaded again in later sessions. An archive is
+ * reused only while the last modified time reported by the site equals the one it
+ * reported for the download, so the clocks of the client and the site are never compared. The cache holds at most {@link #MAX_ENTRIES} archives, the
+ * least recently used ones are deleted first. Setting the system property
+ * <code>eclipse.p2.updatesite.featureCache</code> to <code>false</code> disables it.
+ */
+class FeatureArchiveCache {
+	private static final String PROP_ENABLED = "eclipse.p2.updatesite.featureCache"; //$NON-NLS-1$
+	private static final String CACHE_DIR = "featureCache"; //$NON-NLS-1$
+	private static final String INDEX_FILENAME = "features.index"; //$NON-NLS-1$
+	private static final String ARCHIVE_PREFIX = "feature"; //$NON-NLS-1$
+	private static final String ARCHIVE_SUFFIX = ".jar"; //$NON-NLS-1$
+	private static final int MAGIC = 0x50325546; // "P2UF"
+	private static final int FORMAT_VERSION = 2;
+	static final int MAX_ENTRIES = 2000;
+
+	private static FeatureArchiveCache instance;
+
+	/**
+	 * The cached archive of one feature URI, and the last modified time the site reported
+	 * for its download.
+	 */
+	private static final class Entry {
+		final long lastModified;
+		final String fileName;
+
+		Entry(long lastModified, String fileName) {
+			this.lastModified = lastModified;
+			this.fileName = fileName;
+		}
+	}
+
+	private final File directory;
+	private final File indexFile;
+	private Map<String, Entry> entries;
+	private boolean dirty;
+
+	/**
+	 * Returns the cache of this bundle, or <code>null</code> if the bundle is not started
+	 * or the cache is disabled.
+	 */
+	static synchronized FeatureArchiveCache getDefault() {
+		if ("false".equalsIgnoreCase(System.getProperty(PROP_ENABLED))) //$NON-NLS-1$
+			return null;
+		if (instance == null) {
+			BundleContext context = Activator.getBundleContext();
+			File directory = context == null ? null : context.getDataFile(CACHE_DIR);
+			if (directory == null)
+				return null;
+			instance = new FeatureArchiveCache(directory);
+		}
+		return instance;
+	}
+
+	FeatureArchiveCache(File directory) {
+		this.directory = directory;
+		this.indexFile = new File(directory, INDEX_FILENAME);
+	}
+
+	/**
+	 * Returns whether an archive of the given feature is cached, whether it is still valid or not.
+	 */
+	synchronized boolean contains(URI location) {
+		return getEntries().containsKey(location.toString());
+	}
+
+	/**
+	 * Returns the cached archive of the given feature, or <code>null</code> if there is none
+	 * or if the given last modified time differs from the one reported for its download.
+	 * A last modified time of 0 is unknown, so it never matches.
+	 */
+	synchronized File get(URI location, long lastModified) {
+		Entry entry = getEntries().get(location.toString());
+		if (entry == null || lastModified <= 0 || lastModified != entry.lastModified)
+			return null;
+		File file = new File(directory, entry.fileName);
+		return file.isFile() ? file : null;
+	}
+
+	/**
+	 * Returns a new file in the cache to download an archive to.
+	 */
+	File createFile() throws IOException {
+		directory.mkdirs();
+		return File.createTempFile(ARCHIVE_PREFIX, ARCHIVE_SUFFIX, directory);
+	}
+
+	/**
+	 * Records the given file, created by {@link #createFile()}, as the archive of the given
+	 * feature, with the last modified time the site reported for the download. The index is
+	 * written by {@link #save()}.
+	 */
+	synchronized void put(URI location, long lastModified, File file) {
+		Entry previous = getEntries().put(location.toString(), new Entry(lastModified, file.getName()));
+		if (previous != null && !previous.fileName.equals(file.getName()))
+			new File(directory, previous.fileName).delete();
+		dirty = true;
+	}
+
+	private Map<String, Entry> getEntries() {
+		if (entries == null) {
+			entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<String, FeatureArchiveCache.Entry> eldest) {
+					if (size() <= MAX_ENTRIES)
+						return false;
+					new File(directory, eldest.getValue().fileName).delete();
+					dirty = true;
+					return true;
+				}
+			};
+			load();
+		}
+		return entries;
+	}
+
+	private void load() {
+		if (!indexFile.isFile())
+			return;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+					return;
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String location = in.readUTF();
+					long lastModified = in.readLong();
+					String fileName = in.readUTF();
+					entries.put(location, new Entry(lastModified, fileName));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// the features are downloaded again
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Writes the index if it changed.
+	 */
+	synchronized void save() {
+		if (!dirty)
+			return;
+		File tempFile = null;
+		try {
+			directory.mkdirs();
+			tempFile = File.createTempFile(INDEX_FILENAME, ".tmp", directory); //$NON-NLS-1$
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeInt(entries.size());
+				for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+					out.writeUTF(entry.getKey());
+					out.writeLong(entry.getValue().lastModified);
+					out.writeUTF(entry.getValue().fileName);
+				}
+			} finally {
+				out.close();
+			}
+			indexFile.delete();
+			if (!tempFile.renameTo(indexFile))
+				throw new IOException("Could not rename " + tempFile); //$NON-NLS-1$
+			dirty = false;
+		} catch (IOException e) {
+			// the index is only a cache, it is written again after the next download
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2010 IBM Corporation and others.
+ *  Copyright (c) 2008, 2013 IBM Corporation and others.
  *  All rights reserved. This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License v1.0
  *  which accompanies this distribution, and is available at
@@ -14,12 +14,13 @@ package org.eclipse.equinox.internal.p2.updatesite;
 import java.io.*;
 import java.lang.ref.SoftReference;
 import java.net.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.publisher.eclipse.FeatureParser;
+import org.eclipse.equinox.internal.p2.repository.DownloadStatus;
 import org.eclipse.equinox.internal.p2.repository.Transport;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.publisher.eclipse.*;
@@ -42,6 +43,8 @@ public class UpdateSite {
 	private static final int RETRY_COUNT = 2;
 	private static final String DOT_XML = ".xml"; //$NON-NLS-1$
 	private static final String SITE = "site"; //$NON-NLS-1$
+	private static final String PROP_LOADER_THREADS = "eclipse.p2.updatesite.threads"; //$NON-NLS-1$
+	private static final int DEFAULT_LOADER_THREADS = 4;
 	private String checksum;
 	private URI location;
 	private URI rootLocation;
@@ -255,8 +258,17 @@ public class UpdateSite {
 			featureFile = URIUtil.toFile(featureURI);
 			return featureParser.parse(featureFile);
 		}
+		FeatureArchiveCache archiveCache = FeatureArchiveCache.getDefault();
+		// only ask for the last modified time when there is a cached archive to validate
+		if (archiveCache != null && archiveCache.contains(featureURI)) {
+			File cachedFile = archiveCache.get(featureURI, getLastModified(featureURI, monitor));
+			Feature feature = cachedFile == null ? null : featureParser.parse(cachedFile);
+			if (feature != null)
+				return feature;
+		}
+		boolean keepFile = false;
 		try {
-			featureFile = File.createTempFile(FEATURE_TEMP_FILE, JAR_EXTENSION);
+			featureFile = archiveCache != null ? archiveCache.createFile() : File.createTempFile(FEATURE_TEMP_FILE, JAR_EXTENSION);
 			IStatus transferResult = null;
 			//try the download twice in case of transient network problems
 			for (int i = 0; i < RETRY_COUNT; i++) {
@@ -282,16 +294,37 @@ public class UpdateSite {
 				LogHelper.log(new ProvisionException(transferResult));
 				return null;
 			}
-			return featureParser.parse(featureFile);
+			Feature feature = featureParser.parse(featureFile);
+			// an archive without a last modified time from the site could never be validated
+			long lastModified = transferResult instanceof DownloadStatus ? ((DownloadStatus) transferResult).getLastModified() : 0;
+			if (feature != null && archiveCache != null && lastModified > 0) {
+				archiveCache.put(featureURI, lastModified, featureFile);
+				keepFile = true;
+			}
+			return feature;
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingFeature, featureURI), e));
 		} finally {
-			if (featureFile != null)
+			if (featureFile != null && !keepFile)
 				featureFile.delete();
 		}
 		return null;
 	}
 
+	/*
+	 * Return the last modified time of the given remote file, or 0 if it is not known.
+	 */
+	private long getLastModified(URI uri, IProgressMonitor monitor) {
+		try {
+			return transport.getLastModified(uri, monitor);
+		} catch (CoreException e) {
+			// the file is downloaded without using the cache
+		} catch (IOException e) {
+			// the file is downloaded without using the cache
+		}
+		return 0;
+	}
+
 	/*
 	 * Constructor for the class.
 	 */
@@ -556,66 +589,104 @@ public class UpdateSite {
 
 	/*
 	 * Load and return the features that are referenced by this update site. Note this
-	 * requires downloading and parsing the feature manifest locally.
+	 * requires downloading and parsing the feature manifest locally. The features are
+	 * loaded concurrently, followed by the features they include.
 	 */
 	private Feature[] loadFeaturesFromSite(IProgressMonitor monitor) throws ProvisionException {
 		SiteFeature[] siteFeatures = site.getFeatures();
-		FeatureParser featureParser = new FeatureParser();
 		Map<String, Feature> tmpFeatureCache = new HashMap<String, Feature>(siteFeatures.length);
-
-		for (int i = 0; i < siteFeatures.length; i++) {
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
+		ExecutorService executor = createExecutor(siteFeatures.length);
+		try {
+			Set<String> scheduled = new HashSet<String>(siteFeatures.length);
+			List<SiteFeature> scheduledFeatures = new ArrayList<SiteFeature>(siteFeatures.length);
+			List<URI> featureURIs = new ArrayList<URI>(siteFeatures.length);
+			for (int i = 0; i < siteFeatures.length; i++) {
+				SiteFeature siteFeature = siteFeatures[i];
+				if (siteFeature.getFeatureIdentifier() != null && siteFeature.getFeatureVersion() != null) {
+					if (!scheduled.add(siteFeature.getFeatureIdentifier() + VERSION_SEPARATOR + siteFeature.getFeatureVersion()))
+						continue;
+				}
+				scheduledFeatures.add(siteFeature);
+				featureURIs.add(getSiteFeatureURI(siteFeature));
 			}
-			SiteFeature siteFeature = siteFeatures[i];
-			String key = null;
-			if (siteFeature.getFeatureIdentifier() != null && siteFeature.getFeatureVersion() != null) {
-				key = siteFeature.getFeatureIdentifier() + VERSION_SEPARATOR + siteFeature.getFeatureVersion();
-				if (tmpFeatureCache.containsKey(key))
+			List<Feature> features = parseFeatures(executor, featureURIs, monitor);
+			List<Feature> loaded = new ArrayList<Feature>(features.size());
+			for (int i = 0; i < features.size(); i++) {
+				Feature feature = features.get(i);
+				if (feature == null) {
+					LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingFeature, featureURIs.get(i))));
 					continue;
-			}
-			URI featureURI = getSiteFeatureURI(siteFeature);
-			Feature feature = parseFeature(featureParser, featureURI, new NullProgressMonitor());
-			if (feature == null) {
-				LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingFeature, featureURI)));
-			} else {
-				if (key == null) {
+				}
+				SiteFeature siteFeature = scheduledFeatures.get(i);
+				if (siteFeature.getFeatureIdentifier() == null || siteFeature.getFeatureVersion() == null) {
 					siteFeature.setFeatureIdentifier(feature.getId());
 					siteFeature.setFeatureVersion(feature.getVersion());
-					key = siteFeature.getFeatureIdentifier() + VERSION_SEPARATOR + siteFeature.getFeatureVersion();
 				}
-				tmpFeatureCache.put(key, feature);
-				loadIncludedFeatures(feature, featureParser, tmpFeatureCache, monitor);
+				tmpFeatureCache.put(siteFeature.getFeatureIdentifier() + VERSION_SEPARATOR + siteFeature.getFeatureVersion(), feature);
+				loaded.add(feature);
 			}
+			while (!loaded.isEmpty())
+				loaded = loadIncludedFeatures(executor, loaded, tmpFeatureCache, monitor);
+		} finally {
+			executor.shutdownNow();
+			FeatureArchiveCache archiveCache = FeatureArchiveCache.getDefault();
+			if (archiveCache != null)
+				archiveCache.save();
 		}
 		featureCache = tmpFeatureCache;
 		return featureCache.values().toArray(new Feature[featureCache.size()]);
 	}
 
 	/*
-	 * Load the features that are included by the given feature.
+	 * Load the features that are included by the given features and not loaded yet, and
+	 * return the newly loaded ones.
 	 */
-	private void loadIncludedFeatures(Feature feature, FeatureParser featureParser, Map<String, Feature> features, IProgressMonitor monitor) throws ProvisionException {
-		FeatureEntry[] featureEntries = feature.getEntries();
-		for (int i = 0; i < featureEntries.length; i++) {
-			if (monitor.isCanceled())
-				throw new OperationCanceledException();
-			FeatureEntry entry = featureEntries[i];
-			if (entry.isRequires() || entry.isPlugin())
-				continue;
-			String key = entry.getId() + VERSION_SEPARATOR + entry.getVersion();
-			if (features.containsKey(key))
-				continue;
-
-			URI includedFeatureURI = getFeatureURI(entry.getId(), entry.getVersion());
-			Feature includedFeature = parseFeature(featureParser, includedFeatureURI, monitor);
+	private List<Feature> loadIncludedFeatures(ExecutorService executor, List<Feature> includingFeatures, Map<String, Feature> features, IProgressMonitor monitor) throws ProvisionException {
+		Set<String> scheduled = new HashSet<String>();
+		List<String> keys = new ArrayList<String>();
+		List<URI> includedFeatureURIs = new ArrayList<URI>();
+		for (Feature feature : includingFeatures) {
+			FeatureEntry[] featureEntries = feature.getEntries();
+			for (int i = 0; i < featureEntries.length; i++) {
+				FeatureEntry entry = featureEntries[i];
+				if (entry.isRequires() || entry.isPlugin())
+					continue;
+				String key = entry.getId() + VERSION_SEPARATOR + entry.getVersion();
+				if (features.containsKey(key) || !scheduled.add(key))
+					continue;
+				keys.add(key);
+				includedFeatureURIs.add(getFeatureURI(entry.getId(), entry.getVersion()));
+			}
+		}
+		List<Feature> includedFeatures = parseFeatures(executor, includedFeatureURIs, monitor);
+		List<Feature> loaded = new ArrayList<Feature>(includedFeatures.size());
+		for (int i = 0; i < includedFeatures.size(); i++) {
+			Feature includedFeature = includedFeatures.get(i);
 			if (includedFeature == null) {
-				LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingFeature, includedFeatureURI)));
+				LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingFeature, includedFeatureURIs.get(i))));
 			} else {
-				features.put(key, includedFeature);
-				loadIncludedFeatures(includedFeature, featureParser, features, monitor);
+				features.put(keys.get(i), includedFeature);
+				loaded.add(includedFeature);
 			}
 		}
+		return loaded;
+	}
+
+	/*
+	 * Download and parse the given features concurrently. The result contains null for
+	 * each feature that could not be read.
+	 */
+	private List<Feature> parseFeatures(ExecutorService executor, List<URI> featureURIs, IProgressMonitor monitor) {
+		final IProgressMonitor taskMonitor = createTaskMonitor(monitor);
+		List<Callable<Feature>> tasks = new ArrayList<Callable<Feature>>(featureURIs.size());
+		for (final URI featureURI : featureURIs) {
+			tasks.add(new Callable<Feature>() {
+				public Feature call() {
+					return parseFeature(new FeatureParser(), featureURI, taskMonitor);
+				}
+			});
+		}
+		return invokeAll(executor, tasks, monitor);
 	}
 
 	/*
@@ -625,35 +696,106 @@ public class UpdateSite {
 	private BundleDescription[] loadBundlesFromSite(IProgressMonitor monitor) {
 		SiteBundle[] siteBundles = site.getBundles();
 		Map<String, BundleDescription> tmpBundleCache = new HashMap<String, BundleDescription>(siteBundles.length);
-
+		Set<String> scheduled = new HashSet<String>(siteBundles.length);
+		List<SiteBundle> scheduledBundles = new ArrayList<SiteBundle>(siteBundles.length);
+		List<Callable<BundleDescription>> tasks = new ArrayList<Callable<BundleDescription>>(siteBundles.length);
+		final IProgressMonitor taskMonitor = createTaskMonitor(monitor);
 		for (int i = 0; i < siteBundles.length; i++) {
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
-			}
 			SiteBundle siteBundle = siteBundles[i];
-			String key = null;
 			if (siteBundle.getBundleIdentifier() != null && siteBundle.getBundleVersion() != null) {
-				key = siteBundle.getBundleIdentifier() + VERSION_SEPARATOR + siteBundle.getBundleVersion();
-				if (tmpBundleCache.containsKey(key))
+				if (!scheduled.add(siteBundle.getBundleIdentifier() + VERSION_SEPARATOR + siteBundle.getBundleVersion()))
 					continue;
 			}
-			URI bundleURI = getSiteBundleURI(siteBundle);
-			BundleDescription bundle = parseBundleDescription(bundleURI, monitor);
-			if (bundle == null) {
-				LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingBundle, bundleURI)));
-			} else {
-				if (key == null) {
-					siteBundle.setBundleIdentifier(bundle.getSymbolicName());
-					siteBundle.setBundleVersion(bundle.getVersion().toString());
-					key = siteBundle.getBundleIdentifier() + VERSION_SEPARATOR + siteBundle.getBundleVersion().toString();
+			scheduledBundles.add(siteBundle);
+			final URI bundleURI = getSiteBundleURI(siteBundle);
+			tasks.add(new Callable<BundleDescription>() {
+				public BundleDescription call() {
+					BundleDescription bundle = parseBundleDescription(bundleURI, taskMonitor);
+					if (bundle == null)
+						LogHelper.log(new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.ErrorReadingBundle, bundleURI)));
+					return bundle;
 				}
-				tmpBundleCache.put(key, bundle);
+			});
+		}
+		ExecutorService executor = createExecutor(tasks.size());
+		List<BundleDescription> bundles;
+		try {
+			bundles = invokeAll(executor, tasks, monitor);
+		} finally {
+			executor.shutdownNow();
+		}
+		for (int i = 0; i < bundles.size(); i++) {
+			BundleDescription bundle = bundles.get(i);
+			if (bundle == null)
+				continue;
+			SiteBundle siteBundle = scheduledBundles.get(i);
+			if (siteBundle.getBundleIdentifier() == null || siteBundle.getBundleVersion() == null) {
+				siteBundle.setBundleIdentifier(bundle.getSymbolicName());
+				siteBundle.setBundleVersion(bundle.getVersion().toString());
 			}
+			tmpBundleCache.put(siteBundle.getBundleIdentifier() + VERSION_SEPARATOR + siteBundle.getBundleVersion(), bundle);
 		}
 		bundleCache = tmpBundleCache;
 		return bundleCache.values().toArray(new BundleDescription[bundleCache.size()]);
 	}
 
+	/*
+	 * Return an executor with at most the configured number of threads for loading the
+	 * given number of files.
+	 */
+	private static ExecutorService createExecutor(int fileCount) {
+		int threads = Math.max(1, Math.min(Integer.getInteger(PROP_LOADER_THREADS, DEFAULT_LOADER_THREADS).intValue(), fileCount));
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Update site loader"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * Return a monitor for the loading tasks that is canceled with the given monitor. The
+	 * given monitor cannot be shared, because progress monitors are not thread safe.
+	 */
+	private static IProgressMonitor createTaskMonitor(final IProgressMonitor monitor) {
+		return new NullProgressMonitor() {
+			public boolean isCanceled() {
+				return super.isCanceled() || monitor.isCanceled();
+			}
+		};
+	}
+
+	/*
+	 * Run the given tasks and return their results in the same order.
+	 */
+	private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks, IProgressMonitor monitor) {
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for (Callable<T> task : tasks)
+			futures.add(executor.submit(task));
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for (Future<T> future : futures) {
+				if (monitor.isCanceled())
+					throw new OperationCanceledException();
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+		if (monitor.isCanceled())
+			throw new OperationCanceledException();
+		return results;
+	}
+
 	/*
 	 * Reads a bundle and extract its BundleDescription
 	 * In case of failure, the failure is logged and null is returned